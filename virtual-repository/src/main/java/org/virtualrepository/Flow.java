@@ -0,0 +1,93 @@
+package org.virtualrepository;
+
+/**
+ * Interfaces for flows of items from {@link Publisher}s to {@link Subscriber}s, with non-blocking backpressure.
+ * <p>
+ * The interfaces mirror those of <code>java.util.concurrent.Flow</code> and the Reactive Streams specification, which
+ * they follow in all respects, and can be adapted one-to-one to them.
+ * 
+ * @author Fabio Simeoni
+ *
+ */
+public final class Flow {
+
+	private Flow() {
+	}
+
+	/**
+	 * A producer of items received by {@link Subscriber}s.
+	 *
+	 * @param <T> the type of items
+	 */
+	@FunctionalInterface
+	public static interface Publisher<T> {
+
+		/**
+		 * Adds a given subscriber, which receives a {@link Subscription} and then items on demand.
+		 * 
+		 * @param subscriber the subscriber
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items from a {@link Publisher}.
+	 *
+	 * @param <T> the type of items
+	 */
+	public static interface Subscriber<T> {
+
+		/**
+		 * Invoked before any other method, with the subscription used to request items.
+		 * 
+		 * @param subscription the subscription
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Invoked with the next item, when items have been requested.
+		 * 
+		 * @param item the item
+		 */
+		void onNext(T item);
+
+		/**
+		 * Invoked when the flow fails, and no more items will be received.
+		 * 
+		 * @param error the error
+		 */
+		void onError(Throwable error);
+
+		/**
+		 * Invoked when the flow ends, and no more items will be received.
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * The link between a {@link Publisher} and a {@link Subscriber}.
+	 */
+	public static interface Subscription {
+
+		/**
+		 * Requests a given number of items, adding to the current demand.
+		 * 
+		 * @param n the number of items, which must be positive
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the flow of items, perhaps after some have already been sent.
+		 */
+		void cancel();
+	}
+
+	/**
+	 * A {@link Subscriber} that is also a {@link Publisher}, typically of transformed items.
+	 *
+	 * @param <T> the type of items received
+	 * @param <R> the type of items published
+	 */
+	public static interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+	}
+}
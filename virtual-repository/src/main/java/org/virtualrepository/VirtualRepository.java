@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.virtualrepository.impl.Services;
+import org.virtualrepository.tabular.TableDiff;
 
 /**
  * A repository virtually comprised of data assets available through a number of underlying <em>repository services</em>
@@ -173,6 +174,9 @@ public interface VirtualRepository extends Iterable<Asset> {
 	 * <p>
 	 * Publication <em>may</em> involve networked interactions with the repository service, and typically will. Failures
 	 * are reported as unchecked exceptions.
+	 * <p>
+	 * Content may be a {@link TableDiff} with the changes since a previous publication. Differences are published by
+	 * publishers that take them, and the later version of the content is otherwise published in full.
 	 * 
 	 * @param asset the asset
 	 * @param content the content of the asset
@@ -0,0 +1,115 @@
+package org.virtualrepository.columnar;
+
+import static java.util.Arrays.*;
+import static org.virtualrepository.Utils.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.virtualrepository.Asset;
+import org.virtualrepository.Property;
+import org.virtualrepository.RepositoryService;
+import org.virtualrepository.impl.AbstractAsset;
+import org.virtualrepository.impl.Type;
+import org.virtualrepository.tabular.Column;
+
+/**
+ * Partial implementation of an {@link Asset} available in the binary columnar format.
+ * 
+ * @author Fabio Simeoni
+ * 
+ * @see ColumnarWriter
+ * @see ColumnarFile
+ */
+public class ColumnarAsset extends AbstractAsset {
+
+	/**
+	 * The generic type of {@link ColumnarAsset}s.
+	 */
+	public static final Type<ColumnarAsset> type = new ColumnarGenericType();
+	
+	private List<Column> columns = new ArrayList<Column>();
+	
+	/**
+	 * Creates an instance with a given identifier, name, and properties.
+	 * <p>
+	 * Inherit as a plugin-facing constructor for asset discovery and retrieval purposes.
+	 * 
+	 * @param id the identifier
+	 * @param name the name
+	 * @param properties the properties
+	 */
+	public <T extends ColumnarAsset> ColumnarAsset(String id, String name, Property ... properties) {
+		
+		super(type,id,name,properties);
+	}
+	
+	/**
+	 * Creates an instance with a given name and for a given target service.
+	 * <p>
+	 * Inherit as a client-facing constructor for asset publication.
+	 * 
+	 * @param name the name
+	 * @param service the service
+	 * @param properties the properties
+	 */
+	public <T extends ColumnarAsset> ColumnarAsset(String name, RepositoryService service, Property ... properties) {
+		
+		super(type,name,service,properties);
+	}
+	
+	/**
+	 * Returns the columns of this asset.
+	 * 
+	 * @return the columns
+	 */
+	public List<Column> columns() {
+		return columns;
+	}
+	
+	/**
+	 * Sets the columns of this asset.
+	 * 
+	 * @param columns the columns
+	 */
+	public void setColumns(Column... columns) {
+
+		notNull("columns", columns);
+
+		this.columns=new ArrayList<Column>(asList(columns));
+	}
+
+	@Override
+	public String toString() {
+		final int maxLen = 100;
+		return type().name() + " [columns="
+				+ (columns != null ? columns.subList(0, Math.min(columns.size(), maxLen)) : null) + ", id()=" + id()
+				+ ", type()=" + type() + ", service()=" + service() + ", name()=" + name() + ", properties()="
+				+ properties() + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + ((columns == null) ? 0 : columns.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj))
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ColumnarAsset other = (ColumnarAsset) obj;
+		if (columns == null) {
+			if (other.columns != null)
+				return false;
+		} else if (!columns.equals(other.columns))
+			return false;
+		return true;
+	}
+}
@@ -0,0 +1,657 @@
+package org.virtualrepository.columnar;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.nio.file.StandardOpenOption.*;
+import static org.virtualrepository.Utils.*;
+import static org.virtualrepository.columnar.ColumnarWriter.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.tabular.AbstractTable;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.ColumnData;
+import org.virtualrepository.tabular.ColumnIndex;
+import org.virtualrepository.tabular.ColumnarTable;
+import org.virtualrepository.tabular.Filter;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowBatch;
+import org.virtualrepository.tabular.Table;
+import org.virtualrepository.tabular.Values;
+
+/**
+ * A {@link Table} over content in the binary columnar format of {@link ColumnarWriter}.
+ * <p>
+ * Content is read from memory-mapped files, or else from buffers in memory, without copying it. Blocks are decoded
+ * into {@link ColumnarTable}s as they are iterated over, so that numeric columns are read as primitives and strings
+ * are decoded once per distinct value.
+ * <p>
+ * Filters are first matched against the minimum and maximum values of each block, and blocks that cannot contain
+ * matching rows are not decoded at all. The filters are then evaluated on the column data of the remaining blocks.
+ * <p>
+ * Tables can be iterated over multiple times, and by multiple threads.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class ColumnarFile extends AbstractTable implements Table {
+
+	private static final Logger log = LoggerFactory.getLogger(ColumnarFile.class);
+
+	// magic and footer offset
+	private static final int trailerSize = 12;
+
+	private final List<Block> blocks;
+
+	// rows in all blocks, including those skipped by the filter
+	private final long rows;
+
+	// filter on rows, null if all rows are selected
+	private final Filter filter;
+
+	private ColumnarFile(List<Column> columns, List<Block> blocks, long rows, Filter filter) {
+
+		super(columns);
+
+		this.blocks = blocks;
+		this.rows = rows;
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns a table over the content in a given file, which is memory-mapped.
+	 *
+	 * @param file the file
+	 * @return the table
+	 *
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the content is not in the binary columnar format
+	 */
+	public static ColumnarFile open(Path file) throws IOException {
+
+		notNull("file", file);
+
+		// mappings remain valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file, READ)) {
+
+			long size = channel.size();
+
+			return read(size, (offset, length) -> channel.map(MapMode.READ_ONLY, offset, length));
+		}
+	}
+
+	/**
+	 * Returns a table over the content in a given buffer, from its position to its limit.
+	 *
+	 * @param buffer the buffer
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the content is not in the binary columnar format
+	 */
+	public static ColumnarFile read(ByteBuffer buffer) {
+
+		notNull("buffer", buffer);
+
+		final ByteBuffer content = buffer.slice();
+
+		try {
+			return read(content.limit(), (offset, length) -> {
+
+				ByteBuffer region = content.duplicate();
+				region.position((int) offset);
+				region.limit((int) offset + length);
+
+				return region.slice();
+			});
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // does not occur in memory
+		}
+	}
+
+	// reads the footer, and maps blocks
+	private static ColumnarFile read(long size, Regions regions) throws IOException {
+
+		if (size < 8 + trailerSize)
+			throw new IllegalArgumentException("not in the binary columnar format: content is too short");
+
+		ByteBuffer header = regions.map(0, 8);
+
+		if (header.getInt() != magic)
+			throw new IllegalArgumentException("not in the binary columnar format");
+
+		int version = header.getInt();
+
+		if (version != ColumnarWriter.version)
+			throw new IllegalArgumentException("unsupported version " + version + " of the binary columnar format");
+
+		ByteBuffer trailer = regions.map(size - trailerSize, trailerSize);
+
+		long footerOffset = trailer.getLong();
+
+		if (trailer.getInt() != magic || footerOffset < 8 || footerOffset > size - trailerSize)
+			throw new IllegalArgumentException("not in the binary columnar format: invalid trailer");
+
+		ByteBuffer footer = regions.map(footerOffset, (int) (size - trailerSize - footerOffset));
+
+		List<Column> columns = new ArrayList<Column>();
+
+		int count = footer.getInt();
+
+		for (int c = 0; c < count; c++) {
+
+			Column column = new Column(readName(footer));
+
+			QName kind = readName(footer);
+
+			if (kind != null)
+				column.setKind(kind);
+
+			column.setType(typeFor(readString(footer)));
+
+			columns.add(column);
+		}
+
+		List<Block> blocks = new ArrayList<Block>();
+
+		long rows = 0;
+
+		int blockCount = footer.getInt();
+
+		for (int b = 0; b < blockCount; b++) {
+
+			long offset = footer.getLong();
+			int length = footer.getInt();
+
+			Block block = new Block(footer);
+
+			block.content = regions.map(offset, length);
+
+			blocks.add(block);
+
+			rows += block.rows;
+		}
+
+		return new ColumnarFile(columns, Collections.unmodifiableList(blocks), rows, null);
+	}
+
+	/**
+	 * Returns the number of rows in this table, before any filter is applied.
+	 * <p>
+	 * This is the number of rows in the underlying content, including those in the blocks that are skipped because
+	 * they cannot match the filter.
+	 *
+	 * @return the number of rows
+	 */
+	public long rows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of blocks of this table, after those that cannot match its filter are skipped.
+	 *
+	 * @return the number of blocks
+	 */
+	public int blocks() {
+		return blocks.size();
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		final Iterator<Table> tables = tables();
+
+		return new Iterator<Row>() {
+
+			Iterator<Row> rows = Collections.<Row> emptyList().iterator();
+
+			@Override
+			public boolean hasNext() {
+
+				while (!rows.hasNext() && tables.hasNext())
+					rows = tables.next().iterator();
+
+				return rows.hasNext();
+			}
+
+			@Override
+			public Row next() {
+
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				return rows.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns an iterator over the rows of this table in batches of a given size, which are filled directly from the
+	 * column data of each block.
+	 * <p>
+	 * Batches do not span blocks, so they may be smaller than the given size even before the last one.
+	 *
+	 * @param size the size of the batches
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<RowBatch> batches(int size) {
+
+		if (filter != null)
+			return Table.super.batches(size);
+
+		final Iterator<Table> tables = tables();
+
+		return new Iterator<RowBatch>() {
+
+			Iterator<RowBatch> batches = Collections.<RowBatch> emptyList().iterator();
+
+			@Override
+			public boolean hasNext() {
+
+				while (!batches.hasNext() && tables.hasNext())
+					batches = tables.next().batches(size);
+
+				return batches.hasNext();
+			}
+
+			@Override
+			public RowBatch next() {
+
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				return batches.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns a table with the rows of this table that satisfy a given filter, skipping the blocks whose minimum and
+	 * maximum values exclude them.
+	 *
+	 * @param filter the filter
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the filter is defined on columns that are not in this table
+	 */
+	@Override
+	public Table filter(Filter filter) {
+
+		notNull("filter", filter);
+
+		ColumnIndex index = new ColumnIndex(columns());
+
+		for (QName column : filter.columns())
+			if (index.position(column) < 0)
+				throw new IllegalArgumentException("unknown column " + column);
+
+		List<Block> matching = new ArrayList<Block>();
+
+		for (Block block : blocks)
+			if (block.mayMatch(filter, index))
+				matching.add(block);
+
+		ColumnarFile filtered = new ColumnarFile(columns(), matching, rows,
+				this.filter == null ? filter : Filter.and(this.filter, filter));
+
+		filtered.properties().add(properties().toArray());
+
+		return filtered;
+	}
+
+	@Override
+	public Table materialise(long budget) {
+		return this; // materialised by definition
+	}
+
+	// the decoded blocks, filtered
+	private Iterator<Table> tables() {
+
+		final Iterator<Block> blocks = this.blocks.iterator();
+
+		return new Iterator<Table>() {
+
+			@Override
+			public boolean hasNext() {
+				return blocks.hasNext();
+			}
+
+			@Override
+			public Table next() {
+
+				Table table = blocks.next().decode(columns());
+
+				return filter == null ? table : table.filter(filter);
+			}
+		};
+	}
+
+	// helper
+	private static Class<?> typeFor(String name) {
+
+		try {
+			return Class.forName(name);
+		}
+		catch (ClassNotFoundException e) {
+			log.warn("unknown column type {}, reading values as strings", name);
+			return String.class;
+		}
+	}
+
+	// helper
+	static String readString(ByteBuffer buffer) {
+
+		int length = buffer.getInt();
+
+		if (length < 0)
+			return null;
+
+		String string;
+
+		if (buffer.hasArray())
+			string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+		else {
+			byte[] bytes = new byte[length];
+			buffer.duplicate().get(bytes);
+			string = new String(bytes, UTF_8);
+		}
+
+		buffer.position(buffer.position() + length);
+
+		return string;
+	}
+
+	// helper
+	private static QName readName(ByteBuffer buffer) {
+
+		String namespace = readString(buffer);
+
+		return namespace == null ? null : new QName(namespace, readString(buffer));
+	}
+
+	// maps regions of the content
+	private static interface Regions {
+
+		ByteBuffer map(long offset, int length) throws IOException;
+	}
+
+	// a block of rows, and its statistics
+	private static class Block {
+
+		final int rows;
+
+		final byte[] kinds;
+		final Object[] mins;
+		final Object[] maxs;
+
+		// columns with NaNs, which are not in the range of their values
+		final boolean[] nans;
+
+		ByteBuffer content;
+
+		Block(ByteBuffer footer) {
+
+			rows = footer.getInt();
+
+			int columns = footer.getInt();
+
+			kinds = new byte[columns];
+			mins = new Object[columns];
+			maxs = new Object[columns];
+			nans = new boolean[columns];
+
+			for (int c = 0; c < columns; c++) {
+
+				kinds[c] = footer.get();
+
+				byte stats = footer.get();
+
+				nans[c] = (stats & withNaNs) != 0;
+
+				if ((stats & withRange) != 0)
+					switch (kinds[c]) {
+					case longs:
+						mins[c] = footer.getLong();
+						maxs[c] = footer.getLong();
+						break;
+					case doubles:
+						mins[c] = footer.getDouble();
+						maxs[c] = footer.getDouble();
+						break;
+					default:
+						mins[c] = readString(footer);
+						maxs[c] = readString(footer);
+					}
+			}
+		}
+
+		// decodes the block, with missing values for the columns that it does not have
+		Table decode(List<Column> columns) {
+
+			ByteBuffer buffer = content.duplicate();
+
+			List<ColumnData> data = new ArrayList<ColumnData>();
+
+			for (int c = 0; c < columns.size(); c++)
+				data.add(c < kinds.length ? decode(buffer) : new ColumnData.Dictionary(new String[0], new int[rows]));
+
+			return new ColumnarTable(columns, data);
+		}
+
+		// helper
+		private ColumnData decode(ByteBuffer buffer) {
+
+			byte kind = buffer.get();
+
+			switch (kind) {
+
+			case longs: {
+
+				BitSet nulls = readBits(buffer);
+
+				long[] values = new long[rows];
+				buffer.asLongBuffer().get(values);
+				buffer.position(buffer.position() + 8 * rows);
+
+				return new ColumnData.Longs(values, nulls);
+			}
+
+			case doubles: {
+
+				BitSet nulls = readBits(buffer);
+
+				double[] values = new double[rows];
+				buffer.asDoubleBuffer().get(values);
+				buffer.position(buffer.position() + 8 * rows);
+
+				return new ColumnData.Doubles(values, nulls);
+			}
+
+			case booleans: {
+
+				BitSet nulls = readBits(buffer);
+				BitSet values = readBits(buffer);
+
+				return new ColumnData.Booleans(values, nulls, rows);
+			}
+
+			case dictionary: {
+
+				String[] entries = new String[buffer.getInt()];
+
+				for (int i = 0; i < entries.length; i++)
+					entries[i] = readString(buffer);
+
+				int[] codes = new int[rows];
+				buffer.asIntBuffer().get(codes);
+				buffer.position(buffer.position() + 4 * rows);
+
+				return new ColumnData.Dictionary(entries, codes);
+			}
+
+			case strings: {
+
+				ColumnData data = new ColumnData.Strings();
+
+				for (int i = 0; i < rows; i++)
+					data = data.add(readString(buffer));
+
+				data.trim();
+
+				return data;
+			}
+
+			default:
+				throw new IllegalArgumentException("not in the binary columnar format: unknown column encoding " + kind);
+			}
+		}
+
+		// helper
+		private BitSet readBits(ByteBuffer buffer) {
+
+			ByteBuffer bits = buffer.slice();
+			bits.limit((rows + 7) / 8);
+
+			buffer.position(buffer.position() + bits.limit());
+
+			return BitSet.valueOf(bits);
+		}
+
+		// returns false if no rows of this block can satisfy a filter, based on the minimum and maximum values
+		boolean mayMatch(Filter filter, ColumnIndex index) {
+
+			if (filter instanceof Filter.And) {
+
+				for (Filter f : ((Filter.And) filter).filters())
+					if (!mayMatch(f, index))
+						return false;
+
+				return true;
+			}
+
+			if (!(filter instanceof Filter.Condition))
+				return true;
+
+			int c = index.position(((Filter.Condition) filter).column());
+
+			// only missing values in the block
+			if (c >= kinds.length || (mins[c] == null && kinds[c] != booleans && !nans[c]))
+				return false;
+
+			if (mins[c] == null)
+				return true;
+
+			if (filter instanceof Filter.Eq)
+				return overlaps(c, ((Filter.Eq) filter).value(), ((Filter.Eq) filter).value());
+
+			if (filter instanceof Filter.In) {
+
+				for (String value : ((Filter.In) filter).values())
+					if (overlaps(c, value, value))
+						return true;
+
+				return false;
+			}
+
+			if (filter instanceof Filter.Range) {
+
+				Filter.Range range = (Filter.Range) filter;
+
+				// ranges compare values by the type of their bounds, so numeric blocks can prune only numeric ranges
+				if ((kinds[c] == longs || kinds[c] == doubles) && !Values.isNumeric(range.type()))
+					return true;
+
+				return overlaps(c, range.from(), range.to());
+			}
+
+			if (filter instanceof Filter.Prefix) {
+
+				String prefix = ((Filter.Prefix) filter).prefix();
+
+				return kinds[c] == longs || kinds[c] == doubles || overlaps(c, prefix, prefix + Character.MAX_VALUE);
+			}
+
+			return true;
+		}
+
+		// returns false if a given interval is known to be disjoint from the values of a given column
+		private boolean overlaps(int c, Object from, Object to) {
+
+			switch (kinds[c]) {
+
+			case longs:
+			case doubles:
+
+				Double low = number(from);
+				Double high = number(to);
+
+				if ((from != null && low == null) || (to != null && high == null))
+					return true;
+
+				// NaNs are not in the range
+				if (nans[c] && ((low != null && low.isNaN()) || (high != null && high.isNaN())))
+					return true;
+
+				double min = ((Number) mins[c]).doubleValue();
+				double max = ((Number) maxs[c]).doubleValue();
+
+				return (low == null || low <= max) && (high == null || high >= min);
+
+			default:
+
+				if ((from != null && !(from instanceof String)) || (to != null && !(to instanceof String)))
+					return true;
+
+				return (from == null || ((String) from).compareTo((String) maxs[c]) <= 0)
+						&& (to == null || ((String) to).compareTo((String) mins[c]) >= 0);
+			}
+		}
+
+		// helper
+		private static Double number(Object value) {
+
+			if (value instanceof Number)
+				return ((Number) value).doubleValue();
+
+			if (value instanceof String)
+				try {
+					return (Double) Values.decode(Double.class, (String) value);
+				}
+				catch (IllegalArgumentException e) {
+					return null;
+				}
+
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarFile [columns=" + columns() + ", rows=" + rows + ", blocks=" + blocks.size() + ", filter="
+				+ filter + "]";
+	}
+}
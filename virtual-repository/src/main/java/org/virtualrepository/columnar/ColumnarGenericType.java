@@ -0,0 +1,12 @@
+package org.virtualrepository.columnar;
+
+import org.virtualrepository.impl.AbstractType;
+
+public class ColumnarGenericType extends AbstractType<ColumnarAsset> {
+	
+	private static final String name = "columnar/generic";
+	
+	public ColumnarGenericType() {
+		super(name);
+	}
+}
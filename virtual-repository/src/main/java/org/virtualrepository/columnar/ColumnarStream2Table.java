@@ -0,0 +1,48 @@
+package org.virtualrepository.columnar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.virtualrepository.spi.Transform;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Table;
+
+/**
+ * A {@link Transform} from {@link InputStream} to {@link Table} for {@link ColumnarAsset} assets.
+ * <p>
+ * The content is read in memory, as the format is described at its end. Content in files should rather be opened with
+ * {@link ColumnarFile#open(java.nio.file.Path)}, which maps it in memory.
+ * 
+ * @author Fabio Simeoni
+ *
+ */
+public class ColumnarStream2Table<T extends ColumnarAsset> implements Transform<T,InputStream,Table> {
+	
+	@Override
+	public Table apply(ColumnarAsset asset,InputStream input) throws Exception {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		byte[] chunk = new byte[1 << 16];
+		
+		for (int read = input.read(chunk); read >= 0; read = input.read(chunk))
+			bytes.write(chunk, 0, read);
+		
+		Table table = ColumnarFile.read(ByteBuffer.wrap(bytes.toByteArray()));
+		
+		asset.setColumns(table.columns().toArray(new Column[0]));
+		
+		return table;
+	}
+	
+	@Override
+	public Class<InputStream> inputAPI() {
+		return InputStream.class;
+	}
+	
+	@Override
+	public Class<Table> outputAPI() {
+		return Table.class;
+	}
+}
@@ -0,0 +1,396 @@
+package org.virtualrepository.columnar;
+
+import static java.nio.charset.StandardCharsets.*;
+import static org.virtualrepository.Utils.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.RowBatch;
+import org.virtualrepository.tabular.Table;
+import org.virtualrepository.tabular.Values;
+
+/**
+ * Writes {@link Table}s in a binary columnar format.
+ * <p>
+ * Rows are written in blocks of a given size, and within blocks by column. Columns are encoded according to their
+ * {@link Column#type()}: integral and floating point numbers as primitives, booleans as bitsets, and other values as
+ * strings, with a dictionary of distinct values unless values are mostly distinct. Values that do not match the type of
+ * their column are kept as strings.
+ * <p>
+ * The content ends with a footer that describes the columns (name, kind, and type), and the offset, size, and minimum
+ * and maximum values of each block, as well as the floating point columns that have NaNs in it, so that readers can
+ * skip blocks that cannot match filters (cf. {@link ColumnarFile}). Columns are described only at the end, as tables
+ * may discover them as they are iterated over.
+ * <p>
+ * Tables are read once, in batches (cf. {@link Table#batches(int)}), and only one block is buffered in memory.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class ColumnarWriter {
+
+	public static final int defaultBlockSize = 1 << 16;
+
+	// format
+	static final int magic = 0x56524346;
+	static final int version = 1;
+
+	// encodings of columns
+	static final byte longs = 1;
+	static final byte doubles = 2;
+	static final byte booleans = 3;
+	static final byte dictionary = 4;
+	static final byte strings = 5;
+
+	// statistics of columns in blocks
+	static final byte withRange = 1;
+	static final byte withNaNs = 2;
+
+	private final int blockSize;
+
+	/**
+	 * Creates an instance that writes blocks of a default number of rows.
+	 */
+	public ColumnarWriter() {
+
+		this(defaultBlockSize);
+	}
+
+	/**
+	 * Creates an instance that writes blocks of a given number of rows.
+	 *
+	 * @param blockSize the number of rows
+	 */
+	public ColumnarWriter(int blockSize) {
+
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("block size must be positive");
+
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Writes a given table to a given stream.
+	 * <p>
+	 * The stream is flushed but not closed.
+	 *
+	 * @param table the table
+	 * @param stream the stream
+	 *
+	 * @throws IOException if the table cannot be written
+	 */
+	public void write(Table table, OutputStream stream) throws IOException {
+
+		notNull("table", table);
+		notNull("stream", stream);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+
+		out.writeInt(magic);
+		out.writeInt(version);
+
+		long position = 8;
+
+		List<Block> blocks = new ArrayList<Block>();
+
+		List<Column> columns = table.columns();
+
+		Iterator<RowBatch> batches = table.batches(blockSize);
+
+		while (batches.hasNext()) {
+
+			RowBatch batch = batches.next();
+
+			if (batch.size() == 0)
+				continue;
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream content = new DataOutputStream(bytes);
+
+			Block block = new Block(position, batch.size(), batch.columns().size());
+
+			for (int c = 0; c < batch.columns().size(); c++)
+				encode(batch, c, content, block);
+
+			content.flush();
+
+			bytes.writeTo(out);
+
+			block.length = bytes.size();
+
+			position += block.length;
+
+			blocks.add(block);
+
+			// columns may be discovered during iteration
+			columns = batch.columns();
+		}
+
+		if (table.columns().size() > columns.size())
+			columns = table.columns();
+
+		// footer
+		out.writeInt(columns.size());
+
+		for (Column column : columns) {
+			writeName(out, column.name());
+			writeName(out, column.getKind());
+			writeString(out, column.type().getName());
+		}
+
+		out.writeInt(blocks.size());
+
+		for (Block block : blocks)
+			block.writeTo(out);
+
+		// trailer
+		out.writeLong(position);
+		out.writeInt(magic);
+
+		out.flush();
+	}
+
+	// encodes the values of a column of a batch
+	private void encode(RowBatch batch, int c, DataOutputStream out, Block block) throws IOException {
+
+		Class<?> type = batch.columns().get(c).type();
+
+		int size = batch.size();
+
+		if (Values.isIntegral(type) || Values.isFloating(type)) {
+
+			boolean integral = Values.isIntegral(type);
+
+			long[] ls = null;
+			double[] ds = null;
+
+			try {
+				if (integral)
+					ls = batch.longs(c);
+				else
+					ds = batch.doubles(c);
+			}
+			catch (IllegalArgumentException e) {
+				// values do not match the type, and are kept as strings
+				encodeStrings(batch.values(c), size, out, block, c);
+				return;
+			}
+
+			boolean[] nulls = batch.nulls(c);
+
+			out.writeByte(integral ? longs : doubles);
+			writeBits(out, nulls, size);
+
+			for (int i = 0; i < size; i++) {
+
+				if (integral)
+					out.writeLong(ls[i]);
+				else
+					out.writeDouble(ds[i]);
+
+				if (!nulls[i])
+					block.stats(c, integral ? (Object) ls[i] : (Object) ds[i]);
+			}
+
+			block.kinds[c] = integral ? longs : doubles;
+
+			return;
+		}
+
+		String[] values = batch.values(c);
+
+		if (type == Boolean.class || type == boolean.class) {
+
+			boolean[] nulls = batch.nulls(c);
+			boolean[] trues = new boolean[size];
+
+			for (int i = 0; i < size; i++)
+				if (!nulls[i])
+					if ("true".equalsIgnoreCase(values[i].trim()))
+						trues[i] = true;
+					else if (!"false".equalsIgnoreCase(values[i].trim())) {
+						// values do not match the type, and are kept as strings
+						encodeStrings(values, size, out, block, c);
+						return;
+					}
+
+			out.writeByte(booleans);
+			writeBits(out, nulls, size);
+			writeBits(out, trues, size);
+
+			block.kinds[c] = booleans;
+
+			return;
+		}
+
+		encodeStrings(values, size, out, block, c);
+	}
+
+	// encodes values as strings, with a dictionary unless they are mostly distinct
+	private void encodeStrings(String[] values, int size, DataOutputStream out, Block block, int c) throws IOException {
+
+		Map<String, Integer> codes = new HashMap<String, Integer>();
+
+		for (int i = 0; i < size; i++)
+			if (values[i] != null && !codes.containsKey(values[i])) {
+				codes.put(values[i], codes.size() + 1);
+				block.stats(c, values[i]);
+			}
+
+		if (codes.size() * 2 <= size) {
+
+			String[] entries = new String[codes.size()];
+
+			for (Map.Entry<String, Integer> e : codes.entrySet())
+				entries[e.getValue() - 1] = e.getKey();
+
+			out.writeByte(dictionary);
+			out.writeInt(entries.length);
+
+			for (String entry : entries)
+				writeString(out, entry);
+
+			for (int i = 0; i < size; i++)
+				out.writeInt(values[i] == null ? 0 : codes.get(values[i]));
+
+			block.kinds[c] = dictionary;
+		}
+		else {
+
+			out.writeByte(strings);
+
+			for (int i = 0; i < size; i++)
+				writeString(out, values[i]);
+
+			block.kinds[c] = strings;
+		}
+	}
+
+	// helper
+	private static void writeBits(DataOutputStream out, boolean[] bits, int size) throws IOException {
+
+		BitSet set = new BitSet(size);
+
+		for (int i = 0; i < size; i++)
+			if (bits[i])
+				set.set(i);
+
+		byte[] bytes = set.toByteArray();
+
+		out.write(bytes);
+
+		// pads to a fixed length
+		for (int i = bytes.length; i < (size + 7) / 8; i++)
+			out.writeByte(0);
+	}
+
+	// helper
+	static void writeString(DataOutputStream out, String string) throws IOException {
+
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = string.getBytes(UTF_8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	// helper
+	private static void writeName(DataOutputStream out, QName name) throws IOException {
+
+		writeString(out, name == null ? null : name.getNamespaceURI());
+
+		if (name != null)
+			writeString(out, name.getLocalPart());
+	}
+
+	// the description of a block, which is written in the footer
+	private static class Block {
+
+		final long offset;
+		final int rows;
+
+		int length;
+
+		final byte[] kinds;
+		final Object[] mins;
+		final Object[] maxs;
+		final boolean[] nans;
+
+		Block(long offset, int rows, int columns) {
+
+			this.offset = offset;
+			this.rows = rows;
+			this.kinds = new byte[columns];
+			this.mins = new Object[columns];
+			this.maxs = new Object[columns];
+			this.nans = new boolean[columns];
+		}
+
+		@SuppressWarnings("unchecked")
+		void stats(int c, Object value) {
+
+			// NaNs are not ordered, and are only recorded
+			if (value instanceof Double && ((Double) value).isNaN()) {
+				nans[c] = true;
+				return;
+			}
+
+			Comparable<Object> comparable = (Comparable<Object>) value;
+
+			if (mins[c] == null || comparable.compareTo(mins[c]) < 0)
+				mins[c] = value;
+
+			if (maxs[c] == null || comparable.compareTo(maxs[c]) > 0)
+				maxs[c] = value;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+
+			out.writeLong(offset);
+			out.writeInt(length);
+			out.writeInt(rows);
+			out.writeInt(kinds.length);
+
+			for (int c = 0; c < kinds.length; c++) {
+
+				out.writeByte(kinds[c]);
+
+				boolean range = mins[c] != null;
+
+				out.writeByte((range ? withRange : 0) | (nans[c] ? withNaNs : 0));
+
+				if (range)
+					switch (kinds[c]) {
+					case longs:
+						out.writeLong((Long) mins[c]);
+						out.writeLong((Long) maxs[c]);
+						break;
+					case doubles:
+						out.writeDouble((Double) mins[c]);
+						out.writeDouble((Double) maxs[c]);
+						break;
+					default:
+						writeString(out, (String) mins[c]);
+						writeString(out, (String) maxs[c]);
+					}
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.virtualrepository.columnar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.virtualrepository.spi.ContentWriter;
+import org.virtualrepository.spi.Transform;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Table;
+
+/**
+ * A {@link Transform} from {@link Table} to {@link ContentWriter} for {@link ColumnarAsset} assets.
+ * <p>
+ * Rows are encoded in blocks directly into the sink of the publisher, as they are pulled from the table. The columns
+ * of the asset are set once the table has been written.
+ * 
+ * @author Fabio Simeoni
+ *
+ * @see ColumnarWriter
+ */
+public class Table2ColumnarWriter<T extends ColumnarAsset> implements Transform<T,Table,ContentWriter> {
+	
+	private final ColumnarWriter writer;
+	
+	/**
+	 * Creates an instance that writes blocks of a default number of rows.
+	 */
+	public Table2ColumnarWriter() {
+		this(new ColumnarWriter());
+	}
+	
+	/**
+	 * Creates an instance with a given writer.
+	 * 
+	 * @param writer the writer
+	 */
+	public Table2ColumnarWriter(ColumnarWriter writer) {
+		this.writer = writer;
+	}
+	
+	@Override
+	public ContentWriter apply(ColumnarAsset asset,Table table) throws Exception {
+		
+		return stream -> write(asset, table, stream);
+	}
+	
+	// helper
+	private void write(ColumnarAsset asset, Table table, OutputStream stream) throws IOException {
+		
+		writer.write(table, stream);
+		
+		// columns may be discovered during iteration
+		asset.setColumns(table.columns().toArray(new Column[0]));
+	}
+	
+	@Override
+	public Class<Table> inputAPI() {
+		return Table.class;
+	}
+	
+	@Override
+	public Class<ContentWriter> outputAPI() {
+		return ContentWriter.class;
+	}
+}
@@ -0,0 +1,281 @@
+package org.virtualrepository.csv;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.virtualrepository.columnar.ColumnarFile;
+import org.virtualrepository.columnar.ColumnarWriter;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.ColumnData;
+import org.virtualrepository.tabular.ColumnarTable;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.Table;
+
+/**
+ * An index of the codes of a {@link CsvCodelist}, from codes to the rows that contain them.
+ * <p>
+ * Rows are stored by column (cf. {@link ColumnarTable}), and codes are hashed into an open-addressing table of row
+ * positions, so that lookups cost a hash and, in most cases, a single comparison. Indices are built once from the
+ * content of a codelist, and are then immutable and safe to share across threads and requests. They can be persisted
+ * in the binary columnar format, and loaded without retrieving the codelist again.
+ * <p>
+ * Codes are case-sensitive, and are indexed as they occur in the content, whatever the type of their column: in an
+ * integral code column, <code>007</code> and <code>7</code> are different codes. If more rows have the same code,
+ * lookups return the first.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class CodeIndex {
+
+	// the largest number of rows for which a table of twice as many slots can be allocated
+	static final int maxRows = 1 << 29;
+
+	private final CsvCodelist codelist;
+	private final ColumnarTable table;
+	private final ColumnData codes;
+
+	// positions of rows + 1 by hash of code, with hashes for quick mismatches
+	private final int[] slots;
+	private final int[] hashes;
+	private final int mask;
+
+	private CodeIndex(CsvCodelist codelist, ColumnarTable table) {
+
+		if (codelist.codeColumn() < 0 || codelist.codeColumn() >= table.columns().size())
+			throw new IllegalArgumentException("invalid codelist " + codelist.id() + ": code column "
+					+ codelist.codeColumn() + " is not in its content");
+
+		if (table.size() > maxRows)
+			throw new IllegalArgumentException("cannot index codelist " + codelist.id() + ": its content has "
+					+ table.size() + " rows, more than the maximum of " + maxRows);
+
+		this.codelist = codelist;
+		this.table = untyped(table, codelist.codeColumn());
+		this.codes = this.table.data(this.table.columns().get(codelist.codeColumn()));
+
+		int capacity = Integer.highestOneBit(Math.max(table.size(), 1) * 2 - 1) << 1;
+
+		this.slots = new int[capacity];
+		this.hashes = new int[capacity];
+		this.mask = capacity - 1;
+
+		for (int row = 0; row < table.size(); row++) {
+
+			String code = codes.get(row);
+
+			if (code == null)
+				continue;
+
+			int hash = hash(code);
+
+			int slot = find(code, hash);
+
+			// keeps the first row with the code
+			if (slots[slot] == 0) {
+				slots[slot] = row + 1;
+				hashes[slot] = hash;
+			}
+		}
+	}
+
+	/**
+	 * Builds an index of a given codelist from its content.
+	 *
+	 * @param codelist the codelist
+	 * @param table the content of the codelist
+	 * @return the index
+	 *
+	 * @throws IllegalArgumentException if the code column of the codelist is not in its content, or the content has
+	 *             more rows than can be indexed
+	 */
+	public static CodeIndex of(CsvCodelist codelist, Table table) {
+
+		notNull("codelist", codelist);
+		notNull("table", table);
+
+		return new CodeIndex(codelist, table instanceof ColumnarTable ? (ColumnarTable) table : new ColumnarTable(table));
+	}
+
+	/**
+	 * Loads an index of a given codelist from a given file.
+	 *
+	 * @param codelist the codelist
+	 * @param file the file
+	 * @return the index
+	 *
+	 * @throws IOException if the index cannot be loaded
+	 * @throws IllegalArgumentException if the file does not contain an index, the code column of the codelist is not
+	 *             in it, or it has more rows than can be indexed
+	 *
+	 * @see #save(Path)
+	 */
+	public static CodeIndex load(CsvCodelist codelist, Path file) throws IOException {
+
+		notNull("codelist", codelist);
+
+		return new CodeIndex(codelist, new ColumnarTable(ColumnarFile.open(file)));
+	}
+
+	/**
+	 * Persists this index in a given file, in the binary columnar format.
+	 *
+	 * @param file the file
+	 *
+	 * @throws IOException if the index cannot be persisted
+	 *
+	 * @see #load(CsvCodelist, Path)
+	 */
+	public void save(Path file) throws IOException {
+
+		notNull("file", file);
+
+		try (OutputStream out = Files.newOutputStream(file)) {
+			new ColumnarWriter(Math.max(table.size(), 1)).write(table, out);
+		}
+	}
+
+	/**
+	 * Returns the indexed codelist.
+	 *
+	 * @return the codelist
+	 */
+	public CsvCodelist codelist() {
+		return codelist;
+	}
+
+	/**
+	 * Returns the rows of the indexed codelist.
+	 *
+	 * @return the rows
+	 */
+	public ColumnarTable table() {
+		return table;
+	}
+
+	/**
+	 * Returns the number of indexed rows.
+	 *
+	 * @return the number of rows
+	 */
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * Returns the position of the row with a given code.
+	 *
+	 * @param code the code
+	 * @return the position, or -1 if no row has the code
+	 */
+	public int position(String code) {
+
+		if (code == null)
+			return -1;
+
+		return slots[find(code, hash(code))] - 1;
+	}
+
+	/**
+	 * Returns <code>true</code> if a row has a given code.
+	 *
+	 * @param code the code
+	 * @return <code>true</code> if a row has the code
+	 */
+	public boolean contains(String code) {
+		return position(code) >= 0;
+	}
+
+	/**
+	 * Returns the row with a given code.
+	 *
+	 * @param code the code
+	 * @return the row, or <code>null</code> if no row has the code
+	 */
+	public Row lookup(String code) {
+
+		int position = position(code);
+
+		return position < 0 ? null : table.row(position);
+	}
+
+	/**
+	 * Returns the rows with given codes.
+	 *
+	 * @param codes the codes
+	 * @return the rows, in the order of the codes and with <code>null</code>s for the codes that no row has
+	 */
+	public List<Row> lookupAll(Iterable<String> codes) {
+
+		notNull("codes", codes);
+
+		List<Row> rows = new ArrayList<Row>();
+
+		for (String code : codes)
+			rows.add(lookup(code));
+
+		return rows;
+	}
+
+	// stores the codes as strings, so that they are matched and persisted as they occur rather than by type
+	private static ColumnarTable untyped(ColumnarTable table, int codeColumn) {
+
+		Column column = table.columns().get(codeColumn);
+
+		if (column.type() == String.class)
+			return table;
+
+		ColumnData data = table.data(column);
+
+		ColumnData codes = new ColumnData.Dictionary();
+
+		for (int row = 0; row < data.size(); row++)
+			codes = codes.add(data.get(row));
+
+		codes.trim();
+
+		List<Column> columns = new ArrayList<Column>();
+		List<ColumnData> columnData = new ArrayList<ColumnData>();
+
+		for (Column c : table.columns()) {
+			columns.add(c == column ? new Column(c.name(), c.getKind(), String.class) : c);
+			columnData.add(c == column ? codes : table.data(c));
+		}
+
+		ColumnarTable untyped = new ColumnarTable(columns, columnData);
+
+		untyped.properties().add(table.properties().toArray());
+
+		return untyped;
+	}
+
+	// the slot of a code, or else the empty slot where it belongs
+	private int find(String code, int hash) {
+
+		int slot = hash & mask;
+
+		while (slots[slot] != 0 && (hashes[slot] != hash || !code.equals(codes.get(slots[slot] - 1))))
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+	// spreads the bits of string hashes, which are weak in their lower bits
+	private static int hash(String code) {
+
+		int h = code.hashCode() * 0x9E3779B9;
+
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		return "CodeIndex [codelist=" + codelist.id() + ", size=" + table.size() + "]";
+	}
+}
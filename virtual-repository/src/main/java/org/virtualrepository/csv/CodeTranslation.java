@@ -0,0 +1,335 @@
+package org.virtualrepository.csv;
+
+import static java.util.Collections.*;
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+
+import org.virtualrepository.Properties;
+import org.virtualrepository.tabular.ArrayRow;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.ColumnIndex;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowFile;
+import org.virtualrepository.tabular.Table;
+
+/**
+ * A translation of the codes of a source {@link CsvCodelist} into the codes of a target {@link CsvCodelist}.
+ * <p>
+ * Codelists are related by key columns, i.e. a source code translates into the target code whose key matches the key
+ * of the source code. Translations are built with a hash join of the content of the two codelists, reading each once,
+ * and are then applied to the columns of any number of tables, translating rows as they are iterated over (cf.
+ * {@link #apply(Table, String...)}).
+ * <p>
+ * Codes that cannot be translated are kept as they are, and reported (cf. {@link TranslatedTable#unmatched()}).
+ * Translations are immutable, and safe to share across threads.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class CodeTranslation {
+
+	private final Map<String, String> codes;
+
+	/**
+	 * Creates an instance with given translations of codes.
+	 *
+	 * @param codes the translations, from source to target codes
+	 */
+	public CodeTranslation(Map<String, String> codes) {
+
+		notNull("codes", codes);
+
+		this.codes = new HashMap<String, String>(codes);
+	}
+
+	/**
+	 * Builds a translation between two codelists from their content, relating codes by given key columns.
+	 * <p>
+	 * Source codes without key, or with a key that matches no target code, are left untranslated. If more target codes
+	 * have the same key, the first is used.
+	 *
+	 * @param source the source codelist
+	 * @param sourceContent the content of the source codelist
+	 * @param sourceKey the name of the key column of the source codelist
+	 * @param target the target codelist
+	 * @param targetContent the content of the target codelist
+	 * @param targetKey the name of the key column of the target codelist
+	 * @return the translation
+	 *
+	 * @throws IllegalArgumentException if the code or key columns are not in the content of the codelists
+	 */
+	public static CodeTranslation between(CsvCodelist source, Table sourceContent, String sourceKey, CsvCodelist target,
+			Table targetContent, String targetKey) {
+
+		notNull("source codelist", source);
+		notNull("source content", sourceContent);
+		notNull("source key", sourceKey);
+		notNull("target codelist", target);
+		notNull("target content", targetContent);
+		notNull("target key", targetKey);
+
+		// build side: target codes by key
+		Map<String, String> targets = new HashMap<String, String>();
+
+		QName[] names = null;
+
+		for (Row row : targetContent) {
+
+			// columns may be discovered with the first row
+			if (names == null)
+				names = columnsOf(target, targetContent, targetKey);
+
+			String key = row.get(names[0]);
+			String code = row.get(names[1]);
+
+			if (key != null && code != null)
+				targets.putIfAbsent(key, code);
+		}
+
+		// probe side: source codes by target key
+		Map<String, String> codes = new HashMap<String, String>();
+
+		names = null;
+
+		for (Row row : sourceContent) {
+
+			if (names == null)
+				names = columnsOf(source, sourceContent, sourceKey);
+
+			String key = row.get(names[0]);
+			String code = row.get(names[1]);
+
+			String translation = key == null ? null : targets.get(key);
+
+			if (code != null && translation != null)
+				codes.putIfAbsent(code, translation);
+		}
+
+		return new CodeTranslation(codes);
+	}
+
+	/**
+	 * Returns the number of codes that can be translated.
+	 *
+	 * @return the number of codes
+	 */
+	public int size() {
+		return codes.size();
+	}
+
+	/**
+	 * Returns the translation of a given code.
+	 *
+	 * @param code the code
+	 * @return the translation, or <code>null</code> if the code cannot be translated
+	 */
+	public String translate(String code) {
+		return code == null ? null : codes.get(code);
+	}
+
+	/**
+	 * Returns a table with the rows of a given table, where the codes in given columns are translated.
+	 *
+	 * @param table the table
+	 * @param columns the names of the columns
+	 * @return the table
+	 */
+	public TranslatedTable apply(Table table, String... columns) {
+
+		notNull("table", table);
+		notNull("columns", columns);
+
+		Map<QName, CodeTranslation> translations = new LinkedHashMap<QName, CodeTranslation>();
+
+		for (String column : columns)
+			translations.put(new QName(column), this);
+
+		return new TranslatedTable(table, translations);
+	}
+
+	// the names of the key and code columns of a codelist
+	private static QName[] columnsOf(CsvCodelist codelist, Table content, String key) {
+
+		List<Column> columns = content.columns();
+
+		QName name = new QName(key);
+
+		if (new ColumnIndex(columns).position(name) < 0)
+			throw new IllegalArgumentException("invalid codelist " + codelist.id() + ": key column " + key
+					+ " is not in its content");
+
+		if (codelist.codeColumn() < 0 || codelist.codeColumn() >= columns.size())
+			throw new IllegalArgumentException("invalid codelist " + codelist.id() + ": code column "
+					+ codelist.codeColumn() + " is not in its content");
+
+		return new QName[] { name, columns.get(codelist.codeColumn()).name() };
+	}
+
+	/**
+	 * A {@link Table} with the rows of another {@link Table}, where the codes in some columns are translated.
+	 * <p>
+	 * Rows are translated as the table is iterated over, in a single pass over all the columns. Codes that cannot be
+	 * translated are kept as they are, and reported by column once the iteration completes.
+	 */
+	public static class TranslatedTable implements Table {
+
+		private final Table table;
+		private final Map<QName, CodeTranslation> translations;
+
+		private volatile Map<QName, Map<String, Long>> unmatched = emptyMap();
+
+		/**
+		 * Creates an instance with the rows of a given table, and given translations of its columns.
+		 *
+		 * @param table the table
+		 * @param translations the translations, by column name
+		 */
+		public TranslatedTable(Table table, Map<QName, CodeTranslation> translations) {
+
+			notNull("table", table);
+			notNull("translations", translations);
+
+			this.table = table;
+			this.translations = new LinkedHashMap<QName, CodeTranslation>(translations);
+		}
+
+		/**
+		 * Returns the codes that could not be translated in the last iteration over this table, by column, with the
+		 * number of their occurrences.
+		 *
+		 * @return the codes, by column
+		 */
+		public Map<QName, Map<String, Long>> unmatched() {
+			return unmatched;
+		}
+
+		@Override
+		public List<Column> columns() {
+			// columns may be discovered as the table is iterated over
+			return table.columns();
+		}
+
+		@Override
+		public Properties properties() {
+			return table.properties();
+		}
+
+		@Override
+		public Iterator<Row> iterator() {
+
+			final Iterator<Row> rows = table.iterator();
+
+			final Map<QName, Map<String, Long>> unmatched = new LinkedHashMap<QName, Map<String, Long>>();
+
+			for (QName column : translations.keySet())
+				unmatched.put(column, new LinkedHashMap<String, Long>());
+
+			class Rows implements Iterator<Row>, Closeable {
+
+				ColumnIndex index;
+
+				// translated columns, their positions, and their translations
+				QName[] names;
+				int[] positions;
+				CodeTranslation[] applied;
+
+				@Override
+				public boolean hasNext() {
+
+					if (rows.hasNext())
+						return true;
+
+					// reports at the end of the iteration
+					TranslatedTable.this.unmatched = unmodifiableMap(unmatched);
+
+					return false;
+				}
+
+				@Override
+				public Row next() {
+
+					if (!hasNext())
+						throw new NoSuchElementException();
+
+					Row row = rows.next();
+
+					List<Column> columns = table.columns();
+
+					// columns may be discovered during iteration
+					if (index == null || !index.indexes(columns))
+						index(columns);
+
+					String[] values = row.values(columns);
+
+					for (int i = 0; i < positions.length; i++) {
+
+						int p = positions[i];
+
+						String code = p < 0 ? null : values[p];
+
+						if (code == null || code.isEmpty())
+							continue;
+
+						String translation = applied[i].translate(code);
+
+						if (translation == null)
+							unmatched.get(names[i]).merge(code, 1L, Long::sum);
+						else
+							values[p] = translation;
+					}
+
+					return new ArrayRow(index, values);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void close() {
+					RowFile.close(rows);
+				}
+
+				// helper
+				private void index(List<Column> columns) {
+
+					index = new ColumnIndex(columns);
+
+					names = new QName[translations.size()];
+					positions = new int[translations.size()];
+					applied = new CodeTranslation[translations.size()];
+
+					int i = 0;
+
+					for (Map.Entry<QName, CodeTranslation> e : translations.entrySet()) {
+						names[i] = e.getKey();
+						positions[i] = index.position(e.getKey());
+						applied[i++] = e.getValue();
+					}
+				}
+			}
+
+			return new Rows();
+		}
+
+		@Override
+		public String toString() {
+			return "TranslatedTable [table=" + table + ", columns=" + translations.keySet() + "]";
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CodeTranslation [size=" + codes.size() + "]";
+	}
+}
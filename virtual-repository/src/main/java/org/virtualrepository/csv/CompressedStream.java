@@ -0,0 +1,108 @@
+package org.virtualrepository.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link InputStream} that compresses the content of another {@link InputStream} as it is read.
+ * <p>
+ * Content is compressed in chunks into a reusable buffer, so that memory does not grow with the size of the content.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+class CompressedStream extends InputStream {
+
+	private final InputStream stream;
+	private final Compression compression;
+
+	private final byte[] chunk = new byte[Compression.bufferSize];
+	private final TableStream.Buffer buffer = new TableStream.Buffer();
+
+	private OutputStream compressor;
+	private boolean finished;
+
+	// read position in the buffer
+	private int position;
+
+	CompressedStream(InputStream stream, Compression compression) {
+
+		this.stream = stream;
+		this.compression = compression;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		if (!fill())
+			return -1;
+
+		return buffer.bytes()[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+
+		if (length == 0)
+			return 0;
+
+		if (!fill())
+			return -1;
+
+		int read = Math.min(length, buffer.size() - position);
+
+		System.arraycopy(buffer.bytes(), position, bytes, offset, read);
+
+		position += read;
+
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.size() - position;
+	}
+
+	// compresses more content if there is nothing left to read, returns false if there is no more content
+	private boolean fill() throws IOException {
+
+		// compressors may buffer whole chunks before they output anything
+		while (buffer.size() == position) {
+
+			if (finished)
+				return false;
+
+			buffer.reset();
+			position = 0;
+
+			if (compressor == null)
+				compressor = compression.compress(buffer);
+
+			int read = stream.read(chunk);
+
+			if (read < 0) {
+				// completes the content
+				compressor.close();
+				finished = true;
+			}
+			else
+				compressor.write(chunk, 0, read);
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		try {
+			if (compressor != null && !finished)
+				compressor.close();
+		}
+		finally {
+			finished = true;
+			stream.close();
+		}
+	}
+}
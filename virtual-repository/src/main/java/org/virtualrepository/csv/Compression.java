@@ -0,0 +1,136 @@
+package org.virtualrepository.csv;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The compression of the content of {@link CsvAsset}s.
+ * <p>
+ * Content is compressed and decompressed on the fly with the codecs of the JDK, through large buffers.
+ * <code>DEFLATE</code> content is in the ZLIB format, as in HTTP.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public enum Compression {
+
+	NONE {
+
+		@Override
+		public InputStream decompress(InputStream stream) {
+			return notNullStream(stream);
+		}
+
+		@Override
+		public OutputStream compress(OutputStream stream) {
+			return notNullStream(stream);
+		}
+
+		@Override
+		public InputStream compress(InputStream stream) {
+			return notNullStream(stream);
+		}
+	},
+
+	GZIP {
+
+		@Override
+		public InputStream decompress(InputStream stream) throws IOException {
+			return new GZIPInputStream(notNullStream(stream), bufferSize);
+		}
+
+		@Override
+		public OutputStream compress(OutputStream stream) throws IOException {
+			return new GZIPOutputStream(notNullStream(stream), bufferSize);
+		}
+	},
+
+	DEFLATE {
+
+		@Override
+		public InputStream decompress(InputStream stream) {
+
+			return new InflaterInputStream(notNullStream(stream), new Inflater(), bufferSize) {
+
+				// releases the native memory of the custom inflater
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						inf.end();
+					}
+				}
+			};
+		}
+
+		@Override
+		public OutputStream compress(OutputStream stream) {
+
+			return new DeflaterOutputStream(notNullStream(stream), new Deflater(), bufferSize) {
+
+				// releases the native memory of the custom deflater
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						def.end();
+					}
+				}
+			};
+		}
+	};
+
+	public static final int bufferSize = 1 << 16;
+
+	/**
+	 * Returns a stream that decompresses the content of a given stream as it is read.
+	 *
+	 * @param stream the stream of compressed content
+	 * @return the stream of decompressed content
+	 *
+	 * @throws IOException if the compressed content cannot be read
+	 */
+	public abstract InputStream decompress(InputStream stream) throws IOException;
+
+	/**
+	 * Returns a stream that compresses content as it is written to a given stream.
+	 * <p>
+	 * Closing the returned stream completes the compressed content, and closes the given stream.
+	 *
+	 * @param stream the stream of compressed content
+	 * @return the stream of content to compress
+	 *
+	 * @throws IOException if the compressed content cannot be written
+	 */
+	public abstract OutputStream compress(OutputStream stream) throws IOException;
+
+	/**
+	 * Returns a stream that compresses the content of a given stream as it is read.
+	 *
+	 * @param stream the stream of decompressed content
+	 * @return the stream of compressed content
+	 */
+	public InputStream compress(InputStream stream) {
+
+		return new CompressedStream(notNullStream(stream), this);
+	}
+
+	// helper
+	private static <S> S notNullStream(S stream) {
+
+		notNull("stream", stream);
+
+		return stream;
+	}
+}
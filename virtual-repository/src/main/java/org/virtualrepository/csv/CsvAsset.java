@@ -27,6 +27,7 @@ public class CsvAsset extends AbstractAsset {
 	public static final String defaultEncoding = "UTF-8";
 	public static final boolean defaultHeader = false;
 	public static final long defaultRows = Long.MAX_VALUE;
+	public static final Compression defaultCompression = Compression.NONE;
 	
 	
 	/**
@@ -38,6 +39,7 @@ public class CsvAsset extends AbstractAsset {
 	private char quote= defaultQuote;
 	private boolean header = defaultHeader;
 	private String encoding = defaultEncoding;
+	private Compression compression = defaultCompression;
 	
 	private List<Column> columns = new ArrayList<Column>();
 	
@@ -211,6 +213,25 @@ public class CsvAsset extends AbstractAsset {
 		this.encoding = encoding.name();
 	}
 
+	/**
+	 * Returns the compression of the content of this asset (by default {@link Compression#NONE}).
+	 * 
+	 * @return the compression of the content of this asset
+	 */
+	public Compression compression() {
+		return compression;
+	}
+
+	/**
+	 * Sets the compression of the content of this asset, overriding the default ({@link Compression#NONE}).
+	 * 
+	 * @param compression the compression
+	 */
+	public void setCompression(Compression compression) {
+		notNull("compression", compression);
+		this.compression = compression;
+	}
+
 	/**
 	 * Returns the columns of this asset.
 	 * 
@@ -261,7 +282,7 @@ public class CsvAsset extends AbstractAsset {
 	public String toString() {
 		final int maxLen = 100;
 		return type().name() + " [delimiter=" + delimiter + ", quote=" + quote + ", header=" + header + ", encoding="
-				+ encoding + ", columns="
+				+ encoding + ", compression=" + compression + ", columns="
 				+ (columns != null ? columns.subList(0, Math.min(columns.size(), maxLen)) : null) + ", rows=" + rows
 				+ ", id()=" + id() + ", type()=" + type() + ", service()=" + service() + ", name()=" + name()
 				+ ", properties()=" + properties() + "]";
@@ -272,6 +293,7 @@ public class CsvAsset extends AbstractAsset {
 		final int prime = 31;
 		int result = super.hashCode();
 		result = prime * result + ((columns == null) ? 0 : columns.hashCode());
+		result = prime * result + ((compression == null) ? 0 : compression.hashCode());
 		result = prime * result + delimiter;
 		result = prime * result + ((encoding == null) ? 0 : encoding.hashCode());
 		result = prime * result + (header ? 1231 : 1237);
@@ -294,6 +316,8 @@ public class CsvAsset extends AbstractAsset {
 				return false;
 		} else if (!columns.equals(other.columns))
 			return false;
+		if (compression != other.compression)
+			return false;
 		if (delimiter != other.delimiter)
 			return false;
 		if (encoding == null) {
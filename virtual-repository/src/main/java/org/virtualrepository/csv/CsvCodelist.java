@@ -10,6 +10,8 @@ import org.virtualrepository.impl.Type;
  * A {@link CsvAsset} that represents a codelist.
  * 
  * @author Fabio Simeoni
+ * 
+ * @see CodeIndex
  *
  */
 public final class CsvCodelist extends CsvAsset {
@@ -105,7 +107,7 @@ public final class CsvCodelist extends CsvAsset {
 	public String toString() {
 		final int maxLen = 100;
 		return "CsvCodelist [codeColumn=" + codeColumn + ", delimiter()=" + delimiter() + ", quote()=" + quote()
-				+ ", hasHeader()=" + hasHeader() + ", encoding()=" + encoding() + ", columns()="
+				+ ", hasHeader()=" + hasHeader() + ", encoding()=" + encoding() + ", compression()=" + compression() + ", columns()="
 				+ (columns() != null ? columns().subList(0, Math.min(columns().size(), maxLen)) : null) + ", rows()="
 				+ rows() + ", id()=" + id() + ", type()=" + type() + ", service()=" + service() + ", name()=" + name()
 				+ "]";
@@ -0,0 +1,357 @@
+package org.virtualrepository.csv;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.virtualrepository.Utils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Table;
+
+/**
+ * A sparse index over the CSV content of a {@link CsvAsset} in a local file, which locates records in the file by
+ * their position.
+ * <p>
+ * The index records the byte offset of every <em>n</em>-th record, so that {@link CsvTable}s can be opened directly at
+ * any record, skipping at most <em>n</em>-1 records without decoding them. It is built with a first scan of the file,
+ * and then persisted next to it, where it is found by later uses until the file or the description of the asset change.
+ * <p>
+ * Offsets are in bytes of the file, so content must be uncompressed and in an encoding that can be tokenized without
+ * transcoding, such as UTF-8 or single-byte encodings.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#slice(long, long)
+ */
+public class CsvIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(CsvIndex.class);
+
+	public static final int defaultInterval = 1024;
+
+	public static final String extension = ".idx";
+
+	private static final int magic = 0x56524958;
+	private static final int version = 1;
+
+	private final CsvAsset asset;
+	private final Path content;
+
+	private final int interval;
+	private final long rows;
+	private final long[] offsets;
+
+	// the state of the content when the index was built
+	private final long size;
+	private final long modified;
+
+	private CsvIndex(CsvAsset asset, Path content, int interval, long rows, long[] offsets, long size, long modified) {
+
+		this.asset = asset;
+		this.content = content;
+		this.interval = interval;
+		this.rows = rows;
+		this.offsets = offsets;
+		this.size = size;
+		this.modified = modified;
+	}
+
+	/**
+	 * Returns the index of the content of a given asset in a given file, with a default interval between indexed
+	 * records.
+	 *
+	 * @param asset the asset
+	 * @param content the file
+	 * @return the index
+	 *
+	 * @see #of(CsvAsset, Path, int)
+	 */
+	public static CsvIndex of(CsvAsset asset, Path content) {
+
+		return of(asset, content, defaultInterval);
+	}
+
+	/**
+	 * Returns the index of the content of a given asset in a given file, with a given interval between indexed records.
+	 * <p>
+	 * The index is read from its file (cf. {@link #pathFor(Path)}) if it is still valid for the content and the asset.
+	 * Otherwise it is built with a scan of the content, and then persisted in its file.
+	 *
+	 * @param asset the asset
+	 * @param content the file
+	 * @param interval the number of records between indexed records
+	 * @return the index
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described, or its content is not in an encoding
+	 *             that can be indexed
+	 */
+	public static CsvIndex of(CsvAsset asset, Path content, int interval) {
+
+		validate(asset, content, interval);
+
+		Path file = pathFor(content);
+
+		if (Files.exists(file))
+			try {
+
+				CsvIndex index = load(asset, content, file);
+
+				if (index != null && index.interval == interval)
+					return index;
+			}
+			catch (Exception e) {
+				log.warn("cannot read index " + file + ", rebuilding it", e);
+			}
+
+		CsvIndex index = build(asset, content, interval);
+
+		try {
+			index.save(file);
+		}
+		catch (Exception e) {
+			log.warn("cannot persist index " + file, e);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Builds the index of the content of a given asset in a given file, with a given interval between indexed records,
+	 * scanning the content.
+	 * <p>
+	 * The scan describes the columns in the header of the content, if the asset has one.
+	 *
+	 * @param asset the asset
+	 * @param content the file
+	 * @param interval the number of records between indexed records
+	 * @return the index
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described, or its content is not in an encoding
+	 *             that can be indexed
+	 */
+	public static CsvIndex build(CsvAsset asset, Path content, int interval) {
+
+		validate(asset, content, interval);
+
+		long[] offsets = new long[16];
+		long rows = 0;
+
+		try {
+
+			long size = Files.size(content);
+			long modified = Files.getLastModifiedTime(content).toMillis();
+
+			try (CsvTokenizer tokenizer = CsvTable.tokenizerFor(asset, FileChannel.open(content, READ))) {
+
+				if (asset.hasHeader() && tokenizer.next())
+					asset.setColumns(CsvTable.headerColumns(tokenizer.values()).toArray(new Column[0]));
+
+				for (int indexed = 0; tokenizer.next(); rows++)
+					if (rows % interval == 0) {
+
+						if (indexed == offsets.length)
+							offsets = Arrays.copyOf(offsets, indexed * 2);
+
+						offsets[indexed++] = tokenizer.offset();
+					}
+			}
+
+			return new CsvIndex(asset, content, interval, rows, Arrays.copyOf(offsets, entries(rows, interval)), size,
+					modified);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("cannot index CSV content of asset " + asset.id(), e);
+		}
+	}
+
+	/**
+	 * Returns the file of the index of the content in a given file.
+	 *
+	 * @param content the file of the content
+	 * @return the file of the index
+	 */
+	public static Path pathFor(Path content) {
+
+		notNull("content", content);
+
+		return content.resolveSibling(content.getFileName() + extension);
+	}
+
+	/**
+	 * Returns the number of records in the indexed content.
+	 *
+	 * @return the number of records
+	 */
+	public long rows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of records between indexed records.
+	 *
+	 * @return the interval
+	 */
+	public int interval() {
+		return interval;
+	}
+
+	/**
+	 * Returns a table with the rows of the indexed content from a given position, opening the content directly at the
+	 * closest indexed record.
+	 *
+	 * @param from the position of the first row, from 0
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the position is negative
+	 */
+	public Table table(long from) {
+
+		if (from < 0)
+			throw new IllegalArgumentException("invalid position " + from);
+
+		try {
+
+			// the header describes the columns, and is read only once
+			if (asset.hasHeader() && asset.columns().isEmpty())
+				try (InputStream stream = Files.newInputStream(content)) {
+					new CsvTable(asset, stream);
+				}
+
+			if (offsets.length == 0)
+				return new CsvTable(asset, content).slice(from, Long.MAX_VALUE);
+
+			int entry = (int) Math.min(from / interval, offsets.length - 1);
+
+			long position = (long) entry * interval;
+
+			FileChannel channel = FileChannel.open(content, READ);
+
+			channel.position(offsets[entry]);
+
+			return new CsvTable(asset, CsvTable.tokenizerFor(asset, channel), position, false).slice(from - position,
+					Long.MAX_VALUE);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("cannot open CSV content of asset " + asset.id(), e);
+		}
+	}
+
+	/**
+	 * Returns a table with a given number of rows of the indexed content, from a given position, opening the content
+	 * directly at the closest indexed record.
+	 *
+	 * @param from the position of the first row, from 0
+	 * @param count the maximum number of rows
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the position or the number of rows are negative
+	 */
+	public Table slice(long from, long count) {
+
+		if (count < 0)
+			throw new IllegalArgumentException("invalid slice " + from + "+" + count);
+
+		return table(from).slice(0, count);
+	}
+
+	/**
+	 * Persists this index in a given file.
+	 *
+	 * @param file the file
+	 *
+	 * @throws IOException if the index cannot be persisted
+	 */
+	public void save(Path file) throws IOException {
+
+		notNull("file", file);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+
+			out.writeInt(magic);
+			out.writeInt(version);
+
+			out.writeLong(size);
+			out.writeLong(modified);
+
+			out.writeChar(asset.delimiter());
+			out.writeChar(asset.quote());
+			out.writeBoolean(asset.hasHeader());
+			out.writeUTF(asset.encoding().name());
+
+			out.writeInt(interval);
+			out.writeLong(rows);
+
+			for (long offset : offsets)
+				out.writeLong(offset);
+		}
+	}
+
+	// reads an index from a file, returning null if it is stale for the content or the asset
+	private static CsvIndex load(CsvAsset asset, Path content, Path file) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+			if (in.readInt() != magic || in.readInt() != version)
+				throw new IOException("not a CSV index or an unsupported version");
+
+			long size = in.readLong();
+			long modified = in.readLong();
+
+			if (size != Files.size(content) || modified != Files.getLastModifiedTime(content).toMillis())
+				return null;
+
+			if (in.readChar() != asset.delimiter() || in.readChar() != asset.quote()
+					|| in.readBoolean() != asset.hasHeader() || !in.readUTF().equals(asset.encoding().name()))
+				return null;
+
+			int interval = in.readInt();
+			long rows = in.readLong();
+
+			long[] offsets = new long[entries(rows, interval)];
+
+			for (int i = 0; i < offsets.length; i++)
+				offsets[i] = in.readLong();
+
+			return new CsvIndex(asset, content, interval, rows, offsets, size, modified);
+		}
+	}
+
+	// helper
+	private static int entries(long rows, int interval) {
+		return (int) ((rows + interval - 1) / interval);
+	}
+
+	// helper
+	private static void validate(CsvAsset asset, Path content, int interval) {
+
+		notNull("asset", asset);
+		notNull("content", content);
+
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval must be positive");
+
+		if (!CsvTokenizer.tokenizes(asset.encoding()))
+			throw new IllegalArgumentException("cannot index CSV asset " + asset.id() + " in encoding "
+					+ asset.encoding() + ", as it must be transcoded to be parsed");
+
+		if (asset.compression() != Compression.NONE)
+			throw new IllegalArgumentException("cannot index CSV asset " + asset.id() + " with " + asset.compression()
+					+ " compression, as it must be decompressed to be parsed");
+	}
+
+	@Override
+	public String toString() {
+		return "CsvIndex [content=" + content + ", interval=" + interval + ", rows=" + rows + "]";
+	}
+}
@@ -0,0 +1,273 @@
+package org.virtualrepository.csv;
+
+import static org.virtualrepository.Utils.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.virtualrepository.Flow.Processor;
+import org.virtualrepository.Flow.Subscriber;
+import org.virtualrepository.Flow.Subscription;
+import org.virtualrepository.tabular.ArrayRow;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.ColumnIndex;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowPublisher;
+
+/**
+ * Parses CSV content published in chunks by a non-blocking source, and publishes its {@link Row}s.
+ * <p>
+ * Chunks are requested from the source only when there is demand for rows that cannot be met with the content received
+ * so far, one at a time. Rows are published as records are complete, on the threads that deliver content or request
+ * rows, or else on a given {@link Executor}. Like {@link CsvTable}s, processors describe the content in their
+ * {@link CsvAsset}s as they discover it, and publish rows only once.
+ * <p>
+ * Chunks must be uncompressed.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class CsvProcessor implements Processor<ByteBuffer, Row> {
+
+	private final CsvAsset asset;
+	private final CsvTokenizer.Fed tokenizer;
+	private final Executor executor;
+
+	// signals from the source
+	private final Queue<ByteBuffer> chunks = new ConcurrentLinkedQueue<ByteBuffer>();
+	private volatile Subscription source;
+	private volatile boolean ended;
+	private volatile Throwable failure;
+	private volatile boolean requested;
+
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	private volatile RowEmitter emitter;
+
+	// accessed only while emitting
+	private List<Column> columns;
+	private ColumnIndex index;
+	private boolean header;
+	private long count;
+
+	/**
+	 * Creates an instance for a given asset, which publishes rows on the threads that deliver content or request rows.
+	 *
+	 * @param asset the asset
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 */
+	public CsvProcessor(CsvAsset asset) {
+
+		this(asset, Runnable::run);
+	}
+
+	/**
+	 * Creates an instance for a given asset, which publishes rows on a given executor.
+	 *
+	 * @param asset the asset
+	 * @param executor the executor
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 */
+	public CsvProcessor(CsvAsset asset, Executor executor) {
+
+		notNull("asset", asset);
+		notNull("executor", executor);
+
+		if (asset.compression() != Compression.NONE)
+			throw new IllegalArgumentException("invalid CSV asset " + asset.id() + ": chunks of " + asset.compression()
+					+ " content cannot be processed");
+
+		this.asset = asset;
+		this.executor = executor;
+
+		try {
+			this.tokenizer = new CsvTokenizer.Fed(asset.delimiter(), asset.quote(), asset.encoding());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("invalid CSV asset " + asset.id() + ": " + e.getMessage(), e);
+		}
+
+		this.columns = asset.columns();
+		this.index = new ColumnIndex(columns);
+		this.header = asset.hasHeader();
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super Row> subscriber) {
+
+		notNull("subscriber", subscriber);
+
+		if (!subscribed.compareAndSet(false, true)) {
+
+			subscriber.onSubscribe(new Subscription() {
+
+				public void request(long n) {
+				}
+
+				public void cancel() {
+				}
+			});
+
+			subscriber.onError(new IllegalStateException("rows of asset " + asset.id() + " have already been published"));
+
+			return;
+		}
+
+		emitter = new RowEmitter(subscriber);
+
+		emitter.start();
+	}
+
+	@Override
+	public void onSubscribe(Subscription subscription) {
+
+		notNull("subscription", subscription);
+
+		if (source != null) {
+			subscription.cancel();
+			return;
+		}
+
+		source = subscription;
+
+		signal();
+	}
+
+	@Override
+	public void onNext(ByteBuffer chunk) {
+
+		notNull("chunk", chunk);
+
+		chunks.add(chunk);
+
+		requested = false;
+
+		signal();
+	}
+
+	@Override
+	public void onError(Throwable error) {
+
+		notNull("error", error);
+
+		failure = error;
+
+		signal();
+	}
+
+	@Override
+	public void onComplete() {
+
+		ended = true;
+
+		signal();
+	}
+
+	// helper
+	private void signal() {
+
+		RowEmitter emitter = this.emitter;
+
+		if (emitter != null)
+			emitter.signal();
+	}
+
+	// publishes rows to the subscriber
+	private class RowEmitter extends RowPublisher.Emitter<Row> {
+
+		RowEmitter(Subscriber<? super Row> subscriber) {
+			super(subscriber, executor);
+		}
+
+		@Override
+		protected void produce() throws Exception {
+
+			while (demanded()) {
+
+				if (failure != null) {
+					complete(failure);
+					return;
+				}
+
+				// the end is signalled after the last chunk
+				boolean end = ended;
+
+				for (ByteBuffer chunk = chunks.poll(); chunk != null; chunk = chunks.poll())
+					tokenizer.feed(chunk);
+
+				if (end)
+					tokenizer.end();
+
+				if (asset.rows() <= count) {
+					complete(null);
+					return;
+				}
+
+				if (tokenizer.next())
+					publish();
+
+				else if (end) {
+					complete(null);
+					return;
+				}
+
+				else {
+
+					// waits for more content
+					if (!requested && source != null) {
+						requested = true;
+						source.request(1);
+					}
+
+					return;
+				}
+			}
+		}
+
+		// helper
+		private void publish() {
+
+			if (header) {
+
+				header = false;
+
+				List<Column> reconciled = CsvTable.reconciled(CsvTable.headerColumns(tokenizer.values()), columns);
+
+				if (reconciled != columns)
+					update(reconciled);
+
+				return;
+			}
+
+			//invent missing columns based on data evidence
+			if (tokenizer.fields() > columns.size())
+				update(CsvTable.extend(columns, tokenizer.fields()));
+
+			count++;
+
+			emit(new ArrayRow(index, tokenizer.values()));
+		}
+
+		// helper
+		private void update(List<Column> newColumns) {
+
+			columns = newColumns;
+			index = new ColumnIndex(columns);
+
+			asset.setColumns(newColumns.toArray(new Column[0]));
+		}
+
+		@Override
+		protected void release() {
+
+			Subscription source = CsvProcessor.this.source;
+
+			if (source != null && !ended && failure == null)
+				source.cancel();
+		}
+	}
+}
@@ -0,0 +1,401 @@
+package org.virtualrepository.csv;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Values;
+
+/**
+ * Describes {@link CsvAsset}s from a sample of their content, before the content is parsed.
+ * <p>
+ * A sniffer reads a bounded prefix of the content once, and infers from its complete records the delimiter, the quote,
+ * whether the content has a header, the number of columns, and the type of each column. It then returns a stream of
+ * the whole content, which replays the prefix from memory before reading the rest, so that the content is not read
+ * twice.
+ * <p>
+ * Delimiters are inferred among commas, semicolons, tabs, and pipes, and quotes among double and single quotes, in
+ * favour of those already described when the sample is ambiguous. Column types are inferred among {@link Long},
+ * {@link Double}, {@link Boolean}, {@link LocalDate}, and {@link LocalDateTime}, and default to {@link String}. The
+ * encoding and the compression of the content are not inferred, and compressed content is sampled decompressed but
+ * replayed as it was read.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class CsvSniffer {
+
+	public static final int defaultSampleSize = 1 << 16;
+
+	private static final char[] delimiters = { ',', ';', '\t', '|' };
+	private static final char[] quotes = { '"', '\'' };
+
+	private static final Class<?>[] types = { Long.class, Double.class, Boolean.class, LocalDate.class,
+			LocalDateTime.class };
+
+	private final int sampleSize;
+
+	/**
+	 * Creates an instance that samples a default number of bytes.
+	 */
+	public CsvSniffer() {
+
+		this(defaultSampleSize);
+	}
+
+	/**
+	 * Creates an instance that samples a given number of bytes.
+	 *
+	 * @param sampleSize the number of bytes
+	 */
+	public CsvSniffer(int sampleSize) {
+
+		if (sampleSize <= 0)
+			throw new IllegalArgumentException("sample size must be positive");
+
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * Returns a {@link CsvTable} for a given asset and its content in a given stream, once the asset has been
+	 * described from a sample of the content.
+	 *
+	 * @param asset the asset
+	 * @param stream the stream
+	 * @return the table
+	 *
+	 * @see #sniff(CsvAsset, InputStream)
+	 */
+	public CsvTable table(CsvAsset asset, InputStream stream) {
+
+		return new CsvTable(asset, sniff(asset, stream));
+	}
+
+	/**
+	 * Describes a given asset from a sample of its content in a given stream, and returns a stream of the whole
+	 * content.
+	 * <p>
+	 * The delimiter, the quote, the header, and the columns of the asset are set, unless the sample has no complete
+	 * records.
+	 *
+	 * @param asset the asset
+	 * @param stream the stream
+	 * @return the stream of the whole content, including the sample
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 */
+	public InputStream sniff(CsvAsset asset, InputStream stream) {
+
+		notNull("asset", asset);
+		notNull("stream", stream);
+
+		byte[] sample = new byte[sampleSize];
+		int length = 0;
+		boolean eof = false;
+
+		// compressed content is sampled decompressed, but replayed as it was read
+		Recording recording = asset.compression() == Compression.NONE ? null : new Recording(stream);
+
+		try {
+
+			InputStream source = recording == null ? stream : asset.compression().decompress(recording);
+
+			while (length < sample.length) {
+
+				int read = source.read(sample, length, sample.length - length);
+
+				if (read < 0) {
+					eof = true;
+					break;
+				}
+
+				length += read;
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("cannot sample CSV content of asset " + asset.id(), e);
+		}
+
+		Sample best = null;
+
+		for (char[] dialect : dialectsFor(asset)) {
+
+			Sample candidate = new Sample(dialect[0], dialect[1]);
+
+			if (candidate.parse(asset, sample, length, eof) && (best == null || candidate.betterThan(best)))
+				best = candidate;
+		}
+
+		if (best != null)
+			best.describe(asset);
+
+		if (recording != null)
+			return new SequenceInputStream(recording.replay(), stream);
+
+		InputStream prefix = new ByteArrayInputStream(sample, 0, length);
+
+		return eof ? prefix : new SequenceInputStream(prefix, stream);
+	}
+
+	// records the bytes read from a stream
+	private static class Recording extends FilterInputStream {
+
+		private final TableStream.Buffer buffer = new TableStream.Buffer();
+
+		Recording(InputStream stream) {
+			super(stream);
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			int b = super.read();
+
+			if (b >= 0)
+				buffer.write(b);
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+
+			int read = super.read(bytes, offset, length);
+
+			if (read > 0)
+				buffer.write(bytes, offset, read);
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+
+			// skipped bytes are recorded too
+			if (n <= 0)
+				return 0;
+
+			return Math.max(0, read(new byte[(int) Math.min(n, 1 << 12)]));
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		InputStream replay() {
+			return new ByteArrayInputStream(buffer.bytes(), 0, buffer.size());
+		}
+	}
+
+	// candidate dialects, starting with the one described in the asset
+	private static List<char[]> dialectsFor(CsvAsset asset) {
+
+		List<char[]> dialects = new ArrayList<char[]>();
+
+		dialects.add(new char[] { asset.delimiter(), asset.quote() });
+
+		for (char delimiter : delimiters)
+			for (char quote : quotes)
+				if (delimiter != asset.delimiter() || quote != asset.quote())
+					dialects.add(new char[] { delimiter, quote });
+
+		return dialects;
+	}
+
+	// the complete records of the sample, as parsed with a candidate dialect
+	private static class Sample {
+
+		final char delimiter;
+		final char quote;
+
+		final List<String[]> records = new ArrayList<String[]>();
+
+		// the most frequent number of fields, and its frequency
+		int fields;
+		double consistency;
+
+		Sample(char delimiter, char quote) {
+			this.delimiter = delimiter;
+			this.quote = quote;
+		}
+
+		// parses the sample, returning false if it cannot be parsed with this dialect
+		boolean parse(CsvAsset asset, byte[] sample, int length, boolean eof) {
+
+			InputStream stream = CsvTokenizer.stream(new ByteArrayInputStream(sample, 0, length), asset.encoding());
+
+			try (CsvTokenizer tokenizer = new CsvTokenizer.Streamed(stream, delimiter, quote,
+					CsvTokenizer.encodingFor(asset.encoding()))) {
+
+				// the last record may have been cut by the sample
+				tokenizer.terminated = !eof;
+
+				while (tokenizer.next())
+					records.add(tokenizer.values());
+			}
+			catch (IllegalArgumentException e) {
+				return false; // not in the encoding
+			}
+			catch (IOException e) {
+				throw new RuntimeException("cannot parse CSV sample of asset " + asset.id(), e);
+			}
+
+			if (records.isEmpty())
+				return false;
+
+			Map<Integer, Integer> frequencies = new HashMap<Integer, Integer>();
+
+			int frequency = 0;
+
+			for (String[] record : records) {
+
+				int f = frequencies.merge(record.length, 1, Integer::sum);
+
+				if (f > frequency || (f == frequency && record.length > fields)) {
+					frequency = f;
+					fields = record.length;
+				}
+			}
+
+			consistency = (double) frequency / records.size();
+
+			return true;
+		}
+
+		// prefers multiple fields, then consistent numbers of fields, then more fields
+		boolean betterThan(Sample other) {
+
+			if ((fields > 1) != (other.fields > 1))
+				return fields > 1;
+
+			if (consistency != other.consistency)
+				return consistency > other.consistency;
+
+			return fields > other.fields;
+		}
+
+		void describe(CsvAsset asset) {
+
+			boolean header = hasHeader();
+
+			List<String[]> data = header ? records.subList(1, records.size()) : records;
+
+			int count = 0;
+
+			for (String[] record : records)
+				count = Math.max(count, record.length);
+
+			List<Column> columns = header ? CsvTable.headerColumns(records.get(0)) : new ArrayList<Column>();
+
+			columns = CsvTable.extend(columns, count);
+
+			for (int c = 0; c < count; c++)
+				columns.get(c).setType(typeOf(data, c));
+
+			asset.setDelimiter(delimiter);
+			asset.setQuote(quote);
+			asset.hasHeader(header);
+			asset.setColumns(columns.toArray(new Column[0]));
+		}
+
+		// the first record is a header if most of its fields do not look like the data in their columns
+		boolean hasHeader() {
+
+			if (records.size() < 2)
+				return false;
+
+			String[] first = records.get(0);
+
+			List<String[]> data = records.subList(1, records.size());
+
+			int votes = 0;
+
+			for (int c = 0; c < first.length; c++) {
+
+				Class<?> type = typeOf(data, c);
+
+				if (type != String.class)
+					votes += first[c].isEmpty() || decodes(type, first[c]) ? -1 : 1;
+
+				else {
+
+					int length = lengthOf(data, c);
+
+					if (length >= 0)
+						votes += first[c].length() != length ? 1 : -1;
+				}
+			}
+
+			return votes > 0;
+		}
+
+		// the most specific type of the non-empty values of a column, or String
+		static Class<?> typeOf(List<String[]> records, int column) {
+
+			Set<Class<?>> candidates = new LinkedHashSet<Class<?>>(Arrays.asList(types));
+
+			boolean values = false;
+
+			for (String[] record : records) {
+
+				if (column >= record.length || record[column].trim().isEmpty())
+					continue;
+
+				values = true;
+
+				candidates.removeIf(type -> !decodes(type, record[column]));
+
+				if (candidates.isEmpty())
+					break;
+			}
+
+			return values && !candidates.isEmpty() ? candidates.iterator().next() : String.class;
+		}
+
+		// the common length of the values of a column, or -1 if lengths vary
+		static int lengthOf(List<String[]> records, int column) {
+
+			int length = -1;
+
+			for (String[] record : records) {
+
+				if (column >= record.length)
+					continue;
+
+				if (length >= 0 && record[column].length() != length)
+					return -1;
+
+				length = record[column].length();
+			}
+
+			return length;
+		}
+
+		// helper
+		static boolean decodes(Class<?> type, String value) {
+
+			try {
+				Values.decode(type, value);
+				return true;
+			}
+			catch (IllegalArgumentException e) {
+				return false;
+			}
+		}
+	}
+}
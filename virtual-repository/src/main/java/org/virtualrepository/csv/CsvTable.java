@@ -1,111 +1,527 @@
 package org.virtualrepository.csv;
 
+import static java.nio.file.StandardOpenOption.*;
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
-
-import javax.xml.namespace.QName;
+import java.util.function.IntFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.virtualrepository.impl.PropertyHolder;
+import org.virtualrepository.tabular.ArrayRow;
 import org.virtualrepository.tabular.Column;
-import org.virtualrepository.tabular.DefaultTable;
+import org.virtualrepository.tabular.ColumnIndex;
+import org.virtualrepository.tabular.Filter;
 import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowBatch;
 import org.virtualrepository.tabular.Table;
 
-import au.com.bytecode.opencsv.CSVReader;
-
 /**
  * A {@link Table} backed up by an {@link InputStream} of CSV data.
- * 
+ * <p>
+ * The table can be iterated over only once. Before iteration, a subset of its columns can be selected (cf.
+ * {@link #select(List)}, {@link #select(int...)}), in which case the fields of the other columns are skipped
+ * without being decoded. Similarly, rows can be filtered (cf. {@link #filter(Filter)}), in which case {@link Filter}s
+ * are evaluated on the raw fields of each record and rows are built only for the records that satisfy them.
+ *
  * @author Fabio Simeoni
- * 
+ *
  */
 public class CsvTable extends PropertyHolder implements Table {
 
 	private static final Logger log = LoggerFactory.getLogger(CsvTable.class);
 
-	
-	private final Table inner;
+
 	private final CsvAsset asset;
-	private final CSVReader reader;
+	private final CsvTokenizer tokenizer;
 
 	List<Column> columns =new ArrayList<Column>();
 
+	//positions of selected fields, null if all fields are selected
+	private final int[] projection;
+
+	//filter on records, null if all records are selected
+	private final Filter filter;
+	private final RecordTest test;
+
+	// the position of the first record in the stream, and the range of records in the table
+	private final long origin;
+	private long start;
+	private long end = Long.MAX_VALUE;
+
+	private RowIterator iterator;
+
 	/**
 	 * Creates an instance for a given {@link CsvAsset} asset and {@link InputStream}.
-	 * 
+	 * <p>
+	 * The stream is decompressed as it is read, if the asset describes its content as compressed.
+	 *
 	 * @param asset the asset
 	 * @param stream the stream
-	 * 
+	 *
 	 * @throws IllegalArgumentException if the asset is inconsistently described
 	 */
 	public CsvTable(CsvAsset asset, InputStream stream) {
-		
+
+		this(asset, stream, 0, asset.hasHeader());
+	}
+
+	/**
+	 * Creates an instance for a given {@link CsvAsset} asset and its content in a given file.
+	 * <p>
+	 * Uncompressed content that can be tokenized in its encoding is memory-mapped and tokenized in place, and fields are
+	 * decoded only when rows are accessed. Other content is streamed as from an {@link InputStream}.
+	 *
+	 * @param asset the asset
+	 * @param file the file
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 * @throws RuntimeException if the file cannot be opened
+	 */
+	public CsvTable(CsvAsset asset, Path file) {
+
+		this(asset, open(asset, file));
+	}
+
+	/**
+	 * Creates an instance for a given {@link CsvAsset} asset and its content in a given {@link FileChannel}, from the
+	 * current position of the channel.
+	 * <p>
+	 * Uncompressed content that can be tokenized in its encoding is memory-mapped and tokenized in place. Other content
+	 * is streamed as from an {@link InputStream}. The channel is closed when the table is iterated over to the end, or
+	 * when its iterator is closed.
+	 *
+	 * @param asset the asset
+	 * @param channel the channel
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 */
+	public CsvTable(CsvAsset asset, FileChannel channel) {
+
+		this(asset, tokenizerFor(asset, channel), 0, asset.hasHeader());
+	}
+
+	/**
+	 * Creates an instance for a given {@link CsvAsset} asset and an {@link InputStream} that starts at the record in a
+	 * given position, past the header if the asset has one.
+	 *
+	 * @param asset the asset
+	 * @param stream the stream
+	 * @param position the position of the first record in the stream, from 0
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 */
+	CsvTable(CsvAsset asset, InputStream stream, long position) {
+
+		this(asset, stream, position, false);
+	}
+
+	// helper
+	private CsvTable(CsvAsset asset, InputStream stream, long position, boolean header) {
+
+		this(asset, tokenizerFor(asset, stream), position, header);
+	}
+
+	/**
+	 * Creates an instance for a given {@link CsvAsset} asset and a {@link CsvTokenizer} positioned at the record in a
+	 * given position, or else at the header of the content.
+	 *
+	 * @param asset the asset
+	 * @param tokenizer the tokenizer
+	 * @param position the position of the first record after the header, from 0
+	 * @param header <code>true</code> if the tokenizer is positioned at the header
+	 *
+	 * @throws IllegalArgumentException if the header cannot be read
+	 */
+	CsvTable(CsvAsset asset, CsvTokenizer tokenizer, long position, boolean header) {
+
 		this.asset=asset;
-		
-		this.reader = validateAssetAndBuildReader(asset, stream);
-		
-		RowIterator iterator = new RowIterator();
-		
+
+		this.tokenizer = tokenizer;
+
+		if (header)
+			readHeader();
+
+		this.projection = null;
+		this.filter = null;
+		this.test = null;
+
+		this.origin = position;
+		this.start = position;
+
 		this.columns = asset.columns();
+	}
 
-		inner = new DefaultTable(asset.columns(), iterator);
+	// selects columns and records of another table
+	private CsvTable(CsvTable table, List<Column> columns, int[] projection, Filter filter, RecordTest test) {
+
+		this.asset=table.asset;
+		this.tokenizer=table.tokenizer;
+		this.columns=columns;
+		this.projection=projection;
+		this.filter=filter;
+		this.test=test;
+
+		this.origin=table.origin;
+		this.start=table.start;
+		this.end=table.end;
+
+		properties().add(table.properties().toArray());
 	}
-	
-	
+
+	/**
+	 * Returns a {@link CsvTokenizer} for the content of a given {@link CsvAsset} in a given {@link InputStream}.
+	 *
+	 * @param asset the asset
+	 * @param stream the stream
+	 * @return the tokenizer
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 */
+	static CsvTokenizer tokenizerFor(CsvAsset asset, InputStream stream) {
+
+		try {
+
+			stream = asset.compression().decompress(stream);
+
+			return new CsvTokenizer.Streamed(CsvTokenizer.stream(stream, asset.encoding()), asset.delimiter(),
+					asset.quote(), CsvTokenizer.encodingFor(asset.encoding()));
+		}
+		catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("invalid CSV asset " + asset.id() + ": " + e.getMessage(), e);
+		}
+		catch(IOException e) {
+			throw new IllegalArgumentException("invalid CSV asset " + asset.id() + ": cannot decompress stream", e);
+		}
+	}
+
+	/**
+	 * Returns a {@link CsvTokenizer} for the content of a given {@link CsvAsset} in a given {@link FileChannel}, from
+	 * the current position of the channel.
+	 * <p>
+	 * The content is memory-mapped if it is uncompressed and can be tokenized in its encoding, and it is streamed
+	 * otherwise.
+	 *
+	 * @param asset the asset
+	 * @param channel the channel
+	 * @return the tokenizer
+	 *
+	 * @throws IllegalArgumentException if the asset is inconsistently described
+	 */
+	static CsvTokenizer tokenizerFor(CsvAsset asset, FileChannel channel) {
+
+		if (asset.compression() != Compression.NONE || !CsvTokenizer.tokenizes(asset.encoding()))
+			return tokenizerFor(asset, Channels.newInputStream(channel));
+
+		try {
+			return new CsvTokenizer.Mapped(channel, channel.position(), asset.delimiter(), asset.quote(),
+					asset.encoding());
+		}
+		catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("invalid CSV asset " + asset.id() + ": " + e.getMessage(), e);
+		}
+		catch(IOException e) {
+			throw new RuntimeException("cannot open CSV content of asset " + asset.id(), e);
+		}
+	}
+
 	// helper
-	private CSVReader validateAssetAndBuildReader(CsvAsset asset,InputStream stream) {
-		
-		CSVReader reader = new CSVReader(new InputStreamReader(stream, asset.encoding()),asset.delimiter(),asset.quote());
+	private static FileChannel open(CsvAsset asset, Path file) {
+
+		notNull("file", file);
+
+		try {
+			return FileChannel.open(file, READ);
+		}
+		catch(IOException e) {
+			throw new RuntimeException("cannot open CSV content of asset " + asset.id(), e);
+		}
+	}
+
+	// helper
+	private void readHeader() {
 
 		List<Column> columns =new ArrayList<Column>();
-		
-		int i = 1;
-		
-		if (asset.hasHeader())
-			try {
-				for (String name : reader.readNext()) {
-					
-					//synthesise names for missing header columns
-					if (name==null || name.isEmpty())
-						name = nameFor(i);
-					
-					columns.add(new Column(name));
-					
-					i++;
-				}
-			}
-			catch (Exception e) {
-				throw new IllegalArgumentException("invalid CSV asset " + asset.id() + ": cannot read stream",e);
-			}
-		
-		if (!columns.isEmpty())
+
+		try {
+
+			if (tokenizer.next())
+				columns = headerColumns(tokenizer.values());
+		}
+		catch (Exception e) {
+			throw new IllegalArgumentException("invalid CSV asset " + asset.id() + ": cannot read stream",e);
+		}
+
+		List<Column> described = asset.columns();
+
+		columns = reconciled(columns, described);
+
+		if (columns != described)
 			updateColumns(columns);
-		
-		
-		return reader;
+	}
+
+	// the columns of a header, or columns already described with the same names, e.g. with their types
+	static List<Column> reconciled(List<Column> header, List<Column> described) {
+
+		return header.isEmpty() || sameNames(header, described) ? described : header;
+	}
+
+	// helper
+	private static boolean sameNames(List<Column> columns, List<Column> described) {
+
+		if (columns.size() != described.size())
+			return false;
+
+		for (int i = 0; i < columns.size(); i++)
+			if (!columns.get(i).name().equals(described.get(i).name()))
+				return false;
+
+		return true;
 	}
 
 	@Override
 	public Iterator<Row> iterator() {
-		return inner.iterator();
+
+		if (iterator==null)
+			iterator = new RowIterator();
+
+		return iterator;
+	}
+
+	/**
+	 * Returns a table with given columns of this table, whose fields are decoded while the fields of other columns are
+	 * skipped.
+	 * <p>
+	 * This table should no longer be used, as the returned table consumes the same stream.
+	 *
+	 * @param columns the columns
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if some of the columns are not in this table
+	 * @throws IllegalStateException if this table has already been iterated over
+	 */
+	@Override
+	public Table select(List<Column> columns) {
+
+		int[] positions = new int[columns.size()];
+
+		ColumnIndex index = new ColumnIndex(this.columns);
+
+		for (int i = 0; i < positions.length; i++) {
+
+			positions[i] = index.position(columns.get(i).name());
+
+			if (positions[i] < 0)
+				throw new IllegalArgumentException("unknown column " + columns.get(i).name());
+		}
+
+		return select(positions);
 	}
-	
+
+	/**
+	 * Returns a table with the columns of this table at given positions, whose fields are decoded while the fields of
+	 * other columns are skipped.
+	 * <p>
+	 * Positions need not correspond to known columns, in which case column names are synthesised. If this table is
+	 * itself a selection, positions must correspond to its columns.
+	 * <p>
+	 * This table should no longer be used, as the returned table consumes the same stream.
+	 *
+	 * @param positions the positions
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if some of the positions are negative, or do not correspond to the columns of a
+	 *             selection
+	 * @throws IllegalStateException if this table has already been iterated over
+	 */
+	@Override
+	public Table select(int ... positions) {
+
+		if (iterator!=null)
+			throw new IllegalStateException("table has already been iterated over, columns can no longer be selected");
+
+		List<Column> selected = new ArrayList<Column>();
+		int[] fields = new int[positions.length];
+
+		for (int i = 0; i < positions.length; i++) {
+
+			if (positions[i] < 0 || (projection != null && positions[i] >= projection.length))
+				throw new IllegalArgumentException("invalid column position " + positions[i]);
+
+			fields[i] = projection == null ? positions[i] : projection[positions[i]];
+
+			selected.add(positions[i] < columns.size() ? columns.get(positions[i]) : new Column(nameFor(positions[i]+1)));
+		}
+
+		return new CsvTable(this, selected, fields, filter, test);
+	}
+
+	/**
+	 * Returns a table with the rows of this table that satisfy a given filter, evaluating the filter on the raw fields
+	 * of each record.
+	 * <p>
+	 * Equality and prefix conditions compare encoded bytes, while other conditions decode only the fields on which they
+	 * are defined. Rows are built only for the records that satisfy the filter.
+	 * <p>
+	 * This table should no longer be used, as the returned table consumes the same stream.
+	 *
+	 * @param filter the filter
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the filter is defined on columns that are not in this table
+	 * @throws IllegalStateException if this table has already been iterated over
+	 */
+	@Override
+	public Table filter(Filter filter) {
+
+		notNull("filter", filter);
+
+		if (iterator!=null)
+			throw new IllegalStateException("table has already been iterated over, rows can no longer be filtered");
+
+		RecordTest test = testFor(filter, new ColumnIndex(columns));
+
+		return this.filter == null ? new CsvTable(this, columns, projection, filter, test)
+				: new CsvTable(this, columns, projection, Filter.and(this.filter, filter), and(this.test, test));
+	}
+
+	/**
+	 * Returns a table with a given number of rows of this table, from a given position, whose records before the
+	 * position are skipped without decoding them.
+	 * <p>
+	 * If this table is filtered, positions refer to the rows that satisfy the filter, and these are skipped after
+	 * evaluating it.
+	 * <p>
+	 * This table should no longer be used, as the returned table consumes the same stream.
+	 *
+	 * @param from the position of the first row, from 0
+	 * @param count the maximum number of rows
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the position or the number of rows are negative
+	 * @throws IllegalStateException if this table has already been iterated over
+	 *
+	 * @see CsvIndex#slice(long, long)
+	 */
+	@Override
+	public Table slice(long from, long count) {
+
+		if (from < 0 || count < 0)
+			throw new IllegalArgumentException("invalid slice " + from + "+" + count);
+
+		if (iterator!=null)
+			throw new IllegalStateException("table has already been iterated over, rows can no longer be sliced");
+
+		if (filter != null)
+			return Table.super.slice(from, count);
+
+		CsvTable sliced = new CsvTable(this, columns, projection, null, null);
+
+		sliced.start = Math.min(end, saturatedSum(start, from));
+		sliced.end = Math.min(end, saturatedSum(sliced.start, count));
+
+		return sliced;
+	}
+
+	// helper
+	private static long saturatedSum(long a, long b) {
+		return a + b < 0 ? Long.MAX_VALUE : a + b;
+	}
+
+	/**
+	 * Returns an iterator over the rows of this table in batches of a given size, which are filled directly with the
+	 * fields of records, without building rows.
+	 * <p>
+	 * Like rows, batches can be iterated over only once.
+	 *
+	 * @param size the size of the batches
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<RowBatch> batches(int size) {
+
+		final RowIterator records = (RowIterator) iterator();
+
+		return new RowBatch.Batches(new RowBatch(columns, size)) {
+
+			@Override
+			protected void fill(RowBatch batch) {
+
+				while (!batch.full() && records.hasNext())
+					records.addTo(batch);
+			}
+		};
+	}
+
+	/**
+	 * Returns the filter of this table.
+	 *
+	 * @return the filter, or <code>null</code> if the table is not filtered
+	 */
+	public Filter filter() {
+		return filter;
+	}
+
+	// compiles a filter into a test on the fields of records
+	private RecordTest testFor(Filter filter, ColumnIndex index) {
+
+		if (filter instanceof Filter.And) {
+
+			RecordTest test = null;
+
+			for (Filter f : ((Filter.And) filter).filters())
+				test = test == null ? testFor(f, index) : and(test, testFor(f, index));
+
+			return test == null ? t -> true : test;
+		}
+
+		if (!(filter instanceof Filter.Condition))
+			throw new IllegalArgumentException("unsupported filter " + filter);
+
+		Filter.Condition condition = (Filter.Condition) filter;
+
+		int position = index.position(condition.column());
+
+		if (position < 0)
+			throw new IllegalArgumentException("unknown column " + condition.column());
+
+		int field = projection == null ? position : projection[position];
+
+		if (condition instanceof Filter.Eq) {
+			byte[] value = ((Filter.Eq) condition).value().getBytes(tokenizer.encoding);
+			return t -> t.equals(field, value);
+		}
+
+		if (condition instanceof Filter.Prefix) {
+			byte[] prefix = ((Filter.Prefix) condition).prefix().getBytes(tokenizer.encoding);
+			return t -> t.startsWith(field, prefix);
+		}
+
+		return t -> condition.accepts(t.field(field));
+	}
+
+	// helper
+	private static RecordTest and(RecordTest one, RecordTest two) {
+		return t -> one.test(t) && two.test(t);
+	}
+
 	private void updateColumns(List<Column> newColumns) {
-		
+
 		columns = newColumns;
-		
+
 		//update asset
 		asset.setColumns(newColumns.toArray(new Column[0]));
-		
+
 	}
 
 	@Override
@@ -113,117 +529,170 @@ public class CsvTable extends PropertyHolder implements Table {
 		return columns;
 	}
 
-	// iterates over rows pulling them from the reader
-	class RowIterator implements Iterator<Row> {
+	// iterates over rows pulling them from the tokenizer
+	class RowIterator implements Iterator<Row>, Closeable {
 
-		private final Map<QName, String> data = new HashMap<QName, String>();
+		private ColumnIndex index = new ColumnIndex(columns);
 
-		private String[] row;
-		private Throwable error;
-		private int count;
+		private final IntFunction<String> fields = projection == null ? tokenizer::field : c -> tokenizer.field(projection[c]);
+
+		private boolean ready;
+		private boolean closed;
+		private long count = origin;
 
 		public boolean hasNext() {
 
-			if (row!=null)
+			if (ready)
 				return true;
-			
-			if (asset.rows() <= count) {
-				close();
+
+			if (closed)
 				return false;
-			}
 
 			try {
-				row = reader.readNext();
-				
-				count++;
-				
-			} catch (IOException e) {
-				error = e;
-			}
 
-			return row != null;
-		}
+				while (!ready) {
 
-		public Row next() {
-			
-			try {
-				checkRow();
+					if (Math.min(asset.rows(), end) <= count || !tokenizer.next()) {
+						close();
+						return false;
+					}
+
+					// records before the range are skipped without decoding them
+					if (count++ < start)
+						continue;
+
+					ready = test==null || test.test(tokenizer);
+				}
 			}
-			catch(RuntimeException e) {
+			catch (IOException e) {
 				close();
+				throw new RuntimeException("cannot read CSV stream for asset " + asset.id(), e);
 			}
-			
-			Row result = buildRow();
-			
-			row=null;
-			
-			return result;
+
+			return true;
+		}
+
+		public Row next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			ready=false;
+
+			return buildRow();
 		}
 
 		// helper
-		private void synthesiseColumns(String[] row) {
-			
-			if (row.length>columns.size()) {
-				List<Column> newcolumns = new ArrayList<Column>();
-				for (int i=0;i<row.length;i++)
-					if (i+1<=columns.size()) 
-						newcolumns.add(columns.get(i));
-					else
-						newcolumns.add(new Column(nameFor(i+1)));
-			
-				updateColumns(newcolumns);
-				
-			}
+		private void synthesiseColumns(int fields) {
+
+			if (fields>columns.size())
+				updateColumns(extend(columns, fields));
 		}
-		
-		private void checkRow() {
 
-			if (error != null)
-				throw new RuntimeException(error);
+		// adds the next record to a batch, rather than building a row
+		void addTo(RowBatch batch) {
 
-			if (row == null && !this.hasNext()) // reads ahead
-				throw new NoSuchElementException();
+			ready=false;
 
+			if (projection == null && tokenizer.fields() > columns.size()) {
+				synthesiseColumns(tokenizer.fields());
+				index = new ColumnIndex(columns);
+				batch.columns(columns);
+			}
+
+			batch.add(fields);
 		}
 
 		// helper
 		private Row buildRow() {
 
-			data.clear();
-			
-			//invent missing columns based on data evidence
-			synthesiseColumns(row);
+			if (projection != null)
+				return new ArrayRow(index, tokenizer.values(projection));
 
-			for (int i = 0; i < row.length; i++)
-				data.put(columns.get(i).name(), row[i]);
+			//invent missing columns based on data evidence
+			if (tokenizer.fields() > columns.size()) {
+				synthesiseColumns(tokenizer.fields());
+				index = new ColumnIndex(columns);
+			}
 
-			return new Row(data);
+			return new ArrayRow(index, tokenizer.values());
 		}
 
 		public void remove() {
 			throw new UnsupportedOperationException();
 		}
 
-		private void close() {
+		/**
+		 * Closes the stream of the table, ending the iteration.
+		 */
+		@Override
+		public void close() {
+
+			if (closed)
+				return;
+
+			closed=true;
+			ready=false;
+
 			try {
-				reader.close();
+				tokenizer.close();
 			} catch (Exception e) {
 				log.warn("could not close CSV stream", e);
 			}
 		}
 	}
-	
-	private String nameFor(int i) {
-		
+
+	// a test on the current record of a tokenizer
+	private static interface RecordTest {
+
+		boolean test(CsvTokenizer tokenizer);
+	}
+
+	// columns named after the values of a header record
+	static List<Column> headerColumns(String[] names) {
+
+		List<Column> columns =new ArrayList<Column>();
+
+		int i = 1;
+
+		for (String name : names) {
+
+			//synthesise names for missing header columns
+			if (name==null || name.isEmpty())
+				name = nameFor(i);
+
+			columns.add(new Column(name));
+
+			i++;
+		}
+
+		return columns;
+	}
+
+	// columns extended with synthesised columns, up to a given number of fields
+	static List<Column> extend(List<Column> columns, int fields) {
+
+		List<Column> newcolumns = new ArrayList<Column>();
+		for (int i=0;i<fields;i++)
+			if (i+1<=columns.size())
+				newcolumns.add(columns.get(i));
+			else
+				newcolumns.add(new Column(nameFor(i+1)));
+
+		return newcolumns;
+	}
+
+	static String nameFor(int i) {
+
 		return "column-"+(i);
 	}
-	
+
 	@Override
 	public String toString() {
 		final int maxLen = 100;
 		return "Table [columns="
 				+ (columns != null ? columns.subList(0, Math.min(columns.size(), maxLen)) : null) + ", properties="
-				+ inner.properties() + "]";
+				+ properties() + "]";
 	}
 
 }
@@ -0,0 +1,264 @@
+package org.virtualrepository.csv;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.Properties;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.Table;
+
+/**
+ * Follows the CSV content of a {@link CsvAsset} in a local file that grows by appending records, such as a log.
+ * <p>
+ * Each read returns a {@link Table} with the records appended since the previous read, and parses only those. A tail
+ * remembers the byte offset and the number of the records that have been consumed so far, and can be resumed from
+ * them (cf. {@link #offset()} and {@link #rows()}). A final record that is still being written, i.e. is not yet
+ * terminated by a line end, is not returned until it is complete.
+ * <p>
+ * Each read holds the file open until its table is iterated over to the end, closed, or followed by the next read,
+ * whichever comes first.
+ * <p>
+ * If the file becomes shorter than the consumed content, it is assumed to have been replaced, and it is followed again
+ * from the start.
+ * <p>
+ * Offsets are in bytes of the file, so content must be uncompressed and in an encoding that can be tokenized without
+ * transcoding, such as UTF-8 or single-byte encodings. Tails are not thread-safe.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class CsvTail {
+
+	private static final Logger log = LoggerFactory.getLogger(CsvTail.class);
+
+	private final CsvAsset asset;
+	private final Path content;
+
+	private long offset;
+	private long rows;
+
+	// the table of the last read, which holds the file open
+	private Delta last;
+
+	/**
+	 * Creates an instance for the content of a given asset in a given file, from its start.
+	 *
+	 * @param asset the asset
+	 * @param content the file
+	 *
+	 * @throws IllegalArgumentException if the content of the asset is not in an encoding that can be followed
+	 */
+	public CsvTail(CsvAsset asset, Path content) {
+
+		this(asset, content, 0, 0);
+	}
+
+	/**
+	 * Creates an instance for the content of a given asset in a given file, from a given offset and after a given
+	 * number of records.
+	 * <p>
+	 * The offset and the number of records are those of an instance that has already followed the content.
+	 *
+	 * @param asset the asset
+	 * @param content the file
+	 * @param offset the offset of the first record to read, in bytes
+	 * @param rows the number of records before the offset
+	 *
+	 * @throws IllegalArgumentException if the offset or the number of records are negative, or if the content of the
+	 *             asset is not in an encoding that can be followed
+	 */
+	public CsvTail(CsvAsset asset, Path content, long offset, long rows) {
+
+		notNull("asset", asset);
+		notNull("content", content);
+
+		if (offset < 0 || rows < 0)
+			throw new IllegalArgumentException("invalid offset " + offset + " or rows " + rows);
+
+		if (!CsvTokenizer.tokenizes(asset.encoding()))
+			throw new IllegalArgumentException("cannot follow CSV asset " + asset.id() + " in encoding "
+					+ asset.encoding() + ", as it must be transcoded to be parsed");
+
+		if (asset.compression() != Compression.NONE)
+			throw new IllegalArgumentException("cannot follow CSV asset " + asset.id() + " with " + asset.compression()
+					+ " compression, as it must be decompressed to be parsed");
+
+		this.asset = asset;
+		this.content = content;
+		this.offset = offset;
+		this.rows = rows;
+	}
+
+	/**
+	 * Returns the offset of the first record that has not been consumed yet, in bytes.
+	 *
+	 * @return the offset
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the number of records that have been consumed so far.
+	 *
+	 * @return the number of records
+	 */
+	public long rows() {
+		return rows;
+	}
+
+	/**
+	 * Returns a table with the complete records that have been appended to the content since they were last consumed.
+	 * <p>
+	 * Records are consumed as the table is iterated over, so a table that is not iterated over to the end leaves the
+	 * remaining records to the next read. The table should be iterated over only once, and before the next read, which
+	 * closes it. It can also be closed earlier, as it is {@link Closeable}.
+	 *
+	 * @return the table
+	 */
+	public Table read() {
+
+		if (last != null) {
+			last.close();
+			last = null;
+		}
+
+		try {
+
+			if (Files.size(content) < offset) {
+
+				log.warn("CSV content of asset " + asset.id() + " has been truncated, following it from the start");
+
+				offset = 0;
+				rows = 0;
+			}
+
+			// the header describes the columns, and is read only once
+			if (asset.hasHeader() && offset > 0 && asset.columns().isEmpty())
+				try (InputStream stream = Files.newInputStream(content)) {
+					new CsvTable(asset, stream);
+				}
+
+			FileChannel channel = FileChannel.open(content, READ);
+
+			try {
+
+				channel.position(offset);
+
+				CsvTokenizer tokenizer = CsvTable.tokenizerFor(asset, channel);
+
+				// a record that is not terminated may be still being written
+				tokenizer.terminated = true;
+
+				boolean header = asset.hasHeader() && offset == 0;
+
+				last = new Delta(new CsvTable(asset, tokenizer, rows, header), tokenizer, offset);
+
+				return last;
+			}
+			catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("cannot read CSV content of asset " + asset.id(), e);
+		}
+	}
+
+	// the records appended since the last read, which are consumed as they are returned
+	private class Delta implements Table, Closeable {
+
+		private final CsvTable table;
+		private final CsvTokenizer tokenizer;
+		private final long start;
+
+		Delta(CsvTable table, CsvTokenizer tokenizer, long start) {
+
+			this.table = table;
+			this.tokenizer = tokenizer;
+			this.start = start;
+		}
+
+		@Override
+		public List<Column> columns() {
+			return table.columns();
+		}
+
+		@Override
+		public Properties properties() {
+			return table.properties();
+		}
+
+		@Override
+		public Iterator<Row> iterator() {
+
+			final Iterator<Row> records = table.iterator();
+
+			return new Iterator<Row>() {
+
+				@Override
+				public boolean hasNext() {
+					return records.hasNext();
+				}
+
+				@Override
+				public Row next() {
+
+					if (!hasNext())
+						throw new NoSuchElementException();
+
+					Row row = records.next();
+
+					// the tokenizer is past the record of the row
+					offset = start + tokenizer.consumed();
+					rows++;
+
+					return row;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		/**
+		 * Closes the file, leaving the records that have not been consumed to the next read.
+		 */
+		@Override
+		public void close() {
+
+			try {
+				tokenizer.close();
+			}
+			catch (IOException e) {
+				log.warn("could not close CSV content of asset " + asset.id(), e);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Table [asset=" + asset.id() + ", offset=" + start + ", table=" + table + "]";
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CsvTail [asset=" + asset.id() + ", content=" + content + ", offset=" + offset + ", rows=" + rows + "]";
+	}
+}
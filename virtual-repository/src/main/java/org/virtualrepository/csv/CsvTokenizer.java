@@ -0,0 +1,753 @@
+package org.virtualrepository.csv;
+
+import static java.nio.charset.StandardCharsets.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Splits CSV content into records and fields, working directly over the encoded bytes of the content.
+ * <p>
+ * Records end with line ends (LF, CR LF, or CR) outside quoted fields. Quoted fields may contain delimiters, line ends,
+ * and quotes, which are escaped by doubling them (RFC 4180).
+ * <p>
+ * Fields are located but decoded only on request, so that unused fields cost only a scan of their bytes. Record offsets
+ * are tracked in bytes, from the start of the content.
+ * <p>
+ * Bytes must be in an encoding in which delimiters, quotes, and line ends are single bytes that cannot occur within the
+ * encoding of other characters (cf. {@link #tokenizes(Charset)}). Content in other encodings must be transcoded first
+ * (cf. {@link #stream(InputStream, Charset)}).
+ *
+ * @author Fabio Simeoni
+ *
+ */
+abstract class CsvTokenizer implements Closeable {
+
+	static final int defaultBufferSize = 1 << 16;
+
+	// results of parsing
+	static final int incomplete = -1;
+	static final int end = -2;
+
+	// kinds of fields
+	static final byte plain = 0;
+	static final byte quoted = 1;
+	static final byte escaped = 2;
+
+	final byte delimiter;
+	final byte quote;
+	final Charset encoding;
+
+	// the content, from an absolute offset in bytes, up to a limit
+	ByteBuffer buffer;
+	long base;
+	int limit;
+	boolean eof;
+
+	// treats unterminated records at the end of the content as incomplete
+	boolean terminated;
+
+	// the position of the next record
+	int next;
+
+	// the current record
+	long offset = -1;
+	int fields;
+	int[] starts = new int[16];
+	int[] ends = new int[16];
+	byte[] kinds = new byte[16];
+
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * Returns <code>true</code> if content in a given encoding can be tokenized without transcoding.
+	 *
+	 * @param encoding the encoding
+	 * @return <code>true</code> if content in the encoding can be tokenized directly
+	 */
+	static boolean tokenizes(Charset encoding) {
+		return encoding.equals(UTF_8) || (encoding.canEncode() && encoding.newEncoder().maxBytesPerChar() == 1);
+	}
+
+	/**
+	 * Returns a stream of content in a given encoding that can be tokenized, transcoding it to UTF-8 if required.
+	 *
+	 * @param stream the stream
+	 * @param encoding the encoding of the stream
+	 * @return the stream, or a transcoding stream
+	 */
+	static InputStream stream(InputStream stream, Charset encoding) {
+		return tokenizes(encoding) ? stream : new TranscodingStream(stream, encoding, UTF_8);
+	}
+
+	/**
+	 * Returns the encoding of the content produced by {@link #stream(InputStream, Charset)}.
+	 *
+	 * @param encoding the original encoding
+	 * @return the encoding of the tokenized content
+	 */
+	static Charset encodingFor(Charset encoding) {
+		return tokenizes(encoding) ? encoding : UTF_8;
+	}
+
+	CsvTokenizer(char delimiter, char quote, Charset encoding) {
+
+		this.delimiter = byteFor("delimiter", delimiter, encoding);
+		this.quote = byteFor("quote", quote, encoding);
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Makes more content available after the position of the next record, if possible.
+	 * <p>
+	 * Implementations may move the pending content within the buffer, or replace the buffer altogether, and must adjust
+	 * {@link #base}, {@link #next}, and {@link #limit} accordingly. They must set {@link #eof} when the content is
+	 * exhausted.
+	 *
+	 * @return <code>true</code> if more content, or the end of the content, has become known
+	 * @throws IOException if the content cannot be read
+	 */
+	abstract boolean fill() throws IOException;
+
+	/**
+	 * Advances to the next record.
+	 *
+	 * @return <code>true</code> if there is a next record, <code>false</code> if the content is exhausted or, for
+	 *         content that is still arriving, the next record is not yet complete
+	 * @throws IOException if the content cannot be read
+	 */
+	boolean next() throws IOException {
+
+		while (true) {
+
+			int after = parse(next);
+
+			if (after >= 0) {
+				offset = base + next;
+				next = after;
+				return true;
+			}
+
+			if (after == end || !fill())
+				return false;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if there are no more records, complete or otherwise.
+	 *
+	 * @return <code>true</code> if there are no more records
+	 */
+	boolean exhausted() {
+		return eof && next == limit;
+	}
+
+	/**
+	 * Returns the absolute offset of the current record.
+	 *
+	 * @return the offset
+	 */
+	long offset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the absolute offset of the next record, i.e. the offset of the first byte that has not been consumed.
+	 *
+	 * @return the offset
+	 */
+	long consumed() {
+		return base + next;
+	}
+
+	/**
+	 * Returns the number of fields of the current record.
+	 *
+	 * @return the number of fields
+	 */
+	int fields() {
+		return fields;
+	}
+
+	/**
+	 * Returns the decoded value of a given field of the current record.
+	 *
+	 * @param field the position of the field
+	 * @return the value, or <code>null</code> if the record has no such field
+	 */
+	String field(int field) {
+
+		if (field >= fields)
+			return null;
+
+		int start = starts[field];
+		int end = ends[field];
+
+		switch (kinds[field]) {
+
+		case plain:
+			return decode(start, end);
+
+		case quoted:
+			return decode(start + 1, end - 1);
+
+		default:
+			return unescape(start, end);
+		}
+	}
+
+	/**
+	 * Returns the decoded values of the fields of the current record.
+	 *
+	 * @return the values
+	 */
+	String[] values() {
+
+		String[] values = new String[fields];
+
+		for (int i = 0; i < fields; i++)
+			values[i] = field(i);
+
+		return values;
+	}
+
+	/**
+	 * Returns the decoded values of given fields of the current record.
+	 *
+	 * @param positions the positions of the fields
+	 * @return the values, with <code>null</code>s for the fields that are not in the current record
+	 */
+	String[] values(int[] positions) {
+
+		String[] values = new String[positions.length];
+
+		for (int i = 0; i < positions.length; i++)
+			values[i] = field(positions[i]);
+
+		return values;
+	}
+
+	/**
+	 * Returns <code>true</code> if a given field of the current record has a given value, comparing encoded bytes.
+	 *
+	 * @param field the position of the field
+	 * @param value the encoded value
+	 * @return <code>true</code> if the field has the value, <code>false</code> if it does not or the record has no
+	 *         such field
+	 */
+	boolean equals(int field, byte[] value) {
+		return matches(field, value, false);
+	}
+
+	/**
+	 * Returns <code>true</code> if the value of a given field of the current record starts with a given prefix,
+	 * comparing encoded bytes.
+	 *
+	 * @param field the position of the field
+	 * @param prefix the encoded prefix
+	 * @return <code>true</code> if the value starts with the prefix, <code>false</code> if it does not or the record
+	 *         has no such field
+	 */
+	boolean startsWith(int field, byte[] prefix) {
+		return matches(field, prefix, true);
+	}
+
+	// helper
+	private boolean matches(int field, byte[] value, boolean prefix) {
+
+		if (field >= fields)
+			return false;
+
+		int start = starts[field];
+		int end = ends[field];
+
+		switch (kinds[field]) {
+
+		case plain:
+			return matches(start, end, value, prefix);
+
+		case quoted:
+			return matches(start + 1, end - 1, value, prefix);
+
+		default:
+
+			int length = unescaped(start, end);
+
+			if (prefix ? length < value.length : length != value.length)
+				return false;
+
+			for (int i = 0; i < value.length; i++)
+				if (scratch[i] != value[i])
+					return false;
+
+			return true;
+		}
+	}
+
+	// helper
+	private boolean matches(int start, int end, byte[] value, boolean prefix) {
+
+		int length = end - start;
+
+		if (prefix ? length < value.length : length != value.length)
+			return false;
+
+		for (int i = 0; i < value.length; i++)
+			if (buffer.get(start + i) != value[i])
+				return false;
+
+		return true;
+	}
+
+	// parses a record from a given position, returning the position after it or a negative result
+	int parse(int start) {
+
+		boolean end = eof && !terminated;
+
+		fields = 0;
+
+		if (start == limit)
+			return end ? CsvTokenizer.end : incomplete;
+
+		int p = start;
+
+		while (true) {
+
+			int fieldStart = p;
+			byte kind = plain;
+
+			if (p < limit && buffer.get(p) == quote) {
+
+				kind = quoted;
+
+				p++;
+
+				while (true) {
+
+					if (p == limit) {
+
+						if (!end)
+							return incomplete;
+
+						// unterminated quote
+						kind = escaped;
+						break;
+					}
+
+					if (buffer.get(p) == quote) {
+
+						if (p + 1 == limit && !end)
+							return incomplete;
+
+						if (p + 1 < limit && buffer.get(p + 1) == quote) {
+							kind = escaped;
+							p += 2;
+							continue;
+						}
+
+						p++;
+						break;
+					}
+
+					p++;
+				}
+			}
+
+			while (p < limit) {
+
+				byte b = buffer.get(p);
+
+				if (b == delimiter || b == '\n' || b == '\r')
+					break;
+
+				// content after a closing quote is kept, leniently
+				if (kind != plain)
+					kind = escaped;
+
+				p++;
+			}
+
+			if (p == limit && !end)
+				return incomplete;
+
+			add(fieldStart, p, kind);
+
+			if (p == limit)
+				return p;
+
+			byte b = buffer.get(p);
+
+			if (b == delimiter) {
+				p++;
+				continue;
+			}
+
+			if (b == '\n')
+				return p + 1;
+
+			// CR, perhaps followed by LF
+			if (p + 1 == limit)
+				return end ? p + 1 : incomplete;
+
+			return buffer.get(p + 1) == '\n' ? p + 2 : p + 1;
+		}
+	}
+
+	// helper
+	private void add(int start, int end, byte kind) {
+
+		if (fields == starts.length) {
+			starts = Arrays.copyOf(starts, fields * 2);
+			ends = Arrays.copyOf(ends, fields * 2);
+			kinds = Arrays.copyOf(kinds, fields * 2);
+		}
+
+		starts[fields] = start;
+		ends[fields] = end;
+		kinds[fields] = kind;
+
+		fields++;
+	}
+
+	// helper
+	String decode(int start, int end) {
+
+		if (start >= end)
+			return "";
+
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + start, end - start, encoding);
+
+		// copies in bulk from direct buffers
+		byte[] bytes = scratch(end - start);
+
+		ByteBuffer field = buffer.duplicate();
+		field.position(start);
+		field.get(bytes, 0, end - start);
+
+		return new String(bytes, 0, end - start, encoding);
+	}
+
+	// removes quotes and unescapes doubled quotes
+	private String unescape(int start, int end) {
+
+		int length = unescaped(start, end);
+
+		return new String(scratch, 0, length, encoding);
+	}
+
+	// unescapes into the scratch buffer, returning the length of the result
+	private int unescaped(int start, int end) {
+
+		byte[] bytes = scratch(end - start);
+
+		int length = 0;
+		boolean inQuotes = false;
+
+		for (int i = start; i < end; i++) {
+
+			byte b = buffer.get(i);
+
+			if (b == quote)
+				if (inQuotes && i + 1 < end && buffer.get(i + 1) == quote) {
+					bytes[length++] = b;
+					i++;
+				} else
+					inQuotes = !inQuotes;
+			else
+				bytes[length++] = b;
+		}
+
+		return length;
+	}
+
+	// helper
+	private byte[] scratch(int size) {
+
+		if (scratch.length < size)
+			scratch = new byte[Math.max(size, scratch.length * 2)];
+
+		return scratch;
+	}
+
+	// helper
+	private static byte byteFor(String name, char c, Charset encoding) {
+
+		byte[] bytes = String.valueOf(c).getBytes(encoding);
+
+		if (bytes.length != 1 || c == '\n' || c == '\r')
+			throw new IllegalArgumentException("unsupported " + name + " '" + c + "' for encoding " + encoding);
+
+		return bytes[0];
+	}
+
+	/**
+	 * A {@link CsvTokenizer} that pulls content from an {@link InputStream} into a heap buffer.
+	 * <p>
+	 * The buffer grows to accommodate records that exceed its size.
+	 */
+	static class Streamed extends CsvTokenizer {
+
+		private final InputStream stream;
+		private byte[] bytes;
+
+		Streamed(InputStream stream, char delimiter, char quote, Charset encoding) {
+
+			this(stream, delimiter, quote, encoding, defaultBufferSize);
+		}
+
+		Streamed(InputStream stream, char delimiter, char quote, Charset encoding, int bufferSize) {
+
+			super(delimiter, quote, encoding);
+
+			this.stream = stream;
+			this.bytes = new byte[bufferSize];
+			this.buffer = ByteBuffer.wrap(bytes);
+		}
+
+		@Override
+		boolean fill() throws IOException {
+
+			if (eof)
+				return false;
+
+			// keeps pending content only
+			if (next > 0) {
+				System.arraycopy(bytes, next, bytes, 0, limit - next);
+				base += next;
+				limit -= next;
+				next = 0;
+			}
+
+			if (limit == bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+				buffer = ByteBuffer.wrap(bytes);
+			}
+
+			int read = stream.read(bytes, limit, bytes.length - limit);
+
+			if (read < 0)
+				eof = true;
+			else
+				limit += read;
+
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+	}
+
+	/**
+	 * A {@link CsvTokenizer} over content in a file, which is memory-mapped from a given position rather than copied.
+	 * <p>
+	 * The file is mapped in windows of a given size, which grow to accommodate records that exceed it, so that files
+	 * of any size can be tokenized. Content appended to the file after the tokenizer is created is ignored.
+	 * <p>
+	 * Windows are never unmapped explicitly, as there is no supported way of doing so: their address space is released
+	 * only when they are garbage collected, even after the tokenizer and its channel are closed. On some platforms, this
+	 * also means that the file cannot be deleted or replaced until then.
+	 */
+	static class Mapped extends CsvTokenizer {
+
+		static final int defaultWindowSize = 1 << 28;
+
+		private final FileChannel channel;
+		private final long position;
+		private final long size;
+
+		private int window;
+
+		Mapped(FileChannel channel, long position, char delimiter, char quote, Charset encoding) throws IOException {
+
+			this(channel, position, delimiter, quote, encoding, defaultWindowSize);
+		}
+
+		Mapped(FileChannel channel, long position, char delimiter, char quote, Charset encoding, int windowSize)
+				throws IOException {
+
+			super(delimiter, quote, encoding);
+
+			this.channel = channel;
+			this.position = position;
+			this.size = channel.size();
+			this.window = windowSize;
+		}
+
+		@Override
+		boolean fill() throws IOException {
+
+			if (eof)
+				return false;
+
+			// the pending record exceeds the window
+			if (next == 0 && limit == window) {
+
+				if (window == Integer.MAX_VALUE)
+					throw new IOException("record at offset " + base + " exceeds the maximum mapping size");
+
+				window = (int) Math.min((long) window * 2, Integer.MAX_VALUE);
+			}
+
+			base += next;
+			next = 0;
+
+			long start = position + base;
+
+			limit = (int) Math.min(window, Math.max(0, size - start));
+
+			MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, Math.min(start, size), limit);
+
+			buffer = mapped;
+
+			eof = start + limit >= size;
+
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * A {@link CsvTokenizer} over content that is fed to it as it arrives, in a heap buffer.
+	 * <p>
+	 * Records become available when they are complete. Content in encodings that cannot be tokenized directly is
+	 * transcoded to UTF-8 as it is fed.
+	 */
+	static class Fed extends CsvTokenizer {
+
+		private byte[] bytes;
+
+		// for transcoding, null if not required
+		private final CharsetDecoder decoder;
+		private final CharsetEncoder encoder;
+		private ByteBuffer undecoded;
+
+		Fed(char delimiter, char quote, Charset encoding) {
+
+			super(delimiter, quote, encodingFor(encoding));
+
+			this.bytes = new byte[defaultBufferSize];
+			this.buffer = ByteBuffer.wrap(bytes);
+
+			if (tokenizes(encoding)) {
+				this.decoder = null;
+				this.encoder = null;
+			} else {
+				this.decoder = encoding.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+				this.encoder = UTF_8.newEncoder();
+				this.undecoded = ByteBuffer.allocate(0);
+			}
+		}
+
+		/**
+		 * Adds content after the content fed so far.
+		 *
+		 * @param content the content, which is consumed
+		 */
+		void feed(ByteBuffer content) {
+
+			if (eof)
+				throw new IllegalStateException("content has already ended");
+
+			if (decoder == null) {
+				append(content);
+				return;
+			}
+
+			// prepends bytes left over from previous content
+			ByteBuffer input = ByteBuffer.allocate(undecoded.remaining() + content.remaining());
+			input.put(undecoded).put(content).flip();
+
+			transcode(input, false);
+
+			undecoded = input;
+		}
+
+		/**
+		 * Signals the end of the content.
+		 */
+		void end() {
+
+			if (eof)
+				return;
+
+			if (decoder != null)
+				transcode(undecoded, true);
+
+			eof = true;
+		}
+
+		@Override
+		boolean fill() {
+			// content arrives only when it is fed
+			return false;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		// helper
+		private void transcode(ByteBuffer input, boolean end) {
+
+			CharBuffer chars = CharBuffer.allocate((int) (input.remaining() * decoder.maxCharsPerByte()) + 2);
+
+			decoder.decode(input, chars, end);
+
+			if (end)
+				decoder.flush(chars);
+
+			chars.flip();
+
+			ByteBuffer output = ByteBuffer.allocate((int) (chars.remaining() * encoder.maxBytesPerChar()) + 4);
+
+			encoder.encode(chars, output, true);
+			encoder.reset();
+
+			output.flip();
+
+			append(output);
+		}
+
+		// helper
+		private void append(ByteBuffer content) {
+
+			// keeps pending content only
+			if (next > 0) {
+				System.arraycopy(bytes, next, bytes, 0, limit - next);
+				base += next;
+				limit -= next;
+				next = 0;
+			}
+
+			if (limit + content.remaining() > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, limit + content.remaining()));
+				buffer = ByteBuffer.wrap(bytes);
+			}
+
+			int length = content.remaining();
+
+			content.get(bytes, limit, length);
+
+			limit += length;
+		}
+	}
+}
@@ -1,20 +1,18 @@
 package org.virtualrepository.csv;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.virtualrepository.spi.Transform;
 import org.virtualrepository.tabular.Column;
-import org.virtualrepository.tabular.Row;
 import org.virtualrepository.tabular.Table;
 
-import au.com.bytecode.opencsv.CSVWriter;
-
 /**
- * A {@link Transform} from {@link InputStream} to {@link Table} for {@link CsvAsset} assets.
+ * A {@link Transform} from {@link Table} to {@link InputStream} for {@link CsvAsset} assets.
+ * <p>
+ * The stream encodes rows as it is read, so that the table is never held in memory as CSV data. It is compressed as
+ * it is read too, if the asset describes its content as compressed.
  * 
  * @author Fabio Simeoni
  *
@@ -24,39 +22,24 @@ public class Table2CsvStream<T extends CsvAsset> implements Transform<T,Table,In
 	@Override
 	public InputStream apply(CsvAsset asset,Table table) throws Exception {
 		
-		//we do it in memory for now
-		StringWriter stream = new StringWriter();
-		
-		CSVWriter writer = new CSVWriter(stream, asset.delimiter(),asset.quote());
+		//rows are encoded as the stream is read
+		return asset.compression().compress(new TableStream(asset, table, header(asset,table)));
+	}
+	
+	// describes the content in the asset, and returns the header record
+	static String[] header(CsvAsset asset,Table table) {
 		
 		//table may not originate from stream but directly from table
 		//even if it does, we take the table as authoritative
 		asset.setColumns(table.columns().toArray(new Column[0]));
 		asset.hasHeader(true);
 		
-		List<String> values = new ArrayList<String>();
+		List<String> header = new ArrayList<String>();
 		
 		for (Column col : table.columns())
-			values.add(col.name().getLocalPart());
-		
-		writer.writeNext(values.toArray(new String[0]));		
-		
-		values.clear();
-		
-		for (Row row : table) {
-			
-			values.clear();
-			
-			for (Column column : table.columns())
-				values.add(row.get(column));
-			
-			writer.writeNext(values.toArray(new String[0]));
-		}
-		
-		writer.flush();
-		writer.close();
+			header.add(col.name().getLocalPart());
 		
-		return new ByteArrayInputStream(stream.toString().getBytes(asset.encoding()));
+		return header.toArray(new String[0]);
 	}
 	
 	@Override
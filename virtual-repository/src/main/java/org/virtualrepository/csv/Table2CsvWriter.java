@@ -0,0 +1,142 @@
+package org.virtualrepository.csv;
+
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.virtualrepository.spi.ContentWriter;
+import org.virtualrepository.spi.Transform;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.Table;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+/**
+ * A {@link Transform} from {@link Table} to {@link ContentWriter} for {@link CsvAsset} assets.
+ * <p>
+ * Rows are encoded directly into the sink of the publisher, as they are pulled from the table, and compressed on the
+ * way if the asset describes its content as compressed.
+ * 
+ * @author Fabio Simeoni
+ *
+ */
+public class Table2CsvWriter<T extends CsvAsset> implements Transform<T,Table,ContentWriter> {
+	
+	@Override
+	public ContentWriter apply(CsvAsset asset,Table table) throws Exception {
+		
+		String[] header = Table2CsvStream.header(asset, table);
+		
+		return stream -> write(asset, table, header, stream);
+	}
+	
+	// helper
+	private void write(CsvAsset asset, Table table, String[] header, OutputStream stream) throws IOException {
+		
+		// completes compressed content without closing the sink, which belongs to the publisher
+		OutputStream out = asset.compression().compress(new FilterOutputStream(stream) {
+			
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				this.out.write(bytes, offset, length);
+			}
+			
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		});
+		
+		CheckedWriter checked = new CheckedWriter(new OutputStreamWriter(out, asset.encoding()));
+		
+		CSVWriter writer = new CSVWriter(checked, asset.delimiter(),asset.quote());
+		
+		writer.writeNext(header);
+		
+		for (Row row : table) {
+			
+			// columns may be discovered during iteration, we read them at each row
+			List<Column> columns = table.columns();
+			
+			writer.writeNext(row.values(columns));
+			
+			checked.check();
+		}
+		
+		writer.flush();
+		
+		checked.check();
+		
+		out.close();
+	}
+	
+	@Override
+	public Class<Table> inputAPI() {
+		return Table.class;
+	}
+	
+	@Override
+	public Class<ContentWriter> outputAPI() {
+		return ContentWriter.class;
+	}
+	
+	// remembers the errors that CSVWriter swallows
+	private static class CheckedWriter extends FilterWriter {
+		
+		private IOException error;
+		
+		CheckedWriter(Writer writer) {
+			super(writer);
+		}
+		
+		@Override
+		public void write(int c) throws IOException {
+			try {
+				super.write(c);
+			}
+			catch(IOException e) {
+				throw error = e;
+			}
+		}
+		
+		@Override
+		public void write(char[] chars, int offset, int length) throws IOException {
+			try {
+				super.write(chars, offset, length);
+			}
+			catch(IOException e) {
+				throw error = e;
+			}
+		}
+		
+		@Override
+		public void write(String string, int offset, int length) throws IOException {
+			try {
+				super.write(string, offset, length);
+			}
+			catch(IOException e) {
+				throw error = e;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			try {
+				super.flush();
+			}
+			catch(IOException e) {
+				throw error = e;
+			}
+		}
+		
+		void check() throws IOException {
+			if (error!=null)
+				throw new IOException("cannot write CSV content", error);
+		}
+	}
+}
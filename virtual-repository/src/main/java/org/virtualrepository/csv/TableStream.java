@@ -0,0 +1,142 @@
+package org.virtualrepository.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.util.Iterator;
+import java.util.List;
+
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowFile;
+import org.virtualrepository.tabular.Table;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+/**
+ * An {@link InputStream} of CSV data that encodes the {@link Row}s of a {@link Table} as it is read.
+ * <p>
+ * Rows are encoded in chunks into a reusable buffer, so that memory does not grow with the size of the table. Closing
+ * the stream releases the rows of the table, even if they have not all been read.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+class TableStream extends InputStream {
+
+	static final int defaultChunkSize = 1 << 16;
+
+	private final Table table;
+	private final Iterator<Row> rows;
+	private final int chunkSize;
+
+	private final Buffer buffer = new Buffer();
+	private final CSVWriter writer;
+
+	private String[] header;
+
+	// read position in the buffer
+	private int position;
+
+	/**
+	 * Creates an instance for a given table and a given asset, which describes the CSV format.
+	 *
+	 * @param asset the asset
+	 * @param table the table
+	 * @param header the values of the header record, or <code>null</code> if there is no header record
+	 */
+	TableStream(CsvAsset asset, Table table, String[] header) {
+
+		this(asset, table, header, defaultChunkSize);
+	}
+
+	TableStream(CsvAsset asset, Table table, String[] header, int chunkSize) {
+
+		this.table = table;
+		this.rows = table.iterator();
+		this.header = header;
+		this.chunkSize = chunkSize;
+
+		this.writer = new CSVWriter(new OutputStreamWriter(buffer, asset.encoding()), asset.delimiter(), asset.quote());
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		if (!fill())
+			return -1;
+
+		return buffer.bytes()[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+
+		if (length == 0)
+			return 0;
+
+		if (!fill())
+			return -1;
+
+		int read = Math.min(length, buffer.size() - position);
+
+		System.arraycopy(buffer.bytes(), position, bytes, offset, read);
+
+		position += read;
+
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.size() - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		RowFile.close(rows);
+	}
+
+	// encodes more rows if there is nothing left to read, returns false if there are no more rows
+	private boolean fill() throws IOException {
+
+		if (buffer.size() > position)
+			return true;
+
+		buffer.reset();
+		position = 0;
+
+		if (header != null) {
+			writer.writeNext(header);
+			header = null;
+		}
+
+		while (buffer.size() < chunkSize && rows.hasNext()) {
+
+			// columns may be discovered during iteration, we read them at each row
+			List<Column> columns = table.columns();
+
+			writer.writeNext(rows.next().values(columns));
+
+			// moves encoded characters to the buffer
+			writer.flush();
+		}
+
+		writer.flush();
+
+		return buffer.size() > 0;
+	}
+
+	// exposes the internal array
+	static class Buffer extends ByteArrayOutputStream {
+
+		Buffer() {
+			super(defaultChunkSize);
+		}
+
+		byte[] bytes() {
+			return buf;
+		}
+	}
+}
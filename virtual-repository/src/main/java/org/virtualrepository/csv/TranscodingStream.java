@@ -0,0 +1,116 @@
+package org.virtualrepository.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An {@link InputStream} that re-encodes the content of another {@link InputStream}, incrementally.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+class TranscodingStream extends InputStream {
+
+	private final Reader reader;
+	private final CharsetEncoder encoder;
+
+	private final CharBuffer chars = CharBuffer.allocate(CsvTokenizer.defaultBufferSize);
+	private final ByteBuffer bytes;
+
+	private boolean eof;
+	private boolean flushed;
+
+	/**
+	 * Creates an instance for a given stream, its encoding, and a target encoding.
+	 *
+	 * @param stream the stream
+	 * @param from the encoding of the stream
+	 * @param to the target encoding
+	 */
+	TranscodingStream(InputStream stream, Charset from, Charset to) {
+
+		this.reader = new InputStreamReader(stream, from);
+
+		this.encoder = to.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		this.bytes = ByteBuffer.allocate((int) (chars.capacity() * encoder.maxBytesPerChar()));
+
+		// starts in read mode, with no content
+		chars.flip();
+		bytes.flip();
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		byte[] one = new byte[1];
+
+		return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+
+		if (length == 0)
+			return 0;
+
+		while (!bytes.hasRemaining())
+			if (!encode())
+				return -1;
+
+		int read = Math.min(length, bytes.remaining());
+
+		bytes.get(buffer, offset, read);
+
+		return read;
+	}
+
+	// encodes more content, returning false if there is none left
+	private boolean encode() throws IOException {
+
+		if (flushed)
+			return false;
+
+		if (!eof) {
+
+			chars.compact();
+
+			int read = reader.read(chars);
+
+			chars.flip();
+
+			if (read < 0)
+				eof = true;
+		}
+
+		bytes.clear();
+
+		CoderResult result = encoder.encode(chars, bytes, eof);
+
+		if (result.isError())
+			result.throwException();
+
+		if (eof && !chars.hasRemaining()) {
+			encoder.flush(bytes);
+			flushed = true;
+		}
+
+		bytes.flip();
+
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -28,6 +28,7 @@ import org.virtualrepository.VirtualRepository;
 import org.virtualrepository.spi.Importer;
 import org.virtualrepository.spi.MutableAsset;
 import org.virtualrepository.spi.Publisher;
+import org.virtualrepository.tabular.TableDiff;
 
 /**
  * Default {@link VirtualRepository} implementation.
@@ -323,14 +324,24 @@ public class Repository implements VirtualRepository {
 		
 		ServiceInspector inspector = new ServiceInspector(asset.service());
 		
-		final Publisher<Asset, Object> writer = inspector.publisherFor(asset.type(), content.getClass());
+		// differences go to publishers that take them, and otherwise their later version is published in full 
+		final Object published;
+		
+		if (content instanceof TableDiff && !inspector.takes(asset.type(), content.getClass())) {
+			log.info("service {} does not publish differences, publishing asset {} in full",asset.service().name(),asset.name());
+			published = ((TableDiff) content).after();
+		}
+		else
+			published = content;
+		
+		final Publisher<Asset, Object> writer = inspector.publisherFor(asset.type(), published.getClass());
 
 		Runnable task = new Runnable() {
 			
 			@Override
 			public void run() {
 				try {
-					writer.publish(asset, content);
+					writer.publish(asset, published);
 				}
 				catch (Exception e) {
 					throw new RuntimeException(e);
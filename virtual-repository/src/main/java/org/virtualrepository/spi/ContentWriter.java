@@ -0,0 +1,51 @@
+package org.virtualrepository.spi;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the content of an {@link org.virtualrepository.Asset} into a sink supplied by a {@link Publisher}.
+ * <p>
+ * Used as the bound API of {@link Publisher}s that push content to their services, rather than take it as an object. The
+ * publisher opens the sink, e.g. the body of an upload, and the content is serialised directly into it, so that
+ * serialisation and transfer overlap and content is never held in memory in serialised form.
+ * <p>
+ * Writers produced by {@link Transform}s, e.g. from {@link org.virtualrepository.tabular.Table}s, let publishers of
+ * this kind take content under other APIs (cf. {@link PublishAdapter}).
+ * 
+ * @author Fabio Simeoni
+ * 
+ */
+@FunctionalInterface
+public interface ContentWriter {
+
+	/**
+	 * Writes the content into a given {@link OutputStream}.
+	 * <p>
+	 * The stream is flushed but not closed.
+	 * 
+	 * @param stream the stream
+	 * 
+	 * @throws Exception if the content cannot be written
+	 */
+	void writeTo(OutputStream stream) throws Exception;
+
+	/**
+	 * Writes the content into a given {@link WritableByteChannel}.
+	 * <p>
+	 * The channel is not closed.
+	 * 
+	 * @param channel the channel
+	 * 
+	 * @throws Exception if the content cannot be written
+	 */
+	default void writeTo(WritableByteChannel channel) throws Exception {
+
+		OutputStream stream = Channels.newOutputStream(channel);
+
+		writeTo(stream);
+
+		stream.flush();
+	}
+}
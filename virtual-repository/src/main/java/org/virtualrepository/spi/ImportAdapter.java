@@ -1,9 +1,13 @@
 package org.virtualrepository.spi;
 
 import static org.virtualrepository.Utils.*;
+import static org.virtualrepository.spi.Pipes.*;
+
+import java.io.InputStream;
 
 import org.virtualrepository.Asset;
 import org.virtualrepository.impl.Type;
+import org.virtualrepository.tabular.Table;
 
 /**
  * A {@link Importer} that adapts the bound API of another {@link Importer}.
@@ -27,20 +31,44 @@ public class ImportAdapter<T extends Asset,A1,A2> implements Importer<T, A2> {
 		notNull("importer",importer);
 		notNull("transform",transform);
 		
-		return new ImportAdapter<T, A1, A2>(importer, transform);
+		return new ImportAdapter<T, A1, A2>(importer, transform, false);
+	}
+	
+	/**
+	 * Wraps a {@link Importer} with a given {@link Transform}, pipelining retrieval, transformation, and consumption.
+	 * <p>
+	 * If the transform takes an {@link InputStream}, the stream is read ahead on a separate thread. If the transform
+	 * returns a {@link Table}, its rows are read ahead on a separate thread. Network I/O, parsing, and consumption
+	 * then overlap.
+	 * 
+	 * @param importer the importer
+	 * @param transform the transform
+	 * @return the adapted importer
+	 * 
+	 * @see Pipes
+	 */
+	public static <T extends Asset,A1,A2> Importer<T,A2> pipeline(Importer<T,A1> importer,Transform<T,A1,A2> transform) {
+		
+		notNull("importer",importer);
+		notNull("transform",transform);
+		
+		return new ImportAdapter<T, A1, A2>(importer, transform, true);
 	}
 	
 	private final Importer<T,A1> importer;
 	private final Transform<T,A1,A2> transform;
+	private final boolean pipelined;
 	
 	/**
 	 * Creates an instance with a given {@link Importer} and a given {@link Transform}.
 	 * @param importer the importer
 	 * @param transform the transform
+	 * @param pipelined <code>true</code> if retrieval, transformation, and consumption should be pipelined
 	 */
-	private ImportAdapter(Importer<T,A1> importer, Transform<T,A1,A2> transform) {
+	private ImportAdapter(Importer<T,A1> importer, Transform<T,A1,A2> transform, boolean pipelined) {
 		this.importer=importer;
 		this.transform=transform;
+		this.pipelined=pipelined;
 	}
 
 	@Override
@@ -55,6 +83,12 @@ public class ImportAdapter<T extends Asset,A1,A2> implements Importer<T, A2> {
 
 	@Override
 	public A2 retrieve(T asset) throws Exception {
-		return transform.apply(asset,importer.retrieve(asset));
+		
+		if (!pipelined)
+			return transform.apply(asset,importer.retrieve(asset));
+		
+		A1 content = readAhead(importer.retrieve(asset),transform.inputAPI());
+		
+		return readAhead(transform.apply(asset,content),transform.outputAPI());
 	}
 }
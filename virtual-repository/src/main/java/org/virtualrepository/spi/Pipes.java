@@ -0,0 +1,510 @@
+package org.virtualrepository.spi;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.virtualrepository.Properties;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.Filter;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowFile;
+import org.virtualrepository.tabular.Table;
+
+/**
+ * Bounded pipes between producers and consumers of content that run on separate threads.
+ * <p>
+ * Pipes read ahead of their consumers, in chunks of bytes for {@link InputStream}s and in batches of {@link Row}s for
+ * {@link Table}s. Producers block when a given number of chunks or batches are waiting to be consumed, so that memory
+ * stays bounded. Errors on the producer side are raised on the consumer side.
+ * <p>
+ * Producers run on daemon threads, and stop when pipes are closed by their consumers, i.e. when read-ahead streams
+ * are closed, or when the iterators of read-ahead tables are exhausted, fail, or are closed (as {@link Closeable}s).
+ * Producers then close their sources. As a last resort, producers also stop when pipes are abandoned and collected.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see ImportAdapter#pipeline(Importer, Transform)
+ * @see PublishAdapter#pipeline(Publisher, Transform)
+ */
+public class Pipes {
+
+	/**
+	 * The default size of the chunks of bytes read ahead from streams (64 KB).
+	 */
+	public static final int defaultChunkSize = 1 << 16;
+
+	/**
+	 * The default size of the batches of rows read ahead from tables.
+	 */
+	public static final int defaultBatchSize = 1 << 10;
+
+	/**
+	 * The default maximum number of chunks or batches read ahead of consumers.
+	 */
+	public static final int defaultCapacity = 16;
+
+	// how often blocked producers check whether the pipe has been abandoned
+	private static final long patience = 100;
+
+	private static final AtomicInteger pipes = new AtomicInteger();
+
+	private static final ExecutorService producers = Executors.newCachedThreadPool(task -> {
+
+		Thread thread = new Thread(task, "vr-pipe-" + pipes.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Returns an {@link InputStream} that reads ahead of its consumer from a given {@link InputStream}, with default
+	 * chunk size and capacity.
+	 *
+	 * @param stream the stream
+	 * @return the read-ahead stream
+	 */
+	public static InputStream readAhead(InputStream stream) {
+		return readAhead(stream, defaultChunkSize, defaultCapacity);
+	}
+
+	/**
+	 * Returns an {@link InputStream} that reads ahead of its consumer from a given {@link InputStream}.
+	 *
+	 * @param stream the stream
+	 * @param chunkSize the size of the chunks read ahead, in bytes
+	 * @param capacity the maximum number of chunks read ahead
+	 * @return the read-ahead stream
+	 */
+	public static InputStream readAhead(InputStream stream, int chunkSize, int capacity) {
+
+		notNull("stream", stream);
+
+		if (chunkSize <= 0 || capacity <= 0)
+			throw new IllegalArgumentException("chunk size and capacity must be positive");
+
+		return new ReadAheadStream(stream, chunkSize, capacity);
+	}
+
+	/**
+	 * Returns a {@link Table} whose rows are read ahead of its consumers from a given {@link Table}, with default batch
+	 * size and capacity.
+	 *
+	 * @param table the table
+	 * @return the read-ahead table
+	 */
+	public static Table readAhead(Table table) {
+		return readAhead(table, defaultBatchSize, defaultCapacity);
+	}
+
+	/**
+	 * Returns a {@link Table} whose rows are read ahead of its consumers from a given {@link Table}.
+	 * <p>
+	 * Each iteration over the returned table reads ahead over a new iteration of the given table.
+	 *
+	 * @param table the table
+	 * @param batchSize the size of the batches of rows read ahead
+	 * @param capacity the maximum number of batches read ahead
+	 * @return the read-ahead table
+	 */
+	public static Table readAhead(Table table, int batchSize, int capacity) {
+
+		notNull("table", table);
+
+		if (batchSize <= 0 || capacity <= 0)
+			throw new IllegalArgumentException("batch size and capacity must be positive");
+
+		return new ReadAheadTable(table, batchSize, capacity);
+	}
+
+	// reads ahead content of a given API, if the API is supported
+	static <A> A readAhead(A content, Class<A> api) {
+
+		if (api == InputStream.class)
+			return api.cast(readAhead((InputStream) content));
+
+		if (api == Table.class)
+			return api.cast(readAhead((Table) content));
+
+		return content;
+	}
+
+	// the consumer end of a pipe, written to by a producer that runs until the end, an error, or the consumer is gone
+	private static abstract class Pipe<T> implements Runnable {
+
+		private final BlockingQueue<T> queue;
+		private final T end;
+
+		// pending element, for consumers
+		private T current;
+
+		// written by producers, read by consumers after the end
+		private volatile Throwable error;
+		private volatile boolean closed;
+
+		Pipe(int capacity, T end) {
+
+			this.queue = new ArrayBlockingQueue<T>(capacity);
+			this.end = end;
+		}
+
+		// produces elements, with send()
+		abstract void produce() throws Exception;
+
+		// releases resources on the producer side
+		abstract void release();
+
+		@Override
+		public void run() {
+
+			try {
+				produce();
+			} catch (Throwable t) {
+				error = t;
+			} finally {
+				send(end);
+				release();
+			}
+		}
+
+		// called by producers, returns false if consumers have gone
+		boolean send(T element) {
+
+			try {
+
+				while (!closed)
+					if (queue.offer(element, patience, TimeUnit.MILLISECONDS))
+						return true;
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				closed = true;
+			}
+
+			return false;
+		}
+
+		// called by consumers, returns null at the end, or throws the producer's error
+		T receive() throws Throwable {
+
+			if (current == null)
+				try {
+					current = queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+
+			if (current == end) {
+
+				if (error != null)
+					throw error;
+
+				return null;
+			}
+
+			return current;
+		}
+
+		// called by consumers when they are done with the current element
+		void consumed() {
+			current = null;
+		}
+
+		boolean closed() {
+			return closed;
+		}
+
+		void close() {
+			closed = true;
+		}
+	}
+
+	// reads chunks of bytes ahead
+	private static class ReadAheadStream extends InputStream {
+
+		private static class Chunk {
+
+			final byte[] bytes;
+			final int length;
+			int position;
+
+			Chunk(byte[] bytes, int length) {
+				this.bytes = bytes;
+				this.length = length;
+			}
+		}
+
+		private final Pipe<Chunk> pipe;
+
+		ReadAheadStream(final InputStream stream, final int chunkSize, int capacity) {
+
+			pipe = new Pipe<Chunk>(capacity, new Chunk(new byte[0], 0)) {
+
+				@Override
+				void produce() throws Exception {
+
+					while (!closed()) {
+
+						byte[] bytes = new byte[chunkSize];
+
+						int length = 0;
+						int read = 0;
+
+						// fills chunks to amortise handoffs
+						while (length < chunkSize && (read = stream.read(bytes, length, chunkSize - length)) >= 0)
+							length += read;
+
+						if (length > 0 && !send(new Chunk(bytes, length)))
+							return;
+
+						if (read < 0)
+							return;
+					}
+				}
+
+				@Override
+				void release() {
+					try {
+						stream.close();
+					} catch (IOException e) {
+						// nothing to do
+					}
+				}
+			};
+
+			producers.execute(pipe);
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			Chunk chunk = chunk();
+
+			if (chunk == null)
+				return -1;
+
+			int b = chunk.bytes[chunk.position++] & 0xFF;
+
+			if (chunk.position == chunk.length)
+				pipe.consumed();
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+
+			if (length == 0)
+				return 0;
+
+			Chunk chunk = chunk();
+
+			if (chunk == null)
+				return -1;
+
+			int read = Math.min(length, chunk.length - chunk.position);
+
+			System.arraycopy(chunk.bytes, chunk.position, bytes, offset, read);
+
+			chunk.position += read;
+
+			if (chunk.position == chunk.length)
+				pipe.consumed();
+
+			return read;
+		}
+
+		// helper
+		private Chunk chunk() throws IOException {
+
+			if (pipe.closed())
+				throw new IOException("stream is closed");
+
+			try {
+				return pipe.receive();
+			} catch (IOException e) {
+				pipe.close();
+				throw e;
+			} catch (Throwable t) {
+				pipe.close();
+				throw new IOException("cannot read ahead from stream", t);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			pipe.close();
+		}
+
+		@Override
+		protected void finalize() throws Throwable {
+			pipe.close();
+		}
+	}
+
+	// reads batches of rows ahead
+	private static class ReadAheadTable implements Table {
+
+		private final Table table;
+		private final int batchSize;
+		private final int capacity;
+
+		ReadAheadTable(Table table, int batchSize, int capacity) {
+
+			this.table = table;
+			this.batchSize = batchSize;
+			this.capacity = capacity;
+		}
+
+		@Override
+		public List<Column> columns() {
+			// producers discover columns ahead of consumers, but the handoff of each batch makes them visible
+			return table.columns();
+		}
+
+		@Override
+		public Properties properties() {
+			return table.properties();
+		}
+
+		@Override
+		public Iterator<Row> iterator() {
+
+			final Pipe<List<Row>> pipe = new Pipe<List<Row>>(capacity, Collections.<Row> emptyList()) {
+
+				Iterator<Row> rows;
+
+				@Override
+				void produce() throws Exception {
+
+					List<Row> batch = new ArrayList<Row>(batchSize);
+
+					rows = table.iterator();
+
+					while (!closed() && rows.hasNext()) {
+
+						Row row = rows.next();
+
+						batch.add(row);
+
+						if (batch.size() == batchSize) {
+
+							if (!send(batch))
+								return;
+
+							batch = new ArrayList<Row>(batchSize);
+						}
+					}
+
+					if (!batch.isEmpty())
+						send(batch);
+				}
+
+				@Override
+				void release() {
+					RowFile.close(rows);
+				}
+			};
+
+			producers.execute(pipe);
+
+			class Rows implements Iterator<Row>, Closeable {
+
+				int position;
+
+				@Override
+				public boolean hasNext() {
+					return batch() != null;
+				}
+
+				@Override
+				public Row next() {
+
+					List<Row> batch = batch();
+
+					if (batch == null)
+						throw new NoSuchElementException();
+
+					Row row = batch.get(position++);
+
+					if (position == batch.size()) {
+						pipe.consumed();
+						position = 0;
+					}
+
+					return row;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void close() {
+					pipe.close();
+				}
+
+				// helper
+				private List<Row> batch() {
+
+					if (pipe.closed())
+						return null;
+
+					try {
+						return pipe.receive();
+					} catch (RuntimeException e) {
+						pipe.close();
+						throw e;
+					} catch (Throwable t) {
+						pipe.close();
+						throw new RuntimeException("cannot read ahead from table", t);
+					}
+				}
+
+				@Override
+				protected void finalize() throws Throwable {
+					pipe.close();
+				}
+			}
+
+			return new Rows();
+		}
+
+		@Override
+		public Table select(List<Column> columns) {
+			// selects before reading ahead, so that the source can push down the selection
+			return new ReadAheadTable(table.select(columns), batchSize, capacity);
+		}
+
+		@Override
+		public Table filter(Filter filter) {
+			// filters before reading ahead, so that the source can push down the filter
+			return new ReadAheadTable(table.filter(filter), batchSize, capacity);
+		}
+
+		@Override
+		public Table slice(long from, long count) {
+			// slices before reading ahead, so that the source can push down the slice
+			return new ReadAheadTable(table.slice(from, count), batchSize, capacity);
+		}
+
+		@Override
+		public String toString() {
+			return table.toString();
+		}
+	}
+}
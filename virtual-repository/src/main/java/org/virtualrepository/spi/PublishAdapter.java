@@ -1,9 +1,13 @@
 package org.virtualrepository.spi;
 
 import static org.virtualrepository.Utils.*;
+import static org.virtualrepository.spi.Pipes.*;
+
+import java.io.InputStream;
 
 import org.virtualrepository.Asset;
 import org.virtualrepository.impl.Type;
+import org.virtualrepository.tabular.Table;
 
 /**
  * A {@link Publisher} that adapts the bound API of another {@link Publisher}.
@@ -27,20 +31,44 @@ public class PublishAdapter<T extends Asset,A1,A2> implements Publisher<T, A2> {
 		notNull("publisher",publisher);
 		notNull("transform",transform);
 		
-		return new PublishAdapter<T, A1, A2>(publisher, transform);
+		return new PublishAdapter<T, A1, A2>(publisher, transform, false);
+	}
+	
+	/**
+	 * Adapts a {@link Publisher} with a given {@link Transform}, pipelining production, transformation, and publication.
+	 * <p>
+	 * If the transform takes a {@link Table}, its rows are read ahead on a separate thread. If the transform returns an
+	 * {@link InputStream}, the stream is read ahead on a separate thread. Production, serialisation, and network I/O
+	 * then overlap.
+	 * 
+	 * @param publisher the publisher
+	 * @param transform the transform
+	 * @return the adapted publisher
+	 * 
+	 * @see Pipes
+	 */
+	public static <T extends Asset,A1,A2> Publisher<T,A2> pipeline(Publisher<T,A1> publisher,Transform<T,A2,A1> transform) {
+		
+		notNull("publisher",publisher);
+		notNull("transform",transform);
+		
+		return new PublishAdapter<T, A1, A2>(publisher, transform, true);
 	}
 	
 	private final Publisher<T,A1> publisher;
 	private final Transform<T,A2,A1> transform;
+	private final boolean pipelined;
 	
 	/**
 	 * Creates an instance with a given {@link Publisher} and a given {@link Transform}.
 	 * @param publisher the publisher
 	 * @param transform the transform
+	 * @param pipelined <code>true</code> if production, transformation, and publication should be pipelined
 	 */
-	private PublishAdapter(Publisher<T,A1> publisher, Transform<T,A2,A1> transform) {
+	private PublishAdapter(Publisher<T,A1> publisher, Transform<T,A2,A1> transform, boolean pipelined) {
 		this.publisher=publisher;
 		this.transform=transform;
+		this.pipelined=pipelined;
 	}
 
 	@Override
@@ -56,8 +84,14 @@ public class PublishAdapter<T extends Asset,A1,A2> implements Publisher<T, A2> {
 	@Override
 	public void publish(T asset, A2 content) throws Exception {
 		
+		if (pipelined)
+			content = readAhead(content,transform.inputAPI());
+		
 		A1 transformed = transform.apply(asset,content);
 		
+		if (pipelined)
+			transformed = readAhead(transformed,transform.outputAPI());
+		
 		publisher.publish(asset,transformed);
 	};
 }
@@ -9,6 +9,9 @@ import org.virtualrepository.RepositoryService;
  * <p>
  * A publisher handles assets of a given {@link AssetType}, the <em>bound type</em>, expecting their content under a given API,
  * the <em>bound API</code>.
+ * <p>
+ * Publishers that push content to their services may take a {@link ContentWriter} as their bound API, and supply the sink
+ * into which content is written.
  * 
  * 
  * @author Fabio Simeoni
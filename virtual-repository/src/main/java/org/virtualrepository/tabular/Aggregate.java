@@ -0,0 +1,585 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+/**
+ * An aggregate of the values of a {@link Column} over groups of {@link Row}s, e.g. a count or a sum.
+ * <p>
+ * Aggregates are computed with accumulators that keep their state in primitive arrays indexed by group, and can be
+ * merged, so that groups can be aggregated in parallel over splits of a table.
+ * <p>
+ * Missing and empty values are not aggregated, except by {@link #count()}. Values are decoded according to the type of
+ * their column, and aggregates fail on values that do not have that type.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see AggregatedTable
+ */
+public final class Aggregate {
+
+	private static enum Kind {
+		COUNT, VALUES, DISTINCT, SUM, MIN, MAX
+	}
+
+	private final Kind kind;
+	private final QName column;
+	private final QName name;
+
+	private Aggregate(Kind kind, QName column, QName name) {
+
+		this.kind = kind;
+		this.column = column;
+		this.name = name;
+	}
+
+	/**
+	 * Returns an aggregate that counts the rows of groups, named <code>count</code>.
+	 *
+	 * @return the aggregate
+	 */
+	public static Aggregate count() {
+		return new Aggregate(Kind.COUNT, null, new QName("count"));
+	}
+
+	/**
+	 * Returns an aggregate that counts the values of a given column, named <code>count_</code> after the column.
+	 *
+	 * @param column the name of the column
+	 * @return the aggregate
+	 */
+	public static Aggregate count(String column) {
+		return of(Kind.VALUES, "count_", column);
+	}
+
+	/**
+	 * Returns an aggregate that counts the distinct values of a given column, named <code>distinct_</code> after the
+	 * column.
+	 *
+	 * @param column the name of the column
+	 * @return the aggregate
+	 */
+	public static Aggregate distinct(String column) {
+		return of(Kind.DISTINCT, "distinct_", column);
+	}
+
+	/**
+	 * Returns an aggregate that sums the values of a given numeric column, named <code>sum_</code> after the column.
+	 * <p>
+	 * Values of integral columns are summed as <code>long</code>s, and other values as <code>double</code>s. The sum
+	 * of no values is 0.
+	 *
+	 * @param column the name of the column
+	 * @return the aggregate
+	 */
+	public static Aggregate sum(String column) {
+		return of(Kind.SUM, "sum_", column);
+	}
+
+	/**
+	 * Returns an aggregate with the minimum value of a given column, named <code>min_</code> after the column.
+	 *
+	 * @param column the name of the column
+	 * @return the aggregate
+	 */
+	public static Aggregate min(String column) {
+		return of(Kind.MIN, "min_", column);
+	}
+
+	/**
+	 * Returns an aggregate with the maximum value of a given column, named <code>max_</code> after the column.
+	 *
+	 * @param column the name of the column
+	 * @return the aggregate
+	 */
+	public static Aggregate max(String column) {
+		return of(Kind.MAX, "max_", column);
+	}
+
+	// helper
+	private static Aggregate of(Kind kind, String prefix, String column) {
+
+		notNull("column", column);
+
+		return new Aggregate(kind, new QName(column), new QName(prefix + column));
+	}
+
+	/**
+	 * Returns this aggregate with a given name.
+	 *
+	 * @param name the name
+	 * @return the aggregate
+	 */
+	public Aggregate as(String name) {
+
+		notNull("name", name);
+
+		return new Aggregate(kind, column, new QName(name));
+	}
+
+	/**
+	 * Returns the name of this aggregate, i.e. the name of its column in aggregated tables.
+	 *
+	 * @return the name
+	 */
+	public QName name() {
+		return name;
+	}
+
+	/**
+	 * Returns the name of the aggregated column.
+	 *
+	 * @return the name, or <code>null</code> if this aggregate counts rows
+	 */
+	public QName column() {
+		return column;
+	}
+
+	/**
+	 * Returns the column of this aggregate in aggregated tables, given the type of the aggregated column.
+	 *
+	 * @param type the type of the aggregated column
+	 * @return the column
+	 */
+	Column columnFor(Class<?> type) {
+
+		switch (kind) {
+
+		case SUM:
+			return new Column(name, Values.isIntegral(type) ? Long.class : Double.class);
+
+		case MIN:
+		case MAX:
+			return new Column(name, type);
+
+		default:
+			return new Column(name, Long.class);
+		}
+	}
+
+	/**
+	 * Returns a new accumulator for this aggregate, given the type of the aggregated column.
+	 *
+	 * @param type the type of the aggregated column
+	 * @return the accumulator
+	 *
+	 * @throws IllegalArgumentException if this aggregate does not apply to values of the type
+	 */
+	Accumulator accumulatorFor(Class<?> type) {
+
+		switch (kind) {
+
+		case COUNT:
+			return new Counts(false);
+
+		case VALUES:
+			return new Counts(true);
+
+		case DISTINCT:
+			return new Distincts();
+
+		case SUM:
+
+			if (Values.isIntegral(type))
+				return new LongSums();
+
+			if (Values.isNumeric(type))
+				return new DoubleSums();
+
+			throw new IllegalArgumentException("cannot sum values of column " + column + " of type " + type.getName());
+
+		default:
+
+			boolean max = kind == Kind.MAX;
+
+			if (Values.isIntegral(type))
+				return new LongExtremes(max);
+
+			if (Values.isFloating(type))
+				return new DoubleExtremes(max);
+
+			return new Extremes(type, max);
+		}
+	}
+
+	/**
+	 * The state of an aggregate for a number of groups.
+	 */
+	static abstract class Accumulator {
+
+		/**
+		 * Makes room for a given number of groups.
+		 *
+		 * @param groups the number of groups
+		 */
+		abstract void grow(int groups);
+
+		/**
+		 * Adds a value to a given group.
+		 *
+		 * @param group the group
+		 * @param value the value, or <code>null</code> if it is missing
+		 * @return an estimate of the memory added to the state, in bytes
+		 */
+		abstract long add(int group, String value);
+
+		/**
+		 * Merges the state of a group of another accumulator into the state of a group of this accumulator.
+		 *
+		 * @param group the group of this accumulator
+		 * @param other the other accumulator, of the same aggregate
+		 * @param from the group of the other accumulator
+		 */
+		abstract void merge(int group, Accumulator other, int from);
+
+		/**
+		 * Returns the aggregate of a given group.
+		 *
+		 * @param group the group
+		 * @return the aggregate
+		 */
+		abstract String result(int group);
+
+		// helper
+		static boolean missing(String value) {
+			return value == null || value.trim().isEmpty();
+		}
+
+		// helper
+		static long parseLong(String value) {
+			try {
+				return Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("cannot decode '" + value + "' as an integral number", e);
+			}
+		}
+
+		// helper
+		static double parseDouble(String value) {
+			try {
+				return Double.parseDouble(value.trim());
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("cannot decode '" + value + "' as a number", e);
+			}
+		}
+	}
+
+	// counts rows or values
+	private static class Counts extends Accumulator {
+
+		private final boolean values;
+		private long[] counts = new long[16];
+
+		Counts(boolean values) {
+			this.values = values;
+		}
+
+		@Override
+		void grow(int groups) {
+			if (groups > counts.length)
+				counts = Arrays.copyOf(counts, Math.max(groups, counts.length * 2));
+		}
+
+		@Override
+		long add(int group, String value) {
+
+			if (!values || !missing(value))
+				counts[group]++;
+
+			return 0;
+		}
+
+		@Override
+		void merge(int group, Accumulator other, int from) {
+			counts[group] += ((Counts) other).counts[from];
+		}
+
+		@Override
+		String result(int group) {
+			return String.valueOf(counts[group]);
+		}
+	}
+
+	// counts distinct values, exactly
+	private static class Distincts extends Accumulator {
+
+		private Set<?>[] sets = new Set<?>[16];
+
+		@Override
+		void grow(int groups) {
+			if (groups > sets.length)
+				sets = Arrays.copyOf(sets, Math.max(groups, sets.length * 2));
+		}
+
+		@Override
+		long add(int group, String value) {
+
+			if (missing(value))
+				return 0;
+
+			Set<String> set = set(group);
+
+			return set.add(value) ? 40 + 2 * value.length() + 32 : 0;
+		}
+
+		@Override
+		void merge(int group, Accumulator other, int from) {
+
+			Set<?> others = ((Distincts) other).sets[from];
+
+			if (others != null)
+				for (Object value : others)
+					set(group).add((String) value);
+		}
+
+		@Override
+		String result(int group) {
+			return String.valueOf(sets[group] == null ? 0 : sets[group].size());
+		}
+
+		@SuppressWarnings("unchecked")
+		private Set<String> set(int group) {
+
+			if (sets[group] == null)
+				sets[group] = new HashSet<String>();
+
+			return (Set<String>) sets[group];
+		}
+	}
+
+	// sums integral values
+	private static class LongSums extends Accumulator {
+
+		private long[] sums = new long[16];
+
+		@Override
+		void grow(int groups) {
+			if (groups > sums.length)
+				sums = Arrays.copyOf(sums, Math.max(groups, sums.length * 2));
+		}
+
+		@Override
+		long add(int group, String value) {
+
+			if (!missing(value))
+				sums[group] += parseLong(value);
+
+			return 0;
+		}
+
+		@Override
+		void merge(int group, Accumulator other, int from) {
+			sums[group] += ((LongSums) other).sums[from];
+		}
+
+		@Override
+		String result(int group) {
+			return String.valueOf(sums[group]);
+		}
+	}
+
+	// sums other numeric values
+	private static class DoubleSums extends Accumulator {
+
+		private double[] sums = new double[16];
+
+		@Override
+		void grow(int groups) {
+			if (groups > sums.length)
+				sums = Arrays.copyOf(sums, Math.max(groups, sums.length * 2));
+		}
+
+		@Override
+		long add(int group, String value) {
+
+			if (!missing(value))
+				sums[group] += parseDouble(value);
+
+			return 0;
+		}
+
+		@Override
+		void merge(int group, Accumulator other, int from) {
+			sums[group] += ((DoubleSums) other).sums[from];
+		}
+
+		@Override
+		String result(int group) {
+			return String.valueOf(sums[group]);
+		}
+	}
+
+	// minimum or maximum integral values
+	private static class LongExtremes extends Accumulator {
+
+		private final boolean max;
+		private long[] extremes = new long[16];
+		private final BitSet seen = new BitSet();
+
+		LongExtremes(boolean max) {
+			this.max = max;
+		}
+
+		@Override
+		void grow(int groups) {
+			if (groups > extremes.length)
+				extremes = Arrays.copyOf(extremes, Math.max(groups, extremes.length * 2));
+		}
+
+		@Override
+		long add(int group, String value) {
+
+			if (!missing(value))
+				update(group, parseLong(value));
+
+			return 0;
+		}
+
+		@Override
+		void merge(int group, Accumulator other, int from) {
+
+			LongExtremes others = (LongExtremes) other;
+
+			if (others.seen.get(from))
+				update(group, others.extremes[from]);
+		}
+
+		@Override
+		String result(int group) {
+			return seen.get(group) ? String.valueOf(extremes[group]) : null;
+		}
+
+		// helper
+		private void update(int group, long value) {
+
+			if (!seen.get(group) || (max ? value > extremes[group] : value < extremes[group])) {
+				extremes[group] = value;
+				seen.set(group);
+			}
+		}
+	}
+
+	// minimum or maximum floating point values
+	private static class DoubleExtremes extends Accumulator {
+
+		private final boolean max;
+		private double[] extremes = new double[16];
+		private final BitSet seen = new BitSet();
+
+		DoubleExtremes(boolean max) {
+			this.max = max;
+		}
+
+		@Override
+		void grow(int groups) {
+			if (groups > extremes.length)
+				extremes = Arrays.copyOf(extremes, Math.max(groups, extremes.length * 2));
+		}
+
+		@Override
+		long add(int group, String value) {
+
+			if (!missing(value))
+				update(group, parseDouble(value));
+
+			return 0;
+		}
+
+		@Override
+		void merge(int group, Accumulator other, int from) {
+
+			DoubleExtremes others = (DoubleExtremes) other;
+
+			if (others.seen.get(from))
+				update(group, others.extremes[from]);
+		}
+
+		@Override
+		String result(int group) {
+			return seen.get(group) ? String.valueOf(extremes[group]) : null;
+		}
+
+		// helper
+		private void update(int group, double value) {
+
+			if (!seen.get(group) || (max ? value > extremes[group] : value < extremes[group])) {
+				extremes[group] = value;
+				seen.set(group);
+			}
+		}
+	}
+
+	// minimum or maximum values of other types, which are compared decoded
+	private static class Extremes extends Accumulator {
+
+		private final Class<?> type;
+		private final boolean max;
+
+		private Object[] extremes = new Object[16];
+		private String[] values = new String[16];
+
+		Extremes(Class<?> type, boolean max) {
+			this.type = Values.isSupported(type) ? type : String.class;
+			this.max = max;
+		}
+
+		@Override
+		void grow(int groups) {
+			if (groups > extremes.length) {
+				extremes = Arrays.copyOf(extremes, Math.max(groups, extremes.length * 2));
+				values = Arrays.copyOf(values, extremes.length);
+			}
+		}
+
+		@Override
+		long add(int group, String value) {
+
+			if (missing(value))
+				return 0;
+
+			return update(group, Values.decode(type, value), value) ? 40 + 2 * value.length() : 0;
+		}
+
+		@Override
+		void merge(int group, Accumulator other, int from) {
+
+			Extremes others = (Extremes) other;
+
+			if (others.extremes[from] != null)
+				update(group, others.extremes[from], others.values[from]);
+		}
+
+		@Override
+		String result(int group) {
+			return values[group];
+		}
+
+		// helper
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private boolean update(int group, Object decoded, String value) {
+
+			Comparable extreme = (Comparable) extremes[group];
+
+			if (extreme == null || (max ? extreme.compareTo(decoded) < 0 : extreme.compareTo(decoded) > 0)) {
+				extremes[group] = decoded;
+				values[group] = value;
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return kind.name().toLowerCase() + (column == null ? "" : "(" + column + ")") + " as " + name;
+	}
+}
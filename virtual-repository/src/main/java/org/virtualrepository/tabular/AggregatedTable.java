@@ -0,0 +1,580 @@
+package org.virtualrepository.tabular;
+
+import static java.util.Collections.*;
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.Properties;
+import org.virtualrepository.tabular.Aggregate.Accumulator;
+
+/**
+ * A {@link Table} with {@link Aggregate}s of the {@link Row}s of another {@link Table}, grouped by the values of given
+ * columns.
+ * <p>
+ * Aggregated rows have the group columns followed by a column for each aggregate. Without group columns, all rows form
+ * a single group. Groups are aggregated anew at each iteration, in a single pass over the rows, and are returned in
+ * the order in which they first occur.
+ * <p>
+ * Groups are aggregated in a hash table up to a memory budget. Over budget, the rows of new groups are partitioned by
+ * group into temporary {@link RowFile}s, which are then aggregated partition by partition, and deleted at the end of
+ * the iteration or when the iterator is closed. In this case, groups are returned in order within each partition
+ * only.
+ * <p>
+ * Splits of a table can also be aggregated in parallel (cf.
+ * {@link #AggregatedTable(List, List, List, Executor)}), in which case the partial aggregates of each split are merged.
+ * Partial aggregates are held in memory.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#aggregate(List, Aggregate...)
+ */
+public class AggregatedTable implements Table {
+
+	private static final Logger log = LoggerFactory.getLogger(AggregatedTable.class);
+
+	static final int partitions = 16;
+
+	private final List<Table> tables;
+	private final QName[] groups;
+	private final List<Aggregate> aggregates;
+	private final long budget;
+	private final Executor executor;
+
+	private volatile List<Column> columns;
+
+	/**
+	 * Creates an instance with aggregates of the rows of a given table, grouped by given columns within a given memory
+	 * budget.
+	 *
+	 * @param table the table
+	 * @param groups the names of the group columns
+	 * @param aggregates the aggregates
+	 * @param budget the memory budget, in bytes
+	 *
+	 * @throws IllegalArgumentException if there are no aggregates, or the budget is negative
+	 */
+	public AggregatedTable(Table table, List<QName> groups, List<Aggregate> aggregates, long budget) {
+
+		this(singletonList(table), groups, aggregates, budget, null);
+	}
+
+	/**
+	 * Creates an instance with aggregates of the rows of given splits of a table, grouped by given columns.
+	 * <p>
+	 * Splits are aggregated in parallel on a given {@link Executor}, and their partial aggregates are merged in the
+	 * order of the splits.
+	 *
+	 * @param splits the splits
+	 * @param groups the names of the group columns
+	 * @param aggregates the aggregates
+	 * @param executor the executor
+	 *
+	 * @throws IllegalArgumentException if there are no splits or no aggregates
+	 */
+	public AggregatedTable(List<Table> splits, List<QName> groups, List<Aggregate> aggregates, Executor executor) {
+
+		this(splits, groups, aggregates, Long.MAX_VALUE, executor);
+
+		notNull("executor", executor);
+	}
+
+	private AggregatedTable(List<Table> tables, List<QName> groups, List<Aggregate> aggregates, long budget,
+			Executor executor) {
+
+		notNull("tables", tables);
+		notNull("groups", groups);
+		notNull("aggregates", aggregates);
+
+		if (tables.isEmpty())
+			throw new IllegalArgumentException("no tables to aggregate");
+
+		for (Table table : tables)
+			notNull("table", table);
+
+		if (aggregates.isEmpty())
+			throw new IllegalArgumentException("no aggregates");
+
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid memory budget " + budget);
+
+		this.tables = new ArrayList<Table>(tables);
+		this.groups = groups.toArray(new QName[0]);
+		this.aggregates = new ArrayList<Aggregate>(aggregates);
+		this.budget = budget;
+		this.executor = executor;
+
+		this.columns = new Projection(this.tables.get(0)).resolve(true);
+	}
+
+	@Override
+	public List<Column> columns() {
+		// column types may be discovered as the table is iterated over
+		return columns;
+	}
+
+	@Override
+	public Properties properties() {
+		return tables.get(0).properties();
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		return executor == null ? aggregate(tables.get(0)) : aggregateInParallel();
+	}
+
+	// aggregates a table in a hash table, partitioning groups over budget
+	private Iterator<Row> aggregate(Table table) {
+
+		final Projection projection = new Projection(table);
+
+		final Iterator<Row> rows = table.iterator();
+
+		Iterator<String[]> inputs = new Iterator<String[]>() {
+
+			@Override
+			public boolean hasNext() {
+				return rows.hasNext();
+			}
+
+			@Override
+			public String[] next() {
+				return projection.inputOf(rows.next());
+			}
+		};
+
+		Groups groups = aggregate(inputs, projection, 0);
+
+		return groups == null ? emptyIterator() : groups.rows();
+	}
+
+	// aggregates the inputs of a pass, returning in-memory groups chained to spilled ones
+	private Groups aggregate(Iterator<String[]> inputs, Projection projection, int level) {
+
+		Groups memory = null;
+		RowFile[] spilled = null;
+
+		try {
+
+			while (inputs.hasNext()) {
+
+				String[] input = inputs.next();
+
+				if (memory == null)
+					memory = new Groups(projection);
+
+				// once over budget, only the groups in memory are updated
+				if (!memory.add(input, spilled == null)) {
+					spilled[partitionOf(input, level)].append(input);
+					continue;
+				}
+
+				if (spilled == null && memory.used > budget) {
+
+					log.debug("aggregates exceeded budget of {} bytes, partitioning groups to disk", budget);
+
+					spilled = new RowFile[partitions];
+
+					for (int p = 0; p < partitions; p++)
+						spilled[p] = new RowFile();
+				}
+			}
+		} catch (RuntimeException e) {
+
+			if (spilled != null)
+				for (RowFile partition : spilled)
+					partition.close();
+
+			throw e;
+		}
+
+		if (memory == null)
+			memory = projection.empty();
+
+		if (memory != null && spilled != null)
+			memory.next = new Spilled(spilled, projection, level + 1);
+
+		return memory;
+	}
+
+	// aggregates splits in parallel, and merges their partial aggregates
+	private Iterator<Row> aggregateInParallel() {
+
+		List<CompletableFuture<Groups>> partials = new ArrayList<CompletableFuture<Groups>>();
+
+		for (Table split : tables)
+			partials.add(CompletableFuture.supplyAsync(() -> partial(split), executor));
+
+		Groups merged = null;
+
+		for (CompletableFuture<Groups> partial : partials) {
+
+			Groups groups;
+
+			try {
+				groups = partial.join();
+			}
+			catch (CompletionException e) {
+
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+
+				throw new RuntimeException("cannot aggregate table", e.getCause());
+			}
+
+			if (merged == null)
+				merged = groups;
+			else if (groups != null)
+				merged.merge(groups);
+		}
+
+		if (merged == null)
+			merged = new Projection(tables.get(0)).empty();
+
+		return merged == null ? emptyIterator() : merged.rows();
+	}
+
+	// aggregates a split in memory
+	private Groups partial(Table split) {
+
+		Projection projection = new Projection(split);
+
+		Groups groups = null;
+
+		for (Row row : split) {
+
+			String[] input = projection.inputOf(row);
+
+			if (groups == null)
+				groups = new Groups(projection);
+
+			groups.add(input, true);
+		}
+
+		return groups;
+	}
+
+	// the partition of the group of an input, which changes with the level of partitioning
+	private int partitionOf(String[] input, int level) {
+
+		int h = Arrays.hashCode(Arrays.copyOf(input, groups.length)) ^ (level * 0x85EBCA6B);
+
+		h *= 0x9E3779B9;
+
+		return (h >>> 16) % partitions;
+	}
+
+	// projects rows onto the values of group columns and aggregated columns, for the columns of a table at the time
+	private class Projection {
+
+		private final Table table;
+
+		private ColumnIndex index;
+		private int[] positions;
+		private Class<?>[] types;
+
+		Projection(Table table) {
+			this.table = table;
+		}
+
+		String[] inputOf(Row row) {
+
+			List<Column> columns = table.columns();
+
+			// columns may be discovered during iteration
+			if (index == null || !index.indexes(columns))
+				AggregatedTable.this.columns = resolve(false);
+
+			String[] values = row.values(columns);
+
+			String[] input = new String[positions.length];
+
+			for (int i = 0; i < input.length; i++) {
+
+				int position = positions[i];
+
+				input[i] = position < 0 || position >= values.length ? null : values[position];
+			}
+
+			return input;
+		}
+
+		// the single group of tables with no rows, if they are aggregated without group columns
+		Groups empty() {
+
+			if (groups.length > 0)
+				return null;
+
+			columns = resolve(true);
+
+			Groups empty = new Groups(this);
+
+			empty.add(new String[aggregates.size()], true);
+
+			return empty;
+		}
+
+		// resolves the columns of the table, returning the aggregated columns
+		List<Column> resolve(boolean lenient) {
+
+			List<Column> columns = table.columns();
+
+			index = new ColumnIndex(columns);
+
+			positions = new int[groups.length + aggregates.size()];
+			types = new Class<?>[aggregates.size()];
+
+			List<Column> aggregated = new ArrayList<Column>();
+
+			for (int g = 0; g < groups.length; g++) {
+
+				positions[g] = position(groups[g], lenient);
+
+				aggregated.add(positions[g] < 0 ? new Column(groups[g]) : columns.get(positions[g]));
+			}
+
+			for (int a = 0; a < types.length; a++) {
+
+				QName column = aggregates.get(a).column();
+
+				int position = column == null ? -1 : position(column, lenient);
+
+				positions[groups.length + a] = position;
+				types[a] = position < 0 ? String.class : columns.get(position).type();
+
+				aggregated.add(aggregates.get(a).columnFor(types[a]));
+			}
+
+			return unmodifiableList(aggregated);
+		}
+
+		// helper
+		private int position(QName name, boolean lenient) {
+
+			int position = index.position(name);
+
+			if (position < 0 && !lenient)
+				throw new IllegalArgumentException("unknown column " + name);
+
+			return position;
+		}
+	}
+
+	// aggregates by group, in the order in which groups are added
+	private class Groups {
+
+		private final Map<List<String>, Integer> ids = new HashMap<List<String>, Integer>();
+		private final List<String[]> keys = new ArrayList<String[]>();
+		private final Accumulator[] accumulators;
+
+		// an estimate of the memory used, in bytes
+		long used;
+
+		// the groups to return after these, if any
+		Iterator<Row> next;
+
+		Groups(Projection projection) {
+
+			accumulators = new Accumulator[aggregates.size()];
+
+			for (int a = 0; a < accumulators.length; a++)
+				accumulators[a] = aggregates.get(a).accumulatorFor(projection.types[a]);
+		}
+
+		// adds an input to its group, unless the group is new and cannot be admitted
+		boolean add(String[] input, boolean admit) {
+
+			Integer id = ids.get(Arrays.asList(input).subList(0, groups.length));
+
+			if (id == null) {
+
+				if (!admit)
+					return false;
+
+				id = idOf(Arrays.copyOf(input, groups.length));
+			}
+
+			for (int a = 0; a < accumulators.length; a++)
+				used += accumulators[a].add(id, input[groups.length + a]);
+
+			return true;
+		}
+
+		// merges other groups into these
+		void merge(Groups other) {
+
+			for (int o = 0; o < other.keys.size(); o++) {
+
+				String[] key = other.keys.get(o);
+
+				Integer id = ids.get(Arrays.asList(key));
+
+				if (id == null)
+					id = idOf(key);
+
+				for (int a = 0; a < accumulators.length; a++)
+					accumulators[a].merge(id, other.accumulators[a], o);
+			}
+		}
+
+		Iterator<Row> rows() {
+
+			final ColumnIndex index = new ColumnIndex(columns);
+
+			class Rows implements Iterator<Row>, Closeable {
+
+				int group = 0;
+
+				@Override
+				public boolean hasNext() {
+					return group < keys.size() || (next != null && next.hasNext());
+				}
+
+				@Override
+				public Row next() {
+
+					if (!hasNext())
+						throw new NoSuchElementException();
+
+					if (group == keys.size())
+						return next.next();
+
+					String[] key = keys.get(group);
+
+					String[] values = Arrays.copyOf(key, groups.length + accumulators.length);
+
+					for (int a = 0; a < accumulators.length; a++)
+						values[groups.length + a] = accumulators[a].result(group);
+
+					group++;
+
+					return new ArrayRow(index, values);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void close() {
+
+					group = keys.size();
+
+					RowFile.close(next);
+				}
+			}
+
+			return new Rows();
+		}
+
+		// helper
+		private int idOf(String[] key) {
+
+			int id = keys.size();
+
+			keys.add(key);
+			ids.put(Arrays.asList(key), id);
+
+			for (Accumulator accumulator : accumulators)
+				accumulator.grow(id + 1);
+
+			used += RowStore.sizeOf(key) + 64 + 16 * accumulators.length;
+
+			return id;
+		}
+	}
+
+	// aggregates spilled partitions in turn
+	private class Spilled implements Iterator<Row>, Closeable {
+
+		private final Projection projection;
+		private final int level;
+
+		// null once all partitions have been aggregated
+		private RowFile[] partitions;
+		private int partition = -1;
+		private Iterator<Row> current = emptyIterator();
+
+		Spilled(RowFile[] partitions, Projection projection, int level) {
+			this.partitions = partitions;
+			this.projection = projection;
+			this.level = level;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			while (!current.hasNext()) {
+
+				if (partitions == null)
+					return false;
+
+				if (partition >= 0)
+					partitions[partition].close();
+
+				if (++partition == partitions.length) {
+					partitions = null;
+					return false;
+				}
+
+				Groups groups = aggregate(partitions[partition].iterator(), projection, level);
+
+				current = groups == null ? emptyIterator() : groups.rows();
+			}
+
+			return true;
+		}
+
+		@Override
+		public Row next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			return current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+
+			RowFile.close(current);
+
+			current = emptyIterator();
+
+			if (partitions == null)
+				return;
+
+			for (int p = Math.max(partition, 0); p < partitions.length; p++)
+				partitions[p].close();
+
+			partitions = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "AggregatedTable [tables=" + tables + ", groups=" + Arrays.toString(groups) + ", aggregates="
+				+ aggregates + "]";
+	}
+}
@@ -0,0 +1,111 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A {@link Row} that keeps its values in an array, in the order of a shared {@link ColumnIndex}.
+ * <p>
+ * The array may be shorter than the index, in which case the row has no values for the trailing columns.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class ArrayRow extends Row {
+
+	private final ColumnIndex index;
+	private final String[] values;
+
+	private Object[] decoded;
+
+	/**
+	 * Creates an instance with a given column index and given values.
+	 *
+	 * @param index the index
+	 * @param values the values, in index order
+	 */
+	public ArrayRow(ColumnIndex index, String[] values) {
+
+		notNull("column index", index);
+		notNull("values", values);
+
+		this.index = index;
+		this.values = values;
+	}
+
+	@Override
+	public String get(QName name) {
+
+		int position = index.position(name);
+
+		return position < 0 || position >= values.length ? null : values[position];
+	}
+
+	/**
+	 * Returns the value of this row at a given position.
+	 *
+	 * @param position the position
+	 * @return the value
+	 */
+	public String get(int position) {
+		return position < values.length ? values[position] : null;
+	}
+
+	/**
+	 * Returns the index of this row.
+	 *
+	 * @return the index
+	 */
+	public ColumnIndex index() {
+		return index;
+	}
+
+	@Override
+	protected Object decoded(Column column, Class<?> type) {
+
+		int position = index.position(column.name());
+
+		if (position < 0 || position >= values.length)
+			return null;
+
+		if (decoded == null)
+			decoded = new Object[values.length];
+
+		Object value = decoded[position];
+
+		if (value == null || !Values.boxed(type).isInstance(value))
+			decoded[position] = value = Values.decode(type, values[position]);
+
+		return value;
+	}
+
+	@Override
+	public String[] values(List<Column> columns) {
+
+		// common case: same columns, no lookups required
+		if (index.indexes(columns)) {
+			String[] copy = new String[columns.size()];
+			System.arraycopy(values, 0, copy, 0, Math.min(values.length, copy.length));
+			return copy;
+		}
+
+		return super.values(columns);
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder builder = new StringBuilder("{");
+
+		for (int i = 0; i < values.length && i < index.size(); i++) {
+			if (i > 0)
+				builder.append(", ");
+			builder.append(index.columns().get(i).name()).append('=').append(values[i]);
+		}
+
+		return builder.append("}").toString();
+	}
+}
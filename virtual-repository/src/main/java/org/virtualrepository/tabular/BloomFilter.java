@@ -0,0 +1,80 @@
+package org.virtualrepository.tabular;
+
+/**
+ * A Bloom filter of strings, sized for an expected number of strings and a false positive probability.
+ * <p>
+ * Bit positions are derived from a single 64-bit hash by double hashing.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+final class BloomFilter {
+
+	private final long[] bits;
+	private final long size;
+	private final int hashes;
+
+	/**
+	 * Creates an instance for a given number of strings and a given false positive probability.
+	 *
+	 * @param expected the number of strings
+	 * @param fpp the false positive probability
+	 *
+	 * @throws IllegalArgumentException if the number of strings is not positive, or the probability is not between 0
+	 *             and 1
+	 */
+	BloomFilter(long expected, double fpp) {
+
+		if (expected <= 0)
+			throw new IllegalArgumentException("invalid number of expected values " + expected);
+
+		if (fpp <= 0 || fpp >= 1)
+			throw new IllegalArgumentException("invalid false positive probability " + fpp);
+
+		double ln2 = Math.log(2);
+
+		long size = (long) Math.ceil(-expected * Math.log(fpp) / (ln2 * ln2));
+
+		this.bits = new long[(int) Math.min((size + 63) / 64, Integer.MAX_VALUE - 8)];
+		this.size = bits.length * 64L;
+		this.hashes = Math.max(1, (int) Math.round((double) this.size / expected * ln2));
+	}
+
+	/**
+	 * Adds a string to this filter.
+	 *
+	 * @param value the string
+	 * @return <code>true</code> if the string was certainly not in this filter, <code>false</code> if it may have been
+	 */
+	boolean put(String value) {
+
+		long hash = ColumnProfile.hash(value);
+
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		boolean added = false;
+
+		for (int i = 1; i <= hashes; i++) {
+
+			long combined = h1 + (long) i * h2;
+
+			long bit = (combined & Long.MAX_VALUE) % size;
+
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+
+			if ((bits[word] & mask) == 0) {
+				bits[word] |= mask;
+				added = true;
+			}
+		}
+
+		return added;
+	}
+
+	@Override
+	public String toString() {
+		return "BloomFilter [size=" + size + ", hashes=" + hashes + "]";
+	}
+}
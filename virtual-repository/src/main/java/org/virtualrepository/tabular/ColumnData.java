@@ -0,0 +1,697 @@
+package org.virtualrepository.tabular;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The values of a {@link Column} of a {@link ColumnarTable}, stored contiguously.
+ * <p>
+ * Values are appended in row order and then accessed by row position. Storage depends on the {@link Column#type()}:
+ * integral and floating point columns use primitive arrays, boolean columns use bit sets, and all other columns store
+ * strings, with dictionary encoding as long as they have few distinct values.
+ * <p>
+ * Values are returned as they were appended. Non-string columns keep aside the text of values that differ from their
+ * canonical form (e.g. <code>007</code> rather than <code>7</code>), and fall back to string storage if too many do.
+ * Empty and blank values of non-string columns are missing, as in {@link Row#isNull(Column)}.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public abstract class ColumnData {
+
+	private static final Logger log = LoggerFactory.getLogger(ColumnData.class);
+
+	/**
+	 * The maximum number of distinct values of dictionary-encoded columns.
+	 */
+	public static final int maxDictionarySize = 1 << 16;
+
+	static final int initialCapacity = 16;
+
+	int size;
+
+	// the text of values that differ from their canonical form, by row
+	private Map<Integer, String> texts;
+
+	/**
+	 * Returns the storage for the values of a given column.
+	 *
+	 * @param column the column
+	 * @return the storage
+	 */
+	public static ColumnData of(Column column) {
+
+		Class<?> type = column.type();
+
+		if (Values.isIntegral(type))
+			return new Longs();
+
+		if (Values.isFloating(type))
+			return new Doubles();
+
+		if (type == Boolean.class || type == boolean.class)
+			return new Booleans();
+
+		return new Dictionary();
+	}
+
+	/**
+	 * Returns the number of values in this column.
+	 *
+	 * @return the number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the value at a given row position.
+	 *
+	 * @param row the position
+	 * @return the value, or <code>null</code> if there is no value at the given position
+	 */
+	public abstract String get(int row);
+
+	/**
+	 * Returns <code>true</code> if there is no value at a given row position.
+	 *
+	 * @param row the position
+	 * @return <code>true</code> if there is no value at the given position
+	 */
+	public boolean isNull(int row) {
+		return get(row) == null;
+	}
+
+	/**
+	 * Appends a value to this column, returning the storage to use for subsequent values.
+	 * <p>
+	 * Storage changes when values cannot be accommodated any longer by the current storage, e.g. when a column has too
+	 * many distinct values for dictionary encoding.
+	 *
+	 * @param value the value, possibly <code>null</code>
+	 * @return the storage for subsequent values
+	 */
+	public abstract ColumnData add(String value);
+
+	/**
+	 * Releases any excess capacity acquired while appending values.
+	 */
+	public abstract void trim();
+
+	/**
+	 * Estimates the heap footprint of this column, in bytes.
+	 *
+	 * @return the estimated footprint
+	 */
+	public abstract long footprint();
+
+	// helper
+	static int grow(int capacity) {
+		return Math.max(initialCapacity, capacity + (capacity >> 1));
+	}
+
+	// falls back to plain strings when values cannot be stored natively
+	ColumnData fallback(String value) {
+
+		log.warn("value '{}' does not match the type of its column, storing column values as strings", value);
+
+		return strings().add(value);
+	}
+
+	// helper
+	static boolean missing(String value) {
+		return value == null || value.trim().isEmpty();
+	}
+
+	// keeps aside the text of the next value if it is not canonical, returning false if too many values are not
+	boolean canonical(String value, String canonical) {
+
+		if (value.equals(canonical))
+			return true;
+
+		if (texts == null)
+			texts = new HashMap<Integer, String>();
+
+		texts.put(size, value);
+
+		return texts.size() <= initialCapacity || texts.size() <= size / 8;
+	}
+
+	// falls back to plain strings when too many values are not canonical
+	ColumnData uncanonical(String value) {
+
+		log.debug("too many values are not in canonical form, storing column values as strings");
+
+		return strings().add(value);
+	}
+
+	// the text of a value at a given row position, given its canonical form
+	String text(int row, String canonical) {
+
+		String text = texts == null ? null : texts.get(row);
+
+		return text == null ? canonical : text;
+	}
+
+	// helper
+	long textsFootprint() {
+
+		if (texts == null)
+			return 0;
+
+		long footprint = 48;
+
+		for (String text : texts.values())
+			footprint += 80 + 2 * text.length();
+
+		return footprint;
+	}
+
+	// copies values to plain string storage
+	Strings strings() {
+
+		Strings strings = new Strings();
+
+		for (int i = 0; i < size; i++)
+			strings.add(get(i));
+
+		return strings;
+	}
+
+	/**
+	 * Plain string storage.
+	 */
+	public static class Strings extends ColumnData {
+
+		private String[] values = new String[initialCapacity];
+
+		@Override
+		public String get(int row) {
+			return values[row];
+		}
+
+		@Override
+		public ColumnData add(String value) {
+
+			if (size == values.length)
+				values = Arrays.copyOf(values, grow(values.length));
+			values[size++] = value;
+
+			return this;
+		}
+
+		@Override
+		public void trim() {
+			values = Arrays.copyOf(values, size);
+		}
+
+		@Override
+		public long footprint() {
+
+			long footprint = 16 + 4L * values.length;
+
+			for (int i = 0; i < size; i++)
+				if (values[i] != null)
+					footprint += 40 + 2 * values[i].length();
+
+			return footprint;
+		}
+	}
+
+	/**
+	 * Dictionary-encoded string storage.
+	 * <p>
+	 * Each distinct value is stored once, and rows store the codes of their values. Codes are narrowed to bytes or
+	 * characters when the column is trimmed, if the dictionary is small enough.
+	 */
+	public static class Dictionary extends ColumnData {
+
+		static final int sampleSize = 1 << 12;
+
+		private String[] dictionary = new String[initialCapacity];
+		private int entries;
+
+		private Map<String, Integer> codesByValue = new HashMap<String, Integer>();
+
+		// 0 is reserved to nulls, and only one of these is used after trimming
+		private int[] codes = new int[initialCapacity];
+		private char[] charCodes;
+		private byte[] byteCodes;
+
+		/**
+		 * Creates an empty instance.
+		 */
+		public Dictionary() {
+		}
+
+		/**
+		 * Creates an instance with given distinct values and codes, which are trimmed.
+		 *
+		 * @param dictionary the distinct values
+		 * @param codes the codes of the values, i.e. their positions in the dictionary from 1, or <code>0</code>s for
+		 *            missing values
+		 */
+		public Dictionary(String[] dictionary, int[] codes) {
+
+			this.dictionary = dictionary;
+			this.entries = dictionary.length;
+			this.codes = codes;
+			this.size = codes.length;
+			this.codesByValue = null;
+
+			trim();
+		}
+
+		@Override
+		public String get(int row) {
+
+			int code = code(row);
+
+			return code == 0 ? null : dictionary[code - 1];
+		}
+
+		@Override
+		public boolean isNull(int row) {
+			return code(row) == 0;
+		}
+
+		/**
+		 * Returns the code of the value at a given row position.
+		 *
+		 * @param row the position
+		 * @return the code, or <code>0</code> if there is no value at the given position
+		 */
+		public int code(int row) {
+
+			if (byteCodes != null)
+				return byteCodes[row] & 0xFF;
+
+			if (charCodes != null)
+				return charCodes[row];
+
+			return codes[row];
+		}
+
+		/**
+		 * Returns the code of a given value.
+		 *
+		 * @param value the value
+		 * @return the code, or <code>-1</code> if the value does not occur in this column
+		 */
+		public int codeOf(String value) {
+
+			if (value == null)
+				return 0;
+
+			if (codesByValue != null) {
+				Integer code = codesByValue.get(value);
+				return code == null ? -1 : code;
+			}
+
+			for (int i = 0; i < entries; i++)
+				if (dictionary[i].equals(value))
+					return i + 1;
+
+			return -1;
+		}
+
+		/**
+		 * Returns the value for a given code.
+		 *
+		 * @param code the code
+		 * @return the value
+		 */
+		public String valueOf(int code) {
+			return code == 0 ? null : dictionary[code - 1];
+		}
+
+		/**
+		 * Returns the number of distinct values in this column.
+		 *
+		 * @return the number of distinct values
+		 */
+		public int entries() {
+			return entries;
+		}
+
+		@Override
+		public ColumnData add(String value) {
+
+			// mostly distinct values are stored more compactly without a dictionary
+			if (size == sampleSize && entries > sampleSize / 2)
+				return strings().add(value);
+
+			if (codes == null)
+				widen();
+
+			int code = 0;
+
+			if (value != null) {
+
+				Integer known = codesByValue.get(value);
+
+				if (known == null) {
+
+					if (entries == maxDictionarySize)
+						return strings().add(value);
+
+					if (entries == dictionary.length)
+						dictionary = Arrays.copyOf(dictionary, grow(dictionary.length));
+					dictionary[entries++] = value;
+					code = entries;
+					codesByValue.put(value, code);
+				} else
+					code = known;
+			}
+
+			if (size == codes.length)
+				codes = Arrays.copyOf(codes, grow(codes.length));
+			codes[size++] = code;
+
+			return this;
+		}
+
+		@Override
+		public void trim() {
+
+			if (codes == null)
+				return;
+
+			dictionary = Arrays.copyOf(dictionary, entries);
+
+			if (entries < 1 << 8) {
+				byteCodes = new byte[size];
+				for (int i = 0; i < size; i++)
+					byteCodes[i] = (byte) codes[i];
+				codes = null;
+			} else if (entries < 1 << 16) {
+				charCodes = new char[size];
+				for (int i = 0; i < size; i++)
+					charCodes[i] = (char) codes[i];
+				codes = null;
+			} else
+				codes = Arrays.copyOf(codes, size);
+
+			// lookups by value are rare after construction, we trade them for memory
+			codesByValue = null;
+		}
+
+		// helper
+		private void widen() {
+
+			codes = new int[grow(size)];
+
+			for (int i = 0; i < size; i++)
+				codes[i] = code(i);
+
+			byteCodes = null;
+			charCodes = null;
+
+			codesByValue = new HashMap<String, Integer>();
+			for (int i = 0; i < entries; i++)
+				codesByValue.put(dictionary[i], i + 1);
+		}
+
+		@Override
+		public long footprint() {
+
+			long footprint = 16 + 4L * dictionary.length;
+
+			for (int i = 0; i < entries; i++)
+				footprint += 40 + 2 * dictionary[i].length();
+
+			if (byteCodes != null)
+				footprint += 16 + byteCodes.length;
+			else if (charCodes != null)
+				footprint += 16 + 2L * charCodes.length;
+			else
+				footprint += 16 + 4L * codes.length;
+
+			return footprint;
+		}
+	}
+
+	/**
+	 * Storage for integral numbers.
+	 */
+	public static class Longs extends ColumnData {
+
+		private long[] values;
+		private final BitSet nulls;
+
+		/**
+		 * Creates an empty instance.
+		 */
+		public Longs() {
+
+			this(new long[initialCapacity], new BitSet());
+
+			size = 0;
+		}
+
+		/**
+		 * Creates an instance with given values.
+		 *
+		 * @param values the values
+		 * @param nulls the positions of missing values
+		 */
+		public Longs(long[] values, BitSet nulls) {
+
+			this.values = values;
+			this.nulls = nulls;
+			this.size = values.length;
+		}
+
+		/**
+		 * Returns the value at a given row position.
+		 *
+		 * @param row the position
+		 * @return the value, or <code>0</code> if there is no value at the given position
+		 */
+		public long getLong(int row) {
+			return values[row];
+		}
+
+		@Override
+		public String get(int row) {
+			return nulls.get(row) ? null : text(row, Long.toString(values[row]));
+		}
+
+		@Override
+		public boolean isNull(int row) {
+			return nulls.get(row);
+		}
+
+		@Override
+		public ColumnData add(String value) {
+
+			long parsed = 0;
+
+			if (missing(value))
+				nulls.set(size);
+			else {
+
+				try {
+					parsed = Long.parseLong(value.trim());
+				} catch (NumberFormatException e) {
+					return fallback(value);
+				}
+
+				if (!canonical(value, Long.toString(parsed)))
+					return uncanonical(value);
+			}
+
+			if (size == values.length)
+				values = Arrays.copyOf(values, grow(values.length));
+			values[size++] = parsed;
+
+			return this;
+		}
+
+		@Override
+		public void trim() {
+			values = Arrays.copyOf(values, size);
+		}
+
+		@Override
+		public long footprint() {
+			return 16 + 8L * values.length + nulls.size() / 8 + textsFootprint();
+		}
+	}
+
+	/**
+	 * Storage for floating point numbers.
+	 */
+	public static class Doubles extends ColumnData {
+
+		private double[] values;
+		private final BitSet nulls;
+
+		/**
+		 * Creates an empty instance.
+		 */
+		public Doubles() {
+
+			this(new double[initialCapacity], new BitSet());
+
+			size = 0;
+		}
+
+		/**
+		 * Creates an instance with given values.
+		 *
+		 * @param values the values
+		 * @param nulls the positions of missing values
+		 */
+		public Doubles(double[] values, BitSet nulls) {
+
+			this.values = values;
+			this.nulls = nulls;
+			this.size = values.length;
+		}
+
+		/**
+		 * Returns the value at a given row position.
+		 *
+		 * @param row the position
+		 * @return the value, or <code>0</code> if there is no value at the given position
+		 */
+		public double getDouble(int row) {
+			return values[row];
+		}
+
+		@Override
+		public String get(int row) {
+			return nulls.get(row) ? null : text(row, Double.toString(values[row]));
+		}
+
+		@Override
+		public boolean isNull(int row) {
+			return nulls.get(row);
+		}
+
+		@Override
+		public ColumnData add(String value) {
+
+			double parsed = 0;
+
+			if (missing(value))
+				nulls.set(size);
+			else {
+
+				try {
+					parsed = Double.parseDouble(value.trim());
+				} catch (NumberFormatException e) {
+					return fallback(value);
+				}
+
+				if (!canonical(value, Double.toString(parsed)))
+					return uncanonical(value);
+			}
+
+			if (size == values.length)
+				values = Arrays.copyOf(values, grow(values.length));
+			values[size++] = parsed;
+
+			return this;
+		}
+
+		@Override
+		public void trim() {
+			values = Arrays.copyOf(values, size);
+		}
+
+		@Override
+		public long footprint() {
+			return 16 + 8L * values.length + nulls.size() / 8 + textsFootprint();
+		}
+	}
+
+	/**
+	 * Storage for booleans.
+	 */
+	public static class Booleans extends ColumnData {
+
+		private final BitSet values;
+		private final BitSet nulls;
+
+		/**
+		 * Creates an empty instance.
+		 */
+		public Booleans() {
+
+			this(new BitSet(), new BitSet(), 0);
+		}
+
+		/**
+		 * Creates an instance with a given number of values.
+		 *
+		 * @param values the positions of <code>true</code> values
+		 * @param nulls the positions of missing values
+		 * @param size the number of values
+		 */
+		public Booleans(BitSet values, BitSet nulls, int size) {
+
+			this.values = values;
+			this.nulls = nulls;
+			this.size = size;
+		}
+
+		/**
+		 * Returns the value at a given row position.
+		 *
+		 * @param row the position
+		 * @return the value, or <code>false</code> if there is no value at the given position
+		 */
+		public boolean getBoolean(int row) {
+			return values.get(row);
+		}
+
+		@Override
+		public String get(int row) {
+			return nulls.get(row) ? null : text(row, Boolean.toString(values.get(row)));
+		}
+
+		@Override
+		public boolean isNull(int row) {
+			return nulls.get(row);
+		}
+
+		@Override
+		public ColumnData add(String value) {
+
+			if (missing(value))
+				nulls.set(size);
+			else {
+
+				boolean parsed = "true".equalsIgnoreCase(value.trim());
+
+				if (!parsed && !"false".equalsIgnoreCase(value.trim()))
+					return fallback(value);
+
+				if (!canonical(value, Boolean.toString(parsed)))
+					return uncanonical(value);
+
+				values.set(size, parsed);
+			}
+
+			size++;
+
+			return this;
+		}
+
+		@Override
+		public void trim() {
+		}
+
+		@Override
+		public long footprint() {
+			return (values.size() + nulls.size()) / 8 + textsFootprint();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The positions of a list of {@link Column}s, indexed by column name.
+ * <p>
+ * Indices are shared by all the {@link Row}s that keep their values in column order (cf. {@link ArrayRow}).
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public final class ColumnIndex {
+
+	private final List<Column> source;
+	private final List<Column> columns;
+	private final Map<QName, Integer> positions;
+
+	/**
+	 * Creates an instance for a given list of columns.
+	 *
+	 * @param columns the columns
+	 */
+	public ColumnIndex(List<Column> columns) {
+
+		notNull("columns", columns);
+
+		this.source = columns;
+		this.columns = Collections.unmodifiableList(columns);
+		this.positions = new HashMap<QName, Integer>(columns.size() * 2);
+
+		for (int i = 0; i < columns.size(); i++)
+			positions.put(columns.get(i).name(), i);
+	}
+
+	/**
+	 * Returns the position of a given column.
+	 *
+	 * @param name the name of the column
+	 * @return the position of the column, or <code>-1</code> if there is no such column
+	 */
+	public int position(QName name) {
+
+		Integer position = positions.get(name);
+
+		return position == null ? -1 : position;
+	}
+
+	/**
+	 * Returns the indexed columns.
+	 *
+	 * @return the columns, in an immutable list
+	 */
+	public List<Column> columns() {
+		return columns;
+	}
+
+	/**
+	 * Returns <code>true</code> if this index was created for a given list of columns, or else if it returned it.
+	 *
+	 * @param columns the columns
+	 * @return <code>true</code> if the list is the very list indexed by this index
+	 */
+	public boolean indexes(List<Column> columns) {
+		return columns == source || columns == this.columns;
+	}
+
+	/**
+	 * Returns the number of indexed columns.
+	 *
+	 * @return the number of columns
+	 */
+	public int size() {
+		return columns.size();
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnIndex " + positions;
+	}
+}
@@ -0,0 +1,545 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics of the values of a {@link Column}, gathered in a single pass and in constant memory.
+ * <p>
+ * Profiles count missing values and values that do not have the type of the column, estimate the number of distinct
+ * values with a HyperLogLog sketch, track the minimum and maximum values according to the type of the column, and
+ * distribute the lengths of values in power-of-two ranges. For numeric columns, they also estimate quantiles with a
+ * sketch of compacted samples.
+ * <p>
+ * Profiles of disjoint sets of values can be merged into the profile of their union, so that splits of a table can be
+ * profiled in parallel.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see TableProfile
+ */
+public class ColumnProfile {
+
+	private static final Logger log = LoggerFactory.getLogger(ColumnProfile.class);
+
+	/**
+	 * The name of the {@link Column} property with the profile of the column.
+	 */
+	public static final String property = "profile";
+
+	// 2^precision registers, for a standard error of about 1.6%
+	static final int precision = 12;
+
+	private final Class<?> type;
+
+	private long count;
+	private long nulls;
+	private long invalid;
+
+	private final byte[] registers = new byte[1 << precision];
+
+	private Comparable<Object> min;
+	private Comparable<Object> max;
+	private String minValue;
+	private String maxValue;
+
+	private int minLength = Integer.MAX_VALUE;
+	private int maxLength;
+	private long totalLength;
+	private final long[] lengths = new long[Integer.SIZE + 1];
+
+	private final Quantiles quantiles;
+
+	/**
+	 * Creates an empty profile for values of a given type.
+	 *
+	 * @param type the type
+	 */
+	public ColumnProfile(Class<?> type) {
+
+		notNull("type", type);
+
+		this.type = Values.isSupported(type) ? type : String.class;
+		this.quantiles = Values.isNumeric(type) ? new Quantiles() : null;
+	}
+
+	/**
+	 * Adds a value to this profile.
+	 *
+	 * @param value the value, or <code>null</code> if it is missing
+	 */
+	public void add(String value) {
+
+		count++;
+
+		if (value == null || value.trim().isEmpty()) {
+			nulls++;
+			return;
+		}
+
+		long hash = hash(value);
+
+		int register = (int) (hash >>> (Long.SIZE - precision));
+		byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+
+		if (rank > registers[register])
+			registers[register] = rank;
+
+		int length = value.length();
+
+		minLength = Math.min(minLength, length);
+		maxLength = Math.max(maxLength, length);
+		totalLength += length;
+		lengths[Integer.SIZE - Integer.numberOfLeadingZeros(length)]++;
+
+		Object decoded;
+
+		try {
+			decoded = Values.decode(type, value);
+		}
+		catch (IllegalArgumentException e) {
+			invalid++;
+			return;
+		}
+
+		update(decoded, value);
+
+		if (quantiles != null)
+			quantiles.add(((Number) decoded).doubleValue());
+	}
+
+	/**
+	 * Merges another profile into this profile.
+	 *
+	 * @param other the other profile, for values of the same type
+	 *
+	 * @throws IllegalArgumentException if the other profile is for values of another type
+	 */
+	public void merge(ColumnProfile other) {
+
+		notNull("profile", other);
+
+		if (other.type != type)
+			throw new IllegalArgumentException("cannot merge profile of " + other.type.getName() + " values with profile of "
+					+ type.getName() + " values");
+
+		count += other.count;
+		nulls += other.nulls;
+		invalid += other.invalid;
+
+		for (int r = 0; r < registers.length; r++)
+			if (other.registers[r] > registers[r])
+				registers[r] = other.registers[r];
+
+		if (other.min != null) {
+			update(other.min, other.minValue);
+			update(other.max, other.maxValue);
+		}
+
+		minLength = Math.min(minLength, other.minLength);
+		maxLength = Math.max(maxLength, other.maxLength);
+		totalLength += other.totalLength;
+
+		for (int b = 0; b < lengths.length; b++)
+			lengths[b] += other.lengths[b];
+
+		if (quantiles != null)
+			quantiles.merge(other.quantiles);
+	}
+
+	/**
+	 * Returns the type of the profiled values.
+	 *
+	 * @return the type
+	 */
+	public Class<?> type() {
+		return type;
+	}
+
+	/**
+	 * Returns the number of profiled values, including missing values.
+	 *
+	 * @return the number of values
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of missing or empty values.
+	 *
+	 * @return the number of values
+	 */
+	public long nulls() {
+		return nulls;
+	}
+
+	/**
+	 * Returns the number of values that do not have the type of the column.
+	 *
+	 * @return the number of values
+	 */
+	public long invalid() {
+		return invalid;
+	}
+
+	/**
+	 * Returns an estimate of the number of distinct values, excluding missing values.
+	 *
+	 * @return the estimate
+	 */
+	public long distinct() {
+
+		int m = registers.length;
+
+		double sum = 0;
+		int zeros = 0;
+
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0)
+				zeros++;
+		}
+
+		double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+
+		// linear counting is more accurate for small cardinalities
+		if (estimate <= 2.5 * m && zeros > 0)
+			estimate = m * Math.log((double) m / zeros);
+
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Returns the minimum value, according to the type of the column.
+	 *
+	 * @return the value, or <code>null</code> if there are no values of the type
+	 */
+	public String min() {
+		return minValue;
+	}
+
+	/**
+	 * Returns the maximum value, according to the type of the column.
+	 *
+	 * @return the value, or <code>null</code> if there are no values of the type
+	 */
+	public String max() {
+		return maxValue;
+	}
+
+	/**
+	 * Returns the length of the shortest value, excluding missing values.
+	 *
+	 * @return the length, or 0 if all values are missing
+	 */
+	public int minLength() {
+		return count == nulls ? 0 : minLength;
+	}
+
+	/**
+	 * Returns the length of the longest value.
+	 *
+	 * @return the length
+	 */
+	public int maxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Returns the average length of values, excluding missing values.
+	 *
+	 * @return the average length, or 0 if all values are missing
+	 */
+	public double averageLength() {
+		return count == nulls ? 0 : (double) totalLength / (count - nulls);
+	}
+
+	/**
+	 * Returns the distribution of the lengths of values, excluding missing values.
+	 *
+	 * @return the number of values with a length in [2<sup>i-1</sup>, 2<sup>i</sup>) at each index <em>i</em> > 0
+	 */
+	public long[] lengths() {
+		return lengths.clone();
+	}
+
+	/**
+	 * Returns an estimate of a given quantile of the values of a numeric column.
+	 *
+	 * @param quantile the quantile, between 0 and 1 (e.g. 0.5 for the median)
+	 * @return the estimate, or <code>null</code> if the column is not numeric or has no numeric values
+	 *
+	 * @throws IllegalArgumentException if the quantile is not between 0 and 1
+	 */
+	public Double quantile(double quantile) {
+
+		if (quantile < 0 || quantile > 1)
+			throw new IllegalArgumentException("invalid quantile " + quantile);
+
+		return quantiles == null ? null : quantiles.get(quantile);
+	}
+
+	// adds missing values for rows in which the column was not yet known
+	void addNulls(long nulls) {
+
+		this.count += nulls;
+		this.nulls += nulls;
+	}
+
+	// helper
+	@SuppressWarnings("unchecked")
+	private void update(Object decoded, String value) {
+
+		Comparable<Object> comparable = (Comparable<Object>) decoded;
+
+		if (min == null || comparable.compareTo(min) < 0) {
+			min = comparable;
+			minValue = value;
+		}
+
+		if (max == null || comparable.compareTo(max) > 0) {
+			max = comparable;
+			maxValue = value;
+		}
+	}
+
+	// a 64-bit hash of a string, with the finaliser of MurmurHash3 to spread its bits
+	static long hash(String value) {
+
+		long h = 1125899906842597L;
+
+		for (int i = 0; i < value.length(); i++)
+			h = 31 * h + value.charAt(i);
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return h;
+	}
+
+	/**
+	 * Writes this profile to a given stream.
+	 *
+	 * @param out the stream
+	 * @throws IOException if the profile cannot be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+
+		out.writeUTF(type.getName());
+
+		out.writeLong(count);
+		out.writeLong(nulls);
+		out.writeLong(invalid);
+
+		out.write(registers);
+
+		RowFile.write(out, new String[] { minValue, maxValue });
+
+		out.writeInt(minLength);
+		out.writeInt(maxLength);
+		out.writeLong(totalLength);
+
+		for (long length : lengths)
+			out.writeLong(length);
+
+		if (quantiles != null)
+			quantiles.write(out);
+	}
+
+	/**
+	 * Reads a profile from a given stream.
+	 *
+	 * @param in the stream
+	 * @return the profile
+	 * @throws IOException if the profile cannot be read
+	 */
+	static ColumnProfile read(DataInputStream in) throws IOException {
+
+		ColumnProfile profile = new ColumnProfile(typeFor(in.readUTF()));
+
+		profile.count = in.readLong();
+		profile.nulls = in.readLong();
+		profile.invalid = in.readLong();
+
+		in.readFully(profile.registers);
+
+		String[] extremes = RowFile.read(in, new byte[][] { new byte[64] });
+
+		if (extremes == null)
+			throw new IOException("truncated profile");
+
+		if (extremes[0] != null) {
+			profile.update(Values.decode(profile.type, extremes[0]), extremes[0]);
+			profile.update(Values.decode(profile.type, extremes[1]), extremes[1]);
+		}
+
+		profile.minLength = in.readInt();
+		profile.maxLength = in.readInt();
+		profile.totalLength = in.readLong();
+
+		for (int b = 0; b < profile.lengths.length; b++)
+			profile.lengths[b] = in.readLong();
+
+		if (profile.quantiles != null)
+			profile.quantiles.read(in);
+
+		return profile;
+	}
+
+	// helper
+	private static Class<?> typeFor(String name) {
+
+		try {
+			return Class.forName(name);
+		}
+		catch (ClassNotFoundException e) {
+			log.warn("unknown column type {}, profiling values as strings", name);
+			return String.class;
+		}
+	}
+
+	// a sketch of numeric values for quantile estimates, with buffers of samples at increasing levels of compaction.
+	// full buffers are sorted and halved into the next level, where each sample stands for twice as many values.
+	private static class Quantiles {
+
+		static final int capacity = 256;
+
+		private double[][] levels = new double[1][capacity];
+		private int[] sizes = new int[1];
+
+		// alternates the samples kept by compactions, to avoid bias
+		private boolean odd;
+
+		void add(double value) {
+			add(0, value);
+		}
+
+		void merge(Quantiles other) {
+
+			for (int l = 0; l < other.sizes.length; l++)
+				for (int i = 0; i < other.sizes[l]; i++)
+					add(l, other.levels[l][i]);
+		}
+
+		Double get(double quantile) {
+
+			long total = 0;
+			int samples = 0;
+
+			for (int l = 0; l < sizes.length; l++) {
+				total += (long) sizes[l] << l;
+				samples += sizes[l];
+			}
+
+			if (total == 0)
+				return null;
+
+			// samples with their level, to weigh them
+			double[] values = new double[samples];
+			int[] weights = new int[samples];
+			Integer[] order = new Integer[samples];
+
+			for (int l = 0, s = 0; l < sizes.length; l++)
+				for (int i = 0; i < sizes[l]; i++, s++) {
+					values[s] = levels[l][i];
+					weights[s] = l;
+					order[s] = s;
+				}
+
+			Arrays.sort(order, (s1, s2) -> Double.compare(values[s1], values[s2]));
+
+			double rank = quantile * (total - 1);
+
+			long seen = 0;
+
+			for (int s : order) {
+
+				seen += 1L << weights[s];
+
+				if (seen > rank)
+					return values[s];
+			}
+
+			return values[order[samples - 1]];
+		}
+
+		// helper
+		private void add(int level, double value) {
+
+			if (level == sizes.length) {
+				levels = Arrays.copyOf(levels, level + 1);
+				levels[level] = new double[capacity];
+				sizes = Arrays.copyOf(sizes, level + 1);
+			}
+
+			levels[level][sizes[level]++] = value;
+
+			if (sizes[level] == capacity)
+				compact(level);
+		}
+
+		// helper
+		private void compact(int level) {
+
+			double[] buffer = levels[level];
+
+			Arrays.sort(buffer);
+
+			sizes[level] = 0;
+
+			for (int i = odd ? 1 : 0; i < capacity; i += 2)
+				add(level + 1, buffer[i]);
+
+			odd = !odd;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+
+			out.writeBoolean(odd);
+			out.writeInt(sizes.length);
+
+			for (int l = 0; l < sizes.length; l++) {
+
+				out.writeInt(sizes[l]);
+
+				for (int i = 0; i < sizes[l]; i++)
+					out.writeDouble(levels[l][i]);
+			}
+		}
+
+		void read(DataInputStream in) throws IOException {
+
+			odd = in.readBoolean();
+
+			int count = in.readInt();
+
+			levels = new double[count][capacity];
+			sizes = new int[count];
+
+			for (int l = 0; l < count; l++) {
+
+				sizes[l] = in.readInt();
+
+				for (int i = 0; i < sizes[l]; i++)
+					levels[l][i] = in.readDouble();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnProfile [type=" + type.getSimpleName() + ", count=" + count + ", nulls=" + nulls + ", distinct="
+				+ distinct() + ", min=" + minValue + ", max=" + maxValue + "]";
+	}
+}
@@ -0,0 +1,587 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A {@link Table} that keeps the values of each of its {@link Column}s contiguously in memory.
+ * <p>
+ * Columns are stored according to their {@link Column#type()} (cf. {@link ColumnData}), and rows are views over the
+ * columns created on demand. Compared to row-oriented tables, columnar tables have a much smaller footprint for
+ * long-lived data, e.g. codelists and other reference data, and support efficient scans over individual columns.
+ * <p>
+ * Columnar tables are materialised by definition.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class ColumnarTable extends AbstractTable implements Table {
+
+	private final ColumnIndex index;
+	private final ColumnData[] data;
+	private final int size;
+
+	/**
+	 * Creates an instance with the columns and rows of a given table.
+	 *
+	 * @param table the table
+	 *
+	 * @throws IllegalArgumentException if the table has more rows than can be stored in a columnar table
+	 */
+	public ColumnarTable(Table table) {
+
+		this(copy(table));
+
+		properties().add(table.properties().toArray());
+	}
+
+	/**
+	 * Creates an instance with given columns and column data.
+	 *
+	 * @param columns the columns
+	 * @param data the data of the columns, in column order and with the same number of values
+	 */
+	public ColumnarTable(List<Column> columns, List<ColumnData> data) {
+
+		super(columns);
+
+		notNull("column data", data);
+
+		if (columns.size() != data.size())
+			throw new IllegalArgumentException("expected data for " + columns.size() + " columns, found " + data.size());
+
+		this.index = new ColumnIndex(columns);
+		this.data = data.toArray(new ColumnData[data.size()]);
+		this.size = data.isEmpty() ? 0 : data.get(0).size();
+
+		for (ColumnData column : data)
+			if (column.size() != size)
+				throw new IllegalArgumentException("columns have different sizes");
+	}
+
+	// helper
+	private ColumnarTable(Copy copy) {
+
+		this(copy.columns, copy.data);
+	}
+
+	/**
+	 * Returns the number of rows of this table.
+	 *
+	 * @return the number of rows
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the data of a given column.
+	 *
+	 * @param column the column
+	 * @return the data
+	 *
+	 * @throws IllegalArgumentException if the column is not in this table
+	 */
+	public ColumnData data(Column column) {
+		return data(column.name());
+	}
+
+	/**
+	 * Returns the data of a given column.
+	 *
+	 * @param name the name of the column
+	 * @return the data
+	 *
+	 * @throws IllegalArgumentException if the column is not in this table
+	 */
+	public ColumnData data(QName name) {
+
+		int position = index.position(name);
+
+		if (position < 0)
+			throw new IllegalArgumentException("unknown column " + name);
+
+		return data[position];
+	}
+
+	/**
+	 * Returns the row at a given position.
+	 *
+	 * @param position the position
+	 * @return the row
+	 */
+	public Row row(int position) {
+
+		if (position < 0 || position >= size)
+			throw new IndexOutOfBoundsException("no row at " + position + ", table has " + size + " rows");
+
+		return new View(position);
+	}
+
+	/**
+	 * Returns an estimate of the heap footprint of the data of this table, in bytes.
+	 *
+	 * @return the estimated footprint
+	 */
+	public long footprint() {
+
+		long footprint = 0;
+
+		for (ColumnData column : data)
+			footprint += column.footprint();
+
+		return footprint;
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		return new Iterator<Row>() {
+
+			int position = 0;
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public Row next() {
+
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				return new View(position++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public Table materialise(long budget) {
+		return this; // materialised by definition
+	}
+
+	/**
+	 * Returns an iterator over the rows of this table in batches of a given size, which are filled directly from the
+	 * column data. Numeric columns are copied as primitives.
+	 *
+	 * @param size the size of the batches
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<RowBatch> batches(int size) {
+
+		return new RowBatch.Batches(new RowBatch(columns(), size)) {
+
+			int position = 0;
+
+			@Override
+			protected void fill(RowBatch batch) {
+
+				int count = Math.min(batch.capacity(), ColumnarTable.this.size - position);
+
+				batch.load(data, position, count);
+
+				position += count;
+			}
+		};
+	}
+
+	/**
+	 * Returns a table with the rows of this table that satisfy a given filter, evaluating the filter on the column data.
+	 * <p>
+	 * Conditions on dictionary-encoded columns are evaluated once per distinct value, and then matched against row
+	 * codes. Ranges on numeric columns compare primitive values. The returned table is materialised, and its rows are
+	 * views over the data of this table.
+	 *
+	 * @param filter the filter
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the filter is defined on columns that are not in this table
+	 */
+	@Override
+	public Table filter(Filter filter) {
+
+		notNull("filter", filter);
+
+		BitSet matches = matches(filter);
+
+		int[] positions = new int[matches.cardinality()];
+
+		for (int i = 0, p = matches.nextSetBit(0); p >= 0; p = matches.nextSetBit(p + 1))
+			positions[i++] = p;
+
+		return new Selection(positions);
+	}
+
+	/**
+	 * Returns a table with a given number of rows of this table, from a given position, which are accessed directly.
+	 * <p>
+	 * The returned table is materialised, and its rows are views over the data of this table.
+	 *
+	 * @param from the position of the first row, from 0
+	 * @param count the maximum number of rows
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if the position or the number of rows are negative
+	 */
+	@Override
+	public Table slice(long from, long count) {
+
+		SlicedTable.validSlice(from, count);
+
+		int start = (int) Math.min(from, size);
+		int end = (int) Math.min(start + Math.min(count, size), size);
+
+		int[] positions = new int[end - start];
+
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = start + i;
+
+		return new Selection(positions);
+	}
+
+	// helper
+	private BitSet matches(Filter filter) {
+
+		if (filter instanceof Filter.And) {
+
+			BitSet matches = new BitSet(size);
+			matches.set(0, size);
+
+			for (Filter f : ((Filter.And) filter).filters()) {
+
+				if (matches.isEmpty())
+					break;
+
+				matches.and(matches(f));
+			}
+
+			return matches;
+		}
+
+		BitSet matches = new BitSet(size);
+
+		if (!(filter instanceof Filter.Condition)) {
+
+			for (int i = 0; i < size; i++)
+				if (filter.accepts(new View(i)))
+					matches.set(i);
+
+			return matches;
+		}
+
+		Filter.Condition condition = (Filter.Condition) filter;
+
+		ColumnData data = data(condition.column());
+
+		if (data instanceof ColumnData.Dictionary) {
+
+			ColumnData.Dictionary dictionary = (ColumnData.Dictionary) data;
+
+			// evaluates the condition once per distinct value, code 0 is for nulls
+			boolean[] accepted = new boolean[dictionary.entries() + 1];
+
+			boolean any = false;
+
+			for (int code = 1; code < accepted.length; code++)
+				any |= accepted[code] = condition.accepts(dictionary.valueOf(code));
+
+			if (any)
+				for (int i = 0; i < size; i++)
+					if (accepted[dictionary.code(i)])
+						matches.set(i);
+
+			return matches;
+		}
+
+		if (condition instanceof Filter.Range && data instanceof ColumnData.Longs
+				&& Values.isIntegral(((Filter.Range) condition).type())) {
+
+			Filter.Range range = (Filter.Range) condition;
+
+			ColumnData.Longs longs = (ColumnData.Longs) data;
+
+			long from = range.from() == null ? Long.MIN_VALUE : ((Number) range.from()).longValue();
+			long to = range.to() == null ? Long.MAX_VALUE : ((Number) range.to()).longValue();
+
+			for (int i = 0; i < size; i++)
+				if (!longs.isNull(i) && longs.getLong(i) >= from && longs.getLong(i) <= to)
+					matches.set(i);
+
+			return matches;
+		}
+
+		if (condition instanceof Filter.Range && data instanceof ColumnData.Doubles
+				&& ((Filter.Range) condition).type() == Double.class) {
+
+			Filter.Range range = (Filter.Range) condition;
+
+			ColumnData.Doubles doubles = (ColumnData.Doubles) data;
+
+			double from = range.from() == null ? Double.NEGATIVE_INFINITY : ((Number) range.from()).doubleValue();
+			double to = range.to() == null ? Double.POSITIVE_INFINITY : ((Number) range.to()).doubleValue();
+
+			for (int i = 0; i < size; i++)
+				if (!doubles.isNull(i) && doubles.getDouble(i) >= from && doubles.getDouble(i) <= to)
+					matches.set(i);
+
+			return matches;
+		}
+
+		for (int i = 0; i < size; i++)
+			if (condition.accepts(data.get(i)))
+				matches.set(i);
+
+		return matches;
+	}
+
+	// a row over the column data
+	private class View extends Row {
+
+		private final int position;
+
+		View(int position) {
+			this.position = position;
+		}
+
+		@Override
+		public String get(QName name) {
+
+			int column = index.position(name);
+
+			return column < 0 ? null : data[column].get(position);
+		}
+
+		@Override
+		public boolean isNull(Column column) {
+
+			ColumnData data = data(column);
+
+			if (data == null)
+				return super.isNull(column);
+
+			if (data.isNull(position))
+				return true;
+
+			// values stored natively are never empty, others are null if empty as in other rows
+			if (data instanceof ColumnData.Longs || data instanceof ColumnData.Doubles
+					|| data instanceof ColumnData.Booleans)
+				return false;
+
+			return column.type() != String.class && data.get(position).trim().isEmpty();
+		}
+
+		@Override
+		public long getLong(Column column) {
+
+			ColumnData data = data(column);
+
+			if (data instanceof ColumnData.Longs)
+				return ((ColumnData.Longs) nonNull(data, column)).getLong(position);
+
+			return super.getLong(column);
+		}
+
+		@Override
+		public double getDouble(Column column) {
+
+			ColumnData data = data(column);
+
+			if (data instanceof ColumnData.Doubles)
+				return ((ColumnData.Doubles) nonNull(data, column)).getDouble(position);
+
+			if (data instanceof ColumnData.Longs)
+				return ((ColumnData.Longs) nonNull(data, column)).getLong(position);
+
+			return super.getDouble(column);
+		}
+
+		@Override
+		public boolean getBoolean(Column column) {
+
+			ColumnData data = data(column);
+
+			if (data instanceof ColumnData.Booleans)
+				return ((ColumnData.Booleans) nonNull(data, column)).getBoolean(position);
+
+			return super.getBoolean(column);
+		}
+
+		@Override
+		protected Object decoded(Column column, Class<?> type) {
+
+			ColumnData data = data(column);
+
+			if (data == null || data.isNull(position))
+				return super.decoded(column, type);
+
+			// no decoding for values stored natively
+			if (data instanceof ColumnData.Longs && (type == Long.class || type == long.class))
+				return ((ColumnData.Longs) data).getLong(position);
+
+			if (data instanceof ColumnData.Doubles && (type == Double.class || type == double.class))
+				return ((ColumnData.Doubles) data).getDouble(position);
+
+			if (data instanceof ColumnData.Booleans && (type == Boolean.class || type == boolean.class))
+				return ((ColumnData.Booleans) data).getBoolean(position);
+
+			return super.decoded(column, type);
+		}
+
+		// helper
+		private ColumnData data(Column column) {
+
+			int position = index.position(column.name());
+
+			return position < 0 ? null : data[position];
+		}
+
+		// helper
+		private ColumnData nonNull(ColumnData data, Column column) {
+
+			if (data.isNull(position))
+				throw new IllegalStateException("row has no value for column " + column.name());
+
+			return data;
+		}
+
+		@Override
+		public String toString() {
+
+			StringBuilder builder = new StringBuilder("{");
+
+			for (int i = 0; i < data.length; i++) {
+				if (i > 0)
+					builder.append(", ");
+				builder.append(index.columns().get(i).name()).append('=').append(data[i].get(position));
+			}
+
+			return builder.append("}").toString();
+		}
+	}
+
+	// the rows of this table at given positions
+	private class Selection extends AbstractTable implements Table {
+
+		private final int[] positions;
+
+		Selection(int[] positions) {
+
+			super(ColumnarTable.this.columns());
+
+			this.positions = positions;
+
+			properties().add(ColumnarTable.this.properties().toArray());
+		}
+
+		@Override
+		public Iterator<Row> iterator() {
+
+			return new Iterator<Row>() {
+
+				int position = 0;
+
+				@Override
+				public boolean hasNext() {
+					return position < positions.length;
+				}
+
+				@Override
+				public Row next() {
+
+					if (!hasNext())
+						throw new NoSuchElementException();
+
+					return new View(positions[position++]);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public Table materialise(long budget) {
+			return this; // materialised by definition
+		}
+
+		@Override
+		public Table slice(long from, long count) {
+
+			SlicedTable.validSlice(from, count);
+
+			int start = (int) Math.min(from, positions.length);
+			int end = (int) Math.min(start + Math.min(count, positions.length), positions.length);
+
+			return new Selection(Arrays.copyOfRange(positions, start, end));
+		}
+	}
+
+	// the columns and data copied from a table
+	private static class Copy {
+
+		List<Column> columns;
+		List<ColumnData> data;
+	}
+
+	// helper
+	private static Copy copy(Table table) {
+
+		notNull("table", table);
+
+		List<ColumnData> data = new ArrayList<ColumnData>();
+
+		int rows = 0;
+
+		for (Row row : table) {
+
+			List<Column> columns = table.columns();
+
+			// columns may be discovered during iteration, with no values in previous rows
+			while (data.size() < columns.size()) {
+				ColumnData column = ColumnData.of(columns.get(data.size()));
+				for (int i = 0; i < rows; i++)
+					column = column.add(null);
+				data.add(column);
+			}
+
+			for (int i = 0; i < data.size(); i++)
+				data.set(i, data.get(i).add(row.get(columns.get(i))));
+
+			if (rows == Integer.MAX_VALUE)
+				throw new IllegalArgumentException("table has too many rows for a columnar table");
+
+			rows++;
+		}
+
+		for (ColumnData column : data)
+			column.trim();
+
+		// table may have had no rows
+		List<Column> columns = new ArrayList<Column>(table.columns());
+		while (data.size() < columns.size())
+			data.add(ColumnData.of(columns.get(data.size())));
+
+		Copy copy = new Copy();
+		copy.columns = columns;
+		copy.data = data;
+
+		return copy;
+	}
+}
@@ -0,0 +1,389 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.Properties;
+
+/**
+ * A {@link Table} with the {@link Row}s of another {@link Table}, without rows that have the same values as earlier
+ * rows in given key columns, or in all columns if there are no key columns.
+ * <p>
+ * Rows are deduplicated as the table is iterated over, and the first row with given values is kept. Deduplication is
+ * exact or approximate:
+ * <ul>
+ * <li>exact deduplication remembers the keys of rows up to a memory budget. Over budget, rows with new keys are
+ * partitioned by key into temporary {@link RowFile}s, which are then deduplicated partition by partition, after the
+ * other rows, and deleted at the end of the iteration or when the iterator is closed. In this case, rows are in
+ * their order within each partition only.
+ * <li>approximate deduplication remembers keys in a Bloom filter, in memory that depends only on the expected number of
+ * distinct keys and a probability of false positives, i.e. of rows that are dropped as duplicates when they are not.
+ * Rows are kept in their order.
+ * </ul>
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#distinct(String...)
+ */
+public class DistinctTable implements Table {
+
+	private static final Logger log = LoggerFactory.getLogger(DistinctTable.class);
+
+	static final int partitions = 16;
+
+	// separates the values of composite keys
+	private static final char separator = '\u0000';
+
+	private final Table table;
+	private final QName[] keys;
+
+	private final long budget;
+
+	private final long expected;
+	private final double fpp;
+
+	/**
+	 * Creates an instance with the rows of a given table that have distinct values in given columns, deduplicated
+	 * exactly within a given memory budget.
+	 *
+	 * @param table the table
+	 * @param keys the names of the key columns, or none to compare all columns
+	 * @param budget the memory budget, in bytes
+	 *
+	 * @throws IllegalArgumentException if the budget is negative
+	 */
+	public DistinctTable(Table table, List<QName> keys, long budget) {
+
+		this(table, keys, budget, 0, 0);
+
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid memory budget " + budget);
+	}
+
+	/**
+	 * Creates an instance with the rows of a given table that have distinct values in given columns, deduplicated
+	 * approximately for a given number of distinct rows and a given probability of false positives.
+	 *
+	 * @param table the table
+	 * @param keys the names of the key columns, or none to compare all columns
+	 * @param expected the expected number of distinct rows
+	 * @param fpp the probability that rows are dropped as duplicates when they are not
+	 *
+	 * @throws IllegalArgumentException if the number of rows is not positive, or the probability is not between 0 and
+	 *             1
+	 */
+	public DistinctTable(Table table, List<QName> keys, long expected, double fpp) {
+
+		this(table, keys, 0, expected, fpp);
+
+		if (expected <= 0)
+			throw new IllegalArgumentException("invalid number of expected rows " + expected);
+
+		if (fpp <= 0 || fpp >= 1)
+			throw new IllegalArgumentException("invalid false positive probability " + fpp);
+	}
+
+	private DistinctTable(Table table, List<QName> keys, long budget, long expected, double fpp) {
+
+		notNull("table", table);
+		notNull("keys", keys);
+
+		this.table = table;
+		this.keys = keys.toArray(new QName[0]);
+		this.budget = budget;
+		this.expected = expected;
+		this.fpp = fpp;
+	}
+
+	@Override
+	public List<Column> columns() {
+		// columns may be discovered as the table is iterated over
+		return table.columns();
+	}
+
+	@Override
+	public Properties properties() {
+		return table.properties();
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		final Iterator<Row> rows = table.iterator();
+
+		// rows as their keys followed by their values
+		Iterator<String[]> entries = new Iterator<String[]>() {
+
+			@Override
+			public boolean hasNext() {
+				return rows.hasNext();
+			}
+
+			@Override
+			public String[] next() {
+
+				Row row = rows.next();
+
+				String[] values = row.values(table.columns());
+
+				String[] entry = new String[values.length + 1];
+
+				entry[0] = key(row, values);
+
+				System.arraycopy(values, 0, entry, 1, values.length);
+
+				return entry;
+			}
+		};
+
+		final Iterator<String[]> distinct = expected > 0 ? new Approximate(entries) : new Exact(entries, 0);
+
+		class Rows implements Iterator<Row>, Closeable {
+
+			ColumnIndex index;
+
+			@Override
+			public boolean hasNext() {
+				return distinct.hasNext();
+			}
+
+			@Override
+			public Row next() {
+
+				String[] entry = distinct.next();
+
+				List<Column> columns = table.columns();
+
+				// columns may be discovered during iteration
+				if (index == null || !index.indexes(columns))
+					index = new ColumnIndex(columns);
+
+				return new ArrayRow(index, Arrays.copyOfRange(entry, 1, entry.length));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				RowFile.close(distinct);
+				RowFile.close(rows);
+			}
+		}
+
+		return new Rows();
+	}
+
+	// the key of a row
+	private String key(Row row, String[] values) {
+
+		if (keys.length == 1) {
+			String key = row.get(keys[0]);
+			return key == null ? "" : key;
+		}
+
+		StringBuilder builder = new StringBuilder();
+
+		if (keys.length == 0)
+			for (String value : values)
+				append(builder, value);
+		else
+			for (QName key : keys)
+				append(builder, row.get(key));
+
+		return builder.toString();
+	}
+
+	// helper
+	private static void append(StringBuilder builder, String value) {
+
+		if (value != null)
+			builder.append(value);
+
+		builder.append(separator);
+	}
+
+	// an iterator over the entries of another iterator, with a lookahead
+	private static abstract class Lookahead implements Iterator<String[]> {
+
+		private String[] next;
+
+		// returns the next distinct entry, or null if there are no more
+		abstract String[] advance();
+
+		@Override
+		public boolean hasNext() {
+
+			if (next == null)
+				next = advance();
+
+			return next != null;
+		}
+
+		@Override
+		public String[] next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			String[] entry = next;
+
+			next = null;
+
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// drops entries with keys in a Bloom filter
+	private class Approximate extends Lookahead {
+
+		private final Iterator<String[]> entries;
+		private final BloomFilter filter = new BloomFilter(expected, fpp);
+
+		Approximate(Iterator<String[]> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		String[] advance() {
+
+			while (entries.hasNext()) {
+
+				String[] entry = entries.next();
+
+				if (filter.put(entry[0]))
+					return entry;
+			}
+
+			return null;
+		}
+	}
+
+	// drops entries with keys in a hash set, partitioning entries with new keys over budget
+	private class Exact extends Lookahead implements Closeable {
+
+		private final Iterator<String[]> entries;
+		private final int level;
+
+		private Set<String> seen = new HashSet<String>();
+		private long used;
+
+		private RowFile[] spilled;
+		private int partition = -1;
+		private Iterator<String[]> current;
+
+		private boolean closed;
+
+		Exact(Iterator<String[]> entries, int level) {
+			this.entries = entries;
+			this.level = level;
+		}
+
+		@Override
+		String[] advance() {
+
+			if (closed)
+				return null;
+
+			while (entries.hasNext()) {
+
+				String[] entry = entries.next();
+
+				String key = entry[0];
+
+				if (seen.contains(key))
+					continue;
+
+				if (spilled != null) {
+					spilled[partitionOf(key)].append(entry);
+					continue;
+				}
+
+				seen.add(key);
+
+				used += 2 * key.length() + 64;
+
+				if (used > budget) {
+
+					log.debug("keys exceeded budget of {} bytes, partitioning rows to disk", budget);
+
+					spilled = new RowFile[partitions];
+
+					for (int p = 0; p < partitions; p++)
+						spilled[p] = new RowFile();
+				}
+
+				return entry;
+			}
+
+			if (spilled == null)
+				return null;
+
+			// spilled entries have no keys in memory
+			seen = null;
+
+			while (current == null || !current.hasNext()) {
+
+				if (partition >= 0)
+					spilled[partition].close();
+
+				if (++partition == partitions) {
+					spilled = null;
+					return null;
+				}
+
+				current = new Exact(spilled[partition].iterator(), level + 1);
+			}
+
+			return current.next();
+		}
+
+		@Override
+		public void close() {
+
+			closed = true;
+			seen = null;
+
+			RowFile.close(current);
+
+			if (spilled == null)
+				return;
+
+			for (int p = Math.max(partition, 0); p < partitions; p++)
+				spilled[p].close();
+
+			spilled = null;
+		}
+
+		// the partition of a key, which changes with the level of partitioning
+		private int partitionOf(String key) {
+
+			int h = (key.hashCode() ^ (level * 0x85EBCA6B)) * 0x9E3779B9;
+
+			return (h >>> 16) % partitions;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DistinctTable [table=" + table + ", keys=" + Arrays.toString(keys) + "]";
+	}
+}
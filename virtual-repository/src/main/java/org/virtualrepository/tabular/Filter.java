@@ -0,0 +1,456 @@
+package org.virtualrepository.tabular;
+
+import static java.util.Arrays.*;
+import static java.util.Collections.*;
+import static org.virtualrepository.Utils.*;
+import static org.virtualrepository.tabular.Column.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A condition on the {@link Row}s of a {@link Table}.
+ * <p>
+ * Filters are built from simple {@link Condition}s on the values of individual columns (cf.
+ * {@link #eq(String, String)}, {@link #in(String, String...)}, {@link #range(String, Comparable, Comparable)},
+ * {@link #prefix(String, String)}), and their conjunctions (cf. {@link #and(Filter...)}). Filters can be inspected, so
+ * that tables can evaluate them on raw data, indexes, or dictionaries, rather than on {@link Row}s.
+ * <p>
+ * Conditions are never satisfied by missing values.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#filter(Filter)
+ */
+public abstract class Filter {
+
+	/**
+	 * Returns a condition satisfied by values that equal a given value.
+	 *
+	 * @param column the name of the column
+	 * @param value the value
+	 * @return the condition
+	 */
+	public static Eq eq(String column, String value) {
+		return eq(q(column), value);
+	}
+
+	/**
+	 * Returns a condition satisfied by values that equal a given value.
+	 *
+	 * @param column the name of the column
+	 * @param value the value
+	 * @return the condition
+	 */
+	public static Eq eq(QName column, String value) {
+		return new Eq(column, value);
+	}
+
+	/**
+	 * Returns a condition satisfied by values that equal one of given values.
+	 *
+	 * @param column the name of the column
+	 * @param values the values
+	 * @return the condition
+	 */
+	public static In in(String column, String... values) {
+		return in(q(column), asList(values));
+	}
+
+	/**
+	 * Returns a condition satisfied by values that equal one of given values.
+	 *
+	 * @param column the name of the column
+	 * @param values the values
+	 * @return the condition
+	 */
+	public static In in(QName column, Collection<String> values) {
+		return new In(column, values);
+	}
+
+	/**
+	 * Returns a condition satisfied by values within given bounds, inclusive.
+	 * <p>
+	 * Values are compared as strings if the bounds are strings, and are otherwise decoded as the type of the bounds
+	 * (cf. {@link Values#decode(Class, String)}). Values that cannot be decoded do not satisfy the condition.
+	 *
+	 * @param column the name of the column
+	 * @param from the lower bound, or <code>null</code> if values are unbounded from below
+	 * @param to the upper bound, or <code>null</code> if values are unbounded from above
+	 * @return the condition
+	 */
+	public static <T extends Comparable<? super T>> Range range(String column, T from, T to) {
+		return range(q(column), from, to);
+	}
+
+	/**
+	 * Returns a condition satisfied by values within given bounds, inclusive.
+	 *
+	 * @param column the name of the column
+	 * @param from the lower bound, or <code>null</code> if values are unbounded from below
+	 * @param to the upper bound, or <code>null</code> if values are unbounded from above
+	 * @return the condition
+	 *
+	 * @see #range(String, Comparable, Comparable)
+	 */
+	public static <T extends Comparable<? super T>> Range range(QName column, T from, T to) {
+		return new Range(column, from, to);
+	}
+
+	/**
+	 * Returns a condition satisfied by values that start with a given prefix.
+	 *
+	 * @param column the name of the column
+	 * @param prefix the prefix
+	 * @return the condition
+	 */
+	public static Prefix prefix(String column, String prefix) {
+		return prefix(q(column), prefix);
+	}
+
+	/**
+	 * Returns a condition satisfied by values that start with a given prefix.
+	 *
+	 * @param column the name of the column
+	 * @param prefix the prefix
+	 * @return the condition
+	 */
+	public static Prefix prefix(QName column, String prefix) {
+		return new Prefix(column, prefix);
+	}
+
+	/**
+	 * Returns a filter satisfied by rows that satisfy all given filters.
+	 *
+	 * @param filters the filters
+	 * @return the filter
+	 */
+	public static And and(Filter... filters) {
+		return new And(asList(filters));
+	}
+
+	/**
+	 * Returns <code>true</code> if a given row satisfies this filter.
+	 *
+	 * @param row the row
+	 * @return <code>true</code> if the row satisfies this filter
+	 */
+	public abstract boolean accepts(Row row);
+
+	/**
+	 * Returns the names of the columns on which this filter is defined.
+	 *
+	 * @return the names of the columns
+	 */
+	public abstract Set<QName> columns();
+
+	/**
+	 * A {@link Filter} on the values of a single column.
+	 */
+	public static abstract class Condition extends Filter {
+
+		private final QName column;
+
+		Condition(QName column) {
+
+			valid(column);
+
+			this.column = column;
+		}
+
+		/**
+		 * Returns the name of the column on which this condition is defined.
+		 *
+		 * @return the name of the column
+		 */
+		public QName column() {
+			return column;
+		}
+
+		@Override
+		public Set<QName> columns() {
+			return singleton(column);
+		}
+
+		/**
+		 * Returns <code>true</code> if a given value of the column satisfies this condition.
+		 *
+		 * @param value the value, or <code>null</code> if it is missing
+		 * @return <code>true</code> if the value satisfies this condition
+		 */
+		public abstract boolean accepts(String value);
+
+		@Override
+		public boolean accepts(Row row) {
+			return accepts(row.get(column));
+		}
+	}
+
+	/**
+	 * A {@link Condition} satisfied by values that equal a given value.
+	 */
+	public static final class Eq extends Condition {
+
+		private final String value;
+
+		Eq(QName column, String value) {
+
+			super(column);
+
+			notNull("value", value);
+
+			this.value = value;
+		}
+
+		/**
+		 * Returns the value of this condition.
+		 *
+		 * @return the value
+		 */
+		public String value() {
+			return value;
+		}
+
+		@Override
+		public boolean accepts(String value) {
+			return this.value.equals(value);
+		}
+
+		@Override
+		public String toString() {
+			return column() + "=" + value;
+		}
+	}
+
+	/**
+	 * A {@link Condition} satisfied by values that equal one of given values.
+	 */
+	public static final class In extends Condition {
+
+		private final Set<String> values;
+
+		In(QName column, Collection<String> values) {
+
+			super(column);
+
+			notNull("values", values);
+
+			for (String value : values)
+				notNull("value", value);
+
+			this.values = unmodifiableSet(new HashSet<String>(values));
+		}
+
+		/**
+		 * Returns the values of this condition.
+		 *
+		 * @return the values
+		 */
+		public Set<String> values() {
+			return values;
+		}
+
+		@Override
+		public boolean accepts(String value) {
+			return value != null && values.contains(value);
+		}
+
+		@Override
+		public String toString() {
+			return column() + " in " + values;
+		}
+	}
+
+	/**
+	 * A {@link Condition} satisfied by values within given bounds, inclusive.
+	 *
+	 * @see Filter#range(String, Comparable, Comparable)
+	 */
+	public static final class Range extends Condition {
+
+		private final Comparable<Object> from;
+		private final Comparable<Object> to;
+		private final Class<?> type;
+
+		@SuppressWarnings("unchecked")
+		<T extends Comparable<? super T>> Range(QName column, T from, T to) {
+
+			super(column);
+
+			if (from == null && to == null)
+				throw new IllegalArgumentException("range has no bounds");
+
+			if (from != null && to != null && from.getClass() != to.getClass())
+				throw new IllegalArgumentException("range bounds have different types");
+
+			this.from = (Comparable<Object>) from;
+			this.to = (Comparable<Object>) to;
+			this.type = from == null ? to.getClass() : from.getClass();
+
+			if (type != String.class && !Values.isSupported(type))
+				throw new IllegalArgumentException("unsupported type " + type.getName() + " for range bounds");
+		}
+
+		/**
+		 * Returns the lower bound of this range.
+		 *
+		 * @return the lower bound, or <code>null</code> if the range is unbounded from below
+		 */
+		public Object from() {
+			return from;
+		}
+
+		/**
+		 * Returns the upper bound of this range.
+		 *
+		 * @return the upper bound, or <code>null</code> if the range is unbounded from above
+		 */
+		public Object to() {
+			return to;
+		}
+
+		/**
+		 * Returns the type of the bounds of this range.
+		 *
+		 * @return the type
+		 */
+		public Class<?> type() {
+			return type;
+		}
+
+		@Override
+		public boolean accepts(String value) {
+
+			if (value == null)
+				return false;
+
+			Object decoded;
+
+			try {
+				decoded = type == String.class ? value : Values.decode(type, value);
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+
+			return decoded != null && accepts(decoded);
+		}
+
+		/**
+		 * Returns <code>true</code> if a given value, already decoded as the type of the bounds, is within this range.
+		 *
+		 * @param value the value
+		 * @return <code>true</code> if the value is within this range
+		 */
+		public boolean accepts(Object value) {
+			return (from == null || from.compareTo(value) <= 0) && (to == null || to.compareTo(value) >= 0);
+		}
+
+		@Override
+		public String toString() {
+			return column() + " in [" + (from == null ? "" : from) + "," + (to == null ? "" : to) + "]";
+		}
+	}
+
+	/**
+	 * A {@link Condition} satisfied by values that start with a given prefix.
+	 */
+	public static final class Prefix extends Condition {
+
+		private final String prefix;
+
+		Prefix(QName column, String prefix) {
+
+			super(column);
+
+			notNull("prefix", prefix);
+
+			this.prefix = prefix;
+		}
+
+		/**
+		 * Returns the prefix of this condition.
+		 *
+		 * @return the prefix
+		 */
+		public String prefix() {
+			return prefix;
+		}
+
+		@Override
+		public boolean accepts(String value) {
+			return value != null && value.startsWith(prefix);
+		}
+
+		@Override
+		public String toString() {
+			return column() + " starts with " + prefix;
+		}
+	}
+
+	/**
+	 * A {@link Filter} satisfied by rows that satisfy all of given filters.
+	 */
+	public static final class And extends Filter {
+
+		private final List<Filter> filters;
+
+		And(List<Filter> filters) {
+
+			notNull("filters", filters);
+
+			List<Filter> flattened = new ArrayList<Filter>();
+
+			for (Filter filter : filters) {
+
+				notNull("filter", filter);
+
+				if (filter instanceof And)
+					flattened.addAll(((And) filter).filters());
+				else
+					flattened.add(filter);
+			}
+
+			this.filters = unmodifiableList(flattened);
+		}
+
+		/**
+		 * Returns the filters of this conjunction.
+		 *
+		 * @return the filters
+		 */
+		public List<Filter> filters() {
+			return filters;
+		}
+
+		@Override
+		public boolean accepts(Row row) {
+
+			for (Filter filter : filters)
+				if (!filter.accepts(row))
+					return false;
+
+			return true;
+		}
+
+		@Override
+		public Set<QName> columns() {
+
+			Set<QName> columns = new HashSet<QName>();
+
+			for (Filter filter : filters)
+				columns.addAll(filter.columns());
+
+			return columns;
+		}
+
+		@Override
+		public String toString() {
+			return filters.toString();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.virtualrepository.Properties;
+
+/**
+ * A {@link Table} with the {@link Row}s of another {@link Table} that satisfy a given {@link Filter}.
+ * <p>
+ * Rows are filtered as the table is iterated over.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#filter(Filter)
+ */
+public class FilteredTable implements Table {
+
+	private final Table table;
+	private final Filter filter;
+
+	/**
+	 * Creates an instance with the rows of a given table that satisfy a given filter.
+	 *
+	 * @param table the table
+	 * @param filter the filter
+	 */
+	public FilteredTable(Table table, Filter filter) {
+
+		notNull("table", table);
+		notNull("filter", filter);
+
+		this.table = table;
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns the filter of this table.
+	 *
+	 * @return the filter
+	 */
+	public Filter filter() {
+		return filter;
+	}
+
+	@Override
+	public List<Column> columns() {
+		// columns may be discovered as the table is iterated over
+		return table.columns();
+	}
+
+	@Override
+	public Properties properties() {
+		return table.properties();
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		final Iterator<Row> rows = table.iterator();
+
+		class Rows implements Iterator<Row>, Closeable {
+
+			Row next;
+
+			@Override
+			public boolean hasNext() {
+
+				while (next == null && rows.hasNext()) {
+
+					Row row = rows.next();
+
+					if (filter.accepts(row))
+						next = row;
+				}
+
+				return next != null;
+			}
+
+			@Override
+			public Row next() {
+
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				Row row = next;
+
+				next = null;
+
+				return row;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				RowFile.close(rows);
+			}
+		}
+
+		return new Rows();
+	}
+
+	@Override
+	public Table filter(Filter filter) {
+		return table.filter(Filter.and(this.filter, filter));
+	}
+
+	@Override
+	public String toString() {
+		return "Table [filter=" + filter + ", table=" + table + "]";
+	}
+}
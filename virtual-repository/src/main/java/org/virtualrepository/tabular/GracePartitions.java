@@ -0,0 +1,234 @@
+package org.virtualrepository.tabular;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build and probe rows partitioned by key into temporary {@link RowFile}s, and then matched partition by partition.
+ * <p>
+ * Rows are stored with their keys before their values, so that keys are not computed again. Build rows in each
+ * partition are read into a hash table by key, within a memory budget, and the probe rows of the partition are matched
+ * against it. Partitions that exceed the budget are partitioned further, with a different hash, unless they hold a
+ * single key or have reached a maximum level of partitioning, beyond which they are read regardless. Files are created
+ * only for partitions that have rows.
+ * <p>
+ * Results are in the order of the probe rows within each partition, and build rows with the same key are in their
+ * order. Probe rows without keys are kept in the first partition.
+ *
+ * @author Fabio Simeoni
+ *
+ * @param <T> the type of results
+ */
+abstract class GracePartitions<T> implements Iterator<T>, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(GracePartitions.class);
+
+	static final int partitions = 16;
+
+	// the maximum level of partitioning
+	static final int maxLevel = 4;
+
+	private final long budget;
+	private final int level;
+
+	// files are created for the partitions that have rows
+	private final RowFile[] builds = new RowFile[partitions];
+	private final RowFile[] probes = new RowFile[partitions];
+
+	private int partition = -1;
+	private Iterator<T> current = Collections.<T> emptyList().iterator();
+	private GracePartitions<T> nested;
+
+	GracePartitions(long budget, int level) {
+
+		this.budget = budget;
+		this.level = level;
+	}
+
+	// matches the probe rows of a partition, as keys followed by values, against its build rows by key
+	abstract Iterator<T> match(Map<String, List<String[]>> table, Iterator<String[]> probe);
+
+	// returns an empty instance for a further level of partitioning
+	abstract GracePartitions<T> nested(int level);
+
+	// adds a build row with a given key
+	void build(String key, String[] values) {
+		spill(builds, prepend(key, values));
+	}
+
+	// adds a probe row with a given key, if any
+	void probe(String key, String[] values) {
+		spill(probes, prepend(key, values));
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		while (!current.hasNext()) {
+
+			// exhaustion is sticky
+			if (partition >= partitions)
+				return false;
+
+			release();
+
+			if (++partition == partitions)
+				return false;
+
+			current = load();
+		}
+
+		return true;
+	}
+
+	@Override
+	public T next() {
+
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		return current.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Deletes the files of all partitions, ending the iteration.
+	 */
+	@Override
+	public void close() {
+
+		for (int p = Math.max(partition, 0); p < partitions; p++) {
+			close(builds, p);
+			close(probes, p);
+		}
+
+		if (nested != null)
+			nested.close();
+
+		partition = partitions;
+		current = Collections.<T> emptyList().iterator();
+	}
+
+	// adds a row with its key to the partition of its key
+	private void spill(RowFile[] files, String[] entry) {
+
+		String key = entry[0];
+
+		int p = key == null ? 0 : partitionOf(key);
+
+		if (files[p] == null)
+			files[p] = new RowFile();
+
+		files[p].append(entry);
+	}
+
+	// helper
+	private static void close(RowFile[] files, int p) {
+
+		if (files[p] != null) {
+			files[p].close();
+			files[p] = null;
+		}
+	}
+
+	// helper
+	private static Iterator<String[]> entries(RowFile[] files, int p) {
+		return files[p] == null ? Collections.<String[]> emptyList().iterator() : files[p].iterator();
+	}
+
+	// the partition of a key, which changes with the level of partitioning
+	private int partitionOf(String key) {
+
+		int h = (key.hashCode() ^ (level * 0x85EBCA6B)) * 0x9E3779B9;
+
+		return (h >>> 16) % partitions;
+	}
+
+	// releases the current partition
+	private void release() {
+
+		if (partition < 0)
+			return;
+
+		close(builds, partition);
+		close(probes, partition);
+
+		if (nested != null) {
+			nested.close();
+			nested = null;
+		}
+	}
+
+	// reads the current partition, or partitions it further if it exceeds the budget
+	private Iterator<T> load() {
+
+		Map<String, List<String[]>> table = new LinkedHashMap<String, List<String[]>>();
+
+		long used = 0;
+
+		Iterator<String[]> entries = entries(builds, partition);
+
+		while (entries.hasNext()) {
+
+			String[] entry = entries.next();
+
+			table.computeIfAbsent(entry[0], k -> new ArrayList<String[]>(1)).add(
+					Arrays.copyOfRange(entry, 1, entry.length));
+
+			used += RowStore.sizeOf(entry) + 64;
+
+			// partitions of a single key cannot be split
+			if (used > budget && level < maxLevel && table.size() > 1) {
+
+				log.debug("partition {} at level {} exceeded budget of {} bytes, partitioning it further", partition,
+						level, budget);
+
+				nested = nested(level + 1);
+
+				for (Map.Entry<String, List<String[]>> e : table.entrySet())
+					for (String[] values : e.getValue())
+						nested.build(e.getKey(), values);
+
+				table = null;
+
+				while (entries.hasNext())
+					nested.spill(nested.builds, entries.next());
+
+				Iterator<String[]> probe = entries(probes, partition);
+
+				while (probe.hasNext())
+					nested.spill(nested.probes, probe.next());
+
+				return nested;
+			}
+		}
+
+		return match(table, entries(probes, partition));
+	}
+
+	// helper
+	private static String[] prepend(String key, String[] values) {
+
+		String[] prepended = new String[values.length + 1];
+
+		prepended[0] = key;
+
+		System.arraycopy(values, 0, prepended, 1, values.length);
+
+		return prepended;
+	}
+}
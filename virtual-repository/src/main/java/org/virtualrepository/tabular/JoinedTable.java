@@ -0,0 +1,405 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.Properties;
+
+/**
+ * A {@link Table} that joins the {@link Row}s of a probe table with the {@link Row}s of a build table that have the
+ * same values in given key columns.
+ * <p>
+ * The build table is read into a hash table when the joined table is iterated over, and the probe table is then
+ * streamed through it. The build table should thus be the smaller of the two, e.g. a reference table. Rows are joined
+ * in the order of the probe table, and with the build rows in their order.
+ * <p>
+ * If the build table exceeds a memory budget, both tables are partitioned by key into temporary {@link RowFile}s,
+ * and joined partition by partition. Partitions of the build table that still exceed the budget are partitioned
+ * further, unless they have too few distinct keys to be split. In this case, rows are joined in the order of the probe
+ * table within each partition only.
+ * <p>
+ * Joined rows have the columns of the probe table followed by those of the build table. Build columns with the same
+ * name as probe columns are qualified with a namespace, to avoid collisions. Rows with missing or empty keys match no
+ * rows. In left joins, probe rows that match no build rows are kept, with no values for the build columns.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#join(Table, String, String)
+ * @see Table#leftJoin(Table, String, String)
+ */
+public class JoinedTable implements Table {
+
+	private static final Logger log = LoggerFactory.getLogger(JoinedTable.class);
+
+	/**
+	 * The default namespace of build columns with the same name as probe columns.
+	 */
+	public static final String defaultQualifier = "joined";
+
+	// separates the values of composite keys
+	private static final char separator = '\u0000';
+
+	private final Table probe;
+	private final Table build;
+	private final QName[] probeKeys;
+	private final QName[] buildKeys;
+	private final boolean left;
+	private final String qualifier;
+	private final long budget;
+
+	private final Properties properties = new Properties();
+
+	private volatile List<Column> columns;
+
+	/**
+	 * Creates an instance that joins two tables on given key columns.
+	 *
+	 * @param probe the probe table
+	 * @param build the build table
+	 * @param probeKeys the names of the key columns of the probe table
+	 * @param buildKeys the names of the key columns of the build table, in the order of the probe keys
+	 * @param left <code>true</code> if probe rows that match no build rows are kept
+	 * @param qualifier the namespace of build columns with the same name as probe columns
+	 * @param budget the memory budget of the build table, in bytes
+	 *
+	 * @throws IllegalArgumentException if the keys are missing or do not correspond
+	 */
+	public JoinedTable(Table probe, Table build, List<QName> probeKeys, List<QName> buildKeys, boolean left,
+			String qualifier, long budget) {
+
+		notNull("probe table", probe);
+		notNull("build table", build);
+		notNull("probe keys", probeKeys);
+		notNull("build keys", buildKeys);
+		notNull("qualifier", qualifier);
+
+		if (probeKeys.isEmpty() || probeKeys.size() != buildKeys.size())
+			throw new IllegalArgumentException("invalid join keys " + probeKeys + " and " + buildKeys);
+
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid memory budget " + budget);
+
+		this.probe = probe;
+		this.build = build;
+		this.probeKeys = probeKeys.toArray(new QName[0]);
+		this.buildKeys = buildKeys.toArray(new QName[0]);
+		this.left = left;
+		this.qualifier = qualifier;
+		this.budget = budget;
+
+		this.columns = columns(probe.columns(), build.columns());
+
+		properties.add(probe.properties().toArray());
+	}
+
+	@Override
+	public List<Column> columns() {
+		// columns may be discovered as the table is iterated over
+		return columns;
+	}
+
+	@Override
+	public Properties properties() {
+		return properties;
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		Map<String, List<String[]>> table = new HashMap<String, List<String[]>>();
+
+		long used = 0;
+
+		Iterator<Row> rows = build.iterator();
+
+		while (rows.hasNext()) {
+
+			Row row = rows.next();
+
+			String key = key(row, buildKeys);
+
+			if (key == null)
+				continue;
+
+			String[] values = row.values(build.columns());
+
+			table.computeIfAbsent(key, k -> new ArrayList<String[]>(1)).add(values);
+
+			used += RowStore.sizeOf(values) + 2 * key.length() + 64;
+
+			if (used > budget) {
+
+				log.debug("build table exceeded budget of {} bytes, partitioning join to disk", budget);
+
+				return new PartitionedJoin(table, rows);
+			}
+		}
+
+		return new Streamed(table, probe.iterator());
+	}
+
+	// the composite key of a row, or null if some of its values are missing
+	private static String key(Row row, QName[] keys) {
+
+		String key = row.get(keys[0]);
+
+		if (key == null || key.isEmpty())
+			return null;
+
+		if (keys.length == 1)
+			return key;
+
+		StringBuilder builder = new StringBuilder(key);
+
+		for (int i = 1; i < keys.length; i++) {
+
+			String value = row.get(keys[i]);
+
+			if (value == null || value.isEmpty())
+				return null;
+
+			builder.append(separator).append(value);
+		}
+
+		return builder.toString();
+	}
+
+	// the columns of joined rows
+	private List<Column> columns(List<Column> probeColumns, List<Column> buildColumns) {
+
+		Set<QName> names = new HashSet<QName>();
+
+		List<Column> columns = new ArrayList<Column>(probeColumns);
+
+		for (Column column : probeColumns)
+			names.add(column.name());
+
+		for (Column column : buildColumns)
+			if (names.contains(column.name())) {
+
+				Column qualified = new Column(new QName(qualifier, column.name().getLocalPart()), column.getKind(),
+						column.type());
+
+				columns.add(qualified);
+			}
+			else
+				columns.add(column);
+
+		return Collections.unmodifiableList(columns);
+	}
+
+	// probes a hash table of build rows with the keys and values of probe rows
+	private abstract class Probe implements Iterator<Row> {
+
+		private final Map<String, List<String[]>> table;
+
+		private int probeSize = -1;
+		private int buildSize = -1;
+		private ColumnIndex index;
+
+		// the current probe row, and its matches
+		String key;
+		String[] values;
+		private List<String[]> matches;
+		private int match;
+
+		private Row next;
+
+		Probe(Map<String, List<String[]>> table) {
+			this.table = table;
+		}
+
+		// advances to the next probe row, setting its key and values
+		abstract boolean advance();
+
+		@Override
+		public boolean hasNext() {
+
+			while (next == null) {
+
+				if (matches != null && match < matches.size()) {
+					next = join(matches.get(match++));
+					break;
+				}
+
+				if (!advance())
+					return false;
+
+				// columns may be discovered during iteration
+				if (probe.columns().size() != probeSize || build.columns().size() != buildSize) {
+
+					probeSize = probe.columns().size();
+					buildSize = build.columns().size();
+
+					columns = columns(probe.columns(), build.columns());
+					index = new ColumnIndex(columns);
+				}
+
+				matches = key == null ? null : table.get(key);
+				match = 0;
+
+				if (matches == null && left)
+					next = join(null);
+			}
+
+			return true;
+		}
+
+		@Override
+		public Row next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			Row row = next;
+
+			next = null;
+
+			return row;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		// helper
+		private Row join(String[] buildValues) {
+
+			String[] joined = Arrays.copyOf(values, probeSize + buildSize);
+
+			if (buildValues != null)
+				System.arraycopy(buildValues, 0, joined, probeSize, Math.min(buildValues.length, buildSize));
+
+			return new ArrayRow(index, joined);
+		}
+	}
+
+	// probes with the rows of the probe table
+	private class Streamed extends Probe implements Closeable {
+
+		private final Iterator<Row> rows;
+
+		Streamed(Map<String, List<String[]>> table, Iterator<Row> rows) {
+
+			super(table);
+
+			this.rows = rows;
+		}
+
+		@Override
+		boolean advance() {
+
+			if (!rows.hasNext())
+				return false;
+
+			Row row = rows.next();
+
+			key = key(row, probeKeys);
+			values = row.values(probe.columns());
+
+			return true;
+		}
+
+		@Override
+		public void close() {
+			RowFile.close(rows);
+		}
+	}
+
+	// probes with the keys and values of probe rows in a partition
+	private class Spilled extends Probe {
+
+		private final Iterator<String[]> rows;
+
+		Spilled(Map<String, List<String[]>> table, Iterator<String[]> rows) {
+
+			super(table);
+
+			this.rows = rows;
+		}
+
+		@Override
+		boolean advance() {
+
+			if (!rows.hasNext())
+				return false;
+
+			String[] row = rows.next();
+
+			key = row[0];
+			values = Arrays.copyOfRange(row, 1, row.length);
+
+			return true;
+		}
+	}
+
+	// joins partitions of the build and probe tables in turn
+	private class PartitionedJoin extends GracePartitions<Row> {
+
+		PartitionedJoin(int level) {
+			super(budget, level);
+		}
+
+		PartitionedJoin(Map<String, List<String[]>> table, Iterator<Row> rows) {
+
+			this(0);
+
+			for (Map.Entry<String, List<String[]>> e : table.entrySet())
+				for (String[] values : e.getValue())
+					build(e.getKey(), values);
+
+			table.clear();
+
+			while (rows.hasNext()) {
+
+				Row row = rows.next();
+
+				String key = key(row, buildKeys);
+
+				if (key != null)
+					build(key, row.values(build.columns()));
+			}
+
+			// probe rows without key cannot match, but are kept in left joins
+			for (Row row : probe) {
+
+				String key = key(row, probeKeys);
+
+				if (key != null || left)
+					probe(key, row.values(probe.columns()));
+			}
+		}
+
+		@Override
+		Iterator<Row> match(Map<String, List<String[]>> table, Iterator<String[]> rows) {
+			return new Spilled(table, rows);
+		}
+
+		@Override
+		GracePartitions<Row> nested(int level) {
+			return new PartitionedJoin(level);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "JoinedTable [probe=" + probe + ", build=" + build + ", probeKeys=" + Arrays.toString(probeKeys)
+				+ ", buildKeys=" + Arrays.toString(buildKeys) + ", left=" + left + "]";
+	}
+}
@@ -1,5 +1,6 @@
 package org.virtualrepository.tabular;
 
+import java.io.Closeable;
 import java.util.Iterator;
 import java.util.List;
 
@@ -7,11 +8,15 @@ import lombok.NonNull;
 
 /**
  * A {@link Table} that materialises its elements and can be iterated over multiple times.
+ * <p>
+ * Tables materialised in a {@link RowStore} release its memory and disk space when they are closed.
  * 
  */
-public class MaterializedTable extends AbstractTable implements Table {
+public class MaterializedTable extends AbstractTable implements Table, Closeable {
 
 	private final Iterable<Row> rows;
+	
+	private final RowStore store;
 
 	/**
 	 * Creates an instance with given columns and rows.
@@ -23,6 +28,20 @@ public class MaterializedTable extends AbstractTable implements Table {
 		super(columns);
 		
 		this.rows= rows;
+		this.store = null;
+	}
+	
+	/**
+	 * Creates an instance with given columns and the rows in a given store, which is closed with the instance.
+	 * @param columns the columns
+	 * @param store the store
+	 */
+	public MaterializedTable(List<Column> columns, @NonNull RowStore store) {
+		
+		super(columns);
+		
+		this.rows= store.rows(columns);
+		this.store = store;
 	}
 	
 	
@@ -32,9 +51,18 @@ public class MaterializedTable extends AbstractTable implements Table {
 	}
 	
 	@Override
-	public Table materialise() {
+	public Table materialise(long budget) {
 		return this;  //materialised by definition
 	}
 	
+	/**
+	 * Releases the memory and the disk space of the store of this table, if any.
+	 */
+	@Override
+	public void close() {
+		
+		if (store!=null)
+			store.close();
+	}
 
 }
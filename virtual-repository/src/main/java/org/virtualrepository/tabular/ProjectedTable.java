@@ -0,0 +1,102 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link Table} with a subset of the {@link Column}s of another {@link Table}.
+ * <p>
+ * Rows keep only the values of the selected columns.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#select(List)
+ */
+public class ProjectedTable extends AbstractTable implements Table {
+
+	private final Table table;
+	private final ColumnIndex index;
+
+	/**
+	 * Creates an instance with given columns of a given table.
+	 *
+	 * @param table the table
+	 * @param columns the columns
+	 */
+	public ProjectedTable(Table table, List<Column> columns) {
+
+		super(new ArrayList<Column>(columns));
+
+		notNull("table", table);
+
+		this.table = table;
+		this.index = new ColumnIndex(columns());
+
+		properties().add(table.properties().toArray());
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		final Iterator<Row> rows = table.iterator();
+
+		class Rows implements Iterator<Row>, Closeable {
+
+			@Override
+			public boolean hasNext() {
+				return rows.hasNext();
+			}
+
+			@Override
+			public Row next() {
+				return new ArrayRow(index, rows.next().values(columns));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				RowFile.close(rows);
+			}
+		}
+
+		return new Rows();
+	}
+
+	/**
+	 * Returns a table with given columns of this table, selecting them directly from the other table.
+	 *
+	 * @param columns the columns
+	 * @return the table
+	 *
+	 * @throws IllegalArgumentException if some of the columns are not in this table
+	 */
+	@Override
+	public Table select(List<Column> columns) {
+
+		for (Column column : columns)
+			if (index.position(column.name()) < 0)
+				throw new IllegalArgumentException("unknown column " + column.name());
+
+		return table.select(columns);
+	}
+
+	@Override
+	public Table filter(Filter filter) {
+		// filters apply before projection, so that they can be pushed down to the source
+		return table.filter(filter).select(columns);
+	}
+
+	@Override
+	public Table slice(long from, long count) {
+		// slices before projection, so that the source can push down the slice
+		return table.slice(from, count).select(columns);
+	}
+}
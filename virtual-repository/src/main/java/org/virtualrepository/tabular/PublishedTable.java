@@ -0,0 +1,197 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.virtualrepository.Flow.Publisher;
+import org.virtualrepository.Flow.Subscriber;
+import org.virtualrepository.Flow.Subscription;
+
+/**
+ * A {@link Table} with the {@link Row}s of a {@link Publisher}.
+ * <p>
+ * Each iteration over the table subscribes to the publisher, and requests rows ahead of consumption, up to a given
+ * number. Consumers wait only when no rows have arrived yet. Iterators are {@link Closeable}, and cancel their
+ * subscription when they are closed before the end.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see RowPublisher
+ */
+public class PublishedTable extends AbstractTable implements Table {
+
+	/**
+	 * The default maximum number of rows requested ahead of consumption.
+	 */
+	public static final int defaultPrefetch = 256;
+
+	// signals the end of the flow
+	private static final Object complete = new Object();
+
+	private final Publisher<? extends Row> publisher;
+	private final int prefetch;
+
+	/**
+	 * Creates an instance with given columns and the rows of a given publisher, which are requested in default
+	 * numbers.
+	 *
+	 * @param columns the columns
+	 * @param publisher the publisher
+	 */
+	public PublishedTable(List<Column> columns, Publisher<? extends Row> publisher) {
+
+		this(columns, publisher, defaultPrefetch);
+	}
+
+	/**
+	 * Creates an instance with given columns and the rows of a given publisher.
+	 *
+	 * @param columns the columns
+	 * @param publisher the publisher
+	 * @param prefetch the maximum number of rows requested ahead of consumption
+	 */
+	public PublishedTable(List<Column> columns, Publisher<? extends Row> publisher, int prefetch) {
+
+		super(columns);
+
+		notNull("publisher", publisher);
+
+		if (prefetch <= 0)
+			throw new IllegalArgumentException("prefetch must be positive");
+
+		this.publisher = publisher;
+		this.prefetch = prefetch;
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		RowSubscriber subscriber = new RowSubscriber();
+
+		publisher.subscribe(subscriber);
+
+		return subscriber;
+	}
+
+	// receives rows as they arrive, and returns them as they are consumed
+	private class RowSubscriber implements Subscriber<Row>, Iterator<Row>, Closeable {
+
+		private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(prefetch + 1);
+
+		// requests more rows when this many have been consumed
+		private final int replenish = Math.max(1, prefetch / 2);
+
+		private volatile Subscription subscription;
+		private volatile boolean closed;
+
+		private int consumed;
+		private Object next;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+
+			if (this.subscription != null || closed) {
+				subscription.cancel();
+				return;
+			}
+
+			this.subscription = subscription;
+
+			subscription.request(prefetch);
+		}
+
+		@Override
+		public void onNext(Row row) {
+
+			notNull("row", row);
+
+			if (!queue.offer(row)) {
+				subscription.cancel();
+				onError(new IllegalStateException("publisher has sent more rows than requested"));
+			}
+		}
+
+		@Override
+		public void onError(Throwable error) {
+
+			notNull("error", error);
+
+			queue.clear();
+			queue.offer(error);
+		}
+
+		@Override
+		public void onComplete() {
+
+			queue.offer(complete);
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			if (next == null)
+				try {
+					next = queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					subscription.cancel();
+					throw new RuntimeException("interrupted while waiting for rows", e);
+				}
+
+			if (next instanceof Throwable)
+				throw new RuntimeException("cannot receive rows", (Throwable) next);
+
+			return next != complete;
+		}
+
+		@Override
+		public Row next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			Row row = (Row) next;
+
+			next = null;
+
+			if (++consumed == replenish) {
+				consumed = 0;
+				subscription.request(replenish);
+			}
+
+			return row;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Cancels the subscription, ending the iteration.
+		 */
+		@Override
+		public void close() {
+
+			if (closed)
+				return;
+
+			closed = true;
+
+			Subscription subscription = this.subscription;
+
+			if (subscription != null)
+				subscription.cancel();
+
+			queue.clear();
+
+			next = complete;
+		}
+	}
+}
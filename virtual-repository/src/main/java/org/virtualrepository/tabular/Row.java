@@ -2,13 +2,15 @@ package org.virtualrepository.tabular;
 
 import static org.virtualrepository.Utils.*;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
 
 /**
  * A row of a {@link Table}.
- * 
+ *
  * @author Fabio Simeoni
  *
  */
@@ -16,17 +18,27 @@ public class Row {
 
 	Map<QName,String> row;
 	
+	private Map<QName,Object> decoded;
+
 	/**
 	 * Creates an instance with the named values of the row.
 	 * @param data
 	 */
 	public Row(Map<QName,String> data) {
-		
+
 		notNull(data);
-		
+
 		this.row=data;
 	}
-	
+
+	/**
+	 * Creates an instance for subclasses that do not keep the values of the row in a map.
+	 * <p>
+	 * Subclasses must override {@link #get(QName)} and {@link #toString()}.
+	 */
+	protected Row() {
+	}
+
 	/**
 	 * Returns the value of this row for a given column.
 	 * @param column the column's name
@@ -35,16 +47,16 @@ public class Row {
 	public String get(QName name) {
 		return row.get(name);
 	}
-	
+
 	/**
 	 * Returns the value of this row for a given column.
 	 * @param column the column's name
 	 * @return the value
 	 */
 	public String get(String name) {
-		return row.get(new QName(name));
+		return get(new QName(name));
 	}
-	
+
 	/**
 	 * Returns the value of this row for a given column.
 	 * @param column the column
@@ -53,7 +65,155 @@ public class Row {
 	public String get(Column column) {
 		return this.get(column.name());
 	}
+
+	/**
+	 * Returns <code>true</code> if this row has no value for a given column.
+	 * <p>
+	 * Empty values are treated as missing for all but {@link String} columns.
+	 * 
+	 * @param column the column
+	 * @return <code>true</code> if this row has no value for the column
+	 */
+	public boolean isNull(Column column) {
+		
+		String value = get(column);
+		
+		return value == null || (column.type() != String.class && value.trim().isEmpty());
+	}
+	
+	/**
+	 * Returns the value of this row for a given column, decoded according to the {@link Column#type()}.
+	 * <p>
+	 * Values are decoded on first access, and then cached in the row.
+	 * 
+	 * @param column the column
+	 * @return the value, or <code>null</code> if this row has no value for the column
+	 * 
+	 * @throws IllegalArgumentException if the value does not have the type of the column, or the type is not supported
+	 * 
+	 * @see Values
+	 */
+	public Object getObject(Column column) {
+		return decoded(column, column.type());
+	}
 	
+	/**
+	 * Returns the value of this row for a given column as a <code>long</code>.
+	 * <p>
+	 * The value is decoded according to the {@link Column#type()} if the type is numeric, or else as a {@link Long}.
+	 * Values of non-integral types are neither truncated nor rounded, and must be whole numbers in the range of a
+	 * <code>long</code>.
+	 * 
+	 * @param column the column
+	 * @return the value
+	 * 
+	 * @throws IllegalStateException if this row has no value for the column
+	 * @throws IllegalArgumentException if the value is not numeric, or is not a whole number in the range of a
+	 *             <code>long</code>
+	 */
+	public long getLong(Column column) {
+		
+		Number value = number(column, Long.class);
+		
+		try {
+			return Values.longValue(value);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("value " + value + " of column " + column.name() + " is not a long", e);
+		}
+	}
+	
+	/**
+	 * Returns the value of this row for a given column as a <code>double</code>.
+	 * <p>
+	 * The value is decoded according to the {@link Column#type()} if the type is numeric, or else as a {@link Double}.
+	 * 
+	 * @param column the column
+	 * @return the value
+	 * 
+	 * @throws IllegalStateException if this row has no value for the column
+	 * @throws IllegalArgumentException if the value is not numeric
+	 */
+	public double getDouble(Column column) {
+		return number(column, Double.class).doubleValue();
+	}
+	
+	/**
+	 * Returns the value of this row for a given column as a <code>boolean</code>.
+	 * 
+	 * @param column the column
+	 * @return the value
+	 * 
+	 * @throws IllegalStateException if this row has no value for the column
+	 * @throws IllegalArgumentException if the value is not a boolean
+	 */
+	public boolean getBoolean(Column column) {
+		
+		Object value = decoded(column, Boolean.class);
+		
+		if (value == null)
+			throw new IllegalStateException("row has no value for column " + column.name());
+		
+		return (Boolean) value;
+	}
+	
+	/**
+	 * Returns the value of this row for a given column, decoded as a given type.
+	 * <p>
+	 * Subclasses may override to cache decoded values more efficiently than by column name, or to avoid decoding
+	 * altogether.
+	 * 
+	 * @param column the column
+	 * @param type the type
+	 * @return the value, or <code>null</code> if this row has no value for the column
+	 */
+	protected Object decoded(Column column, Class<?> type) {
+		
+		Object value = decoded == null ? null : decoded.get(column.name());
+		
+		if (value != null && Values.boxed(type).isInstance(value))
+			return value;
+		
+		value = Values.decode(type, get(column));
+		
+		if (value != null) {
+			
+			if (decoded == null)
+				decoded = new HashMap<QName, Object>(4);
+			
+			decoded.put(column.name(), value);
+		}
+		
+		return value;
+	}
+	
+	// helper
+	private Number number(Column column, Class<?> fallback) {
+		
+		Object value = decoded(column, Values.isNumeric(column.type()) ? column.type() : fallback);
+		
+		if (value == null)
+			throw new IllegalStateException("row has no value for column " + column.name());
+		
+		return (Number) value;
+	}
+	
+	/**
+	 * Returns the values of this row for given columns, in column order.
+	 *
+	 * @param columns the columns
+	 * @return the values, with <code>null</code>s for the columns for which this row has no value
+	 */
+	public String[] values(List<Column> columns) {
+
+		String[] values = new String[columns.size()];
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = get(columns.get(i));
+
+		return values;
+	}
+
 	@Override
 	public String toString() {
 		return row.toString();
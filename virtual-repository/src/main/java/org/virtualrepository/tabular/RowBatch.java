@@ -0,0 +1,563 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A batch of consecutive {@link Row}s of a {@link Table}, laid out by column.
+ * <p>
+ * Batches expose the values of each column in arrays, as strings (cf. {@link #values(int)}) or, for numeric
+ * processing, as primitives (cf. {@link #longs(int)}, {@link #doubles(int)}), so that whole batches can be processed
+ * in tight loops. Primitive arrays are parsed on first access, and null values are marked separately (cf.
+ * {@link #nulls(int)}). Arrays may be longer than the batch, but only the first {@link #size()} elements are valid.
+ * <p>
+ * Tables reuse batches across iterations, so batches and their arrays are valid only until the next batch is
+ * requested. Rows extracted from batches (cf. {@link #row(int)}) remain valid.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#batches(int)
+ */
+public final class RowBatch {
+
+	private List<Column> columns;
+	private ColumnIndex index;
+
+	private final int capacity;
+	private int size;
+
+	// per column, null until materialised
+	private String[][] strings;
+	private long[][] longs;
+	private double[][] doubles;
+	private boolean[][] nulls;
+
+	/**
+	 * Creates an instance with given columns and capacity.
+	 *
+	 * @param columns the columns
+	 * @param capacity the maximum number of rows in the batch
+	 */
+	public RowBatch(List<Column> columns, int capacity) {
+
+		notNull("columns", columns);
+
+		if (capacity <= 0)
+			throw new IllegalArgumentException("batch capacity must be positive");
+
+		this.capacity = capacity;
+
+		this.strings = new String[0][];
+		this.longs = new long[0][];
+		this.doubles = new double[0][];
+		this.nulls = new boolean[0][];
+
+		columns(columns);
+	}
+
+	/**
+	 * Returns the columns of this batch.
+	 *
+	 * @return the columns
+	 */
+	public List<Column> columns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the number of rows in this batch.
+	 *
+	 * @return the number of rows
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the maximum number of rows in this batch.
+	 *
+	 * @return the maximum number of rows
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns <code>true</code> if this batch has as many rows as its capacity.
+	 *
+	 * @return <code>true</code> if this batch is full
+	 */
+	public boolean full() {
+		return size == capacity;
+	}
+
+	/**
+	 * Returns the position of a given column in this batch.
+	 *
+	 * @param column the name of the column
+	 * @return the position, or <code>-1</code> if the column is not in this batch
+	 */
+	public int position(QName column) {
+		return index.position(column);
+	}
+
+	/**
+	 * Returns the values of the column at a given position.
+	 *
+	 * @param column the position of the column
+	 * @return the values, with <code>null</code>s for missing values
+	 */
+	public String[] values(int column) {
+
+		String[] values = strings[column];
+
+		if (values == null) {
+
+			values = strings[column] = new String[capacity];
+
+			if (longs[column] == null && doubles[column] == null)
+				return values;
+
+			if (longs[column] != null)
+				for (int i = 0; i < size; i++)
+					values[i] = nulls[column][i] ? null : String.valueOf(longs[column][i]);
+			else
+				for (int i = 0; i < size; i++)
+					values[i] = nulls[column][i] ? null : String.valueOf(doubles[column][i]);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the value of a given row for the column at a given position.
+	 *
+	 * @param row the position of the row
+	 * @param column the position of the column
+	 * @return the value, or <code>null</code> if it is missing
+	 */
+	public String get(int row, int column) {
+
+		check(row);
+
+		return values(column)[row];
+	}
+
+	/**
+	 * Returns markers for the missing values of the column at a given position.
+	 * <p>
+	 * Empty values are treated as missing for all but {@link String} columns (cf. {@link Row#isNull(Column)}).
+	 *
+	 * @param column the position of the column
+	 * @return the markers, <code>true</code> for missing values
+	 */
+	public boolean[] nulls(int column) {
+
+		boolean[] markers = nulls[column];
+
+		if (markers == null) {
+
+			markers = nulls[column] = new boolean[capacity];
+
+			String[] values = values(column);
+			boolean string = columns.get(column).type() == String.class;
+
+			for (int i = 0; i < size; i++)
+				markers[i] = values[i] == null || (!string && values[i].trim().isEmpty());
+		}
+
+		return markers;
+	}
+
+	/**
+	 * Returns the values of the column at a given position as <code>long</code>s.
+	 * <p>
+	 * Values are decoded according to the {@link Column#type()} if the type is numeric, or else as {@link Long}s.
+	 * Values of non-integral types are neither truncated nor rounded (cf. {@link Row#getLong(Column)}). Missing values
+	 * are returned as <code>0</code> (cf. {@link #nulls(int)}).
+	 *
+	 * @param column the position of the column
+	 * @return the values
+	 *
+	 * @throws IllegalArgumentException if some values are not numeric, or are not whole numbers in the range of a
+	 *             <code>long</code>
+	 */
+	public long[] longs(int column) {
+
+		long[] values = longs[column];
+
+		if (values == null) {
+
+			long[] decoded = new long[capacity];
+
+			boolean[] nulls = nulls(column);
+
+			if (doubles[column] != null) {
+
+				for (int i = 0; i < size; i++)
+					if (!nulls[i])
+						try {
+							decoded[i] = Values.longValue(doubles[column][i]);
+						} catch (IllegalArgumentException e) {
+							throw new IllegalArgumentException(notLong(column, values(column)[i]), e);
+						}
+			}
+			else {
+
+				String[] strings = values(column);
+				Class<?> type = columns.get(column).type();
+				boolean direct = Values.isIntegral(type) || !Values.isNumeric(type);
+
+				for (int i = 0; i < size; i++)
+					if (!nulls[i])
+						try {
+							decoded[i] = direct ? Long.parseLong(strings[i].trim()) : Values.longValue(number(type, strings[i]));
+						} catch (IllegalArgumentException e) {
+							// includes NumberFormatExceptions
+							throw new IllegalArgumentException(notLong(column, strings[i]), e);
+						}
+			}
+
+			// caches only values that are all valid
+			values = longs[column] = decoded;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the values of the column at a given position as <code>double</code>s.
+	 * <p>
+	 * Values are decoded according to the {@link Column#type()} if the type is numeric, or else as {@link Double}s.
+	 * Missing values are returned as <code>0</code> (cf. {@link #nulls(int)}).
+	 *
+	 * @param column the position of the column
+	 * @return the values
+	 *
+	 * @throws IllegalArgumentException if some values are not numeric
+	 */
+	public double[] doubles(int column) {
+
+		double[] values = doubles[column];
+
+		if (values == null) {
+
+			values = doubles[column] = new double[capacity];
+
+			if (longs[column] != null)
+				for (int i = 0; i < size; i++)
+					values[i] = longs[column][i];
+			else {
+
+				String[] strings = values(column);
+				boolean[] nulls = nulls(column);
+				Class<?> type = columns.get(column).type();
+				boolean direct = Values.isIntegral(type) || Values.isFloating(type) || !Values.isNumeric(type);
+
+				for (int i = 0; i < size; i++)
+					if (!nulls[i])
+						try {
+							values[i] = direct ? Double.parseDouble(strings[i].trim())
+									: number(type, strings[i]).doubleValue();
+						} catch (NumberFormatException e) {
+							throw new IllegalArgumentException(invalid(column, strings[i]), e);
+						}
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the row at a given position in this batch.
+	 * <p>
+	 * The row remains valid after the batch is reused.
+	 *
+	 * @param row the position of the row
+	 * @return the row
+	 */
+	public Row row(int row) {
+
+		check(row);
+
+		String[] values = new String[columns.size()];
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = values(i)[row];
+
+		return new ArrayRow(index, values);
+	}
+
+	/**
+	 * Returns the rows of this batch.
+	 *
+	 * @return the rows
+	 *
+	 * @see #row(int)
+	 */
+	public List<Row> rows() {
+
+		List<Row> rows = new ArrayList<Row>(size);
+
+		for (int i = 0; i < size; i++)
+			rows.add(row(i));
+
+		return rows;
+	}
+
+	/**
+	 * Removes all the rows from this batch.
+	 */
+	public void clear() {
+
+		// keeps string arrays for reuse, drops arrays derived from them
+		for (int i = 0; i < strings.length; i++) {
+
+			if (strings[i] != null)
+				Arrays.fill(strings[i], 0, size, null);
+
+			longs[i] = null;
+			doubles[i] = null;
+			nulls[i] = null;
+		}
+
+		size = 0;
+	}
+
+	/**
+	 * Adds a row to this batch, with the values of its columns.
+	 *
+	 * @param values the values, in column order
+	 *
+	 * @throws IllegalStateException if the batch is full
+	 */
+	public void add(String... values) {
+
+		add(column -> column < values.length ? values[column] : null);
+	}
+
+	/**
+	 * Adds a row to this batch, with a function that returns the value of the row for the column at a given position.
+	 *
+	 * @param values the function
+	 *
+	 * @throws IllegalStateException if the batch is full
+	 */
+	public void add(IntFunction<String> values) {
+
+		if (full())
+			throw new IllegalStateException("batch is full");
+
+		for (int i = 0; i < strings.length; i++) {
+
+			if (strings[i] == null)
+				strings[i] = new String[capacity];
+
+			strings[i][size] = values.apply(i);
+		}
+
+		size++;
+	}
+
+	/**
+	 * Extends the columns of this batch.
+	 * <p>
+	 * Rows already in the batch have no values for the new columns.
+	 *
+	 * @param columns the columns, which start with the current columns of this batch
+	 */
+	public void columns(List<Column> columns) {
+
+		if (this.columns != null && columns.size() < this.columns.size())
+			throw new IllegalArgumentException("columns can only be added to a batch");
+
+		this.columns = new ArrayList<Column>(columns);
+		this.index = new ColumnIndex(this.columns);
+
+		int previous = strings.length;
+
+		strings = Arrays.copyOf(strings, columns.size());
+		longs = Arrays.copyOf(longs, columns.size());
+		doubles = Arrays.copyOf(doubles, columns.size());
+		nulls = Arrays.copyOf(nulls, columns.size());
+
+		// rows already in the batch have no values for new columns
+		for (int i = previous; i < columns.size(); i++)
+			strings[i] = new String[capacity];
+	}
+
+	// loads a range of rows from column data, keeping primitive values as they are
+	void load(ColumnData[] data, int from, int count) {
+
+		size = count;
+
+		for (int c = 0; c < data.length; c++) {
+
+			longs[c] = null;
+			doubles[c] = null;
+			nulls[c] = null;
+
+			if (data[c] instanceof ColumnData.Longs) {
+
+				ColumnData.Longs column = (ColumnData.Longs) data[c];
+
+				strings[c] = null;
+				longs[c] = new long[capacity];
+				nulls[c] = new boolean[capacity];
+
+				for (int i = 0; i < count; i++)
+					if (!(nulls[c][i] = column.isNull(from + i)))
+						longs[c][i] = column.getLong(from + i);
+			}
+			else if (data[c] instanceof ColumnData.Doubles) {
+
+				ColumnData.Doubles column = (ColumnData.Doubles) data[c];
+
+				strings[c] = null;
+				doubles[c] = new double[capacity];
+				nulls[c] = new boolean[capacity];
+
+				for (int i = 0; i < count; i++)
+					if (!(nulls[c][i] = column.isNull(from + i)))
+						doubles[c][i] = column.getDouble(from + i);
+			}
+			else {
+
+				if (strings[c] == null)
+					strings[c] = new String[capacity];
+
+				for (int i = 0; i < count; i++)
+					strings[c][i] = data[c].get(from + i);
+			}
+		}
+	}
+
+	/**
+	 * Returns an iterator over the rows of a given table in batches of a given size, which pulls rows from the table.
+	 *
+	 * @param table the table
+	 * @param size the size of the batches
+	 * @return the iterator
+	 *
+	 * @see Table#batches(int)
+	 */
+	public static Iterator<RowBatch> batches(Table table, int size) {
+
+		notNull("table", table);
+
+		final Iterator<Row> rows = table.iterator();
+		final RowBatch batch = new RowBatch(table.columns(), size);
+
+		return new Batches(batch) {
+
+			@Override
+			protected void fill(RowBatch batch) {
+
+				while (!batch.full() && rows.hasNext()) {
+
+					Row row = rows.next();
+
+					// columns may be discovered during iteration
+					List<Column> columns = table.columns();
+
+					if (columns.size() > batch.columns().size())
+						batch.columns(columns);
+
+					batch.add(row.values(batch.columns()));
+				}
+			}
+		};
+	}
+
+	/**
+	 * A base implementation of iterators over {@link RowBatch}es that reuse a single batch.
+	 */
+	public static abstract class Batches implements Iterator<RowBatch> {
+
+		private final RowBatch batch;
+		private boolean ready;
+
+		/**
+		 * Creates an instance that reuses a given batch.
+		 *
+		 * @param batch the batch
+		 */
+		protected Batches(RowBatch batch) {
+
+			notNull("batch", batch);
+
+			this.batch = batch;
+		}
+
+		/**
+		 * Fills a given batch, which has been cleared.
+		 *
+		 * @param batch the batch
+		 */
+		protected abstract void fill(RowBatch batch);
+
+		@Override
+		public boolean hasNext() {
+
+			if (!ready) {
+
+				batch.clear();
+
+				fill(batch);
+
+				ready = batch.size() > 0;
+			}
+
+			return ready;
+		}
+
+		@Override
+		public RowBatch next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			ready = false;
+
+			return batch;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// helper
+	private void check(int row) {
+
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("no row at " + row + ", batch has " + size + " rows");
+	}
+
+	// helper
+	private Number number(Class<?> type, String value) {
+
+		return (Number) Values.decode(type, value);
+	}
+
+	// helper
+	private String invalid(int column, String value) {
+
+		return "value " + value + " of column " + columns.get(column).name() + " is not numeric";
+	}
+
+	// helper
+	private String notLong(int column, String value) {
+
+		return "value " + value + " of column " + columns.get(column).name() + " is not a long";
+	}
+}
@@ -0,0 +1,328 @@
+package org.virtualrepository.tabular;
+
+import static java.nio.charset.StandardCharsets.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A temporary file of row values, appended to and read back sequentially.
+ * <p>
+ * Values are stored as length-prefixed UTF-8 bytes, with variable-length encoding of lengths. The file can be read back
+ * any number of times, and is deleted when the instance is closed, which also closes the iterators that are still
+ * reading it. Files that are not closed are deleted when the instance is collected or, failing that, when the JVM exits.
+ * <p>
+ * Iterators close the file stream when they are exhausted, or when they are closed themselves.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class RowFile implements Iterable<String[]>, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(RowFile.class);
+
+	static final int bufferSize = 1 << 16;
+
+	// files that have not been closed yet, deleted when the JVM exits
+	private static final Set<File> live = ConcurrentHashMap.newKeySet();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for (File file : live)
+				file.delete();
+		}, "vr-row-files"));
+	}
+
+	private final File file;
+	private DataOutputStream out;
+	private long size;
+
+	// iterators that are still reading the file, unless they have been abandoned and collected
+	private final Set<ValueIterator> readers = Collections.synchronizedSet(Collections
+			.newSetFromMap(new WeakHashMap<ValueIterator, Boolean>()));
+
+	/**
+	 * Creates an instance over a new temporary file.
+	 *
+	 * @throws RuntimeException if the file cannot be created
+	 */
+	public RowFile() {
+
+		try {
+			file = File.createTempFile("vr-rows-", ".tmp");
+			live.add(file);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+		} catch (IOException e) {
+			throw new RuntimeException("cannot create temporary row file", e);
+		}
+	}
+
+	/**
+	 * Appends the values of a row to this file.
+	 *
+	 * @param values the values
+	 *
+	 * @throws IllegalStateException if this file has been closed
+	 * @throws RuntimeException if the values cannot be written
+	 */
+	public void append(String[] values) {
+
+		if (out == null)
+			throw new IllegalStateException("row file " + file + " is closed");
+
+		try {
+			write(out, values);
+			size++;
+		} catch (IOException e) {
+			throw new RuntimeException("cannot write to row file " + file, e);
+		}
+	}
+
+	/**
+	 * Returns the number of rows in this file.
+	 *
+	 * @return the number of rows
+	 */
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<String[]> iterator() {
+
+		if (out == null)
+			throw new IllegalStateException("row file " + file + " is closed");
+
+		try {
+			out.flush();
+
+			ValueIterator reader = new ValueIterator(new DataInputStream(new BufferedInputStream(new FileInputStream(
+					file), bufferSize)), size);
+
+			readers.add(reader);
+
+			return reader;
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read row file " + file, e);
+		}
+	}
+
+	/**
+	 * Closes this file, and the iterators that are still reading it, and deletes the file.
+	 */
+	@Override
+	public synchronized void close() {
+
+		if (out == null)
+			return;
+
+		List<ValueIterator> open;
+
+		synchronized (readers) {
+			open = new ArrayList<ValueIterator>(readers);
+		}
+
+		for (ValueIterator reader : open)
+			reader.close();
+
+		try {
+			out.close();
+		} catch (IOException e) {
+			log.warn("cannot close row file " + file, e);
+		}
+
+		out = null;
+
+		if (!file.delete())
+			log.warn("cannot delete row file {}", file);
+
+		live.remove(file);
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		close();
+	}
+
+	/**
+	 * Writes the values of a row to a given stream.
+	 *
+	 * @param out the stream
+	 * @param values the values
+	 * @throws IOException if the values cannot be written
+	 */
+	public static void write(DataOutputStream out, String[] values) throws IOException {
+
+		writeLength(out, values.length);
+
+		for (String value : values)
+			if (value == null)
+				writeLength(out, 0);
+			else {
+				byte[] bytes = value.getBytes(UTF_8);
+				writeLength(out, bytes.length + 1);
+				out.write(bytes);
+			}
+	}
+
+	/**
+	 * Reads the values of a row from a given stream.
+	 *
+	 * @param in the stream
+	 * @param buffer a buffer for decoding, which may be replaced if it is too small
+	 * @return the values, or <code>null</code> if the stream has no more rows
+	 * @throws IOException if the values cannot be read
+	 */
+	public static String[] read(DataInputStream in, byte[][] buffer) throws IOException {
+
+		int first = in.read();
+
+		if (first < 0)
+			return null;
+
+		String[] values = new String[readLength(in, first)];
+
+		for (int i = 0; i < values.length; i++) {
+
+			int length = readLength(in, in.readUnsignedByte());
+
+			if (length == 0)
+				continue;
+
+			length--;
+
+			if (buffer[0].length < length)
+				buffer[0] = new byte[Math.max(length, buffer[0].length * 2)];
+
+			in.readFully(buffer[0], 0, length);
+
+			values[i] = new String(buffer[0], 0, length, UTF_8);
+		}
+
+		return values;
+	}
+
+	// helper
+	private static void writeLength(DataOutputStream out, int length) throws IOException {
+
+		while ((length & ~0x7F) != 0) {
+			out.write((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+
+		out.write(length);
+	}
+
+	// helper
+	private static int readLength(DataInputStream in, int first) throws IOException {
+
+		int length = first & 0x7F;
+
+		for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+			first = in.readUnsignedByte();
+			length |= (first & 0x7F) << shift;
+		}
+
+		return length;
+	}
+
+	// reads values back, closing the stream when they are exhausted
+	private class ValueIterator implements Iterator<String[]>, Closeable {
+
+		private final DataInputStream in;
+		private final byte[][] buffer = { new byte[256] };
+		private long remaining;
+
+		ValueIterator(DataInputStream in, long remaining) {
+			this.in = in;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			if (remaining > 0)
+				return true;
+
+			close();
+
+			return false;
+		}
+
+		@Override
+		public String[] next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			try {
+
+				String[] values = read(in, buffer);
+
+				if (values == null)
+					throw new EOFException("row file " + file + " is truncated");
+
+				remaining--;
+
+				return values;
+
+			} catch (IOException e) {
+				throw new RuntimeException("cannot read row file " + file, e);
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+
+			remaining = 0;
+
+			if (!readers.remove(this))
+				return;
+
+			try {
+				in.close();
+			} catch (IOException e) {
+				log.warn("cannot close row file " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Closes a given object if it holds resources, such as the iterators of tables that spill rows to disk.
+	 *
+	 * @param object the object
+	 */
+	public static void close(Object object) {
+
+		if (object instanceof Closeable)
+			try {
+				((Closeable) object).close();
+			} catch (IOException e) {
+				log.warn("cannot close " + object, e);
+			}
+	}
+}
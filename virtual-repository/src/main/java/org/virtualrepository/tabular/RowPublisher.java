@@ -0,0 +1,289 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.Flow.Publisher;
+import org.virtualrepository.Flow.Subscriber;
+import org.virtualrepository.Flow.Subscription;
+
+/**
+ * A {@link Publisher} of the {@link Row}s of a {@link Table}.
+ * <p>
+ * Rows are pulled from the table only as subscribers request them, on the thread that requests them or else on a given
+ * {@link Executor}. No thread is dedicated to a subscription while there is no demand. Each subscription iterates over
+ * the table anew, and closes its iterator when it ends, is cancelled, or fails (cf. {@link RowFile#close(Object)}).
+ *
+ * @author Fabio Simeoni
+ *
+ * @see PublishedTable
+ */
+public class RowPublisher implements Publisher<Row> {
+
+	private static final Logger log = LoggerFactory.getLogger(RowPublisher.class);
+
+	private final Table table;
+	private final Executor executor;
+
+	/**
+	 * Creates an instance for a given table, which publishes rows on the threads that request them.
+	 *
+	 * @param table the table
+	 */
+	public RowPublisher(Table table) {
+
+		this(table, Runnable::run);
+	}
+
+	/**
+	 * Creates an instance for a given table, which publishes rows on a given executor.
+	 *
+	 * @param table the table
+	 * @param executor the executor
+	 */
+	public RowPublisher(Table table, Executor executor) {
+
+		notNull("table", table);
+		notNull("executor", executor);
+
+		this.table = table;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super Row> subscriber) {
+
+		notNull("subscriber", subscriber);
+
+		new RowSubscription(subscriber).start();
+	}
+
+	/**
+	 * A {@link Subscription} that emits items pulled from a source while there is demand for them.
+	 * <p>
+	 * Emission is serialised and never re-entrant, even when subscribers request more items from within
+	 * {@link Subscriber#onNext(Object)}.
+	 *
+	 * @param <T> the type of the items
+	 */
+	public static abstract class Emitter<T> implements Subscription {
+
+		private final Subscriber<? super T> subscriber;
+		private final Executor executor;
+
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger work = new AtomicInteger();
+
+		private volatile boolean done;
+		private volatile Throwable error;
+
+		// accessed only while draining
+		private boolean released;
+
+		/**
+		 * Creates an instance for a given subscriber, which emits on a given executor.
+		 *
+		 * @param subscriber the subscriber
+		 * @param executor the executor
+		 */
+		protected Emitter(Subscriber<? super T> subscriber, Executor executor) {
+
+			this.subscriber = subscriber;
+			this.executor = executor;
+		}
+
+		/**
+		 * Emits items to the subscriber, while there is demand for them.
+		 * <p>
+		 * Implementations call {@link #emit(Object)} and {@link #complete(Throwable)}, and return when the demand is met
+		 * or no more items are available yet.
+		 *
+		 * @throws Exception if items cannot be produced
+		 */
+		protected abstract void produce() throws Exception;
+
+		/**
+		 * Invoked once when the subscription ends, for any reason.
+		 * <p>
+		 * It is invoked serially with {@link #produce()}, also when the subscription is cancelled from another thread.
+		 */
+		protected void release() {
+		}
+
+		/**
+		 * Returns <code>true</code> if there is demand for more items.
+		 *
+		 * @return <code>true</code> if there is demand for more items
+		 */
+		protected boolean demanded() {
+			return !done && demand.get() > 0;
+		}
+
+		/**
+		 * Emits an item to the subscriber, to meet part of the demand.
+		 *
+		 * @param item the item
+		 */
+		protected void emit(T item) {
+
+			demand.decrementAndGet();
+
+			subscriber.onNext(item);
+		}
+
+		/**
+		 * Ends the subscription, normally or with a given error.
+		 *
+		 * @param error the error, or <code>null</code> if the subscription ends normally
+		 */
+		protected void complete(Throwable error) {
+
+			if (done)
+				return;
+
+			done = true;
+
+			releaseOnce();
+
+			if (error == null)
+				subscriber.onComplete();
+			else
+				subscriber.onError(error);
+		}
+
+		/**
+		 * Returns <code>true</code> if the subscription has ended or has been cancelled.
+		 *
+		 * @return <code>true</code> if the subscription has ended
+		 */
+		protected boolean done() {
+			return done;
+		}
+
+		/**
+		 * Signals the subscription to the subscriber.
+		 */
+		public void start() {
+
+			subscriber.onSubscribe(this);
+		}
+
+		@Override
+		public void request(long n) {
+
+			if (done)
+				return;
+
+			if (n <= 0) {
+				// emitted with the next drain (rule 3.9)
+				error = new IllegalArgumentException("non-positive request " + n);
+			} else
+				// caps at Long.MAX_VALUE, which stands for unbounded demand
+				demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+
+			signal();
+		}
+
+		@Override
+		public void cancel() {
+
+			if (done)
+				return;
+
+			done = true;
+
+			// releases when emission is not in progress
+			signal();
+		}
+
+		/**
+		 * Schedules emission, unless it is already in progress, e.g. when more items become available.
+		 */
+		public void signal() {
+
+			if (work.getAndIncrement() == 0)
+				executor.execute(this::drain);
+		}
+
+		// helper
+		private void drain() {
+
+			int missed = 1;
+
+			do {
+
+				try {
+
+					if (error != null)
+						complete(error);
+					else if (demanded())
+						produce();
+
+				} catch (Throwable t) {
+					complete(t);
+				}
+
+				if (done)
+					releaseOnce();
+
+				missed = work.addAndGet(-missed);
+
+			} while (missed != 0);
+		}
+
+		// helper
+		private void releaseOnce() {
+
+			if (released)
+				return;
+
+			released = true;
+
+			try {
+				release();
+			} catch (RuntimeException e) {
+				log.warn("cannot release subscription", e);
+			}
+		}
+	}
+
+	// the subscription of a subscriber
+	private class RowSubscription extends Emitter<Row> {
+
+		private Iterator<Row> rows;
+
+		RowSubscription(Subscriber<? super Row> subscriber) {
+
+			super(subscriber, executor);
+		}
+
+		@Override
+		protected void produce() {
+
+			if (rows == null)
+				rows = table.iterator();
+
+			while (demanded() && rows.hasNext())
+				emit(rows.next());
+
+			if (!done() && !rows.hasNext())
+				complete(null);
+		}
+
+		@Override
+		protected void release() {
+			RowFile.close(rows);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RowPublisher [table=" + table + "]";
+	}
+}
@@ -0,0 +1,211 @@
+package org.virtualrepository.tabular;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A re-iterable store of row values that keeps values in memory up to a budget, and spills the rest to a
+ * {@link RowFile}.
+ * <p>
+ * Values are read back in insertion order: first those in memory, then those in the file, sequentially. Iterators
+ * over spilled values are {@link Closeable}, to stop reading the file before the end.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class RowStore implements Iterable<String[]>, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(RowStore.class);
+
+	/**
+	 * The default memory budget of stores, in bytes (64 MB).
+	 */
+	public static final long defaultBudget = 64L << 20;
+
+	private final long budget;
+
+	private final List<String[]> memory = new ArrayList<String[]>();
+	private long used;
+
+	private RowFile file;
+
+	/**
+	 * Creates an instance with the default memory budget.
+	 */
+	public RowStore() {
+		this(defaultBudget);
+	}
+
+	/**
+	 * Creates an instance with a given memory budget.
+	 *
+	 * @param budget the budget, in bytes
+	 */
+	public RowStore(long budget) {
+
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid memory budget " + budget);
+
+		this.budget = budget;
+	}
+
+	/**
+	 * Adds the values of a row to this store.
+	 *
+	 * @param values the values
+	 */
+	public void add(String[] values) {
+
+		if (file == null) {
+
+			long size = sizeOf(values);
+
+			if (used + size <= budget) {
+				memory.add(values);
+				used += size;
+				return;
+			}
+
+			log.debug("row store exceeded budget of {} bytes after {} rows, spilling to disk", budget, memory.size());
+
+			file = new RowFile();
+		}
+
+		file.append(values);
+	}
+
+	/**
+	 * Returns the number of rows in this store.
+	 *
+	 * @return the number of rows
+	 */
+	public long size() {
+		return memory.size() + (file == null ? 0 : file.size());
+	}
+
+	/**
+	 * Returns <code>true</code> if this store has spilled rows to disk.
+	 *
+	 * @return <code>true</code> if this store has spilled rows to disk
+	 */
+	public boolean spilled() {
+		return file != null;
+	}
+
+	@Override
+	public Iterator<String[]> iterator() {
+
+		final Iterator<String[]> inMemory = memory.iterator();
+		final Iterator<String[]> onDisk = file == null ? null : file.iterator();
+
+		class Values implements Iterator<String[]>, Closeable {
+
+			@Override
+			public boolean hasNext() {
+				return inMemory.hasNext() || (onDisk != null && onDisk.hasNext());
+			}
+
+			@Override
+			public String[] next() {
+
+				if (inMemory.hasNext())
+					return inMemory.next();
+
+				if (onDisk == null)
+					throw new NoSuchElementException();
+
+				return onDisk.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				RowFile.close(onDisk);
+			}
+		}
+
+		return new Values();
+	}
+
+	/**
+	 * Returns the rows in this store for given columns.
+	 *
+	 * @param columns the columns, in the order of the row values
+	 * @return the rows
+	 */
+	public Iterable<Row> rows(List<Column> columns) {
+
+		final ColumnIndex index = new ColumnIndex(columns);
+
+		return () -> {
+
+			final Iterator<String[]> values = iterator();
+
+			class Rows implements Iterator<Row>, Closeable {
+
+				@Override
+				public boolean hasNext() {
+					return values.hasNext();
+				}
+
+				@Override
+				public Row next() {
+					return new ArrayRow(index, values.next());
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void close() {
+					RowFile.close(values);
+				}
+			}
+
+			return new Rows();
+		};
+	}
+
+	/**
+	 * Releases the memory and the disk space used by this store.
+	 */
+	@Override
+	public void close() {
+
+		memory.clear();
+		used = 0;
+
+		if (file != null)
+			file.close();
+	}
+
+	/**
+	 * Estimates the heap footprint of the values of a row, in bytes.
+	 *
+	 * @param values the values
+	 * @return the estimated footprint
+	 */
+	public static long sizeOf(String[] values) {
+
+		// array header and references, then string and char array headers plus chars
+		long size = 16 + 4 * values.length;
+
+		for (String value : values)
+			if (value != null)
+				size += 40 + 2 * value.length();
+
+		return size;
+	}
+}
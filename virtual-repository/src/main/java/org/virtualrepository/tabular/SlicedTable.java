@@ -0,0 +1,139 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.virtualrepository.Properties;
+
+/**
+ * A {@link Table} with a contiguous range of the {@link Row}s of another {@link Table}.
+ * <p>
+ * Rows before the range are skipped as the table is iterated over, and iteration stops at the end of the range, where
+ * the iterator of the other table is closed.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#slice(long, long)
+ */
+public class SlicedTable implements Table {
+
+	private final Table table;
+	private final long from;
+	private final long count;
+
+	/**
+	 * Creates an instance with a given number of rows of a given table, from a given position.
+	 *
+	 * @param table the table
+	 * @param from the position of the first row, from 0
+	 * @param count the maximum number of rows
+	 *
+	 * @throws IllegalArgumentException if the position or the number of rows are negative
+	 */
+	public SlicedTable(Table table, long from, long count) {
+
+		notNull("table", table);
+
+		validSlice(from, count);
+
+		this.table = table;
+		this.from = from;
+		this.count = count;
+	}
+
+	// helper
+	static void validSlice(long from, long count) {
+
+		if (from < 0 || count < 0)
+			throw new IllegalArgumentException("invalid slice " + from + "+" + count);
+	}
+
+	@Override
+	public List<Column> columns() {
+		// columns may be discovered as the table is iterated over
+		return table.columns();
+	}
+
+	@Override
+	public Properties properties() {
+		return table.properties();
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		final Iterator<Row> rows = table.iterator();
+
+		class Rows implements Iterator<Row>, Closeable {
+
+			long skipped;
+			long returned;
+			boolean closed;
+
+			@Override
+			public boolean hasNext() {
+
+				for (; skipped < from && rows.hasNext(); skipped++)
+					rows.next();
+
+				// releases the source as soon as the slice is complete
+				if (returned == count) {
+					close();
+					return false;
+				}
+
+				return rows.hasNext();
+			}
+
+			@Override
+			public Row next() {
+
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				returned++;
+
+				return rows.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+
+				if (!closed) {
+					closed = true;
+					RowFile.close(rows);
+				}
+			}
+		}
+
+		return new Rows();
+	}
+
+	@Override
+	public Table select(List<Column> columns) {
+		// selects before slicing, so that the source can push down the selection
+		return table.select(columns).slice(from, count);
+	}
+
+	@Override
+	public Table slice(long from, long count) {
+
+		validSlice(from, count);
+
+		return table.slice(this.from + from, Math.max(0, Math.min(count, this.count - from)));
+	}
+
+	@Override
+	public String toString() {
+		return "Table [from=" + from + ", count=" + count + ", table=" + table + "]";
+	}
+}
@@ -0,0 +1,450 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.Properties;
+
+/**
+ * A {@link Table} with the {@link Row}s of another {@link Table}, sorted by the values of given columns.
+ * <p>
+ * Values are compared according to the {@link Column#type()} of their columns, e.g. numerically or chronologically,
+ * and as strings if their columns have no supported type. Missing values sort last, after values that do not have the
+ * type of their column, which sort as strings after all typed values. The sort is stable.
+ * <p>
+ * Rows are sorted in memory up to a budget. Over budget, sorted runs of rows are written to temporary
+ * {@link RowFile}s, which are then merged as the table is iterated over, and deleted at the end of the iteration or
+ * when the iterator is closed. Rows are sorted anew at each iteration.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#sort(String...)
+ */
+public class SortedTable implements Table {
+
+	private static final Logger log = LoggerFactory.getLogger(SortedTable.class);
+
+	// the maximum number of runs merged at once
+	static final int fanIn = 64;
+
+	private final Table table;
+	private final List<QName> keys;
+	private final long budget;
+
+	/**
+	 * Creates an instance with the rows of a given table, sorted by given columns within a given memory budget.
+	 *
+	 * @param table the table
+	 * @param keys the names of the columns, in order of precedence
+	 * @param budget the memory budget, in bytes
+	 *
+	 * @throws IllegalArgumentException if there are no columns, or the budget is negative
+	 */
+	public SortedTable(Table table, List<QName> keys, long budget) {
+
+		notNull("table", table);
+		notNull("keys", keys);
+
+		if (keys.isEmpty())
+			throw new IllegalArgumentException("no columns to sort by");
+
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid memory budget " + budget);
+
+		this.table = table;
+		this.keys = new ArrayList<QName>(keys);
+		this.budget = budget;
+	}
+
+	// the names of the columns by which rows are sorted
+	List<QName> keys() {
+		return keys;
+	}
+
+	@Override
+	public List<Column> columns() {
+		// columns may be discovered as the table is iterated over
+		return table.columns();
+	}
+
+	@Override
+	public Properties properties() {
+		return table.properties();
+	}
+
+	@Override
+	public Iterator<Row> iterator() {
+
+		Decoder decoder = new Decoder();
+
+		List<Entry> run = new ArrayList<Entry>();
+		List<RowFile> runs = new ArrayList<RowFile>();
+
+		// the runs of the current merge pass
+		List<RowFile> merged = new ArrayList<RowFile>();
+
+		long used = 0;
+
+		try {
+
+			for (Row row : table) {
+
+				String[] values = row.values(table.columns());
+
+				run.add(new Entry(values, decoder.keysOf(values)));
+
+				used += RowStore.sizeOf(values) + 16 + 8 * keys.size();
+
+				if (used > budget) {
+
+					runs.add(spill(run));
+
+					run.clear();
+					used = 0;
+				}
+			}
+
+			Collections.sort(run);
+
+			if (runs.isEmpty())
+				return rows(run.iterator());
+
+			if (!run.isEmpty())
+				runs.add(spill(run));
+
+			log.debug("sorted {} runs of rows over budget of {} bytes, merging them", runs.size(), budget);
+
+			// merges in passes, to bound the number of open files
+			while (runs.size() > fanIn) {
+
+				merged = new ArrayList<RowFile>();
+
+				for (int r = 0; r < runs.size(); r += fanIn) {
+
+					Merge merge = new Merge(runs.subList(r, Math.min(r + fanIn, runs.size())), decoder);
+
+					RowFile file = new RowFile();
+
+					merged.add(file);
+
+					while (merge.hasNext())
+						file.append(merge.next().values);
+				}
+
+				runs = merged;
+			}
+
+			return rows(new Merge(runs, decoder));
+
+		} catch (RuntimeException e) {
+
+			for (RowFile file : runs)
+				file.close();
+
+			for (RowFile file : merged)
+				file.close();
+
+			throw e;
+		}
+	}
+
+	// sorts and writes a run
+	private RowFile spill(List<Entry> run) {
+
+		Collections.sort(run);
+
+		RowFile file = new RowFile();
+
+		for (Entry entry : run)
+			file.append(entry.values);
+
+		return file;
+	}
+
+	// the rows of sorted entries
+	private Iterator<Row> rows(final Iterator<Entry> entries) {
+
+		class Rows implements Iterator<Row>, Closeable {
+
+			ColumnIndex index = new ColumnIndex(table.columns());
+
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public Row next() {
+				return new ArrayRow(index, entries.next().values);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				RowFile.close(entries);
+			}
+		}
+
+		return new Rows();
+	}
+
+	// decodes the keys of rows, for the columns of the table at the time
+	private class Decoder {
+
+		private ColumnIndex index;
+		private int[] positions;
+		private Class<?>[] types;
+
+		Object[] keysOf(String[] values) {
+
+			List<Column> columns = table.columns();
+
+			// columns may be discovered during iteration
+			if (index == null || !index.indexes(columns))
+				index(columns);
+
+			Object[] decoded = new Object[positions.length];
+
+			for (int k = 0; k < decoded.length; k++) {
+
+				int position = positions[k];
+
+				decoded[k] = decode(types[k], position < values.length ? values[position] : null);
+			}
+
+			return decoded;
+		}
+
+		// helper
+		private void index(List<Column> columns) {
+
+			index = new ColumnIndex(columns);
+			positions = new int[keys.size()];
+			types = new Class<?>[keys.size()];
+
+			for (int k = 0; k < positions.length; k++) {
+
+				positions[k] = index.position(keys.get(k));
+
+				if (positions[k] < 0)
+					throw new IllegalArgumentException("unknown column " + keys.get(k));
+
+				types[k] = columns.get(positions[k]).type();
+			}
+		}
+	}
+
+	// helper
+	static Object decode(Class<?> type, String value) {
+
+		if (value == null || type == String.class || !Values.isSupported(type))
+			return value;
+
+		try {
+			// empty values are missing
+			return Values.decode(type, value);
+		}
+		catch (IllegalArgumentException e) {
+			return new Raw(value);
+		}
+	}
+
+	// a string for a decoded value, which is the same for values that compare as equal
+	static String canonical(Object value) {
+
+		if (value == null)
+			return "";
+
+		if (value instanceof Raw)
+			return ((Raw) value).value;
+
+		if (value instanceof BigDecimal)
+			return ((BigDecimal) value).stripTrailingZeros().toPlainString();
+
+		if (value instanceof Date)
+			return Long.toString(((Date) value).getTime());
+
+		return value.toString();
+	}
+
+	// a value that does not have the type of its column
+	private static final class Raw implements Comparable<Raw> {
+
+		final String value;
+
+		Raw(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(Raw other) {
+			return value.compareTo(other.value);
+		}
+	}
+
+	// compares typed values, then raw values, then missing values
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static int compare(Object[] keys, Object[] others) {
+
+		for (int k = 0; k < keys.length; k++) {
+
+			Object key = keys[k];
+			Object other = others[k];
+
+			if (key == other)
+				continue;
+
+			if (key == null || other == null)
+				return key == null ? 1 : -1;
+
+			boolean raw = key instanceof Raw;
+
+			if (raw != other instanceof Raw)
+				return raw ? 1 : -1;
+
+			int result = ((Comparable) key).compareTo(other);
+
+			if (result != 0)
+				return result;
+		}
+
+		return 0;
+	}
+
+	// the values of a row, with its keys
+	private static class Entry implements Comparable<Entry> {
+
+		final String[] values;
+		final Object[] keys;
+
+		Entry(String[] values, Object[] keys) {
+			this.values = values;
+			this.keys = keys;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			return compare(keys, other.keys);
+		}
+	}
+
+	// merges sorted runs, deleting them when they are exhausted or the merge is closed
+	private class Merge implements Iterator<Entry>, Closeable {
+
+		private final List<RowFile> runs;
+		private final PriorityQueue<Head> heads;
+
+		Merge(List<RowFile> runs, Decoder decoder) {
+
+			this.runs = runs;
+
+			// earlier runs win ties, for stability
+			Comparator<Head> order = (h1, h2) -> {
+				int result = h1.entry.compareTo(h2.entry);
+				return result != 0 ? result : Integer.compare(h1.run, h2.run);
+			};
+
+			this.heads = new PriorityQueue<Head>(runs.size(), order);
+
+			for (int r = 0; r < runs.size(); r++) {
+
+				Head head = new Head(r, runs.get(r).iterator(), decoder);
+
+				if (head.advance())
+					heads.add(head);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			if (heads.isEmpty()) {
+				close();
+				return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public void close() {
+
+			heads.clear();
+
+			for (RowFile run : runs)
+				run.close();
+		}
+
+		@Override
+		public Entry next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			Head head = heads.poll();
+
+			Entry entry = head.entry;
+
+			if (head.advance())
+				heads.add(head);
+
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// the next entry of a run
+	private class Head {
+
+		final int run;
+		final Iterator<String[]> values;
+		final Decoder decoder;
+
+		Entry entry;
+
+		Head(int run, Iterator<String[]> values, Decoder decoder) {
+			this.run = run;
+			this.values = values;
+			this.decoder = decoder;
+		}
+
+		boolean advance() {
+
+			if (!values.hasNext())
+				return false;
+
+			String[] next = values.next();
+
+			entry = new Entry(next, decoder.keysOf(next));
+
+			return true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SortedTable [table=" + table + ", keys=" + keys + "]";
+	}
+}
@@ -1,10 +1,15 @@
 package org.virtualrepository.tabular;
 
+import static java.util.Arrays.*;
+
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import javax.xml.namespace.QName;
+
 import org.virtualrepository.Properties;
 import org.virtualrepository.impl.Described;
 
@@ -12,6 +17,10 @@ import org.virtualrepository.impl.Described;
 
 /**
  * A table of {@link Column}s and {@link Row}s, with optional {@link Properties}.
+ * <p>
+ * Iterators over rows that hold resources, such as the temporary files of tables that spill rows to disk, are
+ * {@link java.io.Closeable}. They release their resources when they are exhausted, and can be closed to release them
+ * earlier (cf. {@link RowFile#close(Object)}).
  * 
  * @author Fabio Simeoni
  *
@@ -26,19 +35,324 @@ public interface Table extends Iterable<Row>,  Described {
 	List<Column> columns();
 	
 	/**
-	 * Returns a table which can be iterated over multiple times.
+	 * Returns a table which can be iterated over multiple times, using the default memory budget.
 	 * <p>
 	 * It may return this very table if it is already materialised.
 	 * @return the materialised table.
+	 * 
+	 * @see #materialise(long)
 	 */
 	default Table materialise() {
 		
-		List<Row> rows = new ArrayList<Row>();
+		return materialise(RowStore.defaultBudget);
+	}
+	
+	/**
+	 * Returns a table which can be iterated over multiple times, using a given memory budget.
+	 * <p>
+	 * Rows are kept in memory in a compact form until the budget is exhausted, and then spilled to a temporary file that is
+	 * read back sequentially at each iteration. The file is deleted when the table is closed, if it is
+	 * {@link java.io.Closeable}.
+	 * <p>
+	 * It may return this very table if it is already materialised.
+	 * 
+	 * @param budget the budget, in bytes
+	 * @return the materialised table.
+	 */
+	default Table materialise(long budget) {
+		
+		RowStore store = new RowStore(budget);
+		
+		//columns may be discovered during iteration, we read them at each row
+		for (Row row : this) 
+			store.add(row.values(columns()));
+		
+		List<Column> columns = new ArrayList<Column>(columns());
+		
+		Table materialised = new MaterializedTable(columns, store);
+		
+		materialised.properties().add(properties().toArray());
+		
+		return materialised;
+	}
+	
+	/**
+	 * Returns a table with given columns of this table.
+	 * <p>
+	 * Tables backed by data streams may skip the data of other columns without decoding it. In this case, this table
+	 * should no longer be used after the call.
+	 * 
+	 * @param columns the columns
+	 * @return the table
+	 */
+	default Table select(List<Column> columns) {
+		
+		return new ProjectedTable(this, columns);
+	}
+	
+	/**
+	 * Returns a table with given columns of this table.
+	 * 
+	 * @param columns the columns
+	 * @return the table
+	 * 
+	 * @see #select(List)
+	 */
+	default Table select(Column ... columns) {
+		
+		return select(asList(columns));
+	}
+	
+	/**
+	 * Returns a table with the named columns of this table.
+	 * 
+	 * @param names the names of the columns
+	 * @return the table
+	 * 
+	 * @throws IllegalArgumentException if some of the names do not identify columns of this table
+	 * 
+	 * @see #select(List)
+	 */
+	default Table select(String ... names) {
+		
+		ColumnIndex index = new ColumnIndex(columns());
+		
+		List<Column> selected = new ArrayList<Column>();
+		
+		for (String name : names) {
+			
+			int position = index.position(new QName(name));
+			
+			if (position < 0)
+				throw new IllegalArgumentException("unknown column " + name);
+			
+			selected.add(columns().get(position));
+		}
+		
+		return select(selected);
+	}
+	
+	/**
+	 * Returns a table with the columns of this table at given positions.
+	 * 
+	 * @param positions the positions of the columns
+	 * @return the table
+	 * 
+	 * @throws IllegalArgumentException if some of the positions do not identify columns of this table
+	 * 
+	 * @see #select(List)
+	 */
+	default Table select(int ... positions) {
+		
+		List<Column> selected = new ArrayList<Column>();
 		
-		for (Row row : rows) 
-			rows.add(row);
+		for (int position : positions) {
+			
+			if (position < 0 || position >= columns().size())
+				throw new IllegalArgumentException("invalid column position " + position);
+			
+			selected.add(columns().get(position));
+		}
+		
+		return select(selected);
+	}
+	
+	/**
+	 * Returns a table with the rows of this table that satisfy a given filter.
+	 * <p>
+	 * Tables may evaluate the filter on their raw data, indexes, or dictionaries, without building the rows that do not
+	 * satisfy it. Tables backed by data streams should no longer be used after the call.
+	 * 
+	 * @param filter the filter
+	 * @return the table
+	 * 
+	 * @throws IllegalArgumentException if the filter is defined on columns that are not in this table, and this table
+	 *             cannot evaluate it
+	 */
+	default Table filter(Filter filter) {
+		
+		return new FilteredTable(this, filter);
+	}
+	
+	/**
+	 * Returns a table with a given number of rows of this table, from a given position.
+	 * <p>
+	 * Tables backed by data streams may skip the records before the position without decoding them, or open their
+	 * streams directly at the position when they are indexed. In this case, this table should no longer be used after
+	 * the call.
+	 * 
+	 * @param from the position of the first row, from 0
+	 * @param count the maximum number of rows
+	 * @return the table
+	 * 
+	 * @throws IllegalArgumentException if the position or the number of rows are negative
+	 */
+	default Table slice(long from, long count) {
+		
+		return new SlicedTable(this, from, count);
+	}
+	
+	/**
+	 * Returns a table that joins the rows of this table with the rows of another table that have the same value in
+	 * given key columns.
+	 * <p>
+	 * The other table is read into memory, up to the default memory budget, and this table is streamed through it.
+	 * Columns of the other table with the same name as columns of this table are qualified with
+	 * {@link JoinedTable#defaultQualifier}.
+	 * 
+	 * @param table the other table
+	 * @param key the name of the key column of this table
+	 * @param otherKey the name of the key column of the other table
+	 * @return the table
+	 * 
+	 * @see JoinedTable
+	 */
+	default Table join(Table table, String key, String otherKey) {
+		
+		return new JoinedTable(this, table, asList(new QName(key)), asList(new QName(otherKey)), false,
+				JoinedTable.defaultQualifier, RowStore.defaultBudget);
+	}
+	
+	/**
+	 * Returns a table that joins the rows of this table with the rows of another table that have the same value in
+	 * given key columns, keeping the rows of this table that match no rows of the other.
+	 * 
+	 * @param table the other table
+	 * @param key the name of the key column of this table
+	 * @param otherKey the name of the key column of the other table
+	 * @return the table
+	 * 
+	 * @see #join(Table, String, String)
+	 */
+	default Table leftJoin(Table table, String key, String otherKey) {
+		
+		return new JoinedTable(this, table, asList(new QName(key)), asList(new QName(otherKey)), true,
+				JoinedTable.defaultQualifier, RowStore.defaultBudget);
+	}
+	
+	/**
+	 * Returns a table with the rows of this table, sorted by the values of given columns.
+	 * <p>
+	 * Values are compared according to the types of their columns. Rows are sorted in memory up to the default memory
+	 * budget, and otherwise in sorted runs on disk that are merged as the table is iterated over.
+	 * 
+	 * @param names the names of the columns, in order of precedence
+	 * @return the table
+	 * 
+	 * @see SortedTable
+	 */
+	default Table sort(String ... names) {
+		
+		List<QName> keys = new ArrayList<QName>();
+		
+		for (String name : names)
+			keys.add(new QName(name));
+		
+		return new SortedTable(this, keys, RowStore.defaultBudget);
+	}
+
+	/**
+	 * Returns a table with given aggregates of the rows of this table, grouped by the values of given columns.
+	 * <p>
+	 * Groups are aggregated in memory up to the default memory budget, and otherwise partition by partition on disk.
+	 *
+	 * @param groups the names of the group columns, if any
+	 * @param aggregates the aggregates
+	 * @return the table
+	 *
+	 * @see AggregatedTable
+	 */
+	default Table aggregate(List<String> groups, Aggregate ... aggregates) {
+
+		List<QName> names = new ArrayList<QName>();
+
+		for (String group : groups)
+			names.add(new QName(group));
+
+		return new AggregatedTable(this, names, asList(aggregates), RowStore.defaultBudget);
+	}
+
+	/**
+	 * Returns a table with the rows of this table that have distinct values in given columns, keeping the first row with
+	 * given values.
+	 * <p>
+	 * Rows are deduplicated exactly, remembering their values in memory up to the default memory budget, and
+	 * otherwise partition by partition on disk.
+	 *
+	 * @param names the names of the columns, or none to compare all columns
+	 * @return the table
+	 *
+	 * @see DistinctTable
+	 */
+	default Table distinct(String ... names) {
+
+		List<QName> keys = new ArrayList<QName>();
+
+		for (String name : names)
+			keys.add(new QName(name));
+
+		return new DistinctTable(this, keys, RowStore.defaultBudget);
+	}
+
+	/**
+	 * Returns the differences between a previous version of this table and this table, relating rows by the values of
+	 * given key columns.
+	 * <p>
+	 * If both versions are sorted by the key columns (cf. {@link #sort(String...)}), they are merged in a single pass.
+	 * Otherwise, the previous version is read into memory, up to the default memory budget, and this table is streamed
+	 * through it.
+	 *
+	 * @param previous the previous version
+	 * @param keys the names of the key columns
+	 * @return the differences
+	 *
+	 * @see TableDiff
+	 */
+	default TableDiff diff(Table previous, String ... keys) {
+
+		List<QName> names = new ArrayList<QName>();
+
+		for (String key : keys)
+			names.add(new QName(key));
+
+		boolean sorted = TableDiff.sortedBy(previous, names) && TableDiff.sortedBy(this, names);
+
+		return new TableDiff(previous, this, names, sorted, RowStore.defaultBudget);
+	}
+
+	/**
+	 * Returns a given number of partitions of this table by the values of a given column, so that they can be
+	 * processed in parallel.
+	 * <p>
+	 * This table is read once into temporary files, when a partition is first iterated over. Partitions can then be
+	 * iterated over in any order, and closed to delete their files. Partitions can also be streamed through bounded
+	 * queues, without temporary files (cf. {@link TablePartitions#streamed(Table, String, int)}).
+	 *
+	 * @param column the name of the key column
+	 * @param count the number of partitions
+	 * @return the partitions
+	 *
+	 * @see TablePartitions
+	 */
+	default List<Table> partition(String column, int count) {
+
+		return TablePartitions.spilled(this, column, count);
+	}
+
+	/**
+	 * Returns an iterator over the rows of this table in batches of a given size, laid out by column.
+	 * <p>
+	 * Batches are reused across iterations, and are valid only until the next batch is requested. Tables that store or
+	 * parse data by column may fill batches directly, without building rows.
+	 * 
+	 * @param size the size of the batches
+	 * @return the iterator
+	 * 
+	 * @see RowBatch
+	 */
+	default Iterator<RowBatch> batches(int size) {
 		
-		return new MaterializedTable(columns(), rows);
+		return RowBatch.batches(this, size);
 	}
 	
 	/**
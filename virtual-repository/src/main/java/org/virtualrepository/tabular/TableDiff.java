@@ -0,0 +1,601 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The differences between two versions of a {@link Table}, as the {@link Row}s that have been added, removed, or
+ * changed in the later version.
+ * <p>
+ * Rows are related across versions by the values of given key columns, which should identify them in both versions.
+ * Key values are compared according to the {@link Column#type()} of their columns, as in {@link SortedTable}s, so
+ * that e.g. <code>1</code> and <code>1.0</code> are the same key of a floating point column. Related rows have changed
+ * if they have different values in some column of the later version, and values that are missing or empty are the
+ * same. Differences are computed anew at each iteration:
+ * <ul>
+ * <li>if both versions are sorted by their keys, as by {@link Table#sort(String...)}, they are merged in a single
+ * streaming pass, in constant memory.
+ * <li>otherwise, the earlier version is read into a hash table and the later version is streamed through it. If the
+ * earlier version exceeds a memory budget, both versions are partitioned by key into temporary {@link RowFile}s, and
+ * compared partition by partition, partitioning further the partitions that still exceed the budget.
+ * </ul>
+ * Differences can be published in place of the later version, to services with publishers of differences (cf.
+ * {@link org.virtualrepository.VirtualRepository#publish(org.virtualrepository.Asset, Object)}).
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#diff(Table, String...)
+ */
+public class TableDiff implements Iterable<TableDiff.Change> {
+
+	private static final Logger log = LoggerFactory.getLogger(TableDiff.class);
+
+	// separates the values of composite keys
+	private static final char separator = '\u0000';
+
+	private final Table before;
+	private final Table after;
+	private final QName[] keys;
+	private final boolean sorted;
+	private final long budget;
+
+	/**
+	 * Creates an instance with the differences between two versions of a table, related by given key columns.
+	 *
+	 * @param before the earlier version
+	 * @param after the later version
+	 * @param keys the names of the key columns
+	 * @param sorted <code>true</code> if both versions are sorted by their keys
+	 * @param budget the memory budget of the earlier version, in bytes, if the versions are not sorted
+	 *
+	 * @throws IllegalArgumentException if there are no key columns, or the budget is negative
+	 */
+	public TableDiff(Table before, Table after, List<QName> keys, boolean sorted, long budget) {
+
+		notNull("earlier version", before);
+		notNull("later version", after);
+		notNull("keys", keys);
+
+		if (keys.isEmpty())
+			throw new IllegalArgumentException("no key columns");
+
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid memory budget " + budget);
+
+		this.before = before;
+		this.after = after;
+		this.keys = keys.toArray(new QName[0]);
+		this.sorted = sorted;
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the earlier version of the table.
+	 *
+	 * @return the earlier version
+	 */
+	public Table before() {
+		return before;
+	}
+
+	/**
+	 * Returns the later version of the table.
+	 *
+	 * @return the later version
+	 */
+	public Table after() {
+		return after;
+	}
+
+	/**
+	 * Returns the names of the key columns.
+	 *
+	 * @return the names
+	 */
+	public List<QName> keys() {
+		return Arrays.asList(keys.clone());
+	}
+
+	@Override
+	public Iterator<Change> iterator() {
+
+		if (sorted)
+			return new Merge();
+
+		Map<String, List<String[]>> table = new LinkedHashMap<String, List<String[]>>();
+
+		long used = 0;
+
+		Decoder decoder = new Decoder(before);
+
+		Iterator<Row> rows = before.iterator();
+
+		while (rows.hasNext()) {
+
+			String[] values = rows.next().values(before.columns());
+
+			String key = key(decoder, values);
+
+			// the first row with a key wins
+			if (table.putIfAbsent(key, Collections.singletonList(values)) == null)
+				used += RowStore.sizeOf(values) + 2 * key.length() + 64;
+
+			if (used > budget) {
+
+				log.debug("earlier version exceeded budget of {} bytes, partitioning diff to disk", budget);
+
+				return new Partitioned(table, rows);
+			}
+		}
+
+		return new Streamed(table, after.iterator());
+	}
+
+	/**
+	 * Returns <code>true</code> if a given table is sorted by given key columns, so that it can be merged with another
+	 * version sorted by the same columns.
+	 *
+	 * @param table the table
+	 * @param keys the names of the key columns
+	 * @return <code>true</code> if the table is sorted by the key columns
+	 */
+	public static boolean sortedBy(Table table, List<QName> keys) {
+		return table instanceof SortedTable && ((SortedTable) table).keys().equals(keys);
+	}
+
+	// the composite key of the values of a row, with the same key for values that sort as equal
+	private String key(Decoder decoder, String[] values) {
+
+		Object[] decoded = decoder.keysOf(values);
+
+		String key = SortedTable.canonical(decoded[0]);
+
+		if (keys.length == 1)
+			return key;
+
+		StringBuilder builder = new StringBuilder(key);
+
+		for (int k = 1; k < keys.length; k++)
+			builder.append(separator).append(SortedTable.canonical(decoded[k]));
+
+		return builder.toString();
+	}
+
+	/**
+	 * A difference between the versions of a table.
+	 */
+	public static class Change {
+
+		/**
+		 * The kinds of differences.
+		 */
+		public static enum Kind {
+			ADDED, REMOVED, CHANGED
+		}
+
+		private final Kind kind;
+		private final Row before;
+		private final Row after;
+
+		Change(Kind kind, Row before, Row after) {
+			this.kind = kind;
+			this.before = before;
+			this.after = after;
+		}
+
+		/**
+		 * Returns the kind of this difference.
+		 *
+		 * @return the kind
+		 */
+		public Kind kind() {
+			return kind;
+		}
+
+		/**
+		 * Returns the row in the earlier version.
+		 *
+		 * @return the row, or <code>null</code> if it has been added
+		 */
+		public Row before() {
+			return before;
+		}
+
+		/**
+		 * Returns the row in the later version.
+		 *
+		 * @return the row, or <code>null</code> if it has been removed
+		 */
+		public Row after() {
+			return after;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + (after == null ? before : after);
+		}
+	}
+
+	// iterates over differences, computing them ahead of consumption
+	private abstract class Differences implements Iterator<Change> {
+
+		private ColumnIndex beforeIndex;
+		private ColumnIndex afterIndex;
+
+		// maps the columns of the later version to those of the earlier version
+		private int[] positions;
+
+		private Change next;
+
+		// computes the next difference, if any
+		abstract Change advance();
+
+		@Override
+		public boolean hasNext() {
+
+			if (next == null)
+				next = advance();
+
+			return next != null;
+		}
+
+		@Override
+		public Change next() {
+
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			Change change = next;
+
+			next = null;
+
+			return change;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		Change added(String[] values) {
+			index();
+			return new Change(Change.Kind.ADDED, null, new ArrayRow(afterIndex, values));
+		}
+
+		Change removed(String[] values) {
+			index();
+			return new Change(Change.Kind.REMOVED, new ArrayRow(beforeIndex, values), null);
+		}
+
+		// the difference between related rows, if any
+		Change compare(String[] previous, String[] values) {
+
+			index();
+
+			for (int c = 0; c < positions.length; c++) {
+
+				int p = positions[c];
+
+				String value = c < values.length ? values[c] : null;
+				String old = p < 0 || p >= previous.length ? null : previous[p];
+
+				if (!same(old, value))
+					return new Change(Change.Kind.CHANGED, new ArrayRow(beforeIndex, previous), new ArrayRow(afterIndex,
+							values));
+			}
+
+			return null;
+		}
+
+		// helper
+		private boolean same(String value, String other) {
+
+			if (value == null || value.isEmpty())
+				return other == null || other.isEmpty();
+
+			return value.equals(other);
+		}
+
+		// helper
+		private void index() {
+
+			List<Column> beforeColumns = before.columns();
+			List<Column> afterColumns = after.columns();
+
+			// columns may be discovered during iteration
+			if (beforeIndex != null && beforeIndex.indexes(beforeColumns) && afterIndex.indexes(afterColumns))
+				return;
+
+			beforeIndex = new ColumnIndex(beforeColumns);
+			afterIndex = new ColumnIndex(afterColumns);
+
+			positions = new int[afterColumns.size()];
+
+			for (int c = 0; c < positions.length; c++)
+				positions[c] = beforeIndex.position(afterColumns.get(c).name());
+		}
+	}
+
+	// merges versions sorted by key
+	private class Merge extends Differences {
+
+		private final Iterator<Row> beforeRows = before.iterator();
+		private final Iterator<Row> afterRows = after.iterator();
+
+		private final Decoder beforeDecoder = new Decoder(before);
+		private final Decoder afterDecoder = new Decoder(after);
+
+		private String[] beforeValues;
+		private Object[] beforeKeys;
+
+		private String[] afterValues;
+		private Object[] afterKeys;
+
+		Merge() {
+			advanceBefore();
+			advanceAfter();
+		}
+
+		@Override
+		Change advance() {
+
+			while (beforeValues != null || afterValues != null) {
+
+				if (afterValues == null || (beforeValues != null && SortedTable.compare(beforeKeys, afterKeys) < 0)) {
+					Change change = removed(beforeValues);
+					advanceBefore();
+					return change;
+				}
+
+				if (beforeValues == null || SortedTable.compare(beforeKeys, afterKeys) > 0) {
+					Change change = added(afterValues);
+					advanceAfter();
+					return change;
+				}
+
+				Change change = compare(beforeValues, afterValues);
+
+				advanceBefore();
+				advanceAfter();
+
+				if (change != null)
+					return change;
+			}
+
+			return null;
+		}
+
+		// helper
+		private void advanceBefore() {
+
+			if (beforeRows.hasNext()) {
+				beforeValues = beforeRows.next().values(before.columns());
+				beforeKeys = beforeDecoder.keysOf(beforeValues);
+			}
+			else
+				beforeValues = null;
+		}
+
+		// helper
+		private void advanceAfter() {
+
+			if (afterRows.hasNext()) {
+				afterValues = afterRows.next().values(after.columns());
+				afterKeys = afterDecoder.keysOf(afterValues);
+			}
+			else
+				afterValues = null;
+		}
+	}
+
+	// decodes the keys of rows as in sorted tables, for the columns of a version at the time
+	private class Decoder {
+
+		private final Table table;
+
+		private ColumnIndex index;
+		private int[] positions;
+		private Class<?>[] types;
+
+		Decoder(Table table) {
+			this.table = table;
+		}
+
+		Object[] keysOf(String[] values) {
+
+			List<Column> columns = table.columns();
+
+			// columns may be discovered during iteration
+			if (index == null || !index.indexes(columns)) {
+
+				index = new ColumnIndex(columns);
+				positions = new int[keys.length];
+				types = new Class<?>[keys.length];
+
+				for (int k = 0; k < keys.length; k++) {
+
+					positions[k] = index.position(keys[k]);
+
+					if (positions[k] < 0)
+						throw new IllegalArgumentException("unknown column " + keys[k]);
+
+					types[k] = columns.get(positions[k]).type();
+				}
+			}
+
+			Object[] decoded = new Object[keys.length];
+
+			for (int k = 0; k < keys.length; k++) {
+
+				int position = positions[k];
+
+				String value = position < values.length ? values[position] : null;
+
+				decoded[k] = SortedTable.decode(types[k], value == null || value.isEmpty() ? null : value);
+			}
+
+			return decoded;
+		}
+	}
+
+	// streams rows of the later version through a hash table of rows of the earlier version
+	private abstract class Probe extends Differences {
+
+		private final Map<String, List<String[]>> table;
+		private Iterator<List<String[]>> removed;
+
+		// the current row of the later version
+		String key;
+		String[] values;
+
+		// rows of the earlier version by key, the first of which is related to rows of the later version
+		Probe(Map<String, List<String[]>> table) {
+			this.table = table;
+		}
+
+		// advances to the next row of the later version, setting its key and values
+		abstract boolean advanceRow();
+
+		@Override
+		Change advance() {
+
+			while (removed == null) {
+
+				if (!advanceRow()) {
+					// the rows left in the table have been removed
+					removed = table.values().iterator();
+					break;
+				}
+
+				List<String[]> previous = table.remove(key);
+
+				if (previous == null)
+					return added(values);
+
+				Change change = compare(previous.get(0), values);
+
+				if (change != null)
+					return change;
+			}
+
+			return removed.hasNext() ? removed(removed.next().get(0)) : null;
+		}
+	}
+
+	// probes with the rows of the later version
+	private class Streamed extends Probe {
+
+		private final Iterator<Row> rows;
+		private final Decoder decoder = new Decoder(after);
+
+		Streamed(Map<String, List<String[]>> table, Iterator<Row> rows) {
+
+			super(table);
+
+			this.rows = rows;
+		}
+
+		@Override
+		boolean advanceRow() {
+
+			if (!rows.hasNext())
+				return false;
+
+			values = rows.next().values(after.columns());
+			key = key(decoder, values);
+
+			return true;
+		}
+	}
+
+	// probes with the keys and values of rows of the later version in a partition
+	private class Spilled extends Probe {
+
+		private final Iterator<String[]> rows;
+
+		Spilled(Map<String, List<String[]>> table, Iterator<String[]> rows) {
+
+			super(table);
+
+			this.rows = rows;
+		}
+
+		@Override
+		boolean advanceRow() {
+
+			if (!rows.hasNext())
+				return false;
+
+			String[] row = rows.next();
+
+			key = row[0];
+			values = Arrays.copyOfRange(row, 1, row.length);
+
+			return true;
+		}
+	}
+
+	// compares partitions of the versions in turn
+	private class Partitioned extends GracePartitions<Change> {
+
+		Partitioned(int level) {
+			super(budget, level);
+		}
+
+		Partitioned(Map<String, List<String[]>> table, Iterator<Row> rows) {
+
+			this(0);
+
+			for (Map.Entry<String, List<String[]>> e : table.entrySet())
+				build(e.getKey(), e.getValue().get(0));
+
+			table.clear();
+
+			Decoder decoder = new Decoder(before);
+
+			while (rows.hasNext()) {
+
+				String[] values = rows.next().values(before.columns());
+
+				build(key(decoder, values), values);
+			}
+
+			decoder = new Decoder(after);
+
+			for (Row row : after) {
+
+				String[] values = row.values(after.columns());
+
+				probe(key(decoder, values), values);
+			}
+		}
+
+		@Override
+		Iterator<Change> match(Map<String, List<String[]>> table, Iterator<String[]> rows) {
+			return new Spilled(table, rows);
+		}
+
+		@Override
+		GracePartitions<Change> nested(int level) {
+			return new Partitioned(level);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TableDiff [before=" + before + ", after=" + after + ", keys=" + Arrays.toString(keys) + ", sorted="
+				+ sorted + "]";
+	}
+}
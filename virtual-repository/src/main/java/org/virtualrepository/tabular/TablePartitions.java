@@ -0,0 +1,644 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.virtualrepository.Properties;
+
+/**
+ * Partitions a {@link Table} into a number of {@link Table}s with disjoint rows, by the hash of the values of a key
+ * column, reading the table only once.
+ * <p>
+ * Partitions have the columns and properties of the table, and rows with the same key value are in the same partition.
+ * Since partitions depend only on key values and the number of partitions, tables partitioned on the same number of
+ * partitions can be processed partition by partition, e.g. joined or aggregated by key.
+ * <p>
+ * Partitions are either:
+ * <ul>
+ * <li>spilled, when the table is read into temporary {@link RowFile}s as soon as one partition is iterated over. Each
+ * partition can then be iterated over any number of times, in any order, until it is closed.
+ * <li>streamed, when the table is read on a background thread as soon as one partition is iterated over, and rows are
+ * handed over to the partitions in batches, through bounded queues. Each partition can then be iterated over only
+ * once, and all partitions must be iterated over concurrently, as the table is not read ahead of the slowest partition.
+ * Partitions that are not to be iterated over, or only in part, must be closed. Partitions that are neither consumed
+ * nor closed within a timeout fail the partitioning, and the error is raised to all the partitions.
+ * </ul>
+ * Partitions and their iterators are {@link Closeable}.
+ *
+ * @author Fabio Simeoni
+ *
+ * @see Table#partition(String, int)
+ */
+public final class TablePartitions {
+
+	private static final Logger log = LoggerFactory.getLogger(TablePartitions.class);
+
+	/**
+	 * The default size of the batches of rows handed over to streamed partitions.
+	 */
+	public static final int defaultBatchSize = 256;
+
+	/**
+	 * The default maximum number of batches of rows queued for each streamed partition.
+	 */
+	public static final int defaultCapacity = 16;
+
+	/**
+	 * The default time within which streamed partitions must take the batches handed over to them, in milliseconds.
+	 */
+	public static final long defaultTimeout = 60000;
+
+	// the time after which producers check whether partitions have been closed, in ms
+	private static final long patience = 100;
+
+	private static final AtomicInteger producers = new AtomicInteger();
+
+	private TablePartitions() {
+	}
+
+	/**
+	 * Returns spilled partitions of a given table by the values of a given column.
+	 *
+	 * @param table the table
+	 * @param column the name of the key column
+	 * @param count the number of partitions
+	 * @return the partitions
+	 *
+	 * @throws IllegalArgumentException if the number of partitions is not positive
+	 */
+	public static List<Table> spilled(Table table, String column, int count) {
+
+		notNull("table", table);
+		notNull("column", column);
+
+		if (count <= 0)
+			throw new IllegalArgumentException("invalid number of partitions " + count);
+
+		Spill spill = new Spill(table, new QName(column), count);
+
+		List<Table> partitions = new ArrayList<Table>();
+
+		for (int p = 0; p < count; p++)
+			partitions.add(new SpilledPartition(spill, p));
+
+		return partitions;
+	}
+
+	/**
+	 * Returns streamed partitions of a given table by the values of a given column, with default batch size,
+	 * capacity, and timeout.
+	 *
+	 * @param table the table
+	 * @param column the name of the key column
+	 * @param count the number of partitions
+	 * @return the partitions
+	 *
+	 * @see #streamed(Table, String, int, int, int, long)
+	 */
+	public static List<Table> streamed(Table table, String column, int count) {
+
+		return streamed(table, column, count, defaultBatchSize, defaultCapacity, defaultTimeout);
+	}
+
+	/**
+	 * Returns streamed partitions of a given table by the values of a given column.
+	 * <p>
+	 * Rows that fall into closed partitions are discarded, and the table is no longer read when all partitions are
+	 * closed. Errors that occur as the table is read, including partitions that take no batches within the timeout, are
+	 * raised to all the partitions that have not yet received all their rows.
+	 *
+	 * @param table the table
+	 * @param column the name of the key column
+	 * @param count the number of partitions
+	 * @param batchSize the size of the batches of rows handed over to partitions
+	 * @param capacity the maximum number of batches queued for each partition
+	 * @param timeout the time within which partitions must take the batches handed over to them, in milliseconds
+	 * @return the partitions
+	 *
+	 * @throws IllegalArgumentException if the number of partitions, the batch size, the capacity, or the timeout are
+	 *             not positive
+	 */
+	public static List<Table> streamed(Table table, String column, int count, int batchSize, int capacity,
+			long timeout) {
+
+		notNull("table", table);
+		notNull("column", column);
+
+		if (count <= 0)
+			throw new IllegalArgumentException("invalid number of partitions " + count);
+
+		if (batchSize <= 0 || capacity <= 0)
+			throw new IllegalArgumentException("batch size and capacity must be positive");
+
+		if (timeout <= 0)
+			throw new IllegalArgumentException("invalid timeout " + timeout);
+
+		Producer producer = new Producer(table, new QName(column), count, batchSize, capacity, timeout);
+
+		List<Table> partitions = new ArrayList<Table>();
+
+		for (int p = 0; p < count; p++)
+			partitions.add(new StreamedPartition(producer, p));
+
+		return partitions;
+	}
+
+	/**
+	 * Returns the partition of a given key value, out of a given number of partitions.
+	 *
+	 * @param value the value, which may be missing
+	 * @param count the number of partitions
+	 * @return the partition, from 0
+	 */
+	public static int partitionOf(String value, int count) {
+
+		// missing and empty values are in the same partition
+		int h = (value == null ? 0 : value.hashCode()) * 0x9E3779B9;
+
+		// maps the spread hash onto the partitions, using its high bits
+		return (int) (((h & 0xFFFFFFFFL) * count) >>> 32);
+	}
+
+	// helper
+	private static void check(Table table, QName column) {
+
+		if (new ColumnIndex(table.columns()).position(column) < 0)
+			throw new IllegalArgumentException("unknown column " + column);
+	}
+
+	// reads a table into partition queues, on its own thread
+	private static class Producer implements Runnable {
+
+		private final Table table;
+		private final QName column;
+		private final int batchSize;
+		private final long timeout;
+
+		private final List<BlockingQueue<List<Row>>> queues = new ArrayList<BlockingQueue<List<Row>>>();
+		private final List<Row> end = Collections.emptyList();
+
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		// written by consumers
+		private final boolean[] closed;
+		private volatile int open;
+
+		// written by the producer, read by consumers after the end
+		private volatile Throwable error;
+
+		Producer(Table table, QName column, int count, int batchSize, int capacity, long timeout) {
+
+			this.table = table;
+			this.column = column;
+			this.batchSize = batchSize;
+			this.timeout = timeout;
+			this.closed = new boolean[count];
+			this.open = count;
+
+			for (int p = 0; p < count; p++)
+				queues.add(new ArrayBlockingQueue<List<Row>>(capacity));
+		}
+
+		// starts the producer, once
+		void start() {
+
+			if (!started.compareAndSet(false, true))
+				return;
+
+			Thread thread = new Thread(this, "vr-partitioner-" + producers.incrementAndGet());
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+
+			try {
+				produce();
+			} catch (Throwable t) {
+				error = t;
+			}
+
+			for (int p = 0; p < queues.size(); p++)
+				end(p);
+		}
+
+		// helper
+		private void produce() {
+
+			int count = queues.size();
+
+			List<List<Row>> batches = new ArrayList<List<Row>>();
+
+			for (int p = 0; p < count; p++)
+				batches.add(new ArrayList<Row>(batchSize));
+
+			boolean resolved = false;
+
+			Iterator<Row> rows = table.iterator();
+
+			try {
+
+				while (rows.hasNext()) {
+
+					Row row = rows.next();
+
+					// columns may be discovered with the first row
+					if (!resolved) {
+						check(table, column);
+						resolved = true;
+					}
+
+					int p = partitionOf(row.get(column), count);
+
+					List<Row> batch = batches.get(p);
+
+					batch.add(row);
+
+					if (batch.size() == batchSize) {
+
+						send(p, batch);
+
+						if (open == 0) {
+							log.debug("all partitions of {} have been closed, stopping reading", table);
+							return;
+						}
+
+						batches.set(p, new ArrayList<Row>(batchSize));
+					}
+				}
+			} finally {
+				RowFile.close(rows);
+			}
+
+			for (int p = 0; p < count; p++)
+				if (!batches.get(p).isEmpty())
+					send(p, batches.get(p));
+		}
+
+		// hands over a batch to a partition within the timeout, unless the partition has been closed
+		private void send(int p, List<Row> batch) {
+
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+			try {
+
+				while (!closed(p)) {
+
+					if (queues.get(p).offer(batch, patience, TimeUnit.MILLISECONDS))
+						return;
+
+					if (System.nanoTime() - deadline > 0)
+						throw new IllegalStateException("partition " + p + " of " + table + " has been neither consumed nor closed for "
+								+ timeout + " ms");
+				}
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("partitioning of " + table + " has been interrupted", e);
+			}
+		}
+
+		// ends a partition, with the error if there is one
+		private void end(int p) {
+
+			if (closed(p))
+				return;
+
+			if (error == null)
+				try {
+					send(p, end);
+					return;
+				} catch (RuntimeException e) {
+					error = e;
+				}
+
+			// consumers are to fail, so the batches they have not taken are dropped
+			BlockingQueue<List<Row>> queue = queues.get(p);
+
+			queue.clear();
+			queue.offer(end);
+		}
+
+		// called by consumers, returns null at the end, or throws the producer's error
+		List<Row> receive(int p) throws Throwable {
+
+			List<Row> batch;
+
+			try {
+				batch = queues.get(p).take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+
+			if (batch == end) {
+
+				if (error != null)
+					throw error;
+
+				return null;
+			}
+
+			return batch;
+		}
+
+		synchronized boolean closed(int p) {
+			return closed[p];
+		}
+
+		// called by consumers that no longer take batches
+		synchronized void close(int p) {
+
+			if (!closed[p]) {
+				closed[p] = true;
+				open--;
+			}
+
+			queues.get(p).clear();
+		}
+	}
+
+	// a partition read from a queue
+	private static class StreamedPartition implements Table, Closeable {
+
+		private final Producer producer;
+		private final int partition;
+
+		private final AtomicBoolean iterated = new AtomicBoolean();
+
+		StreamedPartition(Producer producer, int partition) {
+			this.producer = producer;
+			this.partition = partition;
+		}
+
+		@Override
+		public List<Column> columns() {
+			// the producer discovers columns ahead of consumers, but the handoff of each batch makes them visible
+			return producer.table.columns();
+		}
+
+		@Override
+		public Properties properties() {
+			return producer.table.properties();
+		}
+
+		@Override
+		public Iterator<Row> iterator() {
+
+			if (!iterated.compareAndSet(false, true))
+				throw new IllegalStateException("partition " + partition + " can be iterated over only once");
+
+			producer.start();
+
+			class Rows implements Iterator<Row>, Closeable {
+
+				List<Row> batch;
+				int position;
+				boolean ended;
+
+				@Override
+				public boolean hasNext() {
+
+					if (batch == null && !ended) {
+
+						batch = batch();
+						position = 0;
+
+						ended = batch == null;
+					}
+
+					return !ended;
+				}
+
+				@Override
+				public Row next() {
+
+					if (!hasNext())
+						throw new NoSuchElementException();
+
+					Row row = batch.get(position++);
+
+					if (position == batch.size())
+						batch = null;
+
+					return row;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void close() {
+
+					batch = null;
+					ended = true;
+
+					producer.close(partition);
+				}
+
+				// helper
+				private List<Row> batch() {
+
+					try {
+						return producer.receive(partition);
+					} catch (RuntimeException e) {
+						throw e;
+					} catch (Throwable t) {
+						throw new RuntimeException("cannot partition table", t);
+					}
+				}
+			}
+
+			return new Rows();
+		}
+
+		/**
+		 * Closes this partition, which then takes no more rows.
+		 */
+		@Override
+		public void close() {
+
+			iterated.set(true);
+
+			producer.close(partition);
+		}
+
+		@Override
+		public String toString() {
+			return "StreamedPartition [table=" + producer.table + ", column=" + producer.column + ", partition="
+					+ partition + "]";
+		}
+	}
+
+	// reads a table into partition files, once
+	private static class Spill {
+
+		private final Table table;
+		private final QName column;
+		private final int count;
+
+		// written once the table has been read
+		private RowFile[] files;
+
+		private final boolean[] closed;
+
+		Spill(Table table, QName column, int count) {
+			this.table = table;
+			this.column = column;
+			this.count = count;
+			this.closed = new boolean[count];
+		}
+
+		synchronized RowFile file(int p) {
+
+			if (closed[p])
+				throw new IllegalStateException("partition " + p + " is closed");
+
+			if (files == null)
+				files = read();
+
+			return files[p];
+		}
+
+		synchronized void close(int p) {
+
+			closed[p] = true;
+
+			if (files != null && files[p] != null)
+				files[p].close();
+		}
+
+		// reads the table, for the partitions that have not been closed
+		private RowFile[] read() {
+
+			RowFile[] partitions = new RowFile[count];
+
+			for (int p = 0; p < count; p++)
+				if (!closed[p])
+					partitions[p] = new RowFile();
+
+			boolean resolved = false;
+
+			Iterator<Row> rows = table.iterator();
+
+			try {
+
+				while (rows.hasNext()) {
+
+					Row row = rows.next();
+
+					// columns may be discovered with the first row
+					if (!resolved) {
+						check(table, column);
+						resolved = true;
+					}
+
+					RowFile partition = partitions[partitionOf(row.get(column), count)];
+
+					if (partition != null)
+						partition.append(row.values(table.columns()));
+				}
+			} catch (RuntimeException e) {
+
+				for (RowFile partition : partitions)
+					if (partition != null)
+						partition.close();
+
+				throw e;
+
+			} finally {
+				RowFile.close(rows);
+			}
+
+			return partitions;
+		}
+	}
+
+	// a partition read from a file
+	private static class SpilledPartition implements Table, Closeable {
+
+		private final Spill spill;
+		private final int partition;
+
+		SpilledPartition(Spill spill, int partition) {
+			this.spill = spill;
+			this.partition = partition;
+		}
+
+		@Override
+		public List<Column> columns() {
+			return spill.table.columns();
+		}
+
+		@Override
+		public Properties properties() {
+			return spill.table.properties();
+		}
+
+		@Override
+		public Iterator<Row> iterator() {
+
+			final Iterator<String[]> rows = spill.file(partition).iterator();
+
+			// all columns are known once the table has been read
+			final ColumnIndex index = new ColumnIndex(spill.table.columns());
+
+			class Rows implements Iterator<Row>, Closeable {
+
+				@Override
+				public boolean hasNext() {
+					return rows.hasNext();
+				}
+
+				@Override
+				public Row next() {
+					return new ArrayRow(index, rows.next());
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void close() {
+					RowFile.close(rows);
+				}
+			}
+
+			return new Rows();
+		}
+
+		/**
+		 * Closes this partition, deleting its file.
+		 */
+		@Override
+		public void close() {
+			spill.close(partition);
+		}
+
+		@Override
+		public String toString() {
+			return "SpilledPartition [table=" + spill.table + ", column=" + spill.column + ", partition=" + partition
+					+ "]";
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package org.virtualrepository.tabular;
+
+import static java.util.Collections.*;
+import static org.virtualrepository.Utils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.xml.namespace.QName;
+
+import org.virtualrepository.Property;
+
+/**
+ * The {@link ColumnProfile}s of the {@link Column}s of a {@link Table}.
+ * <p>
+ * Tables are profiled in a single pass over their rows, in memory that grows with the number of columns but not with
+ * the number of rows. Splits of a table, such as the slices of a {@link org.virtualrepository.csv.CsvIndex}, can be
+ * profiled in parallel. Profiles can be attached to the columns that describe an asset, and persisted next to its
+ * content.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class TableProfile {
+
+	public static final String extension = ".profile";
+
+	private static final int magic = 0x56525046;
+	private static final int version = 1;
+
+	private long rows;
+
+	private final Map<QName, ColumnProfile> profiles = new LinkedHashMap<QName, ColumnProfile>();
+
+	private TableProfile() {
+	}
+
+	/**
+	 * Profiles a given table.
+	 *
+	 * @param table the table
+	 * @return the profile
+	 */
+	public static TableProfile of(Table table) {
+
+		notNull("table", table);
+
+		TableProfile profile = new TableProfile();
+
+		ColumnIndex index = null;
+		ColumnProfile[] columns = null;
+
+		for (Row row : table) {
+
+			List<Column> current = table.columns();
+
+			// columns may be discovered during iteration
+			if (index == null || !index.indexes(current)) {
+				index = new ColumnIndex(current);
+				columns = profile.profilesOf(current);
+			}
+
+			String[] values = row.values(current);
+
+			for (int c = 0; c < columns.length; c++)
+				columns[c].add(c < values.length ? values[c] : null);
+
+			profile.rows++;
+		}
+
+		if (columns == null)
+			profile.profilesOf(table.columns());
+
+		return profile;
+	}
+
+	/**
+	 * Profiles given splits of a table in parallel, on a given {@link Executor}.
+	 *
+	 * @param splits the splits
+	 * @param executor the executor
+	 * @return the profile of the table
+	 */
+	public static TableProfile of(List<Table> splits, Executor executor) {
+
+		notNull("splits", splits);
+		notNull("executor", executor);
+
+		List<CompletableFuture<TableProfile>> partials = new ArrayList<CompletableFuture<TableProfile>>();
+
+		for (Table split : splits)
+			partials.add(CompletableFuture.supplyAsync(() -> of(split), executor));
+
+		TableProfile profile = new TableProfile();
+
+		for (CompletableFuture<TableProfile> partial : partials)
+			try {
+				profile.merge(partial.join());
+			}
+			catch (CompletionException e) {
+
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+
+				throw new RuntimeException("cannot profile table", e.getCause());
+			}
+
+		return profile;
+	}
+
+	/**
+	 * Merges the profile of another table into this profile.
+	 *
+	 * @param other the other profile
+	 */
+	public void merge(TableProfile other) {
+
+		notNull("profile", other);
+
+		for (Map.Entry<QName, ColumnProfile> e : other.profiles.entrySet()) {
+
+			ColumnProfile profile = profiles.get(e.getKey());
+
+			if (profile == null) {
+
+				profile = new ColumnProfile(e.getValue().type());
+				profile.addNulls(rows);
+
+				profiles.put(e.getKey(), profile);
+			}
+
+			profile.merge(e.getValue());
+		}
+
+		// columns that the other table does not have
+		for (Map.Entry<QName, ColumnProfile> e : profiles.entrySet())
+			if (!other.profiles.containsKey(e.getKey()))
+				e.getValue().addNulls(other.rows);
+
+		rows += other.rows;
+	}
+
+	/**
+	 * Returns the number of profiled rows.
+	 *
+	 * @return the number of rows
+	 */
+	public long rows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the profiles of the columns, by column name.
+	 *
+	 * @return the profiles
+	 */
+	public Map<QName, ColumnProfile> columns() {
+		return unmodifiableMap(profiles);
+	}
+
+	/**
+	 * Returns the profile of a given column.
+	 *
+	 * @param name the name of the column
+	 * @return the profile, or <code>null</code> if the column has not been profiled
+	 */
+	public ColumnProfile column(QName name) {
+		return profiles.get(name);
+	}
+
+	/**
+	 * Attaches the profiles of given columns to the columns, as their {@link ColumnProfile#property} property.
+	 *
+	 * @param columns the columns
+	 */
+	public void attachTo(List<Column> columns) {
+
+		notNull("columns", columns);
+
+		for (Column column : columns) {
+
+			ColumnProfile profile = profiles.get(column.name());
+
+			if (profile != null)
+				column.properties().add(new Property(ColumnProfile.property, profile, "statistics of the column values", false));
+		}
+	}
+
+	/**
+	 * Returns the file of the profile of the content in a given file.
+	 *
+	 * @param content the file of the content
+	 * @return the file of the profile
+	 */
+	public static Path pathFor(Path content) {
+
+		notNull("content", content);
+
+		return content.resolveSibling(content.getFileName() + extension);
+	}
+
+	/**
+	 * Persists this profile in a given file.
+	 *
+	 * @param file the file
+	 *
+	 * @throws IOException if the profile cannot be persisted
+	 *
+	 * @see #pathFor(Path)
+	 */
+	public void save(Path file) throws IOException {
+
+		notNull("file", file);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+
+			out.writeInt(magic);
+			out.writeInt(version);
+
+			out.writeLong(rows);
+			out.writeInt(profiles.size());
+
+			for (Map.Entry<QName, ColumnProfile> e : profiles.entrySet()) {
+
+				out.writeUTF(e.getKey().getNamespaceURI());
+				out.writeUTF(e.getKey().getLocalPart());
+
+				e.getValue().write(out);
+			}
+		}
+	}
+
+	/**
+	 * Loads a profile from a given file.
+	 *
+	 * @param file the file
+	 * @return the profile
+	 *
+	 * @throws IOException if the profile cannot be loaded
+	 *
+	 * @see #save(Path)
+	 */
+	public static TableProfile load(Path file) throws IOException {
+
+		notNull("file", file);
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+			if (in.readInt() != magic || in.readInt() != version)
+				throw new IOException("not a table profile or an unsupported version");
+
+			TableProfile profile = new TableProfile();
+
+			profile.rows = in.readLong();
+
+			int columns = in.readInt();
+
+			for (int c = 0; c < columns; c++) {
+
+				QName name = new QName(in.readUTF(), in.readUTF());
+
+				profile.profiles.put(name, ColumnProfile.read(in));
+			}
+
+			return profile;
+		}
+	}
+
+	// the profiles of given columns, adding profiles for new columns
+	private ColumnProfile[] profilesOf(List<Column> columns) {
+
+		ColumnProfile[] current = new ColumnProfile[columns.size()];
+
+		for (int c = 0; c < current.length; c++) {
+
+			Column column = columns.get(c);
+
+			ColumnProfile profile = profiles.get(column.name());
+
+			if (profile == null) {
+
+				profile = new ColumnProfile(column.type());
+
+				// the column had no values in earlier rows
+				profile.addNulls(rows);
+
+				profiles.put(column.name(), profile);
+			}
+
+			current[c] = profile;
+		}
+
+		return current;
+	}
+
+	@Override
+	public String toString() {
+		return "TableProfile [rows=" + rows + ", columns=" + profiles.keySet() + "]";
+	}
+}
@@ -0,0 +1,381 @@
+package org.virtualrepository.tabular;
+
+import static org.virtualrepository.Utils.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The most frequent values of a {@link Column}, found in a single pass and in memory bounded by a number of counters.
+ * <p>
+ * Values are counted with the Space-Saving algorithm, in a min-heap of counters: when all counters are taken, the least
+ * frequent value is replaced by a new value, which inherits its count as an error bound. The counts of values are thus
+ * upper bounds, and exceed the true counts by at most their error. With enough counters, the most frequent values are
+ * found exactly.
+ * <p>
+ * Counters can be merged, so that splits of a table can be counted in parallel.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class TopK {
+
+	private final int k;
+
+	// a min-heap of counters by count, with the positions of values in the heap
+	private final String[] values;
+	private final long[] counts;
+	private final long[] errors;
+	private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+	private int size;
+	private long total;
+
+	/**
+	 * Creates an instance for a given number of values, with a default number of counters.
+	 *
+	 * @param k the number of values
+	 *
+	 * @throws IllegalArgumentException if the number of values is not positive
+	 */
+	public TopK(int k) {
+		this(k, Math.max(10 * k, 1024));
+	}
+
+	/**
+	 * Creates an instance for a given number of values and a given number of counters.
+	 *
+	 * @param k the number of values
+	 * @param capacity the number of counters, no fewer than the number of values
+	 *
+	 * @throws IllegalArgumentException if the number of values is not positive, or exceeds the number of counters
+	 */
+	public TopK(int k, int capacity) {
+
+		if (k <= 0 || capacity < k)
+			throw new IllegalArgumentException("invalid number of values " + k + " for " + capacity + " counters");
+
+		this.k = k;
+		this.values = new String[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+	}
+
+	/**
+	 * Returns the most frequent values of a given column of a given table.
+	 *
+	 * @param table the table
+	 * @param column the name of the column
+	 * @param k the number of values
+	 * @return the values
+	 *
+	 * @throws IllegalArgumentException if the column is not in the table
+	 */
+	public static TopK of(Table table, String column, int k) {
+
+		notNull("table", table);
+		notNull("column", column);
+
+		TopK top = new TopK(k);
+
+		QName name = new QName(column);
+
+		boolean resolved = false;
+
+		for (Row row : table) {
+
+			// columns may be discovered with the first row
+			if (!resolved) {
+
+				if (new ColumnIndex(table.columns()).position(name) < 0)
+					throw new IllegalArgumentException("unknown column " + column);
+
+				resolved = true;
+			}
+
+			top.add(row.get(name));
+		}
+
+		return top;
+	}
+
+	/**
+	 * Returns the most frequent values of a given column of a table, counting given splits of the table in parallel on a
+	 * given {@link Executor}.
+	 *
+	 * @param splits the splits
+	 * @param column the name of the column
+	 * @param k the number of values
+	 * @param executor the executor
+	 * @return the values
+	 *
+	 * @throws IllegalArgumentException if the column is not in the table
+	 */
+	public static TopK of(List<Table> splits, String column, int k, Executor executor) {
+
+		notNull("splits", splits);
+		notNull("executor", executor);
+
+		List<CompletableFuture<TopK>> partials = new ArrayList<CompletableFuture<TopK>>();
+
+		for (Table split : splits)
+			partials.add(CompletableFuture.supplyAsync(() -> of(split, column, k), executor));
+
+		TopK top = new TopK(k);
+
+		for (CompletableFuture<TopK> partial : partials)
+			try {
+				top.merge(partial.join());
+			}
+			catch (CompletionException e) {
+
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+
+				throw new RuntimeException("cannot count values", e.getCause());
+			}
+
+		return top;
+	}
+
+	/**
+	 * Counts a value.
+	 *
+	 * @param value the value, which is ignored if it is missing or empty
+	 */
+	public void add(String value) {
+
+		if (value != null && !value.isEmpty())
+			add(value, 1, 0);
+	}
+
+	/**
+	 * Merges the counters of another instance into the counters of this instance.
+	 * <p>
+	 * Values that are counted by only one instance are assumed to have occurred in the other as often as its least
+	 * frequent value, if all its counters are taken. Merged counts thus remain upper bounds, and the most frequent
+	 * values are kept.
+	 *
+	 * @param other the other instance
+	 */
+	public void merge(TopK other) {
+
+		notNull("counters", other);
+
+		// the most occurrences of the values that are not counted
+		long min = size == values.length ? counts[0] : 0;
+		long otherMin = other.size == other.values.length ? other.counts[0] : 0;
+
+		List<Entry> merged = new ArrayList<Entry>();
+
+		for (int c = 0; c < size; c++) {
+
+			Integer position = other.positions.get(values[c]);
+
+			if (position == null)
+				merged.add(new Entry(values[c], counts[c] + otherMin, errors[c] + otherMin));
+			else
+				merged.add(new Entry(values[c], counts[c] + other.counts[position], errors[c] + other.errors[position]));
+		}
+
+		for (int c = 0; c < other.size; c++)
+			if (!positions.containsKey(other.values[c]))
+				merged.add(new Entry(other.values[c], other.counts[c] + min, other.errors[c] + min));
+
+		Collections.sort(merged, (e1, e2) -> Long.compare(e2.count, e1.count));
+
+		positions.clear();
+		size = 0;
+
+		for (Entry entry : merged.subList(0, Math.min(values.length, merged.size()))) {
+
+			set(size, entry.value, entry.count, entry.error);
+
+			up(size++);
+		}
+
+		total += other.total;
+	}
+
+	/**
+	 * Returns the number of counted values.
+	 *
+	 * @return the number of values
+	 */
+	public long total() {
+		return total;
+	}
+
+	/**
+	 * Returns the most frequent values, with their counts.
+	 *
+	 * @return the values, from the most frequent
+	 */
+	public List<Entry> top() {
+
+		List<Entry> entries = new ArrayList<Entry>();
+
+		for (int c = 0; c < size; c++)
+			entries.add(new Entry(values[c], counts[c], errors[c]));
+
+		Collections.sort(entries, (e1, e2) -> Long.compare(e2.count, e1.count));
+
+		return entries.subList(0, Math.min(k, entries.size()));
+	}
+
+	// adds occurrences of a value, with an error on their count
+	private void add(String value, long count, long error) {
+
+		total += count;
+
+		Integer position = positions.get(value);
+
+		if (position != null) {
+
+			counts[position] += count;
+			errors[position] += error;
+
+			down(position);
+
+			return;
+		}
+
+		if (size < values.length) {
+
+			set(size, value, count, error);
+
+			up(size++);
+
+			return;
+		}
+
+		// replaces the least frequent value
+		positions.remove(values[0]);
+
+		long min = counts[0];
+
+		set(0, value, min + count, min + error);
+
+		down(0);
+	}
+
+	// helper
+	private void up(int c) {
+
+		while (c > 0) {
+
+			int parent = (c - 1) / 2;
+
+			if (counts[parent] <= counts[c])
+				break;
+
+			swap(c, parent);
+
+			c = parent;
+		}
+	}
+
+	// helper
+	private void down(int c) {
+
+		while (true) {
+
+			int child = 2 * c + 1;
+
+			if (child >= size)
+				break;
+
+			if (child + 1 < size && counts[child + 1] < counts[child])
+				child++;
+
+			if (counts[c] <= counts[child])
+				break;
+
+			swap(c, child);
+
+			c = child;
+		}
+	}
+
+	// helper
+	private void swap(int c1, int c2) {
+
+		String value = values[c1];
+		long count = counts[c1];
+		long error = errors[c1];
+
+		set(c1, values[c2], counts[c2], errors[c2]);
+		set(c2, value, count, error);
+	}
+
+	// helper
+	private void set(int c, String value, long count, long error) {
+
+		values[c] = value;
+		counts[c] = count;
+		errors[c] = error;
+
+		positions.put(value, c);
+	}
+
+	/**
+	 * A frequent value, with its count.
+	 */
+	public static class Entry {
+
+		private final String value;
+		private final long count;
+		private final long error;
+
+		Entry(String value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+
+		/**
+		 * Returns the value.
+		 *
+		 * @return the value
+		 */
+		public String value() {
+			return value;
+		}
+
+		/**
+		 * Returns the number of occurrences of the value, which may exceed the true number by the error.
+		 *
+		 * @return the number of occurrences
+		 */
+		public long count() {
+			return count;
+		}
+
+		/**
+		 * Returns the maximum error on the number of occurrences of the value.
+		 *
+		 * @return the error
+		 */
+		public long error() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return value + "=" + count + (error == 0 ? "" : "(-" + error + ")");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TopK [k=" + k + ", top=" + top() + "]";
+	}
+}
@@ -0,0 +1,220 @@
+package org.virtualrepository.tabular;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Conversions between the string values of {@link Row}s and the typed values of their {@link Column}s.
+ * <p>
+ * Supported types are {@link String}, the numeric wrappers and their primitive types, {@link Boolean},
+ * {@link BigDecimal}, {@link BigInteger}, and the ISO-8601 forms of {@link LocalDate}, {@link LocalDateTime}, and
+ * {@link Date}. Empty strings are decoded as <code>null</code>s for all types but {@link String}.
+ *
+ * @author Fabio Simeoni
+ *
+ */
+public class Values {
+
+	/**
+	 * Returns the typed value of a string value.
+	 *
+	 * @param type the type
+	 * @param value the value
+	 * @return the typed value, or <code>null</code> if the value is <code>null</code> or, for non-string types, empty
+	 *
+	 * @throws IllegalArgumentException if the type is unsupported or the value does not have the given type
+	 */
+	public static Object decode(Class<?> type, String value) {
+
+		if (type == String.class || value == null)
+			return value;
+
+		String trimmed = value.trim();
+
+		if (trimmed.isEmpty())
+			return null;
+
+		try {
+
+			if (type == Long.class || type == long.class)
+				return Long.parseLong(trimmed);
+
+			if (type == Integer.class || type == int.class)
+				return Integer.parseInt(trimmed);
+
+			if (type == Double.class || type == double.class)
+				return Double.parseDouble(trimmed);
+
+			if (type == Float.class || type == float.class)
+				return Float.parseFloat(trimmed);
+
+			if (type == Short.class || type == short.class)
+				return Short.parseShort(trimmed);
+
+			if (type == Byte.class || type == byte.class)
+				return Byte.parseByte(trimmed);
+
+			if (type == Boolean.class || type == boolean.class)
+				if ("true".equalsIgnoreCase(trimmed))
+					return true;
+				else if ("false".equalsIgnoreCase(trimmed))
+					return false;
+				else
+					throw new IllegalArgumentException("'" + value + "' is not a boolean");
+
+			if (type == BigDecimal.class)
+				return new BigDecimal(trimmed);
+
+			if (type == BigInteger.class)
+				return new BigInteger(trimmed);
+
+			if (type == LocalDate.class)
+				return LocalDate.parse(trimmed);
+
+			if (type == LocalDateTime.class)
+				return LocalDateTime.parse(trimmed);
+
+			if (type == Date.class)
+				return trimmed.length() == 10 ? Date.from(LocalDate.parse(trimmed).atStartOfDay().toInstant(ZoneOffset.UTC))
+						: Date.from(Instant.parse(trimmed));
+
+		} catch (NumberFormatException | DateTimeParseException e) {
+			throw new IllegalArgumentException("cannot decode '" + value + "' as " + type.getSimpleName(), e);
+		}
+
+		throw new IllegalArgumentException("unsupported column type " + type.getName());
+	}
+
+	/**
+	 * Returns the string value of a typed value.
+	 *
+	 * @param value the typed value
+	 * @return the string value, or <code>null</code> if the typed value is <code>null</code>
+	 */
+	public static String encode(Object value) {
+
+		if (value == null)
+			return null;
+
+		if (value instanceof Date)
+			return ((Date) value).toInstant().toString();
+
+		if (value instanceof BigDecimal)
+			return ((BigDecimal) value).toPlainString();
+
+		return value.toString();
+	}
+
+	/**
+	 * Returns <code>true</code> if a given type is supported.
+	 *
+	 * @param type the type
+	 * @return <code>true</code> if the type is supported
+	 */
+	public static boolean isSupported(Class<?> type) {
+		return type == String.class || isNumeric(type) || type == Boolean.class || type == boolean.class
+				|| type == LocalDate.class || type == LocalDateTime.class || type == Date.class;
+	}
+
+	/**
+	 * Returns a given number as a <code>long</code>, without truncating or rounding it.
+	 *
+	 * @param value the number
+	 * @return the number as a <code>long</code>
+	 *
+	 * @throws IllegalArgumentException if the number is not a whole number in the range of a <code>long</code>
+	 */
+	public static long longValue(Number value) {
+
+		try {
+
+			if (value instanceof BigDecimal)
+				return ((BigDecimal) value).longValueExact();
+
+			if (value instanceof BigInteger)
+				return ((BigInteger) value).longValueExact();
+		}
+		catch (ArithmeticException e) {
+			throw new IllegalArgumentException(value + " is not a long", e);
+		}
+
+		if (value instanceof Double || value instanceof Float) {
+
+			double d = value.doubleValue();
+
+			// 0x1p63 is the first double beyond the range of a long
+			if (d != Math.rint(d) || d < Long.MIN_VALUE || d >= 0x1p63)
+				throw new IllegalArgumentException(value + " is not a long");
+		}
+
+		return value.longValue();
+	}
+
+	/**
+	 * Returns <code>true</code> if a given type is numeric.
+	 *
+	 * @param type the type
+	 * @return <code>true</code> if the type is numeric
+	 */
+	public static boolean isNumeric(Class<?> type) {
+		return isIntegral(type) || isFloating(type) || type == BigDecimal.class || type == BigInteger.class;
+	}
+
+	/**
+	 * Returns <code>true</code> if a given type is an integral type that fits in a <code>long</code>.
+	 *
+	 * @param type the type
+	 * @return <code>true</code> if the type is integral
+	 */
+	public static boolean isIntegral(Class<?> type) {
+		return type == Long.class || type == long.class || type == Integer.class || type == int.class
+				|| type == Short.class || type == short.class || type == Byte.class || type == byte.class;
+	}
+
+	/**
+	 * Returns <code>true</code> if a given type is a floating point type.
+	 *
+	 * @param type the type
+	 * @return <code>true</code> if the type is floating point
+	 */
+	public static boolean isFloating(Class<?> type) {
+		return type == Double.class || type == double.class || type == Float.class || type == float.class;
+	}
+
+	/**
+	 * Returns the wrapper of a given type, if it is primitive.
+	 *
+	 * @param type the type
+	 * @return the wrapper type, or the given type if it is not primitive
+	 */
+	public static Class<?> boxed(Class<?> type) {
+
+		if (!type.isPrimitive())
+			return type;
+
+		if (type == long.class)
+			return Long.class;
+		if (type == int.class)
+			return Integer.class;
+		if (type == double.class)
+			return Double.class;
+		if (type == float.class)
+			return Float.class;
+		if (type == boolean.class)
+			return Boolean.class;
+		if (type == short.class)
+			return Short.class;
+		if (type == byte.class)
+			return Byte.class;
+		if (type == char.class)
+			return Character.class;
+
+		return Void.class;
+	}
+}
@@ -3,26 +3,66 @@ package org.acme;
 import static java.util.Arrays.*;
 import static org.acme.TestUtils.*;
 import static org.junit.Assert.*;
+import static org.virtualrepository.tabular.Column.*;
+import static org.virtualrepository.tabular.Filter.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.virtualrepository.Flow;
+import org.virtualrepository.csv.CodeIndex;
+import org.virtualrepository.csv.Compression;
 import org.virtualrepository.csv.CsvAsset;
 import org.virtualrepository.csv.CsvCodelist;
+import org.virtualrepository.csv.CsvIndex;
+import org.virtualrepository.csv.CsvProcessor;
+import org.virtualrepository.csv.CsvSniffer;
 import org.virtualrepository.csv.CsvStream2Table;
+import org.virtualrepository.csv.CsvTail;
 import org.virtualrepository.csv.CsvTable;
 import org.virtualrepository.csv.Table2CsvStream;
+import org.virtualrepository.csv.Table2CsvWriter;
+import org.virtualrepository.impl.Type;
+import org.virtualrepository.spi.ContentWriter;
+import org.virtualrepository.spi.ImportAdapter;
+import org.virtualrepository.spi.Importer;
+import org.virtualrepository.spi.Pipes;
+import org.virtualrepository.spi.PublishAdapter;
+import org.virtualrepository.spi.Publisher;
 import org.virtualrepository.tabular.Column;
 import org.virtualrepository.tabular.DefaultTable;
+import org.virtualrepository.tabular.PublishedTable;
 import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowFile;
+import org.virtualrepository.tabular.RowPublisher;
 import org.virtualrepository.tabular.Table;
 
 public class CSVTableTest {
@@ -42,6 +82,22 @@ public class CSVTableTest {
 		
 	}
 	
+	@Test
+	public void headersReplaceStaleColumns() {
+		
+		String[][] data = {{"col1","col2"},{"11","12"}};
+		
+		CsvAsset asset  = anAssetWith("col1","col2","col3");
+		asset.hasHeader(true);
+		
+		Table table = new CsvTable(asset,asStream(asset,data));
+		
+		Assert.assertEquals(asList(columns("col1","col2")),table.columns());
+		Assert.assertEquals(asList(columns("col1","col2")),asset.columns());
+		
+		assertEquals(table,new String[][]{{"11","12"}});
+	}
+	
 	@Test
 	public void streamWithNoHeadersAndColumns() {
 		
@@ -187,8 +243,639 @@ public class CSVTableTest {
 		
 	}
 	
+	@Test
+	public void streamFromTableIsEncodedLazily() throws Exception {
+		
+		final int size = 100000;
+		final AtomicInteger pulled = new AtomicInteger();
+		
+		final List<Column> columns = asList(columns("col1","col2"));
+		
+		Table table = new DefaultTable(columns, new Iterable<Row>() {
+			
+			public Iterator<Row> iterator() {
+				
+				return new Iterator<Row>() {
+					
+					public boolean hasNext() {
+						return pulled.get()<size;
+					}
+					
+					public Row next() {
+						Map<QName,String> map = new HashMap<QName, String>();
+						int i = pulled.getAndIncrement();
+						map.put(columns.get(0).name(),"code-"+i);
+						map.put(columns.get(1).name(),"name \"" + i + "\", with a comma");
+						return new Row(map);
+					}
+					
+					public void remove() {}
+				};
+			}
+		});
+		
+		PushbackInputStream stream = new PushbackInputStream(new Table2CsvStream<CsvAsset>().apply(anAsset(),table));
+		
+		stream.unread(stream.read());
+		
+		assertTrue(pulled.get()<size);
+		
+		CsvAsset asset = anAsset();
+		asset.hasHeader(true);
+		
+		int rows = 0;
+		for (Row row : new CsvTable(asset,stream)) {
+			Assert.assertEquals("name \"" + rows + "\", with a comma", row.get("col2"));
+			rows++;
+		}
+		
+		Assert.assertEquals(size,rows);
+		
+		//streams closed early release the rows of their table
+		String[][] data = someCSV(2,10000);
+		AtomicInteger closed = new AtomicInteger();
+		
+		CsvAsset source = anAssetWith("col1","col2");
+		
+		InputStream early = new Table2CsvStream<CsvAsset>().apply(source,new CsvTable(source,TableTest.closing(asStream(source,data),closed)));
+		
+		early.read();
+		early.close();
+		
+		Assert.assertEquals(1,closed.get());
+	}
+	
+	@Test
+	public void tablesCanBeWrittenToPublisherSinks() throws Exception {
+		
+		String[][] data = someCSV(2,2);
+		
+		final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		
+		Publisher<CsvAsset,ContentWriter> publisher = new Publisher<CsvAsset, ContentWriter>() {
+			
+			public Type<? extends CsvAsset> type() {
+				return CsvCodelist.type;
+			}
+			
+			public Class<ContentWriter> api() {
+				return ContentWriter.class;
+			}
+			
+			public void publish(CsvAsset asset, ContentWriter content) throws Exception {
+				content.writeTo(Channels.newChannel(sink));
+			}
+		};
+		
+		CsvAsset asset  = anAsset();
+		
+		PublishAdapter.adapt(publisher, new Table2CsvWriter<CsvAsset>()).publish(asset, asTable(data,"col1","col2"));
+		
+		assertTrue(asset.hasHeader());
+		
+		assertEquals(new CsvTable(asset,new ByteArrayInputStream(sink.toByteArray())),data);
+	}
+	
+	@Test
+	public void csvCanBeImportedAndPublishedInPipelines() throws Exception {
+		
+		final String[][] data = someCSV(5000,3);
+		
+		final CsvAsset asset  = anAssetWith("col1","col2","col3");
+		
+		Importer<CsvAsset,InputStream> importer = new Importer<CsvAsset, InputStream>() {
+			
+			public Type<? extends CsvAsset> type() {
+				return CsvCodelist.type;
+			}
+			
+			public Class<InputStream> api() {
+				return InputStream.class;
+			}
+			
+			public InputStream retrieve(CsvAsset asset) throws Exception {
+				return asStream(asset,data);
+			}
+		};
+		
+		Table table = ImportAdapter.pipeline(importer, new CsvStream2Table<CsvAsset>()).retrieve(asset);
+		
+		final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		
+		Publisher<CsvAsset,InputStream> publisher = new Publisher<CsvAsset, InputStream>() {
+			
+			public Type<? extends CsvAsset> type() {
+				return CsvCodelist.type;
+			}
+			
+			public Class<InputStream> api() {
+				return InputStream.class;
+			}
+			
+			public void publish(CsvAsset asset, InputStream content) throws Exception {
+				byte[] bytes = new byte[1024];
+				int read=0;
+				while ((read = content.read(bytes))>0)
+					sink.write(bytes,0,read);
+			}
+		};
+		
+		PublishAdapter.pipeline(publisher, new Table2CsvStream<CsvAsset>()).publish(asset, table);
+		
+		assertEquals(new CsvTable(asset,new ByteArrayInputStream(sink.toByteArray())),data);
+	}
+	
+	@Test
+	public void pipelinesRaiseErrorsToConsumers() throws Exception {
+		
+		CsvAsset asset  = anAssetWith("col1","col2");
+		
+		final InputStream data = asStream(asset,someCSV(5000,2));
+		
+		InputStream failing = new InputStream() {
+			
+			int read = 0;
+			
+			public int read() throws IOException {
+				if (read++ >= 10000)
+					throw new IOException("connection reset");
+				return data.read();
+			}
+		};
+		
+		Table table = new CsvTable(asset,Pipes.readAhead(failing));
+		
+		try {
+			asList(Pipes.readAhead(table));
+			fail();
+		}
+		catch(RuntimeException e) {
+			Throwable cause = e;
+			while (cause.getCause()!=null)
+				cause = cause.getCause();
+			Assert.assertEquals("connection reset",cause.getMessage());
+		}
+	}
+	
+	@Test
+	public void closedPipesCloseTheirSources() throws Exception {
+		
+		CsvAsset asset  = anAssetWith("col1","col2");
+		
+		final CountDownLatch closed = new CountDownLatch(2);
+		
+		InputStream source = new FilterInputStream(asStream(asset,someCSV(5000,2))) {
+			
+			@Override
+			public void close() throws IOException {
+				super.close();
+				closed.countDown();
+			}
+		};
+		
+		InputStream stream = Pipes.readAhead(source,16,1);
+		stream.read();
+		stream.close();
+		
+		final Table rows = new CsvTable(asset,asStream(asset,someCSV(5000,2)));
+		
+		class Rows implements Iterator<Row>, Closeable {
+			
+			final Iterator<Row> it = rows.iterator();
+			
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+			
+			public Row next() {
+				return it.next();
+			}
+			
+			public void close() {
+				closed.countDown();
+			}
+		}
+		
+		Table table = new DefaultTable(rows.columns(),new Rows());
+		
+		Iterator<Row> it = Pipes.readAhead(table,10,1).iterator();
+		it.next();
+		RowFile.close(it);
+		
+		assertTrue(closed.await(5,TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void tablesCanFlowThroughPublishers() throws Exception {
+		
+		String[][] data = someCSV(1000,2);
+		
+		CsvAsset asset  = anAssetWith("col1","col2");
+		
+		Table table = new CsvTable(asset,asStream(asset,data));
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		table = new PublishedTable(table.columns(),new RowPublisher(table, executor),7);
+		
+		assertEquals(table,data);
+		
+		//closed iterators cancel their subscription, which closes the source
+		final CountDownLatch closed = new CountDownLatch(1);
+		
+		InputStream source = new FilterInputStream(asStream(asset,data)) {
+			
+			@Override
+			public void close() throws IOException {
+				super.close();
+				closed.countDown();
+			}
+		};
+		
+		table = new CsvTable(asset,source);
+		
+		Iterator<Row> rows = new PublishedTable(table.columns(),new RowPublisher(table, executor),7).iterator();
+		rows.next();
+		RowFile.close(rows);
+		
+		assertFalse(rows.hasNext());
+		assertTrue(closed.await(5,TimeUnit.SECONDS));
+		
+		executor.shutdown();
+	}
+	
+	@Test
+	public void csvChunksCanBeProcessedIntoRows() throws Exception {
+		
+		String[][] data = someCSV(1000,2);
+		
+		String[][] content = new String[data.length+1][];
+		content[0] = new String[]{"col1","col2"};
+		System.arraycopy(data,0,content,1,data.length);
+		
+		CsvAsset asset  = anAsset();
+		asset.hasHeader(true);
+		asset.setEncoding(Charset.forName("UTF-16"));
+		
+		final ByteBuffer bytes = ByteBuffer.wrap(bytesOf(asStream(asset,content)));
+		
+		//publishes chunks of 13 bytes, on demand
+		Flow.Publisher<ByteBuffer> source = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+			
+			public void request(long n) {
+				for (long i = 0; i < n && bytes.hasRemaining(); i++) {
+					ByteBuffer chunk = bytes.slice();
+					chunk.limit(Math.min(13,bytes.remaining()));
+					bytes.position(bytes.position()+chunk.limit());
+					subscriber.onNext(chunk);
+				}
+				if (!bytes.hasRemaining())
+					subscriber.onComplete();
+			}
+			
+			public void cancel() {}
+		});
+		
+		CsvProcessor processor = new CsvProcessor(asset);
+		
+		source.subscribe(processor);
+		
+		assertEquals(new PublishedTable(asList(columns("col1","col2")),processor),data);
+		
+		Assert.assertEquals(asList(columns("col1","col2")),asset.columns());
+		
+		//columns already described with the same names are kept, as by tables
+		asset.columns().get(1).setType(Long.class);
+		
+		bytes.rewind();
+		
+		processor = new CsvProcessor(asset);
+		
+		source.subscribe(processor);
+		
+		assertEquals(new PublishedTable(asList(columns("col1","col2")),processor),data);
+		
+		Assert.assertEquals(Long.class,asset.columns().get(1).type());
+	}
+	
+	@Test
+	public void indexedCsvCanBeSlicedAtAnyRow() throws Exception {
+		
+		String[][] data = someCSV(100,2);
+		
+		String[][] content = new String[data.length+1][];
+		content[0] = new String[]{"col1","col2"};
+		System.arraycopy(data,0,content,1,data.length);
+		
+		CsvAsset asset  = anAsset();
+		asset.hasHeader(true);
+		
+		Path file = Files.createTempFile("vr", ".csv");
+		Files.write(file,bytesOf(asStream(asset,content)));
+		
+		try {
+			
+			CsvIndex index = CsvIndex.of(asset,file,7);
+			
+			Assert.assertEquals(100,index.rows());
+			assertTrue(Files.exists(CsvIndex.pathFor(file)));
+			Assert.assertEquals(asList(columns("col1","col2")),asset.columns());
+			
+			assertEquals(index.slice(50,5),copyOfRange(data,50,55));
+			assertEquals(index.slice(98,5),copyOfRange(data,98,100));
+			assertFalse(index.slice(100,5).iterator().hasNext());
+			
+			//reads the persisted index
+			assertEquals(CsvIndex.of(asset,file,7).table(63),copyOfRange(data,63,100));
+			
+			//slices unindexed tables too, skipping records
+			assertEquals(new CsvTable(asset,asStream(asset,content)).slice(20,3),copyOfRange(data,20,23));
+		}
+		finally {
+			Files.deleteIfExists(CsvIndex.pathFor(file));
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void appendedCsvCanBeFollowed() throws Exception {
+		
+		CsvAsset asset  = anAsset();
+		asset.hasHeader(true);
+		
+		Path file = Files.createTempFile("vr", ".csv");
+		
+		try {
+			
+			append(file,"col1,col2\n11,12\n21,22\n31,");
+			
+			CsvTail tail = new CsvTail(asset,file);
+			
+			assertEquals(tail.read(),new String[][]{{"11","12"},{"21","22"}});
+			Assert.assertEquals(asList(columns("col1","col2")),asset.columns());
+			Assert.assertEquals(2,tail.rows());
+			
+			//the partial record is completed
+			append(file,"32\r\n41,42\n");
+			
+			Iterator<Row> rows = tail.read().iterator();
+			Assert.assertEquals("31",rows.next().get("col1"));
+			
+			//unconsumed records are left to the next read
+			assertEquals(tail.read(),new String[][]{{"41","42"}});
+			assertFalse(tail.read().iterator().hasNext());
+			
+			//reads can be closed before they are consumed
+			append(file,"43,44\n");
+			
+			Table unconsumed = tail.read();
+			RowFile.close(unconsumed);
+			
+			assertEquals(tail.read(),new String[][]{{"43","44"}});
+			
+			//tails can be resumed
+			append(file,"51,52\n");
+			
+			tail = new CsvTail(asset,file,tail.offset(),tail.rows());
+			
+			assertEquals(tail.read(),new String[][]{{"51","52"}});
+			Assert.assertEquals(6,tail.rows());
+			Assert.assertEquals(Files.size(file),tail.offset());
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void unknownCsvCanBeSniffed() throws Exception {
+		
+		StringBuilder csv = new StringBuilder("code;name;value;day\r\n");
+		
+		String[][] data = new String[100][];
+		for (int i=0;i<data.length;i++) {
+			data[i] = new String[]{""+i,"name;"+i,i+".5","2020-01-"+(10+i%20)};
+			csv.append(i).append(";'name;").append(i).append("';").append(data[i][2]).append(";").append(data[i][3]).append("\r\n");
+		}
+		
+		CsvAsset asset  = anAsset();
+		
+		//samples less than the content
+		Table table = new CsvSniffer(512).table(asset,new ByteArrayInputStream(csv.toString().getBytes("UTF-8")));
+		
+		Assert.assertEquals(';',asset.delimiter());
+		Assert.assertEquals('\'',asset.quote());
+		assertTrue(asset.hasHeader());
+		
+		Assert.assertEquals(asList(new Column(q("code"),Long.class),new Column(q("name")),new Column(q("value"),Double.class),new Column(q("day"),LocalDate.class)),asset.columns());
+		
+		assertEquals(table,data);
+		
+		Assert.assertEquals(asset.columns(),table.columns());
+	}
+	
+	@Test
+	public void compressedCsvStreamsInAndOut() throws Exception {
+		
+		String[][] data = someCSV(1000,2);
+		
+		for (Compression compression : Compression.values()) {
+			
+			CsvAsset asset  = anAsset();
+			asset.setCompression(compression);
+			
+			byte[] streamed = bytesOf(new Table2CsvStream<CsvAsset>().apply(asset,asTable(data,"col1","col2")));
+			
+			ByteArrayOutputStream written = new ByteArrayOutputStream();
+			new Table2CsvWriter<CsvAsset>().apply(asset,asTable(data,"col1","col2")).writeTo(written);
+			
+			//both produce the same content
+			Assert.assertArrayEquals(bytesOf(compression.decompress(new ByteArrayInputStream(streamed))),bytesOf(compression.decompress(new ByteArrayInputStream(written.toByteArray()))));
+			
+			if (compression==Compression.GZIP)
+				Assert.assertEquals(0x1f8b,((streamed[0] & 0xFF) << 8) | (streamed[1] & 0xFF));
+			
+			assertEquals(new CsvTable(asset,new ByteArrayInputStream(streamed)),data);
+			
+			//sniffed content is decompressed for sampling only
+			asset.setColumns();
+			asset.hasHeader(false);
+			
+			assertEquals(new CsvSniffer(128).table(asset,new ByteArrayInputStream(written.toByteArray())),data);
+			assertTrue(asset.hasHeader());
+		}
+	}
+	
+	@Test
+	public void localCsvIsMemoryMapped() throws Exception {
+		
+		String[][] data = someCSV(1000,3);
+		data[42][1] = "a \"quoted\", multi-line\nvalue";
+		
+		Path file = Files.createTempFile("vr", ".csv");
+		
+		try {
+			
+			CsvAsset asset  = anAssetWith("col1","col2","col3");
+			
+			Files.copy(asStream(asset,data),file,StandardCopyOption.REPLACE_EXISTING);
+			
+			assertEquals(new CsvTable(asset,file),data);
+			assertEquals(new CsvTable(asset,file).filter(eq("col1","042")).select("col2"),new String[][]{{data[42][1]}});
+			
+			//channels are read from their position
+			try (FileChannel channel = FileChannel.open(file)) {
+				
+				channel.position(bytesOf(asStream(asset,copyOfRange(data,0,500))).length);
+				
+				assertEquals(new CsvTable(asset,channel),copyOfRange(data,500,1000));
+			}
+			
+			//content in other encodings is streamed
+			asset.setEncoding(Charset.forName("UTF-16"));
+			
+			Files.copy(asStream(asset,data),file,StandardCopyOption.REPLACE_EXISTING);
+			
+			assertEquals(new CsvTable(asset,file),data);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void codelistsCanBeIndexedByCode() throws Exception {
+		
+		String[][] data = someCSV(1000,3);
+		
+		CsvCodelist codelist = (CsvCodelist) anAssetWith("col1","col2","col3");
+		
+		CodeIndex index = CodeIndex.of(codelist,new CsvTable(codelist,asStream(codelist,data)));
+		
+		Assert.assertEquals(1000,index.size());
+		Assert.assertEquals("042",index.lookup("142").get("col1"));
+		Assert.assertNull(index.lookup("unknown"));
+		Assert.assertNull(index.lookup(null));
+		
+		List<Row> rows = index.lookupAll(asList("1999","none","110"));
+		Assert.assertEquals("2999",rows.get(0).get("col3"));
+		Assert.assertNull(rows.get(1));
+		Assert.assertEquals("010",rows.get(2).get("col1"));
+		
+		Path file = Files.createTempFile("vr", ".idx");
+		
+		try {
+			
+			index.save(file);
+			
+			CodeIndex loaded = CodeIndex.load(codelist,file);
+			
+			for (String[] row : data)
+				Assert.assertEquals(index.position(row[1]),loaded.position(row[1]));
+		}
+		finally {
+			Files.delete(file);
+		}
+		
+		//codes are looked up as given, even if they read as numbers
+		String[][] padded = new String[100][];
+		for (int i=0;i<padded.length;i++)
+			padded[i] = new String[]{"name-"+i,String.format("%03d",i)};
+		
+		CsvCodelist numeric = (CsvCodelist) anAssetWith("name","code");
+		numeric.columns().get(1).setType(Long.class);
+		
+		index = CodeIndex.of(numeric,new CsvTable(numeric,asStream(numeric,padded)));
+		
+		Assert.assertEquals("name-7",index.lookup("007").get("name"));
+		Assert.assertNull(index.lookup("7"));
+		
+		file = Files.createTempFile("vr", ".idx");
+		
+		try {
+			
+			index.save(file);
+			
+			CodeIndex loaded = CodeIndex.load(numeric,file);
+			
+			Assert.assertEquals("name-7",loaded.lookup("007").get("name"));
+			Assert.assertNull(loaded.lookup("7"));
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void streamWithSelectedColumns() {
+		
+		String[][] data ={{"col1","col2","col3"},{"11","12","13"},{"21","\"2,2\"","23"}};
+		
+		CsvAsset asset  = anAsset();
+		
+		asset.hasHeader(true);
+		
+		Table table = new CsvTable(asset,asStream(asset,data)).select("col3","col2");
+		
+		Assert.assertEquals(asList(columns("col3","col2")),table.columns());
+		
+		assertEquals(table,new String[][]{{"13","12"},{"23","\"2,2\""}});
+		
+		table = new CsvTable(asset,asStream(asset,data)).select(2);
+		
+		assertEquals(table,new String[][]{{"13"},{"23"}});
+		
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void unknownColumnsCannotBeSelected() {
+		
+		CsvAsset asset  = anAssetWith("col1","col2");
+		
+		new CsvTable(asset,asStream(asset,someCSV(2,2))).select("col3");
+	}
+	
+	@Test
+	public void selectionsCanBeNarrowed() {
+		
+		String[][] data ={{"col1","col2","col3"},{"11","12","13"},{"21","22","23"}};
+		
+		CsvAsset asset  = anAsset();
+		
+		asset.hasHeader(true);
+		
+		assertEquals(new CsvTable(asset,asStream(asset,data)).select("col3","col2").select(1),new String[][]{{"12"},{"22"}});
+		
+		//positions are relative to the selection
+		try {
+			new CsvTable(asset,asStream(asset,data)).select("col3","col2").select(2);
+			fail();
+		}
+		catch(IllegalArgumentException e) {}
+		
+		//columns outside a selection cannot be selected again
+		try {
+			new CsvTable(asset,asStream(asset,data)).materialise().select("col1").select(columns("col2"));
+			fail();
+		}
+		catch(IllegalArgumentException e) {}
+	}
+	
 	//helpers
 	
+	byte[] bytesOf(InputStream stream) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] bytes = new byte[1024];
+		int read=0;
+		while ((read = stream.read(bytes))>0)
+			out.write(bytes,0,read);
+		return out.toByteArray();
+	}
+	
+	void append(Path file, String content) throws IOException {
+		Files.write(file,content.getBytes("UTF-8"),StandardOpenOption.APPEND);
+	}
+	
 	Column[] columns(String ...names) {
 		List<Column> list = new ArrayList<Column>();
 		for (String name : names)
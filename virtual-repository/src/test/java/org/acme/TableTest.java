@@ -0,0 +1,1153 @@
+package org.acme;
+
+import static java.util.Arrays.*;
+import static org.acme.TestUtils.*;
+import static org.junit.Assert.*;
+import static org.virtualrepository.tabular.Aggregate.*;
+import static org.virtualrepository.tabular.Column.*;
+import static org.virtualrepository.tabular.Filter.*;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+import org.virtualrepository.columnar.ColumnarAsset;
+import org.virtualrepository.columnar.ColumnarFile;
+import org.virtualrepository.columnar.ColumnarStream2Table;
+import org.virtualrepository.columnar.ColumnarWriter;
+import org.virtualrepository.csv.CodeTranslation;
+import org.virtualrepository.csv.CsvAsset;
+import org.virtualrepository.csv.CsvCodelist;
+import org.virtualrepository.csv.CsvTable;
+import org.virtualrepository.tabular.Aggregate;
+import org.virtualrepository.tabular.AggregatedTable;
+import org.virtualrepository.tabular.Column;
+import org.virtualrepository.tabular.ColumnData;
+import org.virtualrepository.tabular.ColumnProfile;
+import org.virtualrepository.tabular.ColumnarTable;
+import org.virtualrepository.tabular.DistinctTable;
+import org.virtualrepository.tabular.Filter;
+import org.virtualrepository.tabular.FilteredTable;
+import org.virtualrepository.tabular.JoinedTable;
+import org.virtualrepository.tabular.ProjectedTable;
+import org.virtualrepository.tabular.Row;
+import org.virtualrepository.tabular.RowBatch;
+import org.virtualrepository.tabular.RowFile;
+import org.virtualrepository.tabular.RowStore;
+import org.virtualrepository.tabular.SlicedTable;
+import org.virtualrepository.tabular.SortedTable;
+import org.virtualrepository.tabular.Table;
+import org.virtualrepository.tabular.TableDiff;
+import org.virtualrepository.tabular.TablePartitions;
+import org.virtualrepository.tabular.TableProfile;
+import org.virtualrepository.tabular.TopK;
+
+public class TableTest {
+
+	@Test
+	public void tablesCanBeMaterialised() {
+
+		String[][] data = {{"11","12"},{"21","22","23"},{"31","32"}};
+
+		CsvAsset asset  = anAsset();
+
+		Table table = new CsvTable(asset,asStream(asset,data)).materialise();
+
+		assertEquals(3,table.columns().size());
+
+		assertEquals(table,data);
+		assertEquals(table,data);
+	}
+
+	@Test
+	public void materialisedTablesSpillOverBudget() {
+
+		String[][] data = someData(100,3);
+
+		CsvAsset asset  = anAsset();
+
+		Table table = new CsvTable(asset,asStream(asset,data)).materialise(RowStore.sizeOf(data[0])*10);
+
+		assertEquals(table,data);
+		assertEquals(table,data);
+
+		RowStore store = new RowStore(0);
+
+		for (String[] row : data)
+			store.add(row);
+
+		assertTrue(store.spilled());
+		assertEquals(100,store.size());
+		assertEquals(data[42][1],asList(store).get(42)[1]);
+
+		//iterators can stop reading before the end
+		Iterator<String[]> partial = store.iterator();
+		partial.next();
+		RowFile.close(partial);
+		assertFalse(partial.hasNext());
+
+		store.close();
+
+		//materialised tables release their files when closed
+		RowFile.close(table);
+
+		try {
+			table.iterator();
+			fail();
+		}
+		catch(IllegalStateException e) {}
+	}
+
+	@Test
+	public void tablesCanBeStoredByColumn() {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%2==0?"even":"odd", ""+i};
+
+		CsvAsset asset  = anAssetWith("code","parity","value");
+		asset.columns().get(2).setType(Long.class);
+
+		ColumnarTable table = new ColumnarTable(new CsvTable(asset,asStream(asset,data)));
+
+		assertEquals(1000,table.size());
+		assertEquals(table,data);
+		assertEquals(table,data);
+
+		assertTrue(table.data(asset.columns().get(1)) instanceof ColumnData.Dictionary);
+		assertEquals(2,((ColumnData.Dictionary) table.data(asset.columns().get(1))).entries());
+
+		ColumnData.Longs values = (ColumnData.Longs) table.data(asset.columns().get(2));
+		assertEquals(999,values.getLong(999));
+
+		assertEquals("code-42",table.row(42).get("code"));
+	}
+
+	@Test
+	public void columnarTablesKeepValuesAsGiven() {
+
+		String[][] data = {{"007","1","TRUE"},{"8","2.5","false"},{" 9 "," ","true"},{"10","3.0"," "}};
+
+		CsvAsset asset  = anAssetWith("code","price","flag");
+		asset.columns().get(0).setType(Long.class);
+		asset.columns().get(1).setType(Double.class);
+		asset.columns().get(2).setType(Boolean.class);
+
+		ColumnarTable table = new ColumnarTable(new CsvTable(asset,asStream(asset,data)));
+
+		//values are stored natively, blanks are missing
+		assertTrue(table.data(asset.columns().get(0)) instanceof ColumnData.Longs);
+		assertTrue(table.data(asset.columns().get(1)) instanceof ColumnData.Doubles);
+		assertTrue(table.data(asset.columns().get(2)) instanceof ColumnData.Booleans);
+
+		assertEquals("007",table.row(0).get("code"));
+		assertEquals(7L,table.row(0).getLong(asset.columns().get(0)));
+		assertEquals(" 9 ",table.row(2).get("code"));
+		assertEquals("1",table.row(0).get("price"));
+		assertEquals("TRUE",table.row(0).get("flag"));
+		assertTrue(table.row(2).isNull(asset.columns().get(1)));
+		assertTrue(table.row(3).isNull(asset.columns().get(2)));
+
+		assertEquals(1,asList(new CsvTable(asset,asStream(asset,data)).filter(eq("price","1"))).size());
+		assertEquals(1,asList(table.filter(eq("price","1"))).size());
+
+		//too many values that are not canonical are stored as strings
+		String[][] padded = new String[100][];
+		for (int i=0;i<padded.length;i++)
+			padded[i] = new String[]{String.format("%03d",i),"1","true"};
+
+		table = new ColumnarTable(new CsvTable(asset,asStream(asset,padded)));
+
+		assertTrue(table.data(asset.columns().get(0)) instanceof ColumnData.Strings);
+		assertEquals(table,padded);
+	}
+
+	@Test
+	public void rowsDecodeValuesByColumnType() {
+
+		String[][] data = {{"a","12","1.5","true","2014-10-01"},{"b","","2","FALSE",""}};
+
+		CsvAsset asset  = anAssetWith("code","count","rate","flag","date");
+		List<Column> cols = asset.columns();
+		cols.get(1).setType(Long.class);
+		cols.get(2).setType(Double.class);
+		cols.get(3).setType(Boolean.class);
+		cols.get(4).setType(LocalDate.class);
+
+		for (Table table : asList(new CsvTable(asset,asStream(asset,data)).materialise(), new ColumnarTable(new CsvTable(asset,asStream(asset,data))))) {
+
+			List<Row> rows = asList(table);
+
+			assertEquals(12L,rows.get(0).getLong(cols.get(1)));
+			assertEquals(12L,rows.get(0).getObject(cols.get(1)));
+			assertEquals(1.5,rows.get(0).getDouble(cols.get(2)),0);
+			assertEquals(2,rows.get(1).getLong(cols.get(2)));
+			assertTrue(rows.get(0).getBoolean(cols.get(3)));
+			assertFalse(rows.get(1).getBoolean(cols.get(3)));
+			assertEquals(LocalDate.of(2014,10,1),rows.get(0).getObject(cols.get(4)));
+
+			assertTrue(rows.get(1).isNull(cols.get(1)));
+			assertTrue(rows.get(1).isNull(cols.get(4)));
+			assertFalse(rows.get(1).isNull(cols.get(0)));
+			assertNull(rows.get(1).getObject(cols.get(4)));
+
+			try {
+				rows.get(1).getLong(cols.get(1));
+				fail();
+			}
+			catch(IllegalStateException e) {}
+
+			try {
+				rows.get(0).getLong(cols.get(0));
+				fail();
+			}
+			catch(IllegalArgumentException e) {}
+
+			//fractional values are not truncated
+			try {
+				rows.get(0).getLong(cols.get(2));
+				fail();
+			}
+			catch(IllegalArgumentException e) {}
+		}
+	}
+
+	@Test
+	public void tablesCanBeFiltered() {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%2==0?"even":"o\"dd", ""+i};
+
+		CsvAsset asset  = anAssetWith("code","parity","value");
+		asset.columns().get(2).setType(Long.class);
+
+		Filter filter = and(prefix("code","code-1"),in("parity","o\"dd","none"),range("value",100L,200L));
+
+		String[][] expected = new String[50][];
+		for (int i=0;i<expected.length;i++)
+			expected[i] = data[101+2*i];
+
+		assertEquals(new CsvTable(asset,asStream(asset,data)).filter(filter),expected);
+		assertEquals(new CsvTable(asset,asStream(asset,data)).materialise().filter(filter),expected);
+		assertEquals(new ColumnarTable(new CsvTable(asset,asStream(asset,data))).filter(filter),expected);
+
+		assertEquals(new CsvTable(asset,asStream(asset,data)).filter(eq("code","code-42")).select("value"),new String[][]{{"42"}});
+		assertEquals(new CsvTable(asset,asStream(asset,data)).select("value").filter(eq("value","42")),new String[][]{{"42"}});
+		assertEquals(new ColumnarTable(new CsvTable(asset,asStream(asset,data))).filter(eq("code","none")),new String[0][]);
+		assertEquals(500,asList(new CsvTable(asset,asStream(asset,data)).filter(eq("parity","o\"dd"))).size());
+	}
+
+	@Test
+	public void tablesCanBeIteratedInBatches() {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%10==0? "" : ""+i};
+
+		CsvAsset asset  = anAssetWith("code","value");
+		asset.columns().get(1).setType(Long.class);
+
+		for (Table table : asList(new CsvTable(asset,asStream(asset,data)), new CsvTable(asset,asStream(asset,data)).materialise(), new ColumnarTable(new CsvTable(asset,asStream(asset,data))))) {
+
+			long sum = 0;
+			int rows = 0;
+
+			Iterator<RowBatch> batches = table.batches(64);
+
+			while (batches.hasNext()) {
+
+				RowBatch batch = batches.next();
+
+				long[] values = batch.longs(1);
+				boolean[] nulls = batch.nulls(1);
+
+				for (int i = 0; i < batch.size(); i++)
+					if (!nulls[i])
+						sum += values[i];
+
+				assertEquals("code-"+rows,batch.values(0)[0]);
+				assertEquals("code-"+rows,batch.row(0).get("code"));
+
+				rows += batch.size();
+			}
+
+			assertEquals(1000,rows);
+			assertEquals(999*1000/2 - 99*100/2*10,sum);
+		}
+
+		//fractional values are not truncated
+		CsvAsset fractions = anAssetWith("value");
+		fractions.columns().get(0).setType(Double.class);
+
+		RowBatch batch = new CsvTable(fractions,asStream(fractions,new String[][]{{"2.0"},{"2.5"}})).batches(2).next();
+
+		assertEquals(2.5,batch.doubles(0)[1],0);
+
+		try {
+			batch.longs(0);
+			fail();
+		}
+		catch(IllegalArgumentException e) {}
+
+		try {
+			new CsvTable(fractions,asStream(fractions,new String[][]{{"2.0"},{"2.5"}})).batches(2).next().longs(0);
+			fail();
+		}
+		catch(IllegalArgumentException e) {}
+
+		batch = new CsvTable(fractions,asStream(fractions,new String[][]{{"2.0"},{""}})).batches(2).next();
+
+		assertEquals(2L,batch.longs(0)[0]);
+	}
+
+	@Test
+	public void tablesCanBeSliced() {
+
+		String[][] data = someData(100,2);
+
+		CsvAsset asset  = anAssetWith("col1","col2");
+
+		String[][] expected = copyOfRange(data,30,40);
+
+		assertEquals(new CsvTable(asset,asStream(asset,data)).slice(30,10),expected);
+		assertEquals(new CsvTable(asset,asStream(asset,data)).slice(20,30).slice(10,10),expected);
+		assertEquals(new CsvTable(asset,asStream(asset,data)).materialise().slice(30,10),expected);
+		assertEquals(new ColumnarTable(new CsvTable(asset,asStream(asset,data))).slice(30,10),expected);
+		assertEquals(new ColumnarTable(new CsvTable(asset,asStream(asset,data))).slice(95,10),copyOfRange(data,95,100));
+
+		//slices apply to filtered rows, and filters to sliced rows
+		assertEquals(new CsvTable(asset,asStream(asset,data)).filter(prefix("col1","9")).slice(1,2),new String[][]{data[90],data[91]});
+		assertEquals(new CsvTable(asset,asStream(asset,data)).slice(0,50).filter(prefix("col1","9")),new String[][]{data[9]});
+	}
+
+	@Test
+	public void derivedTablesReleaseTheirSources() {
+
+		String[][] data = someData(100,2);
+
+		CsvAsset asset  = anAssetWith("col1","col2");
+
+		AtomicInteger closed = new AtomicInteger();
+
+		//slices release their source as soon as they are complete
+		Iterator<Row> rows = new SlicedTable(new CsvTable(asset,closing(asStream(asset,data),closed)),10,5).iterator();
+
+		while (rows.hasNext())
+			rows.next();
+
+		assertEquals(1,closed.get());
+
+		//derived iterators close their source
+		for (Table table : asList(
+				new SlicedTable(new CsvTable(asset,closing(asStream(asset,data),closed)),0,50),
+				new FilteredTable(new CsvTable(asset,closing(asStream(asset,data),closed)),prefix("col1","1")),
+				new ProjectedTable(new CsvTable(asset,closing(asStream(asset,data),closed)),asList(asset.columns().get(1))))) {
+
+			closed.set(0);
+
+			rows = table.iterator();
+			rows.next();
+
+			RowFile.close(rows);
+
+			assertEquals(1,closed.get());
+			assertFalse(rows.hasNext());
+		}
+	}
+
+	@Test
+	public void tablesCanBeStoredInColumnarFormat() throws Exception {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%2==0?"even":"odd", ""+i, ""+(i%3==0), i+".5"};
+
+		CsvAsset asset  = anAssetWith("code","parity","value","flag","rate");
+		asset.columns().get(2).setType(Long.class);
+		asset.columns().get(3).setType(Boolean.class);
+		asset.columns().get(4).setType(Double.class);
+
+		Path file = Files.createTempFile("table", ".col");
+
+		try {
+
+			try (OutputStream out = Files.newOutputStream(file)) {
+				new ColumnarWriter(100).write(new CsvTable(asset,asStream(asset,data)),out);
+			}
+
+			ColumnarFile table = ColumnarFile.open(file);
+
+			assertEquals(1000,table.rows());
+			assertEquals(10,table.blocks());
+			assertEquals(table,data);
+			assertEquals(table,data);
+
+			Row row = asList(table).get(42);
+			assertEquals(42L,row.getObject(table.columns().get(2)));
+			assertTrue(row.getBoolean(table.columns().get(3)));
+			assertEquals(42.5,row.getDouble(table.columns().get(4)),0);
+
+			//blocks that cannot match are skipped
+			Table filtered = table.filter(and(eq("parity","odd"),range("value",120L,130L)));
+			assertEquals(1,((ColumnarFile) filtered).blocks());
+			assertEquals(filtered,new String[][]{data[121],data[123],data[125],data[127],data[129]});
+
+			assertEquals(0,((ColumnarFile) table.filter(eq("code","none"))).blocks());
+			assertEquals(1,((ColumnarFile) table.filter(eq("value","999"))).blocks());
+
+			//filtered tables still count the rows of skipped blocks
+			assertEquals(1000,((ColumnarFile) filtered).rows());
+
+			//ranges of strings compare numeric values as strings, so numeric blocks are not skipped
+			Filter strings = range("value","2","3");
+			assertEquals(112,asList(new CsvTable(asset,asStream(asset,data)).filter(strings)).size());
+			assertEquals(112,asList(table.filter(strings)).size());
+
+			//content can also be read from streams
+			ColumnarAsset columnar = new ColumnarAsset("1","name");
+
+			Table read = new ColumnarStream2Table<ColumnarAsset>().apply(columnar,Files.newInputStream(file));
+
+			assertEquals(read,data);
+			assertEquals(5,columnar.columns().size());
+			assertEquals(Long.class,columnar.columns().get(2).type());
+		}
+		finally {
+			Files.delete(file);
+		}
+
+		//blocks with only NaNs are not skipped as if they had only missing values
+		String[][] nans = {{"a","NaN"},{"b","NaN"},{"c","1.5"},{"d","NaN"}};
+
+		CsvAsset rated  = anAssetWith("code","rate");
+		rated.columns().get(1).setType(Double.class);
+
+		file = Files.createTempFile("table", ".col");
+
+		try {
+
+			try (OutputStream out = Files.newOutputStream(file)) {
+				new ColumnarWriter(2).write(new CsvTable(rated,asStream(rated,nans)),out);
+			}
+
+			ColumnarFile table = ColumnarFile.open(file);
+
+			Table filtered = table.filter(eq("rate","NaN"));
+			assertEquals(2,((ColumnarFile) filtered).blocks());
+			assertEquals(filtered,new String[][]{nans[0],nans[1],nans[3]});
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void codesCanBeTranslatedBetweenCodelists() {
+
+		CsvCodelist local = (CsvCodelist) anAssetWith("code","label","ref");
+		String[][] localData = {{"L1","one","X"},{"L2","two","Y"},{"L3","three",""}};
+
+		CsvCodelist sdmx = (CsvCodelist) anAssetWith("id","alias");
+		String[][] sdmxData = {{"S1","X"},{"S2","Y"},{"S3","Z"}};
+
+		CodeTranslation translation = CodeTranslation.between(local,new CsvTable(local,asStream(local,localData)),"ref",sdmx,new CsvTable(sdmx,asStream(sdmx,sdmxData)),"alias");
+
+		assertEquals(2,translation.size());
+		assertEquals("S2",translation.translate("L2"));
+		assertNull(translation.translate("L3"));
+
+		CsvAsset asset = anAssetWith("area","species","other");
+		String[][] data = {{"A","L1","L1"},{"B","L3","L2"},{"C","L9",""},{"D","L2","L9"},{"E","L9","L9"}};
+
+		CodeTranslation.TranslatedTable table = translation.apply(new CsvTable(asset,asStream(asset,data)),"species","other");
+
+		assertEquals(table,new String[][]{{"A","S1","S1"},{"B","L3","S2"},{"C","L9",""},{"D","S2","L9"},{"E","L9","L9"}});
+
+		Map<String,Long> unmatched = table.unmatched().get(new QName("species"));
+		assertEquals(2,unmatched.size());
+		assertEquals(1L,(long) unmatched.get("L3"));
+		assertEquals(2L,(long) unmatched.get("L9"));
+		assertEquals(2L,(long) table.unmatched().get(new QName("other")).get("L9"));
+
+		//abandoned translations close their source
+		AtomicInteger closed = new AtomicInteger();
+
+		Iterator<Row> abandoned = translation.apply(new CsvTable(asset,closing(asStream(asset,data),closed)),"species").iterator();
+		abandoned.next();
+		RowFile.close(abandoned);
+
+		assertEquals(1,closed.get());
+	}
+
+	@Test
+	public void tablesCanBeJoined() {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%100==99? "" : "ref-"+(i%10)};
+
+		String[][] refs = new String[9][];
+		for (int i=0;i<8;i++)
+			refs[i] = new String[]{"ref-"+i, "name-"+i};
+		refs[8] = new String[]{"ref-0","other-0"};
+
+		CsvAsset asset = anAssetWith("code","ref");
+		CsvAsset refAsset = anAssetWith("ref","name");
+
+		Table joined = new CsvTable(asset,asStream(asset,data)).join(new CsvTable(refAsset,asStream(refAsset,refs)),"ref","ref");
+
+		List<Row> rows = asList(joined);
+
+		assertEquals(800+100,rows.size());
+		assertEquals(asList(new QName("code"),new QName("ref"),new QName(JoinedTable.defaultQualifier,"ref"),new QName("name")),names(joined.columns()));
+
+		assertEquals("code-0",rows.get(0).get("code"));
+		assertEquals("name-0",rows.get(0).get("name"));
+		assertEquals("other-0",rows.get(1).get("name"));
+		assertEquals("ref-1",rows.get(2).get(new QName(JoinedTable.defaultQualifier,"ref")));
+
+		List<Row> leftRows = asList(new CsvTable(asset,asStream(asset,data)).leftJoin(new CsvTable(refAsset,asStream(refAsset,refs)),"ref","ref"));
+
+		assertEquals(1000+100,leftRows.size());
+		assertNull(leftRows.get(leftRows.size()-1).get("name"));
+
+		//the build side is partitioned to disk over budget
+		for (boolean left : new boolean[]{false,true}) {
+
+			Table spilled = new JoinedTable(new CsvTable(asset,asStream(asset,data)),new CsvTable(refAsset,asStream(refAsset,refs)),
+											asList(new QName("ref")),asList(new QName("ref")),left,JoinedTable.defaultQualifier,0);
+
+			List<String> expected = new ArrayList<String>();
+			for (Row row : left ? leftRows : rows)
+				expected.add(asList(row.values(joined.columns())).toString());
+
+			List<String> actual = new ArrayList<String>();
+			for (Row row : spilled)
+				actual.add(asList(row.values(spilled.columns())).toString());
+
+			Collections.sort(expected);
+			Collections.sort(actual);
+
+			assertEquals(expected,actual);
+		}
+
+		//exhausted joins stay exhausted
+		Iterator<Row> exhausted = new JoinedTable(new CsvTable(asset,asStream(asset,data)),new CsvTable(refAsset,asStream(refAsset,refs)),
+									asList(new QName("ref")),asList(new QName("ref")),false,JoinedTable.defaultQualifier,0).iterator();
+		assertExhausted(exhausted,900);
+
+		//abandoned joins close their probe rows
+		AtomicInteger closed = new AtomicInteger();
+
+		Iterator<Row> abandoned = new CsvTable(asset,closing(asStream(asset,data),closed)).join(new CsvTable(refAsset,asStream(refAsset,refs)),"ref","ref").iterator();
+		abandoned.next();
+		RowFile.close(abandoned);
+
+		assertEquals(1,closed.get());
+
+		//partitions of large build tables are partitioned further
+		String[][] many = new String[5000][];
+		for (int i=0;i<many.length;i++)
+			many[i] = new String[]{"ref-"+i, "name-"+i};
+
+		Table large = new JoinedTable(new CsvTable(asset,asStream(asset,data)),new CsvTable(refAsset,asStream(refAsset,many)),
+									asList(new QName("ref")),asList(new QName("ref")),false,JoinedTable.defaultQualifier,RowStore.sizeOf(many[0])*50);
+
+		Map<String,String> names = new HashMap<String,String>();
+		for (Row row : large)
+			names.put(row.get("code"),row.get("name"));
+
+		assertEquals(990,names.size());
+		assertEquals("name-3",names.get("code-13"));
+	}
+
+	@Test
+	public void tablesCanBeSorted() {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%2==0?"even":"odd", i%100==0? "" : i%100==1? "n/a" : ""+(i*37)%1000};
+
+		CsvAsset asset  = anAssetWith("code","parity","value");
+		asset.columns().get(2).setType(Long.class);
+
+		List<Row> sorted = asList(new CsvTable(asset,asStream(asset,data)).sort("value"));
+
+		assertEquals(1000,sorted.size());
+
+		for (int i=1;i<980;i++)
+			assertTrue(Long.parseLong(sorted.get(i-1).get("value")) <= Long.parseLong(sorted.get(i).get("value")));
+
+		//values of other types, then missing values
+		assertEquals("n/a",sorted.get(980).get("value"));
+		assertEquals("",sorted.get(999).get("value"));
+
+		//sorts are stable
+		List<Row> byParity = asList(new CsvTable(asset,asStream(asset,data)).sort("parity"));
+		assertEquals("code-0",byParity.get(0).get("code"));
+		assertEquals("code-2",byParity.get(1).get("code"));
+		assertEquals("code-1",byParity.get(500).get("code"));
+
+		//runs are sorted on disk and merged over budget
+		for (String key : asList("value","parity")) {
+
+			Table spilled = new SortedTable(new CsvTable(asset,asStream(asset,data)),asList(new QName(key)),RowStore.sizeOf(data[0])*5);
+
+			List<String> expected = new ArrayList<String>();
+			for (Row row : key.equals("value") ? sorted : byParity)
+				expected.add(row.get("code"));
+
+			List<String> actual = new ArrayList<String>();
+			for (Row row : spilled)
+				actual.add(row.get("code"));
+
+			assertEquals(expected,actual);
+
+			//merges can be abandoned, releasing their runs
+			Iterator<Row> abandoned = new SortedTable(new CsvTable(asset,asStream(asset,data)),asList(new QName(key)),RowStore.sizeOf(data[0])*5).iterator();
+			abandoned.next();
+			RowFile.close(abandoned);
+			assertFalse(abandoned.hasNext());
+		}
+	}
+
+	@Test
+	public void tablesCanBeAggregated() throws Exception {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, "g"+(i%10), i%50==0 ? "" : ""+i, "c"+(i%7)};
+
+		CsvAsset asset  = anAssetWith("code","group","value","category");
+		asset.columns().get(2).setType(Long.class);
+
+		Aggregate[] aggregates = {count(),Aggregate.count("value"),sum("value"),max("value"),distinct("category").as("categories")};
+
+		Table aggregated = new CsvTable(asset,asStream(asset,data)).aggregate(asList("group"),aggregates);
+
+		List<Row> rows = asList(aggregated);
+
+		assertEquals(asList(q("group"),q("count"),q("count_value"),q("sum_value"),q("max_value"),q("categories")),names(aggregated.columns()));
+		assertEquals(Long.class,aggregated.columns().get(3).type());
+
+		//groups in order of occurrence
+		assertEquals(10,rows.size());
+		assertEquals("g0",rows.get(0).get("group"));
+		assertEquals(asList("100","80","40000","990","7"),asList(rows.get(0).values(aggregated.columns())).subList(1,6));
+		assertEquals(asList("100","100","49800","993","7"),asList(rows.get(3).values(aggregated.columns())).subList(1,6));
+
+		Map<String,List<String>> expected = byGroup(rows,aggregated);
+
+		//groups are partitioned on disk over budget
+		Table spilled = new AggregatedTable(new CsvTable(asset,asStream(asset,data)),asList(q("group")),asList(aggregates),300);
+		assertEquals(expected,byGroup(asList(spilled),spilled));
+
+		//exhausted aggregates stay exhausted
+		String[][] many = new String[1000][];
+		for (int i=0;i<many.length;i++)
+			many[i] = new String[]{"code-"+i, "g"+(i%200), ""+i, "c"};
+
+		assertExhausted(new AggregatedTable(new CsvTable(asset,asStream(asset,many)),asList(q("group")),asList(aggregates),100).iterator(),200);
+
+		//aggregates can be abandoned, releasing their partitions
+		Iterator<Row> abandoned = new AggregatedTable(new CsvTable(asset,asStream(asset,many)),asList(q("group")),asList(aggregates),100).iterator();
+		abandoned.next();
+		RowFile.close(abandoned);
+		assertFalse(abandoned.hasNext());
+
+		//splits are aggregated in parallel and merged
+		Table table = new CsvTable(asset,asStream(asset,data)).materialise();
+
+		assertEquals(expected,inParallel(table,4,(splits,executor) -> {
+			Table parallel = new AggregatedTable(splits,asList(q("group")),asList(aggregates),executor);
+			return byGroup(asList(parallel),parallel);
+		}));
+
+		//without groups, all rows form a single group
+		List<Row> total = asList(table.aggregate(Collections.<String>emptyList(),count(),sum("value")));
+		assertEquals(1,total.size());
+		assertEquals("1000",total.get(0).get("count"));
+		assertEquals("490000",total.get(0).get("sum_value"));
+	}
+
+	@Test
+	public void tablesCanBeProfiled() throws Exception {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%2==0?"even":"odd", i%100==0? "" : i%100==1? "n/a" : ""+i};
+
+		CsvAsset asset  = anAssetWith("code","parity","value");
+		asset.columns().get(2).setType(Long.class);
+
+		TableProfile profile = TableProfile.of(new CsvTable(asset,asStream(asset,data)));
+
+		assertEquals(1000,profile.rows());
+
+		ColumnProfile codes = profile.column(q("code"));
+		assertEquals(1000,codes.count());
+		assertEquals(0,codes.nulls());
+		assertEquals(1000,codes.distinct(),50);
+		assertEquals(6,codes.minLength());
+		assertEquals(8,codes.maxLength());
+		assertEquals(900,codes.lengths()[4]);
+
+		assertEquals(2,profile.column(q("parity")).distinct());
+
+		ColumnProfile values = profile.column(q("value"));
+		assertEquals(10,values.nulls());
+		assertEquals(10,values.invalid());
+		assertEquals("2",values.min());
+		assertEquals("999",values.max());
+		assertEquals(500,values.quantile(.5),20);
+		assertNull(codes.quantile(.5));
+
+		//splits are profiled in parallel and merged
+		Table table = new CsvTable(asset,asStream(asset,data)).materialise();
+
+		TableProfile merged = inParallel(table,4,TableProfile::of);
+		assertEquals(1000,merged.rows());
+		assertEquals(codes.distinct(),merged.column(q("code")).distinct());
+		assertEquals(10,merged.column(q("value")).nulls());
+		assertEquals("999",merged.column(q("value")).max());
+		assertEquals(500,merged.column(q("value")).quantile(.5),20);
+
+		//profiles are persisted and attached to columns
+		Path file = Files.createTempFile("table",TableProfile.extension);
+
+		try {
+			profile.save(file);
+
+			TableProfile loaded = TableProfile.load(file);
+			assertEquals(profile.columns().keySet(),loaded.columns().keySet());
+			assertEquals(values.quantile(.9),loaded.column(q("value")).quantile(.9));
+			assertEquals(codes.distinct(),loaded.column(q("code")).distinct());
+
+			loaded.attachTo(asset.columns());
+			assertEquals("2",asset.columns().get(2).properties().lookup(ColumnProfile.property).value(ColumnProfile.class).min());
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void tablesCanBeDeduplicated() throws Exception {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+(i%300), i<600 ? "name-"+(i%300) : "other-"+i};
+
+		CsvAsset asset  = anAssetWith("code","name");
+
+		List<Row> byCode = asList(new CsvTable(asset,asStream(asset,data)).distinct("code"));
+		assertEquals(300,byCode.size());
+		for (int i=0;i<300;i++)
+			assertEquals("name-"+i,byCode.get(i).get("name"));
+
+		//duplicate rows
+		assertEquals(700,asList(new CsvTable(asset,asStream(asset,data)).distinct()).size());
+
+		//keys are partitioned on disk over budget
+		List<String> expected = new ArrayList<String>();
+		for (Row row : byCode)
+			expected.add(row.get("code")+row.get("name"));
+
+		List<String> spilled = new ArrayList<String>();
+		for (Row row : new DistinctTable(new CsvTable(asset,asStream(asset,data)),asList(q("code")),500))
+			spilled.add(row.get("code")+row.get("name"));
+
+		assertEquals(300,spilled.size());
+		assertEquals(expected.subList(0,3),spilled.subList(0,3));
+		assertTrue(spilled.containsAll(expected));
+
+		//deduplication can be abandoned, releasing its partitions and its source
+		AtomicInteger closed = new AtomicInteger();
+
+		Iterator<Row> abandoned = new DistinctTable(new CsvTable(asset,closing(asStream(asset,data),closed)),asList(q("code")),500).iterator();
+		for (int i=0;i<10;i++)
+			abandoned.next();
+		RowFile.close(abandoned);
+		assertFalse(abandoned.hasNext());
+		assertEquals(1,closed.get());
+
+		//keys are approximated with a Bloom filter
+		List<Row> approximate = asList(new DistinctTable(new CsvTable(asset,asStream(asset,data)),asList(q("code")),300,.01));
+		assertTrue(approximate.size()<=300 && approximate.size()>290);
+		assertEquals("name-0",approximate.get(0).get("name"));
+
+		abandoned = new DistinctTable(new CsvTable(asset,closing(asStream(asset,data),closed)),asList(q("code")),300,.01).iterator();
+		abandoned.next();
+		RowFile.close(abandoned);
+		assertEquals(2,closed.get());
+	}
+
+	@Test
+	public void frequentValuesCanBeFound() throws Exception {
+
+		String[][] data = new String[1000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, i%10==0 ? "a" : i%10<3 ? "b" : i%10<6 ? "c" : "u"+i};
+
+		CsvAsset asset  = anAssetWith("code","category");
+
+		List<TopK.Entry> top = TopK.of(new CsvTable(asset,asStream(asset,data)),"category",3).top();
+		assertEquals("[c=300, b=200, a=100]",top.toString());
+
+		//splits are counted in parallel and merged
+		Table table = new CsvTable(asset,asStream(asset,data)).materialise();
+
+		assertEquals(top.toString(),inParallel(table,4,(splits,executor) -> TopK.of(splits,"category",3,executor)).top().toString());
+
+		//with fewer counters than values, counts are bounded
+		TopK bounded = new TopK(3,20);
+		for (String[] row : data)
+			bounded.add(row[1]);
+
+		List<String> values = new ArrayList<String>();
+		for (TopK.Entry entry : bounded.top()) {
+			values.add(entry.value());
+			long count = entry.value().equals("c") ? 300 : entry.value().equals("b") ? 200 : 100;
+			assertTrue(entry.count()>=count && entry.count()-entry.error()<=count);
+		}
+		assertEquals(asList("c","b","a"),values);
+
+		//merged counts remain bounds when splits overflow their counters
+		Map<String,Long> counts = new HashMap<String,Long>();
+		for (String[] row : data)
+			counts.merge(row[1],1L,Long::sum);
+
+		TopK merged = new TopK(3,20);
+
+		for (int split=0;split<4;split++) {
+
+			TopK partial = new TopK(3,20);
+
+			for (int i=split;i<data.length;i+=4)
+				partial.add(data[i][1]);
+
+			merged.merge(partial);
+		}
+
+		assertEquals(data.length,merged.total());
+
+		values.clear();
+		for (TopK.Entry entry : merged.top()) {
+			values.add(entry.value());
+			long count = counts.get(entry.value());
+			assertTrue(entry+" is not an upper bound",entry.count()>=count && entry.count()-entry.error()<=count);
+		}
+		assertEquals(asList("c","b","a"),values);
+
+		//values evicted from one split still count in the merge
+		TopK first = new TopK(4,4);
+		TopK second = new TopK(4,4);
+
+		for (int i=0;i<5;i++)
+			first.add("x");
+		for (int i=0;i<3;i++)
+			second.add("x");
+		for (String value : asList("y","z","w"))
+			for (int i=0;i<10;i++)
+				second.add(value);
+		second.add("v");
+
+		first.merge(second);
+
+		values.clear();
+		for (TopK.Entry entry : first.top()) {
+			values.add(entry.value());
+			if (entry.value().equals("x"))
+				assertTrue(entry+" is not an upper bound",entry.count()>=8 && entry.count()-entry.error()<=8);
+		}
+		assertTrue(values.contains("x"));
+	}
+
+	@Test
+	public void tablesCanBeDiffed() throws Exception {
+
+		String[][] before = new String[1000][];
+		for (int i=0;i<before.length;i++)
+			before[i] = new String[]{"code-"+i, "name-"+i};
+
+		List<String[]> after = new ArrayList<String[]>();
+		for (int i=0;i<before.length;i++)
+			if (i%100!=0)
+				after.add(new String[]{"code-"+i, i%100==1 ? "renamed-"+i : "name-"+i});
+		for (int i=0;i<5;i++)
+			after.add(new String[]{"new-"+i, "name-"+i});
+
+		CsvAsset asset  = anAssetWith("code","name");
+
+		String[][] afterData = after.toArray(new String[0][]);
+
+		Map<String,String> expected = changes(new CsvTable(asset,asStream(asset,afterData)).diff(new CsvTable(asset,asStream(asset,before)),"code"));
+
+		assertEquals(25,expected.size());
+		assertEquals("REMOVED",expected.get("code-100"));
+		assertEquals("CHANGED",expected.get("code-101"));
+		assertEquals("ADDED",expected.get("new-4"));
+
+		//versions are partitioned on disk over budget
+		TableDiff partitioned = new TableDiff(new CsvTable(asset,asStream(asset,before)),new CsvTable(asset,asStream(asset,afterData)),asList(q("code")),false,500);
+		assertEquals(expected,changes(partitioned));
+
+		//exhausted diffs stay exhausted
+		assertExhausted(new TableDiff(new CsvTable(asset,asStream(asset,before)),new CsvTable(asset,asStream(asset,afterData)),asList(q("code")),false,0).iterator(),25);
+
+		//sorted versions are merged
+		TableDiff merged = new TableDiff(new CsvTable(asset,asStream(asset,before)).sort("code"),new CsvTable(asset,asStream(asset,afterData)).sort("code"),asList(q("code")),true,0);
+		assertEquals(expected,changes(merged));
+
+		for (TableDiff.Change change : merged)
+			if (change.kind()==TableDiff.Change.Kind.CHANGED) {
+				assertEquals("name-101",change.before().get("name"));
+				assertEquals("renamed-101",change.after().get("name"));
+				break;
+			}
+
+		//sorted versions are merged by default
+		assertTrue(new CsvTable(asset,asStream(asset,afterData)).sort("code").diff(new CsvTable(asset,asStream(asset,before)).sort("code"),"code").toString().contains("sorted=true"));
+		assertTrue(new CsvTable(asset,asStream(asset,afterData)).diff(new CsvTable(asset,asStream(asset,before)).sort("code"),"code").toString().contains("sorted=false"));
+
+		//keys are compared by type, whether versions are merged or not
+		CsvAsset typed  = anAssetWith("code","name");
+		typed.columns().get(0).setType(Double.class);
+
+		String[][] prices = {{"1","one"},{"2.50","two"}};
+		String[][] newPrices = {{"1.0","one"},{"2.5","two"},{"3","three"}};
+
+		Map<String,String> byCode = changes(new CsvTable(typed,asStream(typed,newPrices)).diff(new CsvTable(typed,asStream(typed,prices)),"code"));
+		assertEquals(3,byCode.size());
+		assertEquals("ADDED",byCode.get("3"));
+
+		//same rows, with their text changed
+		assertEquals("CHANGED",byCode.get("1.0"));
+		assertEquals("CHANGED",byCode.get("2.5"));
+
+		assertEquals(byCode,changes(new CsvTable(typed,asStream(typed,newPrices)).sort("code").diff(new CsvTable(typed,asStream(typed,prices)).sort("code"),"code")));
+		assertEquals(byCode,changes(new TableDiff(new CsvTable(typed,asStream(typed,prices)),new CsvTable(typed,asStream(typed,newPrices)),asList(q("code")),false,0)));
+	}
+
+	@Test
+	public void tablesCanBePartitioned() throws Exception {
+
+		String[][] data = new String[10000][];
+		for (int i=0;i<data.length;i++)
+			data[i] = new String[]{"code-"+i, "country-"+(i%37)};
+
+		CsvAsset asset  = anAssetWith("code","country");
+
+		//spilled partitions can be consumed in any order, any number of times
+		List<Table> partitions = new CsvTable(asset,asStream(asset,data)).partition("country",4);
+		assertEquals(4,partitions.size());
+
+		List<List<Row>> spilled = new ArrayList<List<Row>>();
+		for (int p=partitions.size()-1;p>=0;p--)
+			spilled.add(0,asList(partitions.get(p)));
+
+		assertPartitioned(spilled,partitions,data.length);
+		assertEquals(spilled.get(0).size(),asList(partitions.get(0)).size());
+
+		//closed partitions delete their files
+		RowFile.close(partitions.get(0));
+
+		try {
+			partitions.get(0).iterator();
+			fail();
+		}
+		catch(IllegalStateException e) {}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+
+			//streamed partitions are consumed in parallel
+			partitions = TablePartitions.streamed(new CsvTable(asset,asStream(asset,data)),"country",4);
+
+			List<Future<List<Row>>> consumed = new ArrayList<Future<List<Row>>>();
+			for (Table partition : partitions)
+				consumed.add(executor.submit(() -> asList(partition)));
+
+			List<List<Row>> streamed = new ArrayList<List<Row>>();
+			for (Future<List<Row>> rows : consumed)
+				streamed.add(rows.get());
+
+			assertPartitioned(streamed,partitions,data.length);
+
+			//closed partitions take no rows
+			partitions = TablePartitions.streamed(new CsvTable(asset,asStream(asset,data)),"country",4,10,1,60000);
+			RowFile.close(partitions.get(3));
+
+			consumed.clear();
+			for (Table partition : partitions.subList(0,3))
+				consumed.add(executor.submit(() -> asList(partition)));
+
+			for (int p=0;p<3;p++)
+				assertEquals(spilled.get(p).size(),consumed.get(p).get().size());
+
+			//partitions that are neither consumed nor closed fail the others
+			partitions = TablePartitions.streamed(new CsvTable(asset,asStream(asset,data)),"country",4,10,1,200);
+
+			try {
+				asList(partitions.get(0));
+				fail();
+			}
+			catch(IllegalStateException e) {}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		try {
+			new CsvTable(asset,asStream(asset,data)).partition("unknown",2).get(0).iterator();
+			fail();
+		}
+		catch(IllegalArgumentException e) {}
+	}
+
+	//helpers
+
+	// counts the closures of a stream
+	static InputStream closing(InputStream stream, AtomicInteger closed) {
+
+		return new FilterInputStream(stream) {
+
+			@Override
+			public void close() throws IOException {
+				super.close();
+				closed.incrementAndGet();
+			}
+		};
+	}
+
+	// processes splits of a materialised table on as many threads
+	static <T> T inParallel(Table table, int count, BiFunction<List<Table>,Executor,T> task) {
+
+		int size = asList(table).size();
+		int split = (size+count-1)/count;
+
+		List<Table> splits = new ArrayList<Table>();
+		for (int s=0;s<count;s++)
+			splits.add(table.slice(s*split,split));
+
+		ExecutorService executor = Executors.newFixedThreadPool(count);
+
+		try {
+			return task.apply(splits,executor);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	static void assertPartitioned(List<List<Row>> partitions, List<Table> tables, int size) {
+
+		Set<String> codes = new HashSet<String>();
+		Set<String> countries = new HashSet<String>();
+
+		for (int p=0;p<partitions.size();p++) {
+
+			assertEquals(asList(new QName("code"),new QName("country")),names(tables.get(p).columns()));
+
+			Set<String> keys = new HashSet<String>();
+			for (Row row : partitions.get(p)) {
+				codes.add(row.get("code"));
+				keys.add(row.get("country"));
+				assertEquals(p,TablePartitions.partitionOf(row.get("country"),partitions.size()));
+			}
+
+			//keys are in one partition only
+			for (String key : keys)
+				assertTrue(countries.add(key));
+		}
+
+		assertEquals(size,codes.size());
+		assertEquals(37,countries.size());
+	}
+
+	static void assertExhausted(Iterator<?> it, int size) {
+
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+
+		assertEquals(size,count);
+		assertFalse(it.hasNext());
+		assertFalse(it.hasNext());
+
+		try {
+			it.next();
+			fail();
+		}
+		catch(NoSuchElementException e) {}
+	}
+
+	static Map<String,String> changes(TableDiff diff) {
+		Map<String,String> changes = new HashMap<String,String>();
+		for (TableDiff.Change change : diff)
+			changes.put((change.after()==null ? change.before() : change.after()).get("code"),change.kind().name());
+		return changes;
+	}
+
+	static Map<String,List<String>> byGroup(List<Row> rows, Table table) {
+		Map<String,List<String>> groups = new HashMap<String,List<String>>();
+		for (Row row : rows)
+			groups.put(row.get("group"),asList(row.values(table.columns())));
+		return groups;
+	}
+
+	static List<QName> names(List<Column> columns) {
+		List<QName> names = new ArrayList<QName>();
+		for (Column column : columns)
+			names.add(column.name());
+		return names;
+	}
+
+	static CsvAsset anAsset() {
+		return new CsvCodelist("1","name",0);
+	}
+
+	static CsvAsset anAssetWith(String ... cols) {
+		CsvAsset asset = anAsset();
+		List<Column> list = new ArrayList<Column>();
+		for (String name : cols)
+			list.add(new Column(name));
+		asset.setColumns(list.toArray(new Column[0]));
+		return asset;
+	}
+
+	static String[][] someData(int rows, int cols) {
+
+		String[][] data = new String[rows][cols];
+		for (int r=0;r<rows;r++)
+			for (int c =0; c<cols;c++)
+				data[r][c]=""+r+"-"+c;
+		return data;
+	}
+}
@@ -29,6 +29,9 @@ import org.virtualrepository.impl.Type;
 import org.virtualrepository.spi.Importer;
 import org.virtualrepository.spi.Publisher;
 import org.virtualrepository.spi.ServiceProxy;
+import org.virtualrepository.tabular.DefaultTable;
+import org.virtualrepository.tabular.Table;
+import org.virtualrepository.tabular.TableDiff;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class VirtualRepoTest {
@@ -187,6 +190,35 @@ public class VirtualRepoTest {
 		verify(publisher).publish(asset, "hello");
 
 	}
+
+	@Test
+	public void differencesArePublishedInFullToPublishersThatDoNotTakeThem() throws Exception {
+
+		Table before = new DefaultTable(emptyList(), emptyList());
+		Table after = new DefaultTable(emptyList(), emptyList());
+
+		TableDiff diff = after.diff(before, "code");
+
+		Type<Asset> type = aType();
+
+		Publisher<Asset, Table> publisher = aPublisherFor(type, Table.class);
+		RepositoryService service = aService().with(aProxy().with(publisher).get()).get();
+
+		Asset asset = anAsset().of(type).in(service);
+
+		new Repository(service).publish(asset, diff);
+
+		verify(publisher).publish(asset, after);
+
+		Publisher<Asset, TableDiff> deltaPublisher = aPublisherFor(type, TableDiff.class);
+		service = aService().with(aProxy().with(publisher, deltaPublisher).get()).get();
+
+		asset = anAsset().of(type).in(service);
+
+		new Repository(service).publish(asset, diff);
+
+		verify(deltaPublisher).publish(asset, diff);
+	}
 	
 
 	@Test
@@ -0,0 +1,69 @@
+package org.virtualrepository.csv;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CsvTokenizerTest {
+
+	@Test
+	public void mappedWindowsMoveAndGrow() throws Exception {
+
+		StringBuilder longField = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			longField.append(i % 10 == 0 ? "\n" : "x");
+
+		String skipped = "skipped,record\n";
+
+		String csv = skipped + "11,12\n21,22\n31,\"" + longField + "\"\n41,42\n51,52";
+
+		Path file = Files.createTempFile("vr", ".csv");
+
+		try {
+
+			Files.write(file, csv.getBytes(UTF_8));
+
+			try (FileChannel channel = FileChannel.open(file, READ)) {
+
+				// windows are much smaller than the long record, and do not align with records
+				CsvTokenizer tokenizer = new CsvTokenizer.Mapped(channel, skipped.length(), ',', '"', UTF_8, 7);
+
+				List<String[]> records = new ArrayList<String[]>();
+				List<Long> offsets = new ArrayList<Long>();
+
+				while (tokenizer.next()) {
+					records.add(tokenizer.values());
+					offsets.add(tokenizer.offset());
+				}
+
+				assertEquals(5, records.size());
+				assertArrayEquals(new String[] { "11", "12" }, records.get(0));
+				assertArrayEquals(new String[] { "21", "22" }, records.get(1));
+				assertArrayEquals(new String[] { "31", longField.toString() }, records.get(2));
+				assertArrayEquals(new String[] { "41", "42" }, records.get(3));
+				assertArrayEquals(new String[] { "51", "52" }, records.get(4));
+
+				// offsets are from the start position, whatever the window
+				String content = csv.substring(skipped.length());
+
+				assertEquals(Long.valueOf(0), offsets.get(0));
+				assertEquals(Long.valueOf(content.indexOf("31,")), offsets.get(2));
+				assertEquals(Long.valueOf(content.indexOf("41,")), offsets.get(3));
+
+				assertTrue(tokenizer.exhausted());
+				assertEquals(content.length(), tokenizer.consumed());
+			}
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+}